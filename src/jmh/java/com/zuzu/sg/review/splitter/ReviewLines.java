@@ -0,0 +1,61 @@
+package com.zuzu.sg.review.splitter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * Generates synthetic review lines for the benchmarks, shaped like the exports of the review providers.
+ * The output is deterministic for a seed, so the runs of two builds split the same bytes.
+ */
+public final class ReviewLines {
+
+    private static final String[] LATIN_WORDS = {"clean", "room", "staff", "friendly", "breakfast", "location", "quiet", "pool",
+            "view", "great", "value", "would", "stay", "again", "the", "was", "and", "very", "a", "small"};
+    private static final String[] UNICODE_WORDS = {"très", "propre", "personnel", "sehr", "freundlich", "schön", "部屋", "きれい",
+            "朝食", "スタッフ", "非常", "干净", "서비스", "좋아요", "отличный", "номер", "جميل", "😀", "👍", "☕"};
+
+    private ReviewLines() {
+    }
+
+    /**
+     * @param lineCount number of lines
+     * @param textBytes approximate size of the review text of each line, the line is about 200 bytes larger
+     * @param unicodePercent share of the lines whose text is mostly non ASCII
+     * @param malformedPercent share of the lines that are cut short, so they are rejected by the validator
+     * @param seed
+     * @return the LF terminated lines
+     */
+    public static byte[] generate(int lineCount, int textBytes, int unicodePercent, int malformedPercent, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        ByteArrayOutputStream lines = new ByteArrayOutputStream(lineCount * (textBytes + 256));
+        StringBuilder line = new StringBuilder(textBytes + 256);
+        for (int i = 0; i < lineCount; i++) {
+            line.setLength(0);
+            line.append("{\"hotelId\":").append(random.nextInt(1, 50_000))
+                    .append(",\"platform\":\"Agoda\",\"hotelName\":\"Hotel ").append(random.nextInt(1, 50_000))
+                    .append("\",\"comment\":{\"hotelReviewId\":").append(random.nextLong(1, Long.MAX_VALUE))
+                    .append(",\"rating\":").append(random.nextInt(1, 11)).append('.').append(random.nextInt(10))
+                    .append(",\"reviewDate\":\"2025-0").append(random.nextInt(1, 10)).append("-1").append(random.nextInt(10))
+                    .append("T10:15:30+07:00\",\"reviewComments\":\"");
+            appendText(line, random, textBytes, random.nextInt(100) < unicodePercent ? UNICODE_WORDS : LATIN_WORDS);
+            line.append("\",\"reviewerInfo\":{\"countryName\":\"Singapore\",\"reviewerReviewedCount\":")
+                    .append(random.nextInt(1, 200)).append(",\"isExpertReviewer\":").append(random.nextBoolean()).append("}}}");
+            byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            int length = random.nextInt(100) < malformedPercent ? bytes.length / 2 : bytes.length;
+            lines.write(bytes, 0, length);
+            lines.write('\n');
+        }
+        return lines.toByteArray();
+    }
+
+    private static void appendText(StringBuilder line, SplittableRandom random, int textBytes, String[] words) {
+        int start = line.length();
+        while (line.length() - start < textBytes) {
+            line.append(words[random.nextInt(words.length)]).append(' ');
+            if (random.nextInt(12) == 0) {
+                line.append("\\\"quoted\\\" ");
+            }
+        }
+    }
+}
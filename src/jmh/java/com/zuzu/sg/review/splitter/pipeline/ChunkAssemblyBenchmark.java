@@ -0,0 +1,63 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import com.zuzu.sg.review.splitter.ReviewLines;
+import com.zuzu.sg.review.splitter.utility.ChunkingPolicy;
+import com.zuzu.sg.review.splitter.validation.ValidationResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts pre-framed, validated batches into 4 MB chunks, reported in lines/s.
+ * Slicing is the source order mode, copying is what the assemblers of a partitioned split do.
+ */
+@State(Scope.Thread)
+public class ChunkAssemblyBenchmark {
+
+    private static final int LINE_COUNT = 50_000;
+
+    @Param({"false", "true"})
+    boolean copyLines;
+
+    private final List<LineBatch> batches = new ArrayList<>();
+    private final ChunkingPolicy chunkingPolicy = ChunkingPolicy.byByteSize(4 * 1024 * 1024);
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] lines = ReviewLines.generate(LINE_COUNT, 200, 10, 0, 42);
+        LineBatchReader reader = new InputStreamLineBatchReader(new ByteArrayInputStream(lines), 0, 1024 * 1024);
+        LineBatch batch;
+        while ((batch = reader.next()) != null) {
+            for (int line = 0; line < batch.lineCount(); line++) {
+                batch.setValidationResult(line, ValidationResult.VALID);
+            }
+            batches.add(batch);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public void assembleChunks(Blackhole blackhole) {
+        int[] chunkNumbers = {0};
+        ChunkAssembler assembler = new ChunkAssembler(chunkingPolicy, (partition, chunkNumber) -> "chunk-" + chunkNumber, 0, copyLines,
+                () -> ++chunkNumbers[0]);
+        for (LineBatch batch : batches) {
+            for (int line = 0; line < batch.lineCount(); line++) {
+                Chunk chunk = assembler.add(batch, line);
+                if (chunk != null) {
+                    blackhole.consume(chunk);
+                }
+            }
+        }
+        blackhole.consume(assembler.finish());
+    }
+}
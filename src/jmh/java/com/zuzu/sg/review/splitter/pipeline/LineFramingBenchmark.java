@@ -0,0 +1,75 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import com.zuzu.sg.review.splitter.ReviewLines;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Line framing of a 16 MB file, from a stream as in streaming mode and from a memory-mapped file as in download mode.
+ * The framed bytes are reported as an extra operations counter, so JMH reports them as bytes/s.
+ */
+@State(Scope.Thread)
+public class LineFramingBenchmark {
+
+    @Param({"1048576"})
+    int batchBytes;
+
+    @Param({"200", "4000"})
+    int textBytes;
+
+    private byte[] lines;
+    private Path file;
+    private FileChannel fileChannel;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class FramedBytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        lines = ReviewLines.generate(16 * 1024 * 1024 / (textBytes + 250), textBytes, 10, 0, 42);
+        file = Files.createTempFile("framing-benchmark", ".jsonl");
+        Files.write(file, lines);
+        fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fileChannel.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void frameStream(FramedBytes framedBytes, Blackhole blackhole) throws IOException {
+        frame(new InputStreamLineBatchReader(new ByteArrayInputStream(lines), 0, batchBytes), framedBytes, blackhole);
+    }
+
+    @Benchmark
+    public void frameMappedFile(FramedBytes framedBytes, Blackhole blackhole) throws IOException {
+        frame(new MappedFileLineBatchReader(fileChannel, 0, fileChannel.size(), batchBytes, Integer.MAX_VALUE), framedBytes, blackhole);
+    }
+
+    private void frame(LineBatchReader reader, FramedBytes framedBytes, Blackhole blackhole) throws IOException {
+        LineBatch batch;
+        while ((batch = reader.next()) != null) {
+            blackhole.consume(batch.lineCount());
+        }
+        framedBytes.bytes += lines.length;
+    }
+}
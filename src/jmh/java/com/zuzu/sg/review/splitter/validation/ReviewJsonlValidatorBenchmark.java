@@ -0,0 +1,63 @@
+package com.zuzu.sg.review.splitter.validation;
+
+import com.zuzu.sg.review.splitter.ReviewLines;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-line validation throughput, reported in lines/s.
+ * Direct buffers stand for the memory-mapped files, whose lines are copied to a scratch array before parsing.
+ */
+@State(Scope.Thread)
+public class ReviewJsonlValidatorBenchmark {
+
+    private static final int LINE_COUNT = 1000;
+
+    @Param({"200", "4000"})
+    int textBytes;
+
+    @Param({"0", "50"})
+    int unicodePercent;
+
+    @Param({"0", "5"})
+    int malformedPercent;
+
+    @Param({"false", "true"})
+    boolean direct;
+
+    private final ReviewJsonlValidator validator = new ReviewJsonlValidator();
+    private ByteBuffer buffer;
+    private int[] lineStarts;
+    private int[] lineLengths;
+
+    @Setup
+    public void setUp() {
+        byte[] lines = ReviewLines.generate(LINE_COUNT, textBytes, unicodePercent, malformedPercent, 42);
+        buffer = direct ? ByteBuffer.allocateDirect(lines.length).put(lines).flip() : ByteBuffer.wrap(lines);
+        List<int[]> offsets = new ArrayList<>();
+        for (int start = 0, end; start < lines.length; start = end + 1) {
+            for (end = start; lines[end] != '\n'; end++) {
+            }
+            offsets.add(new int[]{start, end - start});
+        }
+        lineStarts = offsets.stream().mapToInt(line -> line[0]).toArray();
+        lineLengths = offsets.stream().mapToInt(line -> line[1]).toArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public void validateLines(Blackhole blackhole) {
+        for (int line = 0; line < LINE_COUNT; line++) {
+            blackhole.consume(validator.validate(buffer, lineStarts[line], lineLengths[line]));
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package com.zuzu.sg.review.splitter.loadtest;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-in for the subset of the S3 API the splitter uses: head, ranged and conditional get, put, copy,
+ * delete and the multipart upload and copy calls. Requests are path style and their signatures are not checked.
+ * Objects are kept as files under the given directory, with the MD5 ETags the SDK validates the puts against.
+ */
+public class LocalS3Server implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(LocalS3Server.class);
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final Pattern PART = Pattern.compile("<Part>.*?<PartNumber>(\\d+)</PartNumber>.*?</Part>", Pattern.DOTALL);
+
+    private final Path directory;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, StoredObject> objects = new ConcurrentHashMap<>();
+    private final Map<String, MultipartUpload> uploads = new ConcurrentHashMap<>();
+
+    /**
+     * @param directory holds the objects, the parts of the multipart uploads and the bodies being received
+     */
+    public LocalS3Server(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+        log.info("Local S3 listening on {}", endpoint());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String endpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Moves a file into the store as an object, like an upload to the source bucket
+     * @param bucket
+     * @param key
+     * @param file
+     */
+    public void putFile(String bucket, String key, Path file) throws IOException {
+        MessageDigest md5 = md5();
+        try (InputStream in = Files.newInputStream(file); OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), md5)) {
+            in.transferTo(out);
+        }
+        store(bucket, key, file, HexFormat.of().formatHex(md5.digest()), Map.of("content-type", "application/x-ndjson"));
+    }
+
+    public boolean exists(String bucket, String key) {
+        return objects.containsKey(bucket + "/" + key);
+    }
+
+    /**
+     * @param bucket
+     * @return number and total size of the objects of the bucket
+     */
+    public long[] bucketUsage(String bucket) {
+        long[] usage = new long[2];
+        objects.forEach((name, object) -> {
+            if (name.startsWith(bucket + "/")) {
+                usage[0]++;
+                usage[1] += object.length();
+            }
+        });
+        return usage;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            int slash = path.indexOf('/', 1);
+            if (slash < 0) {
+                sendError(exchange, 501, "NotImplemented", "Bucket operations are not supported");
+                return;
+            }
+            String bucket = path.substring(1, slash);
+            String key = path.substring(slash + 1);
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            Headers headers = exchange.getRequestHeaders();
+            switch (exchange.getRequestMethod()) {
+                case "HEAD", "GET" -> getObject(exchange, bucket, key);
+                case "PUT" -> {
+                    if (headers.containsKey("x-amz-copy-source")) {
+                        copy(exchange, bucket, key, query.get("uploadId"), query.get("partNumber"));
+                    } else {
+                        put(exchange, bucket, key, query.get("uploadId"), query.get("partNumber"));
+                    }
+                }
+                case "POST" -> {
+                    if (query.containsKey("uploads")) {
+                        createMultipartUpload(exchange, bucket, key);
+                    } else if (query.containsKey("uploadId")) {
+                        completeMultipartUpload(exchange, bucket, key, query.get("uploadId"));
+                    } else {
+                        sendError(exchange, 501, "NotImplemented", "Unsupported POST");
+                    }
+                }
+                case "DELETE" -> {
+                    if (query.containsKey("uploadId")) {
+                        MultipartUpload upload = uploads.remove(query.get("uploadId"));
+                        if (upload != null) {
+                            deleteRecursively(upload.directory());
+                        }
+                    } else {
+                        StoredObject removed = objects.remove(bucket + "/" + key);
+                        if (removed != null) {
+                            Files.deleteIfExists(removed.file());
+                        }
+                    }
+                    exchange.sendResponseHeaders(204, -1);
+                }
+                default -> sendError(exchange, 405, "MethodNotAllowed", exchange.getRequestMethod());
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Local S3 failed {} {}: {}", exchange.getRequestMethod(), exchange.getRequestURI(), e.toString());
+            throw e;
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void getObject(HttpExchange exchange, String bucket, String key) throws IOException {
+        boolean head = exchange.getRequestMethod().equals("HEAD");
+        StoredObject object = objects.get(bucket + "/" + key);
+        if (object == null) {
+            sendError(exchange, 404, "NoSuchKey", "The specified key does not exist.");
+            return;
+        }
+        String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+        if (ifMatch != null && !unquote(ifMatch).equals(object.eTag())) {
+            sendError(exchange, 412, "PreconditionFailed", "At least one of the pre-conditions you specified did not hold");
+            return;
+        }
+        long start = 0;
+        long length = object.length();
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null) {
+            long[] bounds = range(range, object.length());
+            start = bounds[0];
+            length = bounds[1] - bounds[0] + 1;
+            status = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + object.length());
+        }
+        Headers responseHeaders = exchange.getResponseHeaders();
+        object.headers().forEach(responseHeaders::set);
+        responseHeaders.set("ETag", quote(object.eTag()));
+        responseHeaders.set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(object.lastModified().atOffset(ZoneOffset.UTC)));
+        responseHeaders.set("Accept-Ranges", "bytes");
+        if (head) {
+            responseHeaders.set("Content-Length", Long.toString(length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        try (FileChannel channel = FileChannel.open(object.file(), StandardOpenOption.READ);
+             InputStream in = Channels.newInputStream(channel.position(start))) {
+            copy(in, exchange.getResponseBody(), length);
+        }
+    }
+
+    private void put(HttpExchange exchange, String bucket, String key, String uploadId, String partNumber) throws IOException {
+        Path body = Files.createTempFile(directory, "body", ".tmp");
+        MessageDigest md5 = md5();
+        try (OutputStream out = new DigestOutputStream(Files.newOutputStream(body), md5)) {
+            InputStream in = exchange.getRequestBody();
+            if (isAwsChunked(exchange.getRequestHeaders())) {
+                decodeAwsChunked(in, out);
+            } else {
+                in.transferTo(out);
+            }
+        }
+        String eTag = HexFormat.of().formatHex(md5.digest());
+        if (uploadId != null) {
+            if (!addPart(exchange, uploadId, partNumber, body, eTag)) {
+                return;
+            }
+        } else {
+            store(bucket, key, body, eTag, objectHeaders(exchange.getRequestHeaders()));
+        }
+        exchange.getResponseHeaders().set("ETag", quote(eTag));
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    /**
+     * CopyObject, or UploadPartCopy when the request belongs to a multipart upload
+     */
+    private void copy(HttpExchange exchange, String bucket, String key, String uploadId, String partNumber) throws IOException {
+        Headers headers = exchange.getRequestHeaders();
+        String copySource = headers.getFirst("x-amz-copy-source");
+        int versionId = copySource.indexOf('?');
+        copySource = URLDecoder.decode(versionId < 0 ? copySource : copySource.substring(0, versionId), StandardCharsets.UTF_8);
+        StoredObject source = objects.get(copySource.startsWith("/") ? copySource.substring(1) : copySource);
+        if (source == null) {
+            sendError(exchange, 404, "NoSuchKey", "The specified key does not exist.");
+            return;
+        }
+        String ifMatch = headers.getFirst("x-amz-copy-source-if-match");
+        if (ifMatch != null && !unquote(ifMatch).equals(source.eTag())) {
+            sendError(exchange, 412, "PreconditionFailed", "At least one of the pre-conditions you specified did not hold");
+            return;
+        }
+        long start = 0;
+        long length = source.length();
+        String range = headers.getFirst("x-amz-copy-source-range");
+        if (range != null) {
+            long[] bounds = range(range, source.length());
+            start = bounds[0];
+            length = bounds[1] - bounds[0] + 1;
+        }
+        Path copy = Files.createTempFile(directory, "copy", ".tmp");
+        MessageDigest md5 = md5();
+        try (FileChannel channel = FileChannel.open(source.file(), StandardOpenOption.READ);
+             InputStream in = Channels.newInputStream(channel.position(start));
+             OutputStream out = new DigestOutputStream(Files.newOutputStream(copy), md5)) {
+            copy(in, out, length);
+        }
+        String eTag = HexFormat.of().formatHex(md5.digest());
+        String result;
+        if (uploadId != null) {
+            if (!addPart(exchange, uploadId, partNumber, copy, eTag)) {
+                return;
+            }
+            result = "CopyPartResult";
+        } else {
+            boolean replace = "REPLACE".equalsIgnoreCase(headers.getFirst("x-amz-metadata-directive"));
+            store(bucket, key, copy, eTag, replace ? objectHeaders(headers) : source.headers());
+            result = "CopyObjectResult";
+        }
+        sendXml(exchange, 200, "<" + result + "><LastModified>" + Instant.now() + "</LastModified><ETag>" + quote(eTag)
+                + "</ETag></" + result + ">");
+    }
+
+    private void createMultipartUpload(HttpExchange exchange, String bucket, String key) throws IOException {
+        exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+        String uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadId, new MultipartUpload(bucket, key, Files.createDirectories(directory.resolve("upload-" + uploadId)),
+                objectHeaders(exchange.getRequestHeaders()), new ConcurrentHashMap<>()));
+        sendXml(exchange, 200, "<InitiateMultipartUploadResult><Bucket>" + bucket + "</Bucket><Key>" + escape(key) + "</Key><UploadId>"
+                + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+    }
+
+    /**
+     * Concatenates the parts listed in the request, the ETag is the MD5 of the part MD5s followed by the part count as in S3
+     */
+    private void completeMultipartUpload(HttpExchange exchange, String bucket, String key, String uploadId) throws IOException {
+        String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        MultipartUpload upload = uploads.remove(uploadId);
+        if (upload == null) {
+            sendError(exchange, 404, "NoSuchUpload", "The specified upload does not exist.");
+            return;
+        }
+        Path object = Files.createTempFile(directory, "object", ".tmp");
+        MessageDigest partDigests = md5();
+        int partCount = 0;
+        try (FileChannel out = FileChannel.open(object, StandardOpenOption.WRITE)) {
+            Matcher part = PART.matcher(request);
+            while (part.find()) {
+                UploadedPart uploadedPart = upload.parts().get(Integer.parseInt(part.group(1)));
+                if (uploadedPart == null) {
+                    uploads.put(uploadId, upload);
+                    sendError(exchange, 400, "InvalidPart", "Part " + part.group(1) + " was not uploaded");
+                    return;
+                }
+                try (FileChannel in = FileChannel.open(uploadedPart.file(), StandardOpenOption.READ)) {
+                    for (long position = 0, size = in.size(); position < size; ) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+                partDigests.update(HexFormat.of().parseHex(uploadedPart.eTag()));
+                partCount++;
+            }
+        }
+        String eTag = HexFormat.of().formatHex(partDigests.digest()) + "-" + partCount;
+        store(bucket, key, object, eTag, upload.headers());
+        deleteRecursively(upload.directory());
+        sendXml(exchange, 200, "<CompleteMultipartUploadResult><Bucket>" + bucket + "</Bucket><Key>" + escape(key) + "</Key><ETag>"
+                + quote(eTag) + "</ETag></CompleteMultipartUploadResult>");
+    }
+
+    /**
+     * @return false if the upload is unknown, an error response has then been sent
+     */
+    private boolean addPart(HttpExchange exchange, String uploadId, String partNumber, Path file, String eTag) throws IOException {
+        MultipartUpload upload = uploads.get(uploadId);
+        if (upload == null) {
+            Files.deleteIfExists(file);
+            sendError(exchange, 404, "NoSuchUpload", "The specified upload does not exist.");
+            return false;
+        }
+        Path part = upload.directory().resolve("part-" + partNumber);
+        Files.move(file, part, StandardCopyOption.REPLACE_EXISTING);
+        upload.parts().put(Integer.parseInt(partNumber), new UploadedPart(part, eTag));
+        return true;
+    }
+
+    private void store(String bucket, String key, Path file, String eTag, Map<String, String> headers) throws IOException {
+        Path objectFile = directory.resolve("object-" + UUID.randomUUID());
+        Files.move(file, objectFile, StandardCopyOption.ATOMIC_MOVE);
+        StoredObject replaced = objects.put(bucket + "/" + key, new StoredObject(objectFile, Files.size(objectFile), eTag, headers, Instant.now()));
+        if (replaced != null) {
+            Files.deleteIfExists(replaced.file());
+        }
+    }
+
+    private static Map<String, String> objectHeaders(Headers requestHeaders) {
+        Map<String, String> headers = new HashMap<>();
+        requestHeaders.forEach((name, values) -> {
+            String lowerCase = name.toLowerCase();
+            if (lowerCase.startsWith("x-amz-meta-") || lowerCase.equals("content-type")
+                    || (lowerCase.equals("content-encoding") && !values.get(0).contains("aws-chunked"))) {
+                headers.put(lowerCase, values.get(0));
+            }
+        });
+        return headers;
+    }
+
+    private static boolean isAwsChunked(Headers headers) {
+        String contentSha256 = headers.getFirst("x-amz-content-sha256");
+        String contentEncoding = headers.getFirst("Content-Encoding");
+        return (contentSha256 != null && contentSha256.startsWith("STREAMING-")) || (contentEncoding != null && contentEncoding.contains("aws-chunked"));
+    }
+
+    /**
+     * Strips the chunk headers and the trailing checksums of an aws-chunked body
+     */
+    private static void decodeAwsChunked(InputStream in, OutputStream out) throws IOException {
+        while (true) {
+            String header = readLine(in);
+            int extension = header.indexOf(';');
+            long chunkSize = Long.parseLong((extension < 0 ? header : header.substring(0, extension)).trim(), 16);
+            if (chunkSize == 0) {
+                in.transferTo(OutputStream.nullOutputStream());
+                return;
+            }
+            copy(in, out, chunkSize);
+            readLine(in);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new IOException("Truncated aws-chunked body");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        for (long remaining = length; remaining > 0; ) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("Unexpected end of stream, " + remaining + " bytes missing");
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    /**
+     * @return first and last byte of a bytes=first-last, bytes=first- or bytes=-suffix range
+     */
+    private static long[] range(String range, long objectLength) {
+        Matcher matcher = RANGE.matcher(range);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Unsupported range " + range);
+        }
+        if (matcher.group(1).isEmpty()) {
+            return new long[]{Math.max(0, objectLength - Long.parseLong(matcher.group(2))), objectLength - 1};
+        }
+        long last = matcher.group(2).isEmpty() ? objectLength - 1 : Math.min(Long.parseLong(matcher.group(2)), objectLength - 1);
+        return new long[]{Long.parseLong(matcher.group(1)), last};
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> query = new LinkedHashMap<>();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                int equals = parameter.indexOf('=');
+                query.put(URLDecoder.decode(equals < 0 ? parameter : parameter.substring(0, equals), StandardCharsets.UTF_8),
+                        equals < 0 ? "" : URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String code, String message) throws IOException {
+        exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            sendXml(exchange, status, "<Error><Code>" + code + "</Code><Message>" + message + "</Message></Error>");
+        }
+    }
+
+    private static void sendXml(HttpExchange exchange, int status, String xml) throws IOException {
+        byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String quote(String eTag) {
+        return "\"" + eTag + "\"";
+    }
+
+    private static String unquote(String eTag) {
+        return eTag.replace("\"", "");
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private record StoredObject(Path file, long length, String eTag, Map<String, String> headers, Instant lastModified) {
+    }
+
+    private record UploadedPart(Path file, String eTag) {
+    }
+
+    private record MultipartUpload(String bucket, String key, Path directory, Map<String, String> headers, Map<Integer, UploadedPart> parts) {
+    }
+}
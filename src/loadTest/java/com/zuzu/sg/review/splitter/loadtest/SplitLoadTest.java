@@ -0,0 +1,227 @@
+package com.zuzu.sg.review.splitter.loadtest;
+
+import com.zuzu.sg.review.splitter.ReviewLines;
+import com.zuzu.sg.review.splitter.ReviewSplitterServiceApplication;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import org.elasticmq.rest.sqs.SQSRestServer;
+import org.elasticmq.rest.sqs.SQSRestServerBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end throughput run of the service against in-process S3 and SQS stand-ins, with no network or AWS account.
+ * A synthetic review file is placed in the source bucket, the service is started with its S3 clients pointed at
+ * {@link LocalS3Server} and its listener at an ElasticMQ queue, and the S3 event of the upload is sent to review-upload-sqs.
+ * The run ends when the split job finishes and reports the end-to-end MB/s, the p99 chunk upload latency and the peak RSS.
+ * The stand-ins share the JVM of the service, so the RSS is an upper bound of what the service alone would use.
+ * <p>
+ * The run is sized with the loadtest.* system properties, the program arguments are passed to the service as
+ * --property=value overrides on top of the defaults below.
+ */
+public class SplitLoadTest {
+    private static final Logger log = LoggerFactory.getLogger(SplitLoadTest.class);
+    private static final String SOURCE_BUCKET = "sg-reviews-uploads-bucket";
+    private static final String DESTINATION_BUCKET = "sg-reviews-reducer-bucket";
+    private static final String FILE_KEY = "load-test-reviews.jsonl";
+    private static final String MANIFEST_KEY = "load-test-reviews-split-manifest.json";
+    private static final int LINES_PER_BLOCK = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        long fileBytes = Long.getLong("loadtest.size-mb", 2048) * 1024 * 1024;
+        int textBytes = Integer.getInteger("loadtest.text-bytes", 400);
+        int unicodePercent = Integer.getInteger("loadtest.unicode-percent", 10);
+        int malformedPercent = Integer.getInteger("loadtest.malformed-percent", 0);
+        long timeoutMinutes = Long.getLong("loadtest.timeout-minutes", 60);
+        Path workDir = Files.createTempDirectory(Path.of(System.getProperty("loadtest.work-dir", System.getProperty("java.io.tmpdir"))),
+                "split-load-test");
+
+        SQSRestServer sqs = null;
+        int exitCode = 1;
+        try (LocalS3Server s3 = new LocalS3Server(workDir.resolve("s3"))) {
+            s3.start();
+            int sqsPort = freePort();
+            sqs = SQSRestServerBuilder.withPort(sqsPort).withInterface("127.0.0.1").start();
+            sqs.waitUntilStarted();
+
+            Path file = workDir.resolve("reviews.jsonl");
+            long generateStart = System.nanoTime();
+            long lineCount = generate(file, fileBytes, textBytes, unicodePercent, malformedPercent);
+            long size = Files.size(file);
+            s3.putFile(SOURCE_BUCKET, FILE_KEY, file);
+            log.info("Generated {} lines, {} MB in {} s", lineCount, size / (1024 * 1024), seconds(System.nanoTime() - generateStart));
+
+            try (ConfigurableApplicationContext context = new SpringApplicationBuilder(ReviewSplitterServiceApplication.class)
+                    .run(serviceArguments(s3.endpoint(), "http://127.0.0.1:" + sqsPort, workDir.resolve("jobs"), args))) {
+                MeterRegistry meterRegistry = context.getBean(MeterRegistry.class);
+                SqsAsyncClient sqsClient = context.getBean(SqsAsyncClient.class);
+                String queueUrl = sqsClient.getQueueUrl(request -> request.queueName("review-upload-sqs")).join().queueUrl();
+
+                long start = System.nanoTime();
+                sqsClient.sendMessage(request -> request.queueUrl(queueUrl).messageBody(uploadEvent(size))).join();
+                Timer job = awaitJob(meterRegistry, TimeUnit.MINUTES.toNanos(timeoutMinutes));
+                long elapsed = System.nanoTime() - start;
+
+                if (job == null) {
+                    log.error("The split did not finish within {} minutes", timeoutMinutes);
+                } else if (!"success".equals(job.getId().getTag("outcome")) || !s3.exists(DESTINATION_BUCKET, MANIFEST_KEY)) {
+                    log.error("The split failed, see the service log above");
+                } else {
+                    report(size, lineCount, elapsed, meterRegistry, s3.bucketUsage(DESTINATION_BUCKET));
+                    exitCode = 0;
+                }
+            }
+        } finally {
+            if (sqs != null) {
+                sqs.stopAndWait();
+            }
+            deleteRecursively(workDir);
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * Writes blocks of synthetic review lines until the file reaches its size, each block with its own seed
+     * @return number of lines written
+     */
+    private static long generate(Path file, long fileBytes, int textBytes, int unicodePercent, int malformedPercent) throws IOException {
+        long lineCount = 0;
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0, seed = 42; written < fileBytes; seed++) {
+                byte[] block = ReviewLines.generate(LINES_PER_BLOCK, textBytes, unicodePercent, malformedPercent, seed);
+                out.write(block);
+                written += block.length;
+                lineCount += LINES_PER_BLOCK;
+            }
+        }
+        return lineCount;
+    }
+
+    /**
+     * Points the service at the stand-ins and splits into 128 MB chunks by default. The program arguments override
+     * the defaults, duplicate command line properties would otherwise be joined into one value by Spring.
+     */
+    private static String[] serviceArguments(String s3Endpoint, String sqsEndpoint, Path jobsDir, String[] args) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("aws.region", "eu-north-1");
+        properties.put("aws.accessKeyId", "load-test");
+        properties.put("aws.secretKey", "load-test");
+        properties.put("aws.s3.endpoint", s3Endpoint);
+        properties.put("spring.cloud.aws.region.static", "eu-north-1");
+        properties.put("spring.cloud.aws.credentials.access-key", "load-test");
+        properties.put("spring.cloud.aws.credentials.secret-key", "load-test");
+        properties.put("spring.cloud.aws.sqs.endpoint", sqsEndpoint);
+        properties.put("split-job-work-dir", jobsDir.toString());
+        properties.put("split-file-chunking-policy", "BYTES");
+        properties.put("split-file-dedup-enabled", "false");
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --property=value, got " + arg);
+            }
+            properties.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return properties.entrySet().stream().map(property -> "--" + property.getKey() + "=" + property.getValue()).toArray(String[]::new);
+    }
+
+    private static String uploadEvent(long size) {
+        return "{\"Records\":[{\"eventVersion\":\"2.1\",\"eventSource\":\"aws:s3\",\"eventName\":\"ObjectCreated:Put\",\"s3\":{"
+                + "\"bucket\":{\"name\":\"" + SOURCE_BUCKET + "\"},\"object\":{\"key\":\"" + FILE_KEY + "\",\"size\":" + size + "}}}]}";
+    }
+
+    /**
+     * @return the job duration timer of the finished split, null on timeout
+     */
+    private static Timer awaitJob(MeterRegistry meterRegistry, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (System.nanoTime() < deadline) {
+            for (Timer timer : meterRegistry.find("splitter.job.duration").timers()) {
+                if (timer.count() > 0) {
+                    return timer;
+                }
+            }
+            Thread.sleep(100);
+        }
+        return null;
+    }
+
+    private static void report(long size, long lineCount, long elapsedNanos, MeterRegistry meterRegistry, long[] destination) {
+        Timer uploads = meterRegistry.find("splitter.chunk.upload").tag("outcome", "success").timer();
+        double megabytes = size / (1024.0 * 1024.0);
+        System.out.printf("%n--- Split load test ---%n");
+        System.out.printf("File            %,.0f MB, %,d lines%n", megabytes, lineCount);
+        System.out.printf("Chunks          %,d objects, %,.0f MB in %s%n", destination[0], destination[1] / (1024.0 * 1024.0), DESTINATION_BUCKET);
+        System.out.printf("End to end      %.1f s, %.1f MB/s%n", seconds(elapsedNanos), megabytes / seconds(elapsedNanos));
+        if (uploads != null && uploads.count() > 0) {
+            System.out.printf("Chunk upload    p99 <= %.0f ms, max %.0f ms over %d uploads%n", p99Millis(uploads.takeSnapshot()),
+                    uploads.max(TimeUnit.MILLISECONDS), uploads.count());
+        }
+        System.out.printf("Peak RSS        %s%n", peakResidentSetSize());
+    }
+
+    /**
+     * @return upper bound of the histogram bucket holding the 99th percentile, at most the maximum
+     */
+    private static double p99Millis(HistogramSnapshot snapshot) {
+        for (CountAtBucket bucket : snapshot.histogramCounts()) {
+            if (bucket.count() >= 0.99 * snapshot.count()) {
+                return Math.min(bucket.bucket(TimeUnit.MILLISECONDS), snapshot.max(TimeUnit.MILLISECONDS));
+            }
+        }
+        return snapshot.max(TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * VmHWM of /proc on Linux, the peak usage of the heap pools elsewhere
+     */
+    private static String peakResidentSetSize() {
+        try (Stream<String> status = Files.lines(Path.of("/proc/self/status"))) {
+            return status.filter(line -> line.startsWith("VmHWM:")).findFirst()
+                    .map(line -> Long.parseLong(line.replaceAll("\\D", "")) / 1024 + " MB")
+                    .orElseThrow(IOException::new);
+        } catch (IOException | RuntimeException e) {
+            List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+            long peakHeap = pools.stream().filter(pool -> pool.getType() == MemoryType.HEAP).mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+            return peakHeap / (1024 * 1024) + " MB peak heap, RSS not available";
+        }
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -1,13 +1,25 @@
 package com.zuzu.sg.review.splitter.config;
 
+import com.zuzu.sg.review.splitter.utility.BlockingIoExecutors;
+import com.zuzu.sg.review.splitter.utility.S3TransferService;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+
+import java.net.URI;
 
 @Configuration
 public class AWSConfig {
@@ -21,15 +33,78 @@ public class AWSConfig {
     @Value("${aws.region}")
     private String region;
 
+    @Value("${aws.s3.endpoint:}")
+    private String endpoint;
+
+    @Value("${split-file-transfer-max-connections:64}")
+    private int maxConnections;
+
+    @Value("${split-file-transfer-max-in-flight:128}")
+    private int maxInFlightRequests;
+
+    @Value("${split-file-transfer-part-size-bytes:8388608}")
+    private long partSizeBytes;
+
+    /**
+     * aws.s3.endpoint points both clients at an S3 compatible store with path style addressing, such as the stand-in of the load test.
+     * In virtual thread mode the blocking client carries the uploads, up to split-file-transfer-max-in-flight requests at once,
+     * next to the ranged downloads and the copies. Its pool has a connection for every upload request on top of the
+     * split-file-transfer-max-connections of the other calls, so no upload waits for a connection. The connections are opened on demand
+     */
     @Bean
     public S3Client s3Client() {
-        AwsCredentials credentials = AwsBasicCredentials.create(accessKey, secretKey);
-        S3Client s3Client = S3Client
+        S3ClientBuilder builder = S3Client
+                .builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentialsProvider())
+                .httpClientBuilder(ApacheHttpClient.builder().maxConnections(maxConnections + maxInFlightRequests));
+        if (!endpoint.isBlank()) {
+            builder.endpointOverride(URI.create(endpoint)).forcePathStyle(true);
+        }
+        return builder.build();
+
+    }
+
+    /**
+     * Non-blocking client for the uploads, large objects are sent as parallel multipart uploads
+     * over at most split-file-transfer-max-connections connections. Its multipart threshold matches the part size
+     * of the transfer service, which uploads the larger chunks in parts itself
+     */
+    @Bean
+    public S3AsyncClient s3AsyncClient() {
+        S3AsyncClientBuilder builder = S3AsyncClient
                 .builder()
                 .region(Region.of(region))
-                .credentialsProvider(StaticCredentialsProvider.create(credentials))
-                .build();
-        return s3Client;
+                .credentialsProvider(credentialsProvider())
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder().maxConcurrency(maxConnections))
+                .multipartEnabled(true)
+                .multipartConfiguration(multipart -> multipart.thresholdInBytes(partSizeBytes).minimumPartSizeInBytes(partSizeBytes));
+        if (!endpoint.isBlank()) {
+            builder.endpointOverride(URI.create(endpoint)).forcePathStyle(true);
+        }
+        return builder.build();
+    }
+
+    @Bean
+    public S3TransferManager s3TransferManager(S3AsyncClient s3AsyncClient) {
+        return S3TransferManager.builder().s3Client(s3AsyncClient).build();
+    }
 
+    @Bean
+    public S3TransferService s3TransferService(S3TransferManager s3TransferManager, S3AsyncClient s3AsyncClient, S3Client s3Client,
+                                               BlockingIoExecutors blockingIoExecutors) {
+        return new S3TransferService(s3TransferManager, s3AsyncClient, s3Client, blockingIoExecutors, maxInFlightRequests, partSizeBytes);
+    }
+
+    /**
+     * The keys of aws.accessKeyId and aws.secretKey, or the default provider chain when they are empty, such as the
+     * execution role of the Lambda handler. The chain resolves and refreshes its credentials on first use, not here
+     */
+    private AwsCredentialsProvider credentialsProvider() {
+        if (accessKey.isBlank()) {
+            return DefaultCredentialsProvider.builder().build();
+        }
+        AwsCredentials credentials = AwsBasicCredentials.create(accessKey, secretKey);
+        return StaticCredentialsProvider.create(credentials);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,27 @@
+package com.zuzu.sg.review.splitter.config;
+
+import io.awspring.cloud.sqs.config.SqsMessageListenerContainerFactory;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * With split-sqs-listener-enabled=false the containers of the @SqsListener methods are created but never started,
+ * as in the Lambda handler, which is handed its S3 events by Lambda instead of polling review-upload-sqs.
+ * A runtime switch rather than a condition, so the bean definitions generated ahead of time fit both modes
+ */
+@Configuration
+public class SqsConfig {
+
+    @Autowired
+    SqsMessageListenerContainerFactory<Object> defaultSqsListenerContainerFactory;
+
+    @Value("${split-sqs-listener-enabled:true}")
+    private boolean listenerEnabled;
+
+    @PostConstruct
+    void init() {
+        defaultSqsListenerContainerFactory.configure(options -> options.autoStartup(listenerEnabled));
+    }
+}
@@ -0,0 +1,100 @@
+package com.zuzu.sg.review.splitter.dedup;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter over the 64 bit review hashes, backed by a primitive long array of a power of two bits.
+ * The probe positions are derived from the hash by double hashing, so no further hashing of the line is needed.
+ * Not thread-safe.
+ */
+final class BloomFilter {
+
+    private static final int MAX_WORDS = 1 << 27; //1 GB, so the serialized filter fits in one array
+    private static final int MAX_HASH_FUNCTIONS = 16;
+
+    private final long[] words;
+    private final long bitMask;
+    private final int hashFunctions;
+
+    private BloomFilter(long[] words, int hashFunctions) {
+        this.words = words;
+        this.bitMask = words.length * 64L - 1;
+        this.hashFunctions = hashFunctions;
+    }
+
+    /**
+     * @param bytes memory budget of the filter, rounded down to a power of two
+     * @param expectedInsertions number of hashes the filter is sized for, sets the number of probes
+     */
+    static BloomFilter sized(long bytes, long expectedInsertions) {
+        int words = wordsFor(bytes);
+        return new BloomFilter(new long[words], hashFunctionsFor(words * 64L, expectedInsertions));
+    }
+
+    private static int wordsFor(long bytes) {
+        return (int) Math.min(MAX_WORDS, Long.highestOneBit(Math.max(1, bytes / 8)));
+    }
+
+    private static int hashFunctionsFor(long bits, long expectedInsertions) {
+        if (expectedInsertions <= 0) {
+            return 1;
+        }
+        long optimal = Math.round((double) bits / expectedInsertions * Math.log(2));
+        return (int) Math.max(1, Math.min(MAX_HASH_FUNCTIONS, optimal));
+    }
+
+    boolean mightContain(long hash) {
+        long step = probeStep(hash);
+        long probe = hash;
+        for (int i = 0; i < hashFunctions; i++, probe += step) {
+            long bit = probe & bitMask;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void put(long hash) {
+        long step = probeStep(hash);
+        long probe = hash;
+        for (int i = 0; i < hashFunctions; i++, probe += step) {
+            long bit = probe & bitMask;
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return true if the filter has the size and probes of a filter created by sized(bytes, expectedInsertions)
+     */
+    boolean isSized(long bytes, long expectedInsertions) {
+        return words.length == wordsFor(bytes) && hashFunctions == hashFunctionsFor(words.length * 64L, expectedInsertions);
+    }
+
+    /**
+     * Adds the hashes of a filter of the same size, used to combine the state saved by other instances
+     */
+    void merge(BloomFilter other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= other.words[i];
+        }
+    }
+
+    byte[] toBytes() {
+        ByteBuffer bytes = ByteBuffer.allocate(8 + words.length * 8).putInt(hashFunctions).putInt(words.length);
+        bytes.asLongBuffer().put(words);
+        return bytes.array();
+    }
+
+    static BloomFilter fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int hashFunctions = buffer.getInt();
+        long[] words = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(words);
+        return new BloomFilter(words, hashFunctions);
+    }
+
+    private static long probeStep(long hash) {
+        return Long.rotateLeft(hash, 32) * 0x9E3779B97F4A7C15L | 1; //odd, so the probes of one hash never repeat
+    }
+}
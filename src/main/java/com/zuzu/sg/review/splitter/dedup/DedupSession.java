@@ -0,0 +1,168 @@
+package com.zuzu.sg.review.splitter.dedup;
+
+import com.zuzu.sg.review.splitter.pipeline.LineDeduplicator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Deduplicates the lines of one split. The segments of a ranged split share one exact pending set, so a review
+ * repeated in two segments is kept once, in the segment that reaches it first; each segment still keeps the first copy
+ * of a review within its own lines.
+ * The hashes of the kept lines are held in the pending set only until the progress saved for their segment covers
+ * them, then they are recorded in the shared state, so the memory of a split does not grow with the file and a
+ * resumed split still drops the repeats of the lines committed before it stopped. A line that is not committed yet is
+ * not recorded, so a retry does not drop its own lines as duplicates: a copy dropped for a pending line of another
+ * segment that then fails is read again by the resumed segment and kept.
+ * A split with several segments, or one that cannot resume, also records its hashes tagged with the file and with the
+ * split. A review recorded only by the same file is then not taken for a review of an earlier file, while every segment
+ * drops the repeats of the lines committed by any segment of the split. A split that cannot resume gets a new split tag
+ * on every attempt, so a retry from the start does not drop the lines of the failed attempt.
+ */
+public class DedupSession {
+
+    private final ReviewDeduplicator deduplicator;
+    private final boolean resumable;
+    private final Tags tags;
+    private final LongHashSet pendingHashes = new LongHashSet(1024);
+    private final List<Segment> segments = new ArrayList<>();
+
+    /**
+     * @param deduplicator
+     * @param sourceKey
+     * @param eTag version of the file, the tags of a new version do not match the lines of the earlier one
+     * @param segmentCount
+     * @param resumable false when a retry splits the file from the start, its lines are then recorded as they are kept
+     */
+    DedupSession(ReviewDeduplicator deduplicator, String sourceKey, String eTag, int segmentCount, boolean resumable) {
+        this.deduplicator = deduplicator;
+        UUID fileId = UUID.nameUUIDFromBytes((sourceKey + "\n" + eTag).getBytes(StandardCharsets.UTF_8));
+        long fileTag = fileId.getMostSignificantBits() ^ fileId.getLeastSignificantBits();
+        this.resumable = resumable;
+        long attemptTag = resumable ? 0 : ThreadLocalRandom.current().nextLong(); // a retry does not see the lines of the failed attempt
+        this.tags = segmentCount > 1 || !resumable ? new Tags(fileTag, ReviewDeduplicator.tagged(fileTag ^ attemptTag, 1)) : null;
+    }
+
+    /**
+     * @param committedOffset position up to which the progress of the segment is saved, a resumed split starts from there
+     * @return the deduplicator of the lines of a segment
+     */
+    public synchronized LineDeduplicator segment(LongSupplier committedOffset) {
+        Segment segmentDeduplicator = new Segment(resumable ? committedOffset : () -> Long.MAX_VALUE);
+        segments.add(segmentDeduplicator);
+        return segmentDeduplicator;
+    }
+
+    /**
+     * @return number of lines dropped so far
+     */
+    public synchronized long getDuplicateCount() {
+        return segments.stream().mapToLong(Segment::getDuplicateCount).sum();
+    }
+
+    /**
+     * Records the lines of the completed split that are still pending, later files drop them as duplicates
+     */
+    public synchronized void complete() {
+        segments.forEach(segment -> segment.commit(Long.MAX_VALUE));
+    }
+
+    /**
+     * Tags the hashes of a split are recorded with next to their plain hash
+     * @param file tag of the file version
+     * @param split tag of the split, and of the attempt when the split cannot resume
+     */
+    record Tags(long file, long split) {
+    }
+
+    /**
+     * Deduplicates the lines of a segment under the lock of the session, so the lookup in the shared state and in the
+     * pending set of the other segments is not raced by a segment recording its lines in between
+     */
+    private final class Segment implements LineDeduplicator {
+
+        private final LongSupplier committedOffset;
+        private long[] pendingLines = new long[1024];
+        private long[] pendingOffsets = new long[1024];
+        private int pendingStart;
+        private int pendingEnd;
+        private long duplicateCount;
+
+        private Segment(LongSupplier committedOffset) {
+            this.committedOffset = committedOffset;
+        }
+
+        @Override
+        public long hash(ByteBuffer buffer, int offset, int length) {
+            return deduplicator.hash(buffer, offset, length);
+        }
+
+        @Override
+        public void findDuplicates(long[] hashes, long[] lineOffsets, int count, boolean[] duplicates) {
+            synchronized (DedupSession.this) {
+                commit(committedOffset.getAsLong());
+                deduplicator.findSeen(hashes, count, tags, duplicates);
+                for (int line = 0; line < count; line++) {
+                    if (hashes[line] == 0) {
+                        continue;
+                    }
+                    if (duplicates[line] || !pendingHashes.add(hashes[line])) {
+                        duplicates[line] = true;
+                        duplicateCount++;
+                    } else {
+                        addPending(hashes[line], lineOffsets[line]);
+                    }
+                }
+                if (!resumable) {
+                    commit(Long.MAX_VALUE);
+                }
+            }
+        }
+
+        private long getDuplicateCount() {
+            return duplicateCount;
+        }
+
+        /**
+         * Records the pending lines of the segment before the offset in the shared state
+         * @param offset
+         */
+        private void commit(long offset) {
+            int end = pendingStart;
+            while (end < pendingEnd && pendingOffsets[end] < offset) {
+                pendingHashes.remove(pendingLines[end]);
+                end++;
+            }
+            if (end > pendingStart) {
+                deduplicator.record(pendingLines, pendingStart, end, tags);
+            }
+            pendingStart = end;
+            if (pendingStart == pendingEnd) {
+                pendingStart = 0;
+                pendingEnd = 0;
+            }
+        }
+
+        private void addPending(long hash, long offset) {
+            if (pendingEnd == pendingLines.length) {
+                int pendingCount = pendingEnd - pendingStart;
+                long[] lines = pendingCount * 2 > pendingLines.length ? new long[pendingLines.length * 2] : pendingLines;
+                long[] offsets = lines != pendingLines ? new long[lines.length] : pendingOffsets;
+                System.arraycopy(pendingLines, pendingStart, lines, 0, pendingCount);
+                System.arraycopy(pendingOffsets, pendingStart, offsets, 0, pendingCount);
+                pendingLines = lines;
+                pendingOffsets = offsets;
+                pendingStart = 0;
+                pendingEnd = pendingCount;
+            }
+            pendingLines[pendingEnd] = hash;
+            pendingOffsets[pendingEnd] = offset;
+            pendingEnd++;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.zuzu.sg.review.splitter.dedup;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Open addressing set of primitive long hashes, 8 bytes per slot and no boxing.
+ * 0 marks an empty slot, the review hashes are never 0. Not thread-safe.
+ */
+final class LongHashSet {
+
+    private static final long EMPTY = 0;
+
+    private long[] slots;
+    private int mask;
+    private int size;
+
+    /**
+     * @param expectedSize number of hashes held without growing the table
+     */
+    LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize) * 2 - 1) << 1; //load factor of at most 0.5
+        slots = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return true if the hash was not in the set yet
+     */
+    boolean add(long hash) {
+        if ((size + 1) * 2 > slots.length) {
+            grow();
+        }
+        int slot = slot(hash);
+        while (slots[slot] != EMPTY) {
+            if (slots[slot] == hash) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = hash;
+        size++;
+        return true;
+    }
+
+    boolean contains(long hash) {
+        int slot = slot(hash);
+        while (slots[slot] != EMPTY) {
+            if (slots[slot] == hash) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Removes the hash and shifts the following entries of its probe run back, so no tombstones are left behind
+     */
+    boolean remove(long hash) {
+        int hole = slot(hash);
+        while (slots[hole] != hash) {
+            if (slots[hole] == EMPTY) {
+                return false;
+            }
+            hole = (hole + 1) & mask;
+        }
+        for (int next = (hole + 1) & mask; slots[next] != EMPTY; next = (next + 1) & mask) {
+            int home = slot(slots[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) { //the hole lies on the probe path of the entry
+                slots[hole] = slots[next];
+                hole = next;
+            }
+        }
+        slots[hole] = EMPTY;
+        size--;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void forEach(LongConsumer consumer) {
+        for (long hash : slots) {
+            if (hash != EMPTY) {
+                consumer.accept(hash);
+            }
+        }
+    }
+
+    private int slot(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] previousSlots = slots;
+        slots = new long[previousSlots.length * 2];
+        mask = slots.length - 1;
+        size = 0;
+        for (long hash : previousSlots) {
+            if (hash != EMPTY) {
+                add(hash);
+            }
+        }
+    }
+}
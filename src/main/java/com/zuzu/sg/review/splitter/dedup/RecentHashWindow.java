@@ -0,0 +1,62 @@
+package com.zuzu.sg.review.splitter.dedup;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Exact set of the last split-file-dedup-recent-window-size review hashes. The oldest hash is evicted
+ * as a new one is added, so the window keeps a fixed size of about 24 bytes per hash. Not thread-safe.
+ */
+final class RecentHashWindow {
+
+    private final long[] ring;
+    private final LongHashSet hashes;
+    private int next;
+    private int count;
+
+    RecentHashWindow(int capacity) {
+        ring = new long[Math.max(1, capacity)];
+        hashes = new LongHashSet(ring.length);
+    }
+
+    boolean contains(long hash) {
+        return hashes.contains(hash);
+    }
+
+    void add(long hash) {
+        if (!hashes.add(hash)) {
+            return;
+        }
+        if (count == ring.length) {
+            hashes.remove(ring[next]);
+        } else {
+            count++;
+        }
+        ring[next] = hash;
+        next = (next + 1) % ring.length;
+    }
+
+    /**
+     * @return the hashes from the oldest to the newest
+     */
+    byte[] toBytes() {
+        ByteBuffer bytes = ByteBuffer.allocate(4 + count * 8).putInt(count);
+        for (int i = 0, slot = (next - count + ring.length) % ring.length; i < count; i++, slot = (slot + 1) % ring.length) {
+            bytes.putLong(ring[slot]);
+        }
+        return bytes.array();
+    }
+
+    /**
+     * @param capacity
+     * @param bytes hashes saved by toBytes, only the newest ones are kept if the window got smaller
+     */
+    static RecentHashWindow fromBytes(int capacity, byte[] bytes) {
+        RecentHashWindow window = new RecentHashWindow(capacity);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int savedCount = buffer.getInt();
+        for (int i = 0; i < savedCount; i++) {
+            window.add(buffer.getLong());
+        }
+        return window;
+    }
+}
@@ -0,0 +1,300 @@
+package com.zuzu.sg.review.splitter.dedup;
+
+import com.zuzu.sg.review.splitter.utility.JsonKeyHasher;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Drops the reviews already split from an earlier file, within a rolling window of split-file-dedup-window-hours.
+ * The hashes of the split reviews are kept in a fixed memory budget: two Bloom filter generations, each covering half
+ * of the window, answer for the whole window at a small false positive rate, and an exact set of the most recent
+ * hashes keeps the latest reviews covered when a generation is dropped. The state is saved to S3 periodically and
+ * on shutdown and loaded on startup; a save merges the generation stored by other instances, so they converge.
+ * The reviews of a ranged split, or of a split that cannot resume, also take two tagged entries in the generation.
+ */
+@Component
+public class ReviewDeduplicator {
+
+    private static final Logger log = LoggerFactory.getLogger(ReviewDeduplicator.class);
+
+    @Autowired
+    S3Client s3Client;
+
+    @Value("${split-file-dedup-enabled:false}")
+    private boolean dedupEnabled;
+
+    @Value("${split-file-dedup-key-field:}")
+    private String keyField;
+
+    @Value("${split-file-dedup-window-hours:168}")
+    private long windowHours;
+
+    @Value("${split-file-dedup-bloom-bytes:268435456}")
+    private long bloomBytes;
+
+    @Value("${split-file-dedup-expected-reviews:100000000}")
+    private long expectedReviews;
+
+    @Value("${split-file-dedup-recent-window-size:1000000}")
+    private int recentWindowSize;
+
+    @Value("${split-file-dedup-save-interval-seconds:300}")
+    private long saveIntervalSeconds;
+
+    @Value("${aws.s3.dedup-bucket-name:}")
+    private String dedupBucketName;
+
+    @Value("${split-file-dedup-prefix:split-dedup/}")
+    private String dedupPrefix;
+
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private JsonKeyHasher keyHasher;
+    private BloomFilter currentGeneration;
+    private BloomFilter previousGeneration;
+    private long currentEpoch;
+    private RecentHashWindow recentHashes;
+    private boolean dirty;
+    private ScheduledExecutorService stateWriter;
+
+    @PostConstruct
+    void init() {
+        if (!dedupEnabled) {
+            return;
+        }
+        if (dedupBucketName.isBlank()) {
+            // a lifecycle rule of a shared bucket would expire the state and let the repeats through unnoticed
+            throw new IllegalStateException("aws.s3.dedup-bucket-name must be set when split-file-dedup-enabled is on");
+        }
+        keyHasher = new JsonKeyHasher(keyField);
+        currentEpoch = epochAt(System.currentTimeMillis());
+        currentGeneration = loadGeneration(currentEpoch);
+        previousGeneration = loadGeneration(currentEpoch - 1);
+        if (currentGeneration == null) {
+            currentGeneration = newGeneration();
+        }
+        recentHashes = loadRecentHashes();
+        stateWriter = Executors.newSingleThreadScheduledExecutor();
+        stateWriter.scheduleWithFixedDelay(this::saveState, saveIntervalSeconds, saveIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (stateWriter != null) {
+            stateWriter.shutdown();
+            saveState();
+        }
+    }
+
+    /**
+     * @param sourceKey
+     * @param eTag
+     * @param segmentCount number of segments the file is split in
+     * @param resumable true when a retry resumes from the saved progress of the split
+     * @return the dedup session of a split, null when split-file-dedup-enabled is off
+     */
+    public DedupSession open(String sourceKey, String eTag, int segmentCount, boolean resumable) {
+        return dedupEnabled ? new DedupSession(this, sourceKey, eTag, segmentCount, resumable) : null;
+    }
+
+    public boolean isEnabled() {
+        return dedupEnabled;
+    }
+
+    public String getKeyField() {
+        return keyField;
+    }
+
+    long hash(ByteBuffer buffer, int offset, int length) {
+        return keyHasher.hash(buffer, offset, length);
+    }
+
+    /**
+     * Looks the hashes of a batch up under a single lock acquisition
+     * @param hashes
+     * @param count
+     * @param tags tags of the split, null when the split only records the plain hashes
+     * @param seen set to true for the hashes recorded by earlier files, and by any segment of the same tagged split
+     */
+    void findSeen(long[] hashes, int count, DedupSession.Tags tags, boolean[] seen) {
+        stateLock.readLock().lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                long hash = hashes[i];
+                if (hash == 0) {
+                    seen[i] = false;
+                    continue;
+                }
+                boolean recorded = recentHashes.contains(hash) || mightContain(hash);
+                seen[i] = tags == null ? recorded
+                        : mightContain(tagged(hash, tags.split())) || recorded && !mightContain(tagged(hash, tags.file()));
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param hashes
+     * @param from index of the first hash to record
+     * @param to index after the last hash to record
+     * @param tags tags to record the hashes with as well, null for the plain hashes only
+     */
+    void record(long[] hashes, int from, int to, DedupSession.Tags tags) {
+        stateLock.writeLock().lock();
+        try {
+            rotateGenerations();
+            for (int i = from; i < to; i++) {
+                currentGeneration.put(hashes[i]);
+                recentHashes.add(hashes[i]);
+                if (tags != null) {
+                    currentGeneration.put(tagged(hashes[i], tags.file()));
+                    currentGeneration.put(tagged(hashes[i], tags.split()));
+                }
+            }
+            dirty = true;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Mixes a tag into a hash, so a tagged hash is unrelated to the plain one and to the hash under any other tag
+     * @param hash
+     * @param tag
+     * @return the tagged hash
+     */
+    static long tagged(long hash, long tag) {
+        long mixed = hash ^ tag * 0x9E3779B97F4A7C15L;
+        mixed = (mixed ^ mixed >>> 33) * 0xFF51AFD7ED558CCDL;
+        mixed = (mixed ^ mixed >>> 33) * 0xC4CEB9FE1A85EC53L;
+        return mixed ^ mixed >>> 33;
+    }
+
+    private boolean mightContain(long hash) {
+        return currentGeneration.mightContain(hash) || previousGeneration != null && previousGeneration.mightContain(hash);
+    }
+
+    /**
+     * Writes the current generation and the recent hashes to S3 when they changed since the last save.
+     * The stored generation is merged in first, so the reviews recorded by the other instances are kept.
+     */
+    synchronized void saveState() {
+        long epoch;
+        stateLock.writeLock().lock();
+        try {
+            rotateGenerations();
+            if (!dirty) {
+                return;
+            }
+            epoch = currentEpoch;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+
+        BloomFilter storedGeneration = loadGeneration(epoch);
+        byte[] generationBytes;
+        byte[] recentBytes;
+        stateLock.writeLock().lock();
+        try {
+            if (storedGeneration != null && epoch == currentEpoch) {
+                currentGeneration.merge(storedGeneration);
+            }
+            generationBytes = currentGeneration.toBytes();
+            recentBytes = recentHashes.toBytes();
+            dirty = false;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+
+        try {
+            s3Client.putObject(request -> request.bucket(dedupBucketName).key(generationKey(epoch)), RequestBody.fromBytes(generationBytes));
+            s3Client.putObject(request -> request.bucket(dedupBucketName).key(recentHashesKey()), RequestBody.fromBytes(recentBytes));
+            s3Client.deleteObject(request -> request.bucket(dedupBucketName).key(generationKey(epoch - 2)));
+            log.info("Saved the review dedup state of generation {}", epoch);
+        } catch (SdkException e) {
+            log.warn("Failed to save the review dedup state, retrying on the next save: {}", e.getMessage());
+            stateLock.writeLock().lock();
+            try {
+                dirty = true;
+            } finally {
+                stateLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Starts a new generation once the current one has covered half of the window; the generation before is dropped
+     */
+    private void rotateGenerations() {
+        long epoch = epochAt(System.currentTimeMillis());
+        if (epoch == currentEpoch) {
+            return;
+        }
+        previousGeneration = epoch == currentEpoch + 1 ? currentGeneration : null;
+        currentGeneration = newGeneration();
+        currentEpoch = epoch;
+        dirty = true;
+    }
+
+    private long epochAt(long millis) {
+        return millis / Math.max(1, Duration.ofHours(windowHours).toMillis() / 2);
+    }
+
+    private BloomFilter newGeneration() {
+        return BloomFilter.sized(bloomBytes / 2, expectedReviews / 2);
+    }
+
+    private BloomFilter loadGeneration(long epoch) {
+        byte[] bytes = loadObject(generationKey(epoch));
+        if (bytes == null) {
+            return null;
+        }
+        BloomFilter generation = BloomFilter.fromBytes(bytes);
+        if (!generation.isSized(bloomBytes / 2, expectedReviews / 2)) {
+            log.info("Discarding dedup generation {}, split-file-dedup-bloom-bytes or split-file-dedup-expected-reviews changed", epoch);
+            return null;
+        }
+        return generation;
+    }
+
+    private RecentHashWindow loadRecentHashes() {
+        byte[] bytes = loadObject(recentHashesKey());
+        return bytes != null ? RecentHashWindow.fromBytes(recentWindowSize, bytes) : new RecentHashWindow(recentWindowSize);
+    }
+
+    private byte[] loadObject(String key) {
+        try {
+            return s3Client.getObjectAsBytes(request -> request.bucket(dedupBucketName).key(key)).asByteArray();
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (SdkException e) {
+            log.warn("Failed to read the review dedup state {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private String generationKey(long epoch) {
+        return dedupPrefix + "bloom-" + epoch + ".bin";
+    }
+
+    private String recentHashesKey() {
+        return dedupPrefix + "recent.bin";
+    }
+}
@@ -0,0 +1,10 @@
+package com.zuzu.sg.review.splitter.exception;
+
+/**
+ * A split aborted because too many lines of the file were rejected by the validator
+ */
+public class ErrorBudgetExceededException extends S3FileProcessingException {
+    public ErrorBudgetExceededException(String message) {
+        super(message, null);
+    }
+}
@@ -0,0 +1,58 @@
+package com.zuzu.sg.review.splitter.format;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.zuzu.sg.review.splitter.pipeline.LineEncoder;
+import com.zuzu.sg.review.splitter.pipeline.LineRecords;
+import com.zuzu.sg.review.splitter.validation.ReviewJsonlValidator;
+import com.zuzu.sg.review.splitter.validation.ValidationResult;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Re-encodes the reviews into the binary split-file-output-format while they are validated: the tokens the validator
+ * reads are copied straight to a Smile or CBOR generator, so no line is parsed twice and no tree is built.
+ * The reducers read the records back with ChunkRecordReader.
+ */
+@Component
+public class ChunkRecordEncoder implements LineEncoder {
+
+    @Autowired
+    ReviewJsonlValidator reviewJsonlValidator;
+
+    @Value("${split-file-output-format:JSONL}")
+    private RecordFormat outputFormat = RecordFormat.JSONL;
+
+    private JsonFactory recordFactory; // thread-safe, shared by the validator workers
+
+    @PostConstruct
+    void init() {
+        recordFactory = outputFormat.newFactory();
+    }
+
+    /**
+     * @return true when split-file-output-format is a binary format
+     */
+    public boolean isEnabled() {
+        return outputFormat.isBinary();
+    }
+
+    public RecordFormat getOutputFormat() {
+        return outputFormat;
+    }
+
+    @Override
+    public ValidationResult encode(ByteBuffer buffer, int offset, int length, LineRecords records) {
+        int recordStart = records.startRecord();
+        ValidationResult validationResult = reviewJsonlValidator.transcode(buffer, offset, length, recordFactory, records);
+        if (validationResult.isValid()) {
+            records.endRecord(recordStart);
+        } else {
+            records.discardRecord(recordStart);
+        }
+        return validationResult;
+    }
+}
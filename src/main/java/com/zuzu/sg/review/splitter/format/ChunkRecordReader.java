@@ -0,0 +1,118 @@
+package com.zuzu.sg.review.splitter.format;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the reviews of one chunk for the reducers, whatever the format recorded in the chunk manifest.
+ * Depends on Jackson only, and is packaged on its own by the recordReaderJar task.
+ * The stream must already be decompressed when the manifest codec is not NONE. Not thread-safe.
+ * <pre>
+ * try (ChunkRecordReader reader = new ChunkRecordReader(chunkStream, RecordFormat.valueOf(manifest.format()))) {
+ *     Review review;
+ *     while ((review = reader.nextValue(objectMapper.readerFor(Review.class))) != null) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class ChunkRecordReader implements Closeable {
+
+    private final InputStream inputStream;
+    private final RecordFormat format;
+    private final JsonFactory recordFactory;
+    private final byte[] lengthPrefix = new byte[4];
+    private JsonParser lineParser; // JSONL chunks are one parser over the whole stream
+    private JsonParser recordParser;
+    private byte[] record = new byte[8192];
+
+    /**
+     * @param inputStream the content of the chunk
+     * @param format the format of the chunk manifest
+     */
+    public ChunkRecordReader(InputStream inputStream, RecordFormat format) {
+        this.inputStream = inputStream;
+        this.format = format;
+        this.recordFactory = format.newFactory();
+    }
+
+    /**
+     * @return a parser over the next review, positioned on its first token, or null at the end of the chunk.
+     * The parser is only valid until the next call, a review that was not read, or read partly, is skipped
+     */
+    public JsonParser nextRecord() throws IOException {
+        if (!format.isBinary()) {
+            if (lineParser == null) {
+                lineParser = recordFactory.createParser(inputStream);
+            }
+            while (lineParser.currentToken() != null && !lineParser.getParsingContext().inRoot()) { // a review read partly or not at all
+                lineParser.skipChildren();
+                if (!lineParser.getParsingContext().inRoot()) {
+                    lineParser.nextToken();
+                }
+            }
+            return lineParser.nextToken() != null ? lineParser : null;
+        }
+        closeRecordParser();
+        int length = readRecordLength();
+        if (length < 0) {
+            return null;
+        }
+        if (record.length < length) {
+            record = new byte[Math.max(length, record.length * 2)];
+        }
+        if (inputStream.readNBytes(record, 0, length) < length) {
+            throw new EOFException("Chunk ends in the middle of a record");
+        }
+        recordParser = recordFactory.createParser(record, 0, length);
+        if (recordParser.nextToken() == null) {
+            throw new EOFException("Empty record");
+        }
+        return recordParser;
+    }
+
+    /**
+     * @param valueReader reads the review into the type the reducer works on
+     * @return the next review, or null at the end of the chunk
+     */
+    public <T> T nextValue(ObjectReader valueReader) throws IOException {
+        JsonParser parser = nextRecord();
+        return parser != null ? valueReader.readValue(parser) : null;
+    }
+
+    /**
+     * @return the length of the next record, -1 at the end of the chunk
+     */
+    private int readRecordLength() throws IOException {
+        int read = inputStream.readNBytes(lengthPrefix, 0, lengthPrefix.length);
+        if (read == 0) {
+            return -1;
+        }
+        if (read < lengthPrefix.length) {
+            throw new EOFException("Chunk ends in the middle of a record length");
+        }
+        return (lengthPrefix[0] & 0xFF) << 24 | (lengthPrefix[1] & 0xFF) << 16 | (lengthPrefix[2] & 0xFF) << 8 | (lengthPrefix[3] & 0xFF);
+    }
+
+    private void closeRecordParser() throws IOException {
+        if (recordParser != null) {
+            recordParser.close(); // returns its buffers to the factory
+            recordParser = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeRecordParser();
+        if (lineParser != null) {
+            lineParser.close();
+        }
+        inputStream.close();
+    }
+}
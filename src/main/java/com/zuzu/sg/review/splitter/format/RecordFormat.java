@@ -0,0 +1,53 @@
+package com.zuzu.sg.review.splitter.format;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Format of the reviews in the chunks, selected with split-file-output-format and recorded in the chunk manifest.
+ * JSONL chunks hold the source lines as they are. In the binary formats every review is a complete Smile or CBOR
+ * document of its own, prefixed with its length as a 4 byte big-endian int, so a reducer can skip or hand out
+ * records without decoding them.
+ */
+public enum RecordFormat {
+
+    JSONL(null, "application/jsonl"),
+    SMILE(".smile", "application/x-jackson-smile"),
+    CBOR(".cbor", "application/cbor");
+
+    private final String extension;
+    private final String contentType;
+
+    RecordFormat(String extension, String contentType) {
+        this.extension = extension;
+        this.contentType = contentType;
+    }
+
+    /**
+     * @return the extension of the chunk keys, null for JSONL whose chunks keep the extension of the source file
+     */
+    public String extension() {
+        return extension;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    public boolean isBinary() {
+        return this != JSONL;
+    }
+
+    /**
+     * @return a new factory of the format. Smile documents start with their header, so each record can be
+     * parsed on its own by any Smile parser
+     */
+    public JsonFactory newFactory() {
+        return switch (this) {
+            case JSONL -> new JsonFactory();
+            case SMILE -> new SmileFactory(); // writes and requires the header by default
+            case CBOR -> new CBORFactory();
+        };
+    }
+}
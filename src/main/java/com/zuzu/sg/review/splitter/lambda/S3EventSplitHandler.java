@@ -0,0 +1,79 @@
+package com.zuzu.sg.review.splitter.lambda;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.S3Event;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import com.zuzu.sg.review.splitter.ReviewSplitterServiceApplication;
+import com.zuzu.sg.review.splitter.exception.S3FileProcessingException;
+import com.zuzu.sg.review.splitter.utility.SplitJobScheduler;
+import com.zuzu.sg.review.splitter.validation.ReviewJsonlValidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lambda entry point splitting the files of an S3 upload event, for bursts of uploads that should not wait for
+ * the service to scale out. The Spring context is started once per execution environment while the handler is
+ * created in the init phase, with the lambda profile: no HTTP port, no SQS polling, one split at a time.
+ * The S3 clients, the thread pools and the validator are all built up front and the validator is primed, so a SnapStart
+ * snapshot holds them ready to use. Nothing in the init phase calls S3, the restored snapshot opens its own connections.
+ * The files of the event are split one after the other on the invocation thread. A failed split fails the invocation
+ * and Lambda retries the event, which resumes from the saved progress of the file.
+ */
+public class S3EventSplitHandler implements RequestHandler<S3Event, List<String>> {
+
+    private static final Logger log = LoggerFactory.getLogger(S3EventSplitHandler.class);
+
+    private final SplitJobScheduler splitJobScheduler;
+
+    /**
+     * Used by Lambda, starts the application context on first use
+     */
+    public S3EventSplitHandler() {
+        this(ApplicationContextHolder.CONTEXT.getBean(SplitJobScheduler.class));
+    }
+
+    public S3EventSplitHandler(SplitJobScheduler splitJobScheduler) {
+        this.splitJobScheduler = splitJobScheduler;
+    }
+
+    /**
+     * @param event S3 event of the uploaded files, their keys are URL encoded
+     * @param context
+     * @return the keys of the uploaded chunks of every file of the event
+     */
+    @Override
+    public List<String> handleRequest(S3Event event, Context context) {
+        List<String> splitFiles = new ArrayList<>();
+        for (S3EventNotification.S3EventNotificationRecord record : event.getRecords()) {
+            String inputFile = record.getS3().getObject().getUrlDecodedKey();
+            log.info("Splitting '{}' ({} bytes) for request {}", inputFile, record.getS3().getObject().getSizeAsLong(), context.getAwsRequestId());
+            try {
+                splitFiles.addAll(splitJobScheduler.run(inputFile));
+            } catch (IOException e) {
+                throw new S3FileProcessingException("Failed to create the work directory of " + inputFile, e);
+            }
+        }
+        return splitFiles;
+    }
+
+    private static final class ApplicationContextHolder {
+        private static final String PRIMING_LINE = "{\"hotelId\":10984,\"rating\":4.5,\"comment\":\"priming line\",\"tags\":[\"a\",null,true]}";
+        private static final ConfigurableApplicationContext CONTEXT = start();
+
+        private static ConfigurableApplicationContext start() {
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(ReviewSplitterServiceApplication.class)
+                    .main(ReviewSplitterServiceApplication.class) // names the AOT initializer, the caller is the Lambda runtime
+                    .profiles("lambda")
+                    .run();
+            context.getBean(ReviewJsonlValidator.class).validate(PRIMING_LINE); // loads the parser classes before the snapshot
+            return context;
+        }
+    }
+}
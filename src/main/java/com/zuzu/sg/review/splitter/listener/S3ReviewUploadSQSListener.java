@@ -2,60 +2,193 @@ package com.zuzu.sg.review.splitter.listener;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.zuzu.sg.review.splitter.utility.S3JSONLSplitter;
+import com.zuzu.sg.review.splitter.metrics.SplitterMetrics;
+import com.zuzu.sg.review.splitter.utility.InFlightBytesLimiter;
+import com.zuzu.sg.review.splitter.utility.SplitJobScheduler;
 import io.awspring.cloud.sqs.annotation.SqsListener;
+import io.awspring.cloud.sqs.listener.SqsHeaders;
+import io.awspring.cloud.sqs.listener.Visibility;
+import io.awspring.cloud.sqs.listener.acknowledgement.Acknowledgement;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * S3ReviewUploadSQSListener to listen to review-upload-sqs queue.
  * When the user uploads a jsonl file to the sg-reviews-uploads-bucket s3 bucket, an SQS even is triggered.
+ * Messages are received in batches and acknowledged only once every file of the event is split,
+ * a failed split leaves the message on the queue for redelivery. On redelivery the files of the event that were
+ * already split are no longer in the source bucket and count as split. A message that is not a valid S3 event is
+ * acknowledged and dropped, as no redelivery can fix it.
  */
 @Service
 public class S3ReviewUploadSQSListener {
     private static final Logger log = LoggerFactory.getLogger(S3ReviewUploadSQSListener.class);
     @Autowired
-    S3JSONLSplitter s3JSONLSplitter;
+    SplitJobScheduler splitJobScheduler;
+
+    @Autowired
+    InFlightBytesLimiter inFlightBytesLimiter;
 
     @Autowired
     ObjectMapper objectMapper;
 
-    @SqsListener("review-upload-sqs")
-    public void receiveMessage(String sqsJsonMessage) {
-        log.info("SQS event received from review-upload-sqs. Event json: " + sqsJsonMessage);
-        s3JSONLSplitter.splitFile(getUploadedReviewFileName(sqsJsonMessage));
+    @Autowired
+    SplitterMetrics splitterMetrics;
+
+    @Value("${split-sqs-visibility-timeout-seconds:300}")
+    private int visibilityTimeoutSeconds;
+
+    @Value("${split-sqs-visibility-extend-interval-seconds:120}")
+    private int visibilityExtendIntervalSeconds;
+
+    private ScheduledExecutorService visibilityExtender;
+
+    @PostConstruct
+    void init() {
+        visibilityExtender = Executors.newSingleThreadScheduledExecutor();
+        splitterMetrics.monitorValue("splitter.sqs.in.flight.bytes", "Size of the received files not split yet",
+                inFlightBytesLimiter::getInFlightBytes);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        visibilityExtender.shutdownNow();
     }
 
     /**
-     * Extracts the actual file name from the sg-reviews-uploads-bucket
-     * @param sqsJsonMessage
-     * @return the file name for which event got generated
+     * Hands every file of the batch to the scheduler. The listener thread is held back while the files in flight
+     * exceed split-sqs-max-in-flight-bytes, which also stops the container from polling more messages.
+     * @param messages
      */
-    private String getUploadedReviewFileName(String sqsJsonMessage) {
-        try {
-            JsonNode rootNode = objectMapper.readTree(sqsJsonMessage);
-            JsonNode recordsNode = rootNode.path("Records");
-            if (recordsNode.isArray()) {
-                for (JsonNode record : recordsNode) {
-                    String objectKey = record.path("s3").path("object").path("key").asText();
-
-                    if (!objectKey.isEmpty()) {
-                        return objectKey;
-                    } else {
-                        log.info("Could not extract object key from record: " + record);
-                    }
+    @SqsListener(value = "review-upload-sqs", acknowledgementMode = "MANUAL",
+            maxMessagesPerPoll = "${split-sqs-max-messages-per-poll:10}",
+            messageVisibilitySeconds = "${split-sqs-visibility-timeout-seconds:300}")
+    public void receiveMessages(List<Message<String>> messages) {
+        log.info("Received {} SQS events from review-upload-sqs", messages.size());
+        for (Message<String> message : messages) {
+            try {
+                if (!receiveMessage(message)) {
+                    return;
                 }
+            } catch (RuntimeException e) {
+                log.error("Could not hand SQS event {} to the splitter, it is left on the queue for redelivery: {}",
+                        message.getHeaders().getId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param message
+     * @return false if the listener thread was interrupted while waiting for in-flight bytes
+     */
+    private boolean receiveMessage(Message<String> message) {
+        String sqsJsonMessage = message.getPayload();
+        log.debug("SQS event received from review-upload-sqs. Event json: {}", sqsJsonMessage);
+        Object sentTimestamp = message.getHeaders().get(SqsHeaders.MessageSystemAttributes.SQS_SENT_TIMESTAMP);
+        if (sentTimestamp != null) {
+            splitterMetrics.messageReceived(Long.parseLong(sentTimestamp.toString()));
+        }
+        List<UploadedReviewFile> uploadedFiles;
+        try {
+            uploadedFiles = getUploadedReviewFiles(sqsJsonMessage);
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Dropping SQS event {}, it is not a valid S3 event: {}", message.getHeaders().getId(), e.getMessage());
+            Acknowledgement.acknowledgeAsync(message);
+            return true;
+        }
+
+        ScheduledFuture<?> visibilityExtension = scheduleVisibilityExtension(message);
+        List<CompletableFuture<List<String>>> splits = new ArrayList<>();
+        try {
+            for (UploadedReviewFile uploadedFile : uploadedFiles) {
+                inFlightBytesLimiter.acquire(uploadedFile.size());
+                splits.add(splitJobScheduler.submit(uploadedFile.key(), uploadedFile.size())
+                        .whenComplete((splitFiles, e) -> inFlightBytesLimiter.release(uploadedFile.size())));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // the files already handed to the scheduler keep the message invisible until their splits end
+            CompletableFuture.allOf(splits.toArray(new CompletableFuture[0])).whenComplete((done, failure) -> visibilityExtension.cancel(false));
+            log.warn("Interrupted while receiving {}, it is left on the queue for redelivery", message.getHeaders().getId());
+            return false;
+        }
+
+        CompletableFuture.allOf(splits.toArray(new CompletableFuture[0])).whenComplete((done, e) -> {
+            visibilityExtension.cancel(false);
+            if (e == null) {
+                Acknowledgement.acknowledgeAsync(message);
+                log.info("Acknowledged SQS event after splitting {} files", uploadedFiles.size());
             } else {
-                log.info("SQS message did not contain a 'Records' array or was empty.");
+                log.error("Split of SQS event failed, it is left on the queue for redelivery: {}", e.getMessage());
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Keeps the message invisible to other consumers while its files are being split
+     * @param message
+     * @return the periodic extension, cancelled once the splits are done
+     */
+    private ScheduledFuture<?> scheduleVisibilityExtension(Message<String> message) {
+        Visibility visibility = message.getHeaders().get(SqsHeaders.SQS_VISIBILITY_TIMEOUT_HEADER, Visibility.class);
+        return visibilityExtender.scheduleAtFixedRate(() -> {
+            if (visibility != null) {
+                visibility.changeToAsync(visibilityTimeoutSeconds).exceptionally(e -> {
+                    log.warn("Failed to extend visibility of {}: {}", message.getHeaders().getId(), e.getMessage());
+                    return null;
+                });
+            }
+        }, visibilityExtendIntervalSeconds, visibilityExtendIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Extracts the actual file names and sizes from the sg-reviews-uploads-bucket event, one per record.
+     * S3 sends the keys URL encoded.
+     * @param sqsJsonMessage
+     * @return the files for which the event got generated
+     * @throws IOException if the message is not valid json
+     * @throws IllegalArgumentException if a key is not validly URL encoded
+     */
+    private List<UploadedReviewFile> getUploadedReviewFiles(String sqsJsonMessage) throws IOException {
+        List<UploadedReviewFile> uploadedFiles = new ArrayList<>();
+        JsonNode rootNode = objectMapper.readTree(sqsJsonMessage);
+        JsonNode recordsNode = rootNode.path("Records");
+        if (recordsNode.isArray()) {
+            for (JsonNode record : recordsNode) {
+                JsonNode objectNode = record.path("s3").path("object");
+                String objectKey = objectNode.path("key").asText();
+
+                if (!objectKey.isEmpty()) {
+                    uploadedFiles.add(new UploadedReviewFile(URLDecoder.decode(objectKey, StandardCharsets.UTF_8),
+                            objectNode.path("size").asLong()));
+                } else {
+                    log.info("Could not extract object key from record: " + record);
+                }
             }
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to process S3 event message", e);
+        } else {
+            log.info("SQS message did not contain a 'Records' array or was empty.");
         }
-        return "";
+        return uploadedFiles;
     }
-}
 
+    private record UploadedReviewFile(String key, long size) {
+    }
+}
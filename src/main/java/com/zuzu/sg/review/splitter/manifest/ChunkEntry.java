@@ -0,0 +1,17 @@
+package com.zuzu.sg.review.splitter.manifest;
+
+/**
+ * One uploaded chunk as listed in the chunk manifest.
+ * @param key destination key of the chunk
+ * @param segment index of the source segment the chunk was cut from, 0 unless the file was split in ranges
+ * @param partition key partition of the records of the chunk, 0 unless the split is partitioned
+ * @param number chunk number within the segment, starting at 1
+ * @param recordCount number of lines in the chunk
+ * @param byteCount size of the uploaded object
+ * @param crc32c base64 CRC32C of the uploaded object, in the format of the S3 x-amz-checksum-crc32c header
+ * @param sourceStart position of the first line of the chunk in the source file
+ * @param sourceEnd position after the last line of the chunk in the source file
+ */
+public record ChunkEntry(String key, int segment, int partition, int number, int recordCount, long byteCount, String crc32c,
+                         long sourceStart, long sourceEnd) {
+}
@@ -0,0 +1,37 @@
+package com.zuzu.sg.review.splitter.manifest;
+
+import java.util.List;
+
+/**
+ * The chunk manifest of one source file, written once every chunk is uploaded.
+ * Its presence tells the reducers the split is complete, and it lists the chunks so they need no LIST calls.
+ * Source offsets of a compressed source file are positions in its decompressed lines.
+ * @param sourceKey
+ * @param sourceETag
+ * @param codec compression of the chunks
+ * @param format format of the reviews in the chunks, read with ChunkRecordReader
+ * @param partitionCount number of key partitions of the chunks, 0 unless the split is partitioned
+ * @param chunkCount
+ * @param recordCount total lines of all the chunks
+ * @param byteCount total size of all the chunks
+ * @param chunks the chunks in source order, or in upload order when the split is partitioned
+ */
+public record ChunkManifest(String sourceKey, String sourceETag, String codec, String format, int partitionCount, int chunkCount, long recordCount,
+                            long byteCount, List<ChunkEntry> chunks) {
+
+    public static ChunkManifest of(String sourceKey, String sourceETag, String codec, String format, int partitionCount, List<ChunkEntry> chunks) {
+        long recordCount = chunks.stream().mapToLong(ChunkEntry::recordCount).sum();
+        long byteCount = chunks.stream().mapToLong(ChunkEntry::byteCount).sum();
+        return new ChunkManifest(sourceKey, sourceETag, codec, format, partitionCount, chunks.size(), recordCount, byteCount, chunks);
+    }
+
+    /**
+     * @param otherSourceKey
+     * @param otherSourceETag
+     * @param copiedChunks the copies of the chunks of this manifest made for the other source file, in the same order
+     * @return this manifest published for another source file of the same content
+     */
+    public ChunkManifest forSource(String otherSourceKey, String otherSourceETag, List<ChunkEntry> copiedChunks) {
+        return new ChunkManifest(otherSourceKey, otherSourceETag, codec, format, partitionCount, chunkCount, recordCount, byteCount, copiedChunks);
+    }
+}
@@ -0,0 +1,82 @@
+package com.zuzu.sg.review.splitter.manifest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Publishes the chunk manifests next to the chunks in the destination reducer bucket, and reads back the ones
+ * of the earlier splits a new source file can reuse
+ */
+@Component
+public class ChunkManifestWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(ChunkManifestWriter.class);
+
+    @Autowired
+    S3Client s3Client;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Value("${aws.s3.destination-bucket-name}")
+    private String destinationBucketName;
+
+    /**
+     * @param manifestKey
+     * @param manifest
+     */
+    public void write(String manifestKey, ChunkManifest manifest) {
+        byte[] content;
+        try {
+            content = objectMapper.writeValueAsBytes(manifest);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        s3Client.putObject(request -> request.bucket(destinationBucketName).key(manifestKey).contentType("application/json"),
+                RequestBody.fromBytes(content));
+        log.info("Published chunk manifest {} with {} chunks", manifestKey, manifest.chunkCount());
+    }
+
+    /**
+     * @param manifestKey
+     * @return the published manifest, or null when it no longer exists
+     */
+    public ChunkManifest read(String manifestKey) {
+        try {
+            byte[] content = s3Client.getObjectAsBytes(request -> request.bucket(destinationBucketName).key(manifestKey)).asByteArray();
+            return objectMapper.readValue(content, ChunkManifest.class);
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param parts
+     * @return the base64 CRC32C of the parts
+     */
+    public static String crc32c(List<ByteBuffer> parts) {
+        CRC32C crc32c = new CRC32C();
+        for (ByteBuffer part : parts) {
+            crc32c.update(part.duplicate());
+        }
+        long value = crc32c.getValue();
+        return Base64.getEncoder().encodeToString(new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+    }
+}
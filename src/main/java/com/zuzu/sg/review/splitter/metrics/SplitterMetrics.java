@@ -0,0 +1,184 @@
+package com.zuzu.sg.review.splitter.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The meters of every splitter stage, exposed on /actuator/prometheus.
+ * Ingest rates are plain counters, take their rate() to get lines/s and bytes/s. The hot paths update the meters
+ * once per batch or per chunk, never per line.
+ */
+@Component
+public class SplitterMetrics {
+
+    private static final long MB = 1024 * 1024;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private Counter linesRead;
+    private Counter bytesRead;
+    private Counter linesInvalid;
+    private Counter linesDuplicate;
+    private Counter splitsReused;
+    private DistributionSummary chunkBytes;
+    private Timer chunkUploadsSucceeded;
+    private Timer chunkUploadsFailed;
+    private Timer messageAge;
+    private final AtomicInteger uploadsInFlight = new AtomicInteger();
+    private final Set<Collection<?>> pipelineQueues = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void init() {
+        linesRead = Counter.builder("splitter.lines.read").description("Lines framed from the source files").register(meterRegistry);
+        bytesRead = Counter.builder("splitter.bytes.read").baseUnit("bytes").description("Bytes of lines framed from the source files")
+                .register(meterRegistry);
+        linesInvalid = Counter.builder("splitter.lines.invalid").description("Lines dropped by the validator").register(meterRegistry);
+        linesDuplicate = Counter.builder("splitter.lines.duplicate").description("Lines dropped as duplicates").register(meterRegistry);
+        splitsReused = Counter.builder("splitter.splits.reused").description("Source files not split again, their content was already split")
+                .register(meterRegistry);
+        chunkBytes = DistributionSummary.builder("splitter.chunk.size").baseUnit("bytes").description("Size of the uploaded chunks")
+                .register(meterRegistry);
+        chunkUploadsSucceeded = chunkUploadTimer("success");
+        chunkUploadsFailed = chunkUploadTimer("failure");
+        messageAge = Timer.builder("splitter.sqs.message.age").description("Time from the SQS send to the receive of an upload event")
+                .publishPercentileHistogram().maximumExpectedValue(Duration.ofHours(12)).register(meterRegistry);
+        Gauge.builder("splitter.uploads.in.flight", uploadsInFlight, AtomicInteger::get)
+                .description("Chunks handed to the uploader and not yet stored").register(meterRegistry);
+        Gauge.builder("splitter.pipeline.queue.depth", pipelineQueues, queues -> queues.stream().mapToInt(Collection::size).sum())
+                .description("Batches read and waiting for the assembler, over all the running pipelines").register(meterRegistry);
+    }
+
+    private Timer chunkUploadTimer(String outcome) {
+        return Timer.builder("splitter.chunk.upload").tag("outcome", outcome).description("Time from the hand-off of a chunk to its upload")
+                .publishPercentileHistogram().maximumExpectedValue(Duration.ofMinutes(10)).register(meterRegistry);
+    }
+
+    /**
+     * @param lines number of lines of a batch
+     * @param bytes size of the lines of the batch
+     */
+    public void linesRead(int lines, long bytes) {
+        linesRead.increment(lines);
+        bytesRead.increment(bytes);
+    }
+
+    /**
+     * @param invalid number of lines of a batch rejected by the validator
+     * @param duplicates number of lines of a batch dropped as duplicates
+     */
+    public void linesDropped(int invalid, int duplicates) {
+        if (invalid > 0) {
+            linesInvalid.increment(invalid);
+        }
+        if (duplicates > 0) {
+            linesDuplicate.increment(duplicates);
+        }
+    }
+
+    /**
+     * @return the start time of the upload, to be passed to uploadFinished
+     */
+    public long uploadStarted() {
+        uploadsInFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * @param startNanos
+     * @param bytes size of the uploaded chunk
+     * @param failed
+     */
+    public void uploadFinished(long startNanos, long bytes, boolean failed) {
+        uploadsInFlight.decrementAndGet();
+        (failed ? chunkUploadsFailed : chunkUploadsSucceeded).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        if (!failed) {
+            chunkBytes.record(bytes);
+        }
+    }
+
+    /**
+     * Adds the batch queue of a running pipeline to splitter.pipeline.queue.depth until pipelineFinished
+     * @param queue
+     */
+    public void pipelineStarted(Collection<?> queue) {
+        pipelineQueues.add(queue);
+    }
+
+    public void pipelineFinished(Collection<?> queue) {
+        pipelineQueues.remove(queue);
+    }
+
+    /**
+     * Publishes the size of a long-lived queue, such as the jobs waiting for the scheduler
+     * @param name
+     * @param description
+     * @param queue
+     */
+    public void monitorQueue(String name, String description, Collection<?> queue) {
+        Gauge.builder(name, queue, Collection::size).description(description).register(meterRegistry);
+    }
+
+    /**
+     * @param name
+     * @param description
+     * @param value read whenever the registry is scraped
+     */
+    public void monitorValue(String name, String description, Supplier<Number> value) {
+        Gauge.builder(name, value).description(description).register(meterRegistry);
+    }
+
+    /**
+     * Records the duration of a split job, tagged by the size bucket of the file so large and small files are not averaged
+     * @param contentLength size of the source file, negative if unknown
+     * @param durationNanos
+     * @param succeeded
+     */
+    public void jobFinished(long contentLength, long durationNanos, boolean succeeded) {
+        Timer.builder("splitter.job.duration").tag("size", sizeBucket(contentLength)).tag("outcome", succeeded ? "success" : "failure")
+                .description("Time to split, upload and archive one source file")
+                .publishPercentileHistogram().maximumExpectedValue(Duration.ofHours(4))
+                .register(meterRegistry).record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts a source file published with the chunks of an earlier split of the same content instead of being split
+     */
+    public void splitReused() {
+        splitsReused.increment();
+    }
+
+    /**
+     * @param sentTimestampMillis the SentTimestamp system attribute of the SQS message
+     */
+    public void messageReceived(long sentTimestampMillis) {
+        messageAge.record(Math.max(0, System.currentTimeMillis() - sentTimestampMillis), TimeUnit.MILLISECONDS);
+    }
+
+    static String sizeBucket(long contentLength) {
+        if (contentLength < 0) {
+            return "unknown";
+        } else if (contentLength < 100 * MB) {
+            return "0-100MB";
+        } else if (contentLength < 1024 * MB) {
+            return "100MB-1GB";
+        } else if (contentLength < 10 * 1024 * MB) {
+            return "1GB-10GB";
+        }
+        return "10GB+";
+    }
+}
@@ -0,0 +1,52 @@
+package com.zuzu.sg.review.splitter.partition;
+
+import com.zuzu.sg.review.splitter.pipeline.LinePartitioner;
+import com.zuzu.sg.review.splitter.utility.JsonKeyHasher;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Assigns the reviews to split-file-partition-count partitions by the hash of the value at split-file-partition-key-path,
+ * so all the reviews of one key, such as one hotel, end up in the chunks of the same partition whatever file they came from.
+ * The hash is stable across processes and releases, a key keeps its partition as long as the partition count is unchanged.
+ */
+@Component
+public class KeyPartitioner implements LinePartitioner {
+
+    @Value("${split-file-partition-count:0}")
+    private int partitionCount;
+
+    @Value("${split-file-partition-key-path:}")
+    private String keyPath;
+
+    private JsonKeyHasher keyHasher;
+
+    @PostConstruct
+    void init() {
+        keyHasher = new JsonKeyHasher(keyPath);
+    }
+
+    /**
+     * @return true when split-file-partition-count is set
+     */
+    public boolean isEnabled() {
+        return partitionCount > 0;
+    }
+
+    public String getKeyPath() {
+        return keyPath;
+    }
+
+    @Override
+    public int partitionCount() {
+        return partitionCount;
+    }
+
+    @Override
+    public int partition(ByteBuffer buffer, int offset, int length) {
+        return (int) Long.remainderUnsigned(keyHasher.hash(buffer, offset, length), partitionCount);
+    }
+}
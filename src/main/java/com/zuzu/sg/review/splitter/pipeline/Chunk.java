@@ -0,0 +1,21 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A sealed chunk ready for upload. The content is a list of slices of the source buffers,
+ * every line is followed by a single '\n'. In a binary output format the slices are of the length-prefixed records
+ * the lines were encoded into instead.
+ * @param key destination key of the chunk
+ * @param partition partition of the lines of the chunk, 0 unless the split is partitioned
+ * @param number chunk number within the split, counting the chunks of all the partitions in the order they were sealed
+ * @param parts the content; consumers read from duplicates so the chunk can be read again on retry
+ * @param lineCount
+ * @param byteCount total size of the parts
+ * @param firstSourceOffset position of the first line of the chunk in the source object
+ * @param endSourceOffset position after the last line of the chunk in the source object
+ */
+public record Chunk(String key, int partition, int number, List<ByteBuffer> parts, int lineCount, long byteCount,
+                    long firstSourceOffset, long endSourceOffset) {
+}
@@ -0,0 +1,154 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import com.zuzu.sg.review.splitter.utility.ChunkingPolicy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntSupplier;
+
+/**
+ * Collects the valid lines, in source order, into chunks cut by the chunking policy.
+ * Adjacent LF terminated lines of the same buffer are merged into a single slice, so a chunk usually
+ * consists of a handful of slices whatever its line count.
+ * The assembler of a partition gets scattered lines instead, which would keep a whole source buffer alive for
+ * every line; it copies its lines into a buffer of its own.
+ * The lines of an encoded batch are taken from its records instead, which are sliced or copied the same way.
+ */
+final class ChunkAssembler {
+
+    private static final ByteBuffer NEWLINE = ByteBuffer.wrap(new byte[]{'\n'}).asReadOnlyBuffer();
+
+    private static final int INITIAL_COPY_BYTES = 64 * 1024;
+
+    private final ChunkingPolicy chunkingPolicy;
+    private final ChunkNamer chunkNamer;
+    private final int partition;
+    private final boolean copyLines;
+    private final IntSupplier chunkNumbers;
+    private int nextPartitionChunkNumber = 1;
+
+    private List<ByteBuffer> parts = new ArrayList<>();
+    private ByteBuffer runBuffer;
+    private int runStart;
+    private int runEnd;
+    private byte[] copiedLines;
+    private int copiedLength;
+    private int lineCount;
+    private long byteCount;
+    private long firstSourceOffset;
+    private long endSourceOffset;
+
+    /**
+     * @param chunkingPolicy
+     * @param chunkNamer
+     * @param partition the partition whose lines are assembled
+     * @param copyLines true to copy the lines instead of slicing the source buffers
+     * @param chunkNumbers numbers the chunks of all the assemblers of a pipeline in the order they are sealed
+     */
+    ChunkAssembler(ChunkingPolicy chunkingPolicy, ChunkNamer chunkNamer, int partition, boolean copyLines, IntSupplier chunkNumbers) {
+        this.chunkingPolicy = chunkingPolicy;
+        this.chunkNamer = chunkNamer;
+        this.partition = partition;
+        this.copyLines = copyLines;
+        this.chunkNumbers = chunkNumbers;
+    }
+
+    /**
+     * @return the sealed chunk when this line filled it, otherwise null
+     */
+    Chunk add(LineBatch batch, int line) {
+        int start = batch.lineStart(line);
+        int length = batch.lineLength(line);
+        int end = batch.lineEnd(line);
+
+        if (lineCount == 0) {
+            firstSourceOffset = batch.sourceOffset() + start;
+        }
+        LineRecords records = batch.records();
+        if (records != null) {
+            int recordStart = batch.recordStart(line);
+            int recordLength = batch.recordEnd(line) - recordStart;
+            if (copyLines) {
+                copy(records.buffer(), recordStart, recordLength, false);
+            } else {
+                sliceRun(records.buffer(), recordStart, recordStart + recordLength);
+            }
+            byteCount += recordLength;
+        } else {
+            if (copyLines) {
+                copy(batch.buffer(), start, length, true);
+            } else {
+                sliceLine(batch.buffer(), start, length, end);
+            }
+            byteCount += length + 1;
+        }
+
+        lineCount++;
+        endSourceOffset = batch.sourceOffset() + end;
+        return chunkingPolicy.isChunkFull(lineCount, byteCount) ? seal() : null;
+    }
+
+    /**
+     * @return the last partial chunk, or null when there is none
+     */
+    Chunk finish() {
+        return lineCount > 0 ? seal() : null;
+    }
+
+    private Chunk seal() {
+        flushRun();
+        if (copiedLines != null) {
+            parts.add(ByteBuffer.wrap(copiedLines, 0, copiedLength));
+            copiedLines = null; // the sealed chunk owns the array until it is uploaded
+            copiedLength = 0;
+        }
+        Chunk chunk = new Chunk(chunkNamer.key(partition, nextPartitionChunkNumber++), partition, chunkNumbers.getAsInt(), parts,
+                lineCount, byteCount, firstSourceOffset, endSourceOffset);
+        parts = new ArrayList<>();
+        lineCount = 0;
+        byteCount = 0;
+        return chunk;
+    }
+
+    private void sliceLine(ByteBuffer buffer, int start, int length, int end) {
+        if (end - start - length == 1) { // plain LF terminator, keep it in the slice
+            sliceRun(buffer, start, end);
+        } else { // CRLF or no terminator, the line is written with a LF
+            sliceRun(buffer, start, start + length);
+            flushRun();
+            parts.add(NEWLINE.duplicate());
+        }
+    }
+
+    private void sliceRun(ByteBuffer buffer, int start, int end) {
+        if (runBuffer != buffer || runEnd != start) {
+            flushRun();
+            runBuffer = buffer;
+            runStart = start;
+        }
+        runEnd = end;
+    }
+
+    private void copy(ByteBuffer buffer, int start, int length, boolean newline) {
+        int copiedBytes = newline ? length + 1 : length;
+        if (copiedLines == null) {
+            copiedLines = new byte[Math.max(INITIAL_COPY_BYTES, copiedBytes)];
+        } else if (copiedLength + copiedBytes > copiedLines.length) {
+            copiedLines = Arrays.copyOf(copiedLines, Math.max(copiedLines.length * 2, copiedLength + copiedBytes));
+        }
+        buffer.get(start, copiedLines, copiedLength, length);
+        copiedLength += length;
+        if (newline) {
+            copiedLines[copiedLength++] = '\n';
+        }
+    }
+
+    private void flushRun() {
+        if (runBuffer != null && runEnd > runStart) {
+            parts.add(runBuffer.slice(runStart, runEnd - runStart));
+        }
+        runBuffer = null;
+    }
+}
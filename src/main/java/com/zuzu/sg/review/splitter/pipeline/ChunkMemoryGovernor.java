@@ -0,0 +1,199 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import com.zuzu.sg.review.splitter.metrics.SplitterMetrics;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Bounds the heap held by the sealed chunks waiting for their upload, over all the pipelines of the process.
+ * A chunk holds the whole arrays its heap parts are sliced from, from the moment it is sealed until its upload
+ * completes, so every array counts with its full length once, however many of the chunks in flight slice it.
+ * Slices of a memory-mapped file are not counted, they live in the page cache. When a chunk does not fit under
+ * split-memory-max-buffered-bytes, the BLOCK policy holds the assembler back until earlier uploads complete, which in
+ * turn fills the bounded batch queue and stops the reader; the SPILL policy writes the chunk to a local file instead
+ * and uploads it from a mapping of that file, so the source buffers it held can be collected once no other chunk holds them.
+ * The batches waiting in the queue are bounded per pipeline by split-file-pipeline-queue-capacity.
+ */
+@Component
+public class ChunkMemoryGovernor {
+
+    private static final Logger log = LoggerFactory.getLogger(ChunkMemoryGovernor.class);
+
+    public enum Policy {
+        BLOCK,
+        SPILL
+    }
+
+    @Autowired
+    SplitterMetrics splitterMetrics;
+
+    @Value("${split-memory-max-buffered-bytes:0}")
+    private long maxBufferedBytes;
+
+    @Value("${split-memory-overflow-policy:BLOCK}")
+    private Policy policy = Policy.BLOCK;
+
+    @Value("${split-memory-spill-dir:${split-job-work-dir:${java.io.tmpdir}/review-splitter}/spill}")
+    private String spillDir;
+
+    private final Map<byte[], Integer> heldArrays = new IdentityHashMap<>(); // number of admitted chunks holding each array
+    private long bufferedBytes;
+    private long spilledBytes;
+    private Path spillDirectory;
+
+    @PostConstruct
+    void init() throws IOException {
+        if (maxBufferedBytes <= 0) {
+            maxBufferedBytes = Runtime.getRuntime().maxMemory() / 2;
+        }
+        spillDirectory = Paths.get(spillDir);
+        Files.createDirectories(spillDirectory);
+        try (Stream<Path> leftovers = Files.list(spillDirectory)) { // written by a process that died before mapping them
+            for (Path leftover : leftovers.toList()) {
+                Files.deleteIfExists(leftover);
+            }
+        }
+        splitterMetrics.monitorValue("splitter.memory.buffered.bytes", "Heap held by the chunks waiting for their upload",
+                this::getBufferedBytes);
+        splitterMetrics.monitorValue("splitter.memory.spilled.bytes", "Size of the spilled chunks waiting for their upload",
+                this::getSpilledBytes);
+        log.info("Chunks waiting for their upload are limited to {} bytes of heap, policy {}", maxBufferedBytes, policy);
+    }
+
+    /**
+     * Accounts for a sealed chunk, blocking or spilling it when it does not fit. Under BLOCK a chunk larger than the
+     * limit is still admitted when nothing else is buffered, so it cannot block its pipeline forever; under SPILL it is
+     * always spilled.
+     * @param chunk
+     * @return the admitted chunk, to be released once its upload completes
+     */
+    public Admission admit(Chunk chunk) throws InterruptedException {
+        List<byte[]> arrays = new ArrayList<>();
+        long sliceBytes = 0;
+        for (ByteBuffer part : chunk.parts()) {
+            if (part.hasArray()) {
+                arrays.add(part.array());
+            } else if (!part.isDirect()) { // read-only, its array is not reachable
+                sliceBytes += part.remaining();
+            }
+        }
+        synchronized (this) {
+            long heapBytes = addedBytes(arrays) + sliceBytes;
+            if (policy == Policy.BLOCK || heapBytes == 0 || (heapBytes <= maxBufferedBytes && fits(heapBytes))) {
+                while (!fits(heapBytes)) {
+                    wait();
+                    heapBytes = addedBytes(arrays) + sliceBytes; // an array released meanwhile counts again
+                }
+                for (byte[] array : arrays) {
+                    heldArrays.merge(array, 1, Integer::sum);
+                }
+                bufferedBytes += heapBytes;
+                return new Admission(chunk, arrays, sliceBytes, 0);
+            }
+        }
+        Chunk spilledChunk = spill(chunk);
+        synchronized (this) {
+            spilledBytes += chunk.byteCount();
+        }
+        return new Admission(spilledChunk, List.of(), 0, chunk.byteCount());
+    }
+
+    /**
+     * @param admission
+     */
+    public synchronized void release(Admission admission) {
+        for (byte[] array : admission.heapArrays()) {
+            if (heldArrays.merge(array, -1, Integer::sum) == 0) {
+                heldArrays.remove(array);
+                bufferedBytes -= array.length;
+            }
+        }
+        bufferedBytes -= admission.sliceBytes();
+        spilledBytes -= admission.spilledBytes();
+        notifyAll();
+    }
+
+    public synchronized long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    public synchronized long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    private boolean fits(long heapBytes) {
+        return heapBytes == 0 || bufferedBytes == 0 || bufferedBytes + heapBytes <= maxBufferedBytes;
+    }
+
+    /**
+     * @param arrays
+     * @return the length of the arrays no admitted chunk holds yet, each counted once
+     */
+    private long addedBytes(List<byte[]> arrays) {
+        long addedBytes = 0;
+        Set<byte[]> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (byte[] array : arrays) {
+            if (!heldArrays.containsKey(array) && counted.add(array)) {
+                addedBytes += array.length;
+            }
+        }
+        return addedBytes;
+    }
+
+    /**
+     * Writes the chunk to a file and maps it back. The file is unlinked as soon as it is mapped, its disk space is
+     * freed when the mapping is collected after the upload, and nothing is left behind if the process dies.
+     */
+    private Chunk spill(Chunk chunk) {
+        try {
+            Path spillFile = Files.createTempFile(spillDirectory, "chunk-", ".jsonl");
+            try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer[] parts = chunk.parts().stream().map(ByteBuffer::duplicate).toArray(ByteBuffer[]::new);
+                long written = 0;
+                while (written < chunk.byteCount()) {
+                    written += channel.write(parts);
+                }
+                List<ByteBuffer> mappedParts = new ArrayList<>();
+                for (long position = 0; position < written; position += Integer.MAX_VALUE) {
+                    mappedParts.add(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(Integer.MAX_VALUE, written - position)));
+                }
+                log.debug("Spilled chunk {} ({} bytes) to disk", chunk.key(), written);
+                return new Chunk(chunk.key(), chunk.partition(), chunk.number(), mappedParts, chunk.lineCount(), chunk.byteCount(),
+                        chunk.firstSourceOffset(), chunk.endSourceOffset());
+            } finally {
+                Files.deleteIfExists(spillFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill chunk " + chunk.key(), e);
+        }
+    }
+
+    /**
+     * @param chunk the chunk to upload, the spilled copy when it was spilled
+     * @param heapArrays the arrays the heap parts of the chunk are sliced from
+     * @param sliceBytes heap of the parts whose array is not reachable, counted by their own size
+     * @param spilledBytes size of the spilled copy
+     */
+    public record Admission(Chunk chunk, List<byte[]> heapArrays, long sliceBytes, long spilledBytes) {
+    }
+}
@@ -0,0 +1,15 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+/**
+ * Gives the destination key of each chunk of the split pipeline
+ */
+@FunctionalInterface
+public interface ChunkNamer {
+
+    /**
+     * @param partition partition of the chunk, 0 unless the split is partitioned
+     * @param chunkNumber 1 based number of the chunk within its partition
+     * @return the destination key
+     */
+    String key(int partition, int chunkNumber);
+}
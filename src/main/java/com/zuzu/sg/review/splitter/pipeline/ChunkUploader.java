@@ -0,0 +1,16 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Upload stage of the split pipeline
+ */
+@FunctionalInterface
+public interface ChunkUploader {
+
+    /**
+     * @param chunk
+     * @return completes with the key of the uploaded chunk
+     */
+    CompletableFuture<String> upload(Chunk chunk);
+}
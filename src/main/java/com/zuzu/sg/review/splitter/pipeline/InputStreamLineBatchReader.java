@@ -0,0 +1,88 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Frames lines from a byte stream such as an S3 GetObject stream with the LineFramer.
+ * Each batch gets a freshly allocated block, because the chunks being uploaded keep slices of it.
+ * A partial line at the end of a block is carried over to the start of the next one.
+ */
+public class InputStreamLineBatchReader implements LineBatchReader {
+
+    private final InputStream inputStream;
+    private final int batchBytes;
+    private long blockSourceOffset;
+    private long nextLineNumber = 1;
+    private byte[] carry = new byte[0];
+    private int carryLength;
+    private boolean endOfStream;
+
+    /**
+     * @param inputStream
+     * @param sourceOffset position of the first byte of the stream in the source object
+     * @param batchBytes size of the blocks read from the stream
+     */
+    public InputStreamLineBatchReader(InputStream inputStream, long sourceOffset, int batchBytes) {
+        this.inputStream = inputStream;
+        this.blockSourceOffset = sourceOffset;
+        this.batchBytes = batchBytes;
+    }
+
+    @Override
+    public LineBatch next() throws IOException {
+        if (endOfStream && carryLength == 0) {
+            return null;
+        }
+        byte[] block = new byte[Math.max(batchBytes, carryLength * 2)];
+        System.arraycopy(carry, 0, block, 0, carryLength);
+        int filled = fill(block, carryLength);
+        while (!endOfStream && lastIndexOfNewline(block, filled) < 0) {
+            block = Arrays.copyOf(block, block.length * 2); // the line is longer than the block
+            filled = fill(block, filled);
+        }
+        if (filled == 0) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(block, 0, filled);
+        LineBatch batch = new LineBatch(buffer, blockSourceOffset, nextLineNumber);
+        int lineStart = LineFramer.frame(buffer, 0, filled, filled, batch);
+        if (endOfStream && lineStart < filled) { // last line of the source without a terminator
+            LineFramer.frameLast(buffer, lineStart, filled, batch);
+            lineStart = filled;
+        }
+
+        carryLength = filled - lineStart;
+        if (carryLength > carry.length) {
+            carry = new byte[Math.max(carryLength, carry.length * 2)];
+        }
+        System.arraycopy(block, lineStart, carry, 0, carryLength);
+        blockSourceOffset += lineStart;
+        nextLineNumber += batch.lineCount();
+        return batch;
+    }
+
+    private int fill(byte[] block, int filled) throws IOException {
+        while (filled < block.length) {
+            int read = inputStream.read(block, filled, block.length - filled);
+            if (read < 0) {
+                endOfStream = true;
+                break;
+            }
+            filled += read;
+        }
+        return filled;
+    }
+
+    private static int lastIndexOfNewline(byte[] block, int filled) {
+        for (int i = filled - 1; i >= 0; i--) {
+            if (block[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,164 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import com.zuzu.sg.review.splitter.validation.ValidationResult;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A run of complete lines framed from one buffer of the source file.
+ * Every line is kept as an offset/length slice of the buffer and is never decoded to a String.
+ * When the chunks are written in a binary format the batch also holds the records the lines are encoded into.
+ */
+public final class LineBatch {
+
+    private final ByteBuffer buffer;
+    private final long sourceOffset;
+    private final long firstLineNumber;
+    private int[] lineStarts;
+    private int[] lineLengths;
+    private int[] lineEnds;
+    private int lineCount;
+    private ValidationResult[] validationResults;
+    private long[] lineHashes;
+    private int[] linePartitions;
+    private LineRecords records;
+    private int[] recordEnds;
+
+    /**
+     * @param buffer the bytes the lines are framed from
+     * @param sourceOffset position of buffer index 0 in the source object
+     * @param firstLineNumber 1 based number of the first line in the source object
+     */
+    LineBatch(ByteBuffer buffer, long sourceOffset, long firstLineNumber) {
+        this.buffer = buffer;
+        this.sourceOffset = sourceOffset;
+        this.firstLineNumber = firstLineNumber;
+        this.lineStarts = new int[256];
+        this.lineLengths = new int[256];
+        this.lineEnds = new int[256];
+    }
+
+    /**
+     * @param start index of the first byte of the line
+     * @param length length of the line without its CR/LF terminator
+     * @param end index after the terminator of the line
+     */
+    void addLine(int start, int length, int end) {
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+            lineLengths = Arrays.copyOf(lineLengths, lineCount * 2);
+            lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+            if (validationResults != null) { // lines rejected while the batch is framed
+                validationResults = Arrays.copyOf(validationResults, lineCount * 2);
+            }
+        }
+        lineStarts[lineCount] = start;
+        lineLengths[lineCount] = length;
+        lineEnds[lineCount] = end;
+        lineCount++;
+    }
+
+    void setValidationResult(int line, ValidationResult validationResult) {
+        if (validationResults == null) {
+            validationResults = new ValidationResult[lineStarts.length];
+        }
+        validationResults[line] = validationResult;
+    }
+
+    void setLineHash(int line, long hash) {
+        if (lineHashes == null) {
+            lineHashes = new long[lineCount];
+        }
+        lineHashes[line] = hash;
+    }
+
+    /**
+     * @return the dedup hashes of the lines, null when no line was hashed
+     */
+    long[] lineHashes() {
+        return lineHashes;
+    }
+
+    void setLinePartition(int line, int partition) {
+        if (linePartitions == null) {
+            linePartitions = new int[lineCount];
+        }
+        linePartitions[line] = partition;
+    }
+
+    /**
+     * @return the partition of the line, 0 when the batch is not partitioned
+     */
+    int linePartition(int line) {
+        return linePartitions == null ? 0 : linePartitions[line];
+    }
+
+    /**
+     * Allocates the records the lines of the batch are encoded into
+     */
+    LineRecords startRecords() {
+        int sourceBytes = lineCount > 0 ? lineEnds[lineCount - 1] - lineStarts[0] : 0;
+        records = new LineRecords(sourceBytes);
+        recordEnds = new int[lineCount];
+        return records;
+    }
+
+    /**
+     * @return the records of the lines, null unless the batch is encoded
+     */
+    LineRecords records() {
+        return records;
+    }
+
+    /**
+     * @param end position after the record of the line, equal to its start when the line has none
+     */
+    void setRecordEnd(int line, int end) {
+        recordEnds[line] = end;
+    }
+
+    int recordStart(int line) {
+        return line == 0 ? 0 : recordEnds[line - 1];
+    }
+
+    int recordEnd(int line) {
+        return recordEnds[line];
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public long sourceOffset() {
+        return sourceOffset;
+    }
+
+    public long firstLineNumber() {
+        return firstLineNumber;
+    }
+
+    public int lineCount() {
+        return lineCount;
+    }
+
+    public int lineStart(int line) {
+        return lineStarts[line];
+    }
+
+    public int lineLength(int line) {
+        return lineLengths[line];
+    }
+
+    public int lineEnd(int line) {
+        return lineEnds[line];
+    }
+
+    /**
+     * @return the validation result of the line, VALID until it is set
+     */
+    public ValidationResult validationResult(int line) {
+        ValidationResult validationResult = validationResults == null ? null : validationResults[line];
+        return validationResult == null ? ValidationResult.VALID : validationResult;
+    }
+}
@@ -0,0 +1,15 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import java.io.IOException;
+
+/**
+ * Reader stage of the split pipeline, frames the source into batches of complete lines
+ */
+@FunctionalInterface
+public interface LineBatchReader {
+
+    /**
+     * @return the next batch, or null once the source is exhausted
+     */
+    LineBatch next() throws IOException;
+}
@@ -0,0 +1,27 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Deduplication stage of the split pipeline. The validator workers hash the valid lines,
+ * the assembler then drops the lines whose hash was already seen.
+ */
+public interface LineDeduplicator {
+
+    /**
+     * @param buffer
+     * @param offset absolute index of the line in the buffer
+     * @param length length of the line, without the line separator
+     * @return the non zero hash the line is deduplicated on
+     */
+    long hash(ByteBuffer buffer, int offset, int length);
+
+    /**
+     * Called by the assembler with the lines of one batch in source order
+     * @param hashes hashes of the lines of the batch, 0 for the lines that are not kept anyway
+     * @param lineOffsets positions of the lines in the source file
+     * @param count number of lines of the batch
+     * @param duplicates set to true for the lines to drop
+     */
+    void findDuplicates(long[] hashes, long[] lineOffsets, int count, boolean[] duplicates);
+}
@@ -0,0 +1,22 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import com.zuzu.sg.review.splitter.validation.ValidationResult;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding stage of the split pipeline. The validator workers re-encode every valid line into a binary record
+ * from the tokens they read to validate it, and the chunks are cut from the records instead of the JSON lines.
+ */
+public interface LineEncoder {
+
+    /**
+     * Validates the line and writes its record, length-prefixed, to the records of the batch
+     * @param buffer
+     * @param offset absolute index of the line in the buffer
+     * @param length length of the line, without the line separator
+     * @param records the records of the batch; nothing is left in them for a rejected line
+     * @return ValidationResult.VALID or the reason the line was rejected
+     */
+    ValidationResult encode(ByteBuffer buffer, int offset, int length, LineRecords records);
+}
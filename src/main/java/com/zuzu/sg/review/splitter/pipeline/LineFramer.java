@@ -0,0 +1,59 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import com.zuzu.sg.review.splitter.validation.ValidationResult;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames the lines of a buffer into a batch and checks their UTF-8 in the same pass. The newline scan notes whether a
+ * line holds any non-ASCII byte, and only those lines are decoded by the scalar check, while still in the cache.
+ * A line that is not valid UTF-8 is rejected in the batch and never reaches the validator.
+ * LF and CRLF terminators are both accepted, the CR is left out of the line.
+ */
+final class LineFramer {
+
+    static final ValidationResult INVALID_UTF8 = ValidationResult.invalid("Malformed UTF-8");
+
+    private static final NewlineScanner SCANNER = NewlineScanner.best();
+
+    private LineFramer() {
+    }
+
+    /**
+     * Frames the complete lines from the start index, no new line is started at or after the batch limit
+     * @param buffer
+     * @param from absolute index of the first line
+     * @param to absolute index after the last byte that may be framed
+     * @param batchLimit absolute index no line starts at or after
+     * @param batch receives the lines
+     * @return the index after the terminator of the last framed line, the start of the first line left over
+     */
+    static int frame(ByteBuffer buffer, int from, int to, int batchLimit, LineBatch batch) {
+        int lineStart = from;
+        while (lineStart < batchLimit) {
+            long found = SCANNER.scan(buffer, lineStart, to);
+            int newline = (int) found;
+            if (newline == to) {
+                break;
+            }
+            int lineLength = newline > lineStart && buffer.get(newline - 1) == '\r' ? newline - 1 - lineStart : newline - lineStart;
+            addLine(buffer, lineStart, lineLength, newline + 1, (found & NewlineScanner.NON_ASCII) != 0, batch);
+            lineStart = newline + 1;
+        }
+        return lineStart;
+    }
+
+    /**
+     * Frames the last line of the source, which has no terminator
+     */
+    static void frameLast(ByteBuffer buffer, int from, int to, LineBatch batch) {
+        addLine(buffer, from, to - from, to, true, batch);
+    }
+
+    private static void addLine(ByteBuffer buffer, int start, int length, int end, boolean nonAscii, LineBatch batch) {
+        batch.addLine(start, length, end);
+        if (nonAscii && !Utf8Validator.isValid(buffer, start, start + length)) {
+            batch.setValidationResult(batch.lineCount() - 1, INVALID_UTF8);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Partitioning stage of the split pipeline. The validator workers assign every valid line to a partition,
+ * the assembler then cuts the lines of each partition into chunks of their own.
+ */
+public interface LinePartitioner {
+
+    int partitionCount();
+
+    /**
+     * @param buffer
+     * @param offset absolute index of the line in the buffer
+     * @param length length of the line, without the line separator
+     * @return the partition of the line, from 0 to partitionCount() - 1
+     */
+    int partition(ByteBuffer buffer, int offset, int length);
+}
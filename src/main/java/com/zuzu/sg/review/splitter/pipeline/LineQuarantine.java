@@ -0,0 +1,30 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+/**
+ * Quarantine stage of the split pipeline. The assembler hands over every validated batch before it is cut into chunks,
+ * which is counted against the error budget of the file, then every rejected line and every sealed chunk in source order,
+ * so the rejected lines can be set aside along the chunk boundaries a resumed split starts from.
+ */
+public interface LineQuarantine {
+
+    /**
+     * Called by the assembler with the batches in source order
+     * @param batch
+     * @throws com.zuzu.sg.review.splitter.exception.ErrorBudgetExceededException once the file has used up its error budget,
+     *         which fails the pipeline and stops the reading of the source
+     */
+    void linesChecked(LineBatch batch);
+
+    /**
+     * Called by the assembler for every line of a checked batch the validator rejected
+     * @param batch
+     * @param line index of the line in the batch
+     */
+    void lineRejected(LineBatch batch, int line);
+
+    /**
+     * Called by the assembler for every chunk it seals, after the rejected lines before the end of the chunk
+     * @param chunk
+     */
+    void chunkSealed(Chunk chunk);
+}
@@ -0,0 +1,84 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The binary records of the lines of one batch, written by the validator worker of the batch.
+ * Every record is prefixed with its length as a 4 byte big-endian int, so the records are laid out
+ * exactly as they are written to the chunks and the assembler slices runs of them without copying.
+ */
+public final class LineRecords extends OutputStream {
+
+    static final int LENGTH_PREFIX_BYTES = 4;
+
+    private byte[] bytes;
+    private int size;
+    private ByteBuffer view;
+
+    LineRecords(int initialCapacity) {
+        this.bytes = new byte[Math.max(initialCapacity, 256)];
+    }
+
+    /**
+     * Reserves the length prefix of a new record, its content is then written to this stream
+     * @return the start of the record, to end or discard it
+     */
+    public int startRecord() {
+        ensureCapacity(size + LENGTH_PREFIX_BYTES);
+        size += LENGTH_PREFIX_BYTES;
+        return size - LENGTH_PREFIX_BYTES;
+    }
+
+    /**
+     * Writes the length prefix of the record started at start, over everything written since
+     */
+    public void endRecord(int start) {
+        int length = size - start - LENGTH_PREFIX_BYTES;
+        bytes[start] = (byte) (length >>> 24);
+        bytes[start + 1] = (byte) (length >>> 16);
+        bytes[start + 2] = (byte) (length >>> 8);
+        bytes[start + 3] = (byte) length;
+    }
+
+    /**
+     * Drops the record started at start, for a line rejected halfway through its encoding
+     */
+    public void discardRecord(int start) {
+        size = start;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(size + 1);
+        bytes[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(size + len);
+        System.arraycopy(b, off, bytes, size, len);
+        size += len;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the records as a buffer indexed like the record positions, once the batch is validated
+     */
+    ByteBuffer buffer() {
+        if (view == null) {
+            view = ByteBuffer.wrap(bytes, 0, size);
+        }
+        return view;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, capacity));
+        }
+    }
+}
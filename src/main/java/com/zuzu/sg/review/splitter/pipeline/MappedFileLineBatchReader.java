@@ -0,0 +1,90 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Frames lines straight from a memory-mapped file with the LineFramer. The batches are views of the mapped window,
+ * so the bytes are never copied onto the heap between the page cache and the chunk uploads.
+ * The file is mapped in windows of at most split-file-pipeline-mapping-bytes, each starting on a line boundary.
+ */
+public class MappedFileLineBatchReader implements LineBatchReader {
+
+    private final FileChannel fileChannel;
+    private final long end;
+    private final int batchBytes;
+    private final int mappingBytes;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int windowLength;
+    private long position;
+    private long nextLineNumber = 1;
+
+    /**
+     * @param fileChannel an open read channel of the file
+     * @param start position of the first line to read
+     * @param end position after the last byte to read
+     * @param batchBytes approximate size of the batches
+     * @param mappingBytes size of the mapped windows
+     */
+    public MappedFileLineBatchReader(FileChannel fileChannel, long start, long end, int batchBytes, int mappingBytes) {
+        this.fileChannel = fileChannel;
+        this.position = start;
+        this.end = end;
+        this.batchBytes = batchBytes;
+        this.mappingBytes = Math.max(mappingBytes, batchBytes);
+    }
+
+    @Override
+    public LineBatch next() throws IOException {
+        if (position >= end) {
+            return null;
+        }
+        int windowSize = mappingBytes;
+        while (true) {
+            if (window == null || position >= windowStart + windowLength) {
+                map(windowSize);
+            }
+            LineBatch batch = frameBatch();
+            if (batch != null) {
+                return batch;
+            }
+            if (windowStart == position) { // the line is longer than the window
+                if (windowSize == Integer.MAX_VALUE) {
+                    throw new IOException("Line at offset " + position + " is longer than the largest mapping");
+                }
+                windowSize = (int) Math.min((long) windowSize * 2, Integer.MAX_VALUE);
+            }
+            map(windowSize); // the next line runs past the end of the window
+        }
+    }
+
+    /**
+     * @return the lines from the current position up to about batchBytes, null when no complete line fits in the window
+     */
+    private LineBatch frameBatch() {
+        int from = (int) (position - windowStart);
+        int batchLimit = (int) Math.min((long) from + batchBytes, windowLength);
+        boolean lastWindow = windowStart + windowLength == end;
+
+        LineBatch batch = new LineBatch(window, windowStart, nextLineNumber);
+        int lineStart = LineFramer.frame(window, from, windowLength, batchLimit, batch);
+        if (lastWindow && lineStart < batchLimit) { // last line of the file without a terminator
+            LineFramer.frameLast(window, lineStart, windowLength, batch);
+            lineStart = windowLength;
+        }
+        if (batch.lineCount() == 0) {
+            return null;
+        }
+        position = windowStart + lineStart;
+        nextLineNumber += batch.lineCount();
+        return batch;
+    }
+
+    private void map(int windowSize) throws IOException {
+        windowStart = position;
+        windowLength = (int) Math.min(windowSize, end - position);
+        window = fileChannel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+    }
+}
@@ -0,0 +1,39 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the next '\n' of a buffer, noting on the way whether the bytes before it are all ASCII.
+ * Implementations keep no state and are shared by every reader of the process.
+ */
+interface NewlineScanner {
+
+    /**
+     * Set in the result of scan when a byte before the newline is not ASCII
+     */
+    long NON_ASCII = 1L << 32;
+
+    /**
+     * @param buffer
+     * @param from absolute index the scan starts at
+     * @param to absolute index the scan stops before
+     * @return the index of the first '\n' in [from, to), or to when there is none, combined with NON_ASCII
+     */
+    long scan(ByteBuffer buffer, int from, int to);
+
+    /**
+     * @return the Vector API scanner when the jdk.incubator.vector module is loaded
+     *         (java --add-modules jdk.incubator.vector), otherwise the SWAR scanner
+     */
+    static NewlineScanner best() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (NewlineScanner) Class.forName("com.zuzu.sg.review.splitter.pipeline.VectorNewlineScanner")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return SwarNewlineScanner.INSTANCE;
+            }
+        }
+        return SwarNewlineScanner.INSTANCE;
+    }
+}
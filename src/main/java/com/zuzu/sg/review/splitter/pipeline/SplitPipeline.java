@@ -0,0 +1,282 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import com.zuzu.sg.review.splitter.metrics.SplitterMetrics;
+import com.zuzu.sg.review.splitter.utility.ChunkingPolicy;
+import com.zuzu.sg.review.splitter.validation.ReviewJsonlValidator;
+import com.zuzu.sg.review.splitter.validation.ValidationResult;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Splits one source stream in four stages:
+ * the reader frames batches of lines on the calling thread, a pool of validator workers validates the batches
+ * in parallel, the assembler takes the validated batches back in source order and cuts them into chunks, and the
+ * uploader sends the chunks to the destination bucket.
+ * With a quarantine the assembler hands it every validated batch first, which aborts the split once the file has used
+ * up its error budget, then the rejected lines and the sealed chunks, so the rejected lines are set aside per chunk.
+ * With a deduplicator the validator workers also hash the valid lines and the assembler drops the repeated ones.
+ * With a partitioner they also assign every valid line to a partition, and each partition is cut into chunks of its own.
+ * With an encoder they re-encode every valid line into a binary record while validating it, and the chunks are cut
+ * from the records.
+ * The queue between the reader and the assembler and the number of uploads in flight are both bounded, so a slow
+ * stage holds back the reader instead of letting buffered data grow. The sealed chunks also go through the memory
+ * governor shared by all the pipelines, which bounds their heap across the concurrent splits.
+ */
+public class SplitPipeline {
+
+    private static final CompletableFuture<LineBatch> END_OF_INPUT = CompletableFuture.completedFuture(null);
+
+    private final LineBatchReader reader;
+    private final ReviewJsonlValidator validator;
+    private final LineQuarantine quarantine;
+    private final LineDeduplicator deduplicator;
+    private final LinePartitioner partitioner;
+    private final LineEncoder encoder;
+    private final Executor validationExecutor;
+    private final Executor assemblerExecutor;
+    private final ChunkAssembler[] chunkAssemblers;
+    private final ChunkUploader uploader;
+    private final BlockingQueue<CompletableFuture<LineBatch>> validatedBatches;
+    private final Semaphore uploadPermits;
+    private final ChunkMemoryGovernor memoryGovernor;
+    private final SplitterMetrics metrics;
+
+    private final List<String> chunkKeys = new ArrayList<>();
+    private final List<CompletableFuture<String>> chunkUploads = new ArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private int sealedChunks;
+
+    SplitPipeline(LineBatchReader reader, ReviewJsonlValidator validator, LineQuarantine quarantine,
+                  LineDeduplicator deduplicator, LinePartitioner partitioner, LineEncoder encoder,
+                  Executor validationExecutor, Executor assemblerExecutor,
+                  ChunkingPolicy chunkingPolicy, ChunkNamer chunkNamer, ChunkUploader uploader,
+                  int queueCapacity, int maxInFlightUploads, ChunkMemoryGovernor memoryGovernor, SplitterMetrics metrics) {
+        this.reader = reader;
+        this.validator = validator;
+        this.quarantine = quarantine;
+        this.deduplicator = deduplicator;
+        this.partitioner = partitioner;
+        this.encoder = encoder;
+        this.validationExecutor = validationExecutor;
+        this.assemblerExecutor = assemblerExecutor;
+        this.chunkAssemblers = new ChunkAssembler[partitioner != null ? partitioner.partitionCount() : 1];
+        for (int partition = 0; partition < chunkAssemblers.length; partition++) {
+            chunkAssemblers[partition] = new ChunkAssembler(chunkingPolicy, chunkNamer, partition, partitioner != null, () -> ++sealedChunks);
+        }
+        this.uploader = uploader;
+        this.validatedBatches = new ArrayBlockingQueue<>(queueCapacity);
+        this.uploadPermits = new Semaphore(maxInFlightUploads);
+        this.memoryGovernor = memoryGovernor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Runs the pipeline to the end of the source and waits for every chunk upload
+     * @return the keys of the uploaded chunks in the order they were sealed, which is source order unless partitioned
+     */
+    public List<String> run() throws IOException {
+        metrics.pipelineStarted(validatedBatches);
+        CompletableFuture<Void> assembly = CompletableFuture.runAsync(this::assembleChunks, assemblerExecutor);
+        try {
+            LineBatch batch;
+            while (failure.get() == null && (batch = reader.next()) != null) {
+                LineBatch readBatch = batch;
+                metrics.linesRead(batch.lineCount(), batch.lineCount() > 0 ? batch.lineEnd(batch.lineCount() - 1) - batch.lineStart(0) : 0);
+                validatedBatches.put(CompletableFuture.supplyAsync(() -> validate(readBatch), validationExecutor));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(e);
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        } finally {
+            signalEndOfInput();
+        }
+
+        assembly.join();
+        metrics.pipelineFinished(validatedBatches);
+        CompletableFuture.allOf(chunkUploads.toArray(new CompletableFuture[0])).exceptionally(e -> null).join();
+
+        Throwable cause = failure.get();
+        if (cause instanceof IOException e) {
+            throw e;
+        } else if (cause instanceof RuntimeException e) {
+            throw e;
+        } else if (cause != null) {
+            throw new CompletionException(cause);
+        }
+        return chunkKeys;
+    }
+
+    private LineBatch validate(LineBatch batch) {
+        ByteBuffer buffer = batch.buffer();
+        LineRecords records = encoder != null ? batch.startRecords() : null;
+        for (int line = 0; line < batch.lineCount(); line++) {
+            if (!batch.validationResult(line).isValid()) { // already rejected by the framer, not valid UTF-8
+                if (records != null) {
+                    batch.setRecordEnd(line, records.size());
+                }
+                continue;
+            }
+            ValidationResult validationResult;
+            if (records != null) {
+                validationResult = encoder.encode(buffer, batch.lineStart(line), batch.lineLength(line), records);
+                batch.setRecordEnd(line, records.size());
+            } else {
+                validationResult = validator.validate(buffer, batch.lineStart(line), batch.lineLength(line));
+            }
+            batch.setValidationResult(line, validationResult);
+            if (deduplicator != null && validationResult.isValid()) {
+                batch.setLineHash(line, deduplicator.hash(buffer, batch.lineStart(line), batch.lineLength(line)));
+            }
+            if (partitioner != null && validationResult.isValid()) {
+                batch.setLinePartition(line, partitioner.partition(buffer, batch.lineStart(line), batch.lineLength(line)));
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * @return the lines of the batch already seen, or null when nothing is dropped
+     */
+    private boolean[] findDuplicates(LineBatch batch) {
+        long[] lineHashes = batch.lineHashes();
+        if (deduplicator == null || lineHashes == null) {
+            return null;
+        }
+        long[] lineOffsets = new long[batch.lineCount()];
+        for (int line = 0; line < batch.lineCount(); line++) {
+            lineOffsets[line] = batch.sourceOffset() + batch.lineStart(line);
+        }
+        boolean[] duplicates = new boolean[batch.lineCount()];
+        deduplicator.findDuplicates(lineHashes, lineOffsets, batch.lineCount(), duplicates);
+        return duplicates;
+    }
+
+    /**
+     * Takes the batches in the order they were read. After a failure the queue is still drained,
+     * so the reader is never left blocked on a full queue.
+     */
+    private void assembleChunks() {
+        while (true) {
+            LineBatch batch;
+            try {
+                batch = validatedBatches.take().join();
+            } catch (InterruptedException e) {
+                fail(e);
+                continue;
+            } catch (CompletionException e) {
+                fail(e.getCause());
+                continue;
+            }
+            if (batch == null) {
+                break;
+            }
+            if (failure.get() != null) {
+                continue;
+            }
+            try {
+                if (quarantine != null) {
+                    quarantine.linesChecked(batch);
+                }
+                boolean[] duplicates = findDuplicates(batch);
+                int invalidLines = 0;
+                int duplicateLines = 0;
+                for (int line = 0; line < batch.lineCount(); line++) {
+                    if (!batch.validationResult(line).isValid()) {
+                        invalidLines++;
+                        if (quarantine != null) {
+                            quarantine.lineRejected(batch, line);
+                        }
+                    } else if (duplicates != null && duplicates[line]) {
+                        duplicateLines++;
+                    } else {
+                        Chunk chunk = chunkAssemblers[batch.linePartition(line)].add(batch, line);
+                        if (chunk != null) {
+                            sealed(chunk);
+                        }
+                    }
+                }
+                metrics.linesDropped(invalidLines, duplicateLines);
+            } catch (InterruptedException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        try {
+            for (ChunkAssembler chunkAssembler : chunkAssemblers) {
+                Chunk lastChunk = failure.get() == null ? chunkAssembler.finish() : null;
+                if (lastChunk != null) {
+                    sealed(lastChunk);
+                }
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void sealed(Chunk chunk) throws InterruptedException {
+        if (quarantine != null) {
+            quarantine.chunkSealed(chunk);
+        }
+        upload(chunk);
+    }
+
+    private void upload(Chunk chunk) throws InterruptedException {
+        uploadPermits.acquire();
+        ChunkMemoryGovernor.Admission admission;
+        CompletableFuture<String> chunkUpload;
+        try {
+            admission = memoryGovernor.admit(chunk);
+        } catch (InterruptedException | RuntimeException e) {
+            uploadPermits.release();
+            throw e;
+        }
+        try {
+            chunkUpload = uploader.upload(admission.chunk());
+        } catch (RuntimeException e) {
+            memoryGovernor.release(admission);
+            uploadPermits.release();
+            throw e;
+        }
+        chunkKeys.add(chunk.key());
+        chunkUploads.add(chunkUpload.whenComplete((key, e) -> { // waited on, so the failure is recorded before run() checks it
+            memoryGovernor.release(admission);
+            uploadPermits.release();
+            if (e != null) {
+                fail(e);
+            }
+        }));
+    }
+
+    private void fail(Throwable cause) {
+        failure.compareAndSet(null, cause);
+    }
+
+    private void signalEndOfInput() {
+        boolean interrupted = Thread.interrupted();
+        while (true) {
+            try {
+                validatedBatches.put(END_OF_INPUT);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import com.zuzu.sg.review.splitter.metrics.SplitterMetrics;
+import com.zuzu.sg.review.splitter.utility.ChunkingPolicy;
+import com.zuzu.sg.review.splitter.validation.ReviewJsonlValidator;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the split pipelines. The validator workers are shared by all the pipelines of the process,
+ * so validation scales with the cores whatever the number of files or segments being split.
+ */
+@Component
+public class SplitPipelineFactory {
+
+    @Autowired
+    SplitterMetrics splitterMetrics;
+
+    @Autowired
+    ChunkMemoryGovernor chunkMemoryGovernor;
+
+    @Value("${split-file-pipeline-batch-bytes:1048576}")
+    private int batchBytes;
+
+    @Value("${split-file-pipeline-mapping-bytes:1073741824}")
+    private int mappingBytes;
+
+    @Value("${split-file-pipeline-queue-capacity:16}")
+    private int queueCapacity;
+
+    @Value("${split-file-pipeline-validator-threads:0}")
+    private int validatorThreads;
+
+    @Value("${split-file-pipeline-max-in-flight-uploads:8}")
+    private int maxInFlightUploads;
+
+    private ExecutorService validationExecutor;
+    private ExecutorService assemblerExecutor;
+
+    @PostConstruct
+    void init() {
+        int threads = validatorThreads > 0 ? validatorThreads : Runtime.getRuntime().availableProcessors();
+        LinkedBlockingQueue<Runnable> validationQueue = new LinkedBlockingQueue<>();
+        validationExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, validationQueue);
+        splitterMetrics.monitorQueue("splitter.validation.queue.depth", "Batches waiting for a validator worker", validationQueue);
+        assemblerExecutor = Executors.newCachedThreadPool(); //one blocking assembler per running pipeline
+    }
+
+    @PreDestroy
+    void shutdown() {
+        validationExecutor.shutdownNow();
+        assemblerExecutor.shutdownNow();
+    }
+
+    /**
+     * @param inputStream the source lines
+     * @param sourceOffset position of the first byte of the stream in the source object
+     * @param validator
+     * @param quarantine sets the rejected lines aside and enforces the error budget, null to drop them
+     * @param deduplicator drops the lines already seen, null to keep every valid line
+     * @param partitioner assigns the lines to partitions, null to cut the lines into chunks in source order
+     * @param encoder re-encodes the lines into binary records, null to write the chunks as JSON lines
+     * @param chunkingPolicy
+     * @param chunkNamer gives the destination key of each chunk
+     * @param uploader
+     * @return a pipeline reading the stream
+     */
+    public SplitPipeline create(InputStream inputStream, long sourceOffset, ReviewJsonlValidator validator, LineQuarantine quarantine,
+                                LineDeduplicator deduplicator, LinePartitioner partitioner, LineEncoder encoder, ChunkingPolicy chunkingPolicy,
+                                ChunkNamer chunkNamer, ChunkUploader uploader) {
+        return create(new InputStreamLineBatchReader(inputStream, sourceOffset, batchBytes), validator, quarantine, deduplicator, partitioner,
+                encoder, chunkingPolicy, chunkNamer, uploader);
+    }
+
+    /**
+     * @param fileChannel the downloaded file, which is memory-mapped and read without copying
+     * @param start position of the first line to split
+     * @param validator
+     * @param quarantine sets the rejected lines aside and enforces the error budget, null to drop them
+     * @param deduplicator drops the lines already seen, null to keep every valid line
+     * @param partitioner assigns the lines to partitions, null to cut the lines into chunks in source order
+     * @param encoder re-encodes the lines into binary records, null to write the chunks as JSON lines
+     * @param chunkingPolicy
+     * @param chunkNamer gives the destination key of each chunk
+     * @param uploader
+     * @return a pipeline reading the file from start to the end
+     */
+    public SplitPipeline create(FileChannel fileChannel, long start, ReviewJsonlValidator validator, LineQuarantine quarantine,
+                                LineDeduplicator deduplicator, LinePartitioner partitioner, LineEncoder encoder, ChunkingPolicy chunkingPolicy,
+                                ChunkNamer chunkNamer, ChunkUploader uploader) throws IOException {
+        return create(new MappedFileLineBatchReader(fileChannel, start, fileChannel.size(), batchBytes, mappingBytes), validator, quarantine,
+                deduplicator, partitioner, encoder, chunkingPolicy, chunkNamer, uploader);
+    }
+
+    public SplitPipeline create(LineBatchReader reader, ReviewJsonlValidator validator, LineQuarantine quarantine, LineDeduplicator deduplicator,
+                                LinePartitioner partitioner, LineEncoder encoder, ChunkingPolicy chunkingPolicy, ChunkNamer chunkNamer,
+                                ChunkUploader uploader) {
+        return new SplitPipeline(reader, validator, quarantine, deduplicator, partitioner, encoder, validationExecutor, assemblerExecutor,
+                chunkingPolicy, chunkNamer, uploader, queueCapacity, maxInFlightUploads, chunkMemoryGovernor, splitterMetrics);
+    }
+}
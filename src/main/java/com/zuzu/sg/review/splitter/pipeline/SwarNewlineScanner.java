@@ -0,0 +1,50 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Scans eight bytes at a time within a long (SIMD within a register). The newline test is exact per byte, no carry
+ * crosses from one byte into the next, so the first match of a word is its first newline whatever the byte order.
+ * Works on heap, direct and memory-mapped buffers alike.
+ */
+final class SwarNewlineScanner implements NewlineScanner {
+
+    static final SwarNewlineScanner INSTANCE = new SwarNewlineScanner();
+
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    @Override
+    public long scan(ByteBuffer buffer, int from, int to) {
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        long seen = 0;
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = buffer.getLong(i);
+            long x = word ^ NEWLINES;
+            long newlines = ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS); // high bit set in the '\n' bytes
+            if (newlines != 0) {
+                int index = (bigEndian ? Long.numberOfLeadingZeros(newlines) : Long.numberOfTrailingZeros(newlines)) >>> 3;
+                if (index > 0) {
+                    seen |= bigEndian ? word >>> (Long.SIZE - 8 * index) : word << (Long.SIZE - 8 * index); // the bytes before it
+                }
+                return (i + index) | nonAscii(seen);
+            }
+            seen |= word;
+        }
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                break;
+            }
+            seen |= b & 0x80;
+        }
+        return i | nonAscii(seen);
+    }
+
+    private static long nonAscii(long seen) {
+        return (seen & HIGH_BITS) != 0 ? NON_ASCII : 0;
+    }
+}
@@ -0,0 +1,55 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Scalar UTF-8 check of the lines the newline scan found non-ASCII bytes in. Rejects what a strict decoder rejects:
+ * stray continuation bytes, truncated and overlong sequences, surrogates and code points above U+10FFFF.
+ */
+final class Utf8Validator {
+
+    private Utf8Validator() {
+    }
+
+    /**
+     * @param buffer
+     * @param from absolute index of the first byte
+     * @param to absolute index after the last byte
+     * @return true if the bytes are well formed UTF-8
+     */
+    static boolean isValid(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        while (i < to) {
+            int lead = buffer.get(i) & 0xFF;
+            if (lead < 0x80) {
+                i++;
+                continue;
+            }
+            int continuations;
+            if (lead >= 0xC2 && lead <= 0xDF) {
+                continuations = 1;
+            } else if (lead >= 0xE0 && lead <= 0xEF) {
+                continuations = 2;
+            } else if (lead >= 0xF0 && lead <= 0xF4) {
+                continuations = 3;
+            } else {
+                return false; // continuation byte, overlong 2 byte lead or beyond U+10FFFF
+            }
+            if (i + continuations >= to) {
+                return false;
+            }
+            int second = buffer.get(i + 1) & 0xFF;
+            if ((lead == 0xE0 && second < 0xA0) || (lead == 0xED && second > 0x9F)
+                    || (lead == 0xF0 && second < 0x90) || (lead == 0xF4 && second > 0x8F)) {
+                return false; // overlong, surrogate or beyond U+10FFFF
+            }
+            for (int k = 1; k <= continuations; k++) {
+                if ((buffer.get(i + k) & 0xC0) != 0x80) {
+                    return false;
+                }
+            }
+            i += continuations + 1;
+        }
+        return true;
+    }
+}
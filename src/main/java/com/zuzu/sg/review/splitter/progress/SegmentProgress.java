@@ -0,0 +1,17 @@
+package com.zuzu.sg.review.splitter.progress;
+
+import com.zuzu.sg.review.splitter.manifest.ChunkEntry;
+
+import java.util.List;
+
+/**
+ * Progress of one segment of a source file.
+ * @param index
+ * @param start position of the segment in the source file
+ * @param end position after the segment
+ * @param committedOffset the segment is split and uploaded up to this position
+ * @param committedChunks number of chunks uploaded before committedOffset
+ * @param chunks every uploaded chunk of the segment, including the ones after a gap that are not committed yet
+ */
+public record SegmentProgress(int index, long start, long end, long committedOffset, int committedChunks, List<ChunkEntry> chunks) {
+}
@@ -0,0 +1,13 @@
+package com.zuzu.sg.review.splitter.progress;
+
+import java.util.List;
+
+/**
+ * The persisted progress manifest of one source file.
+ * @param sourceKey key of the file in the source bucket
+ * @param eTag version of the file the progress belongs to
+ * @param settings the settings the chunks were cut with, as recorded by the split registry; chunks are only reused under the same ones
+ * @param segments progress of every segment of the file, a single segment unless the file is split in ranges
+ */
+public record SplitProgress(String sourceKey, String eTag, String settings, List<SegmentProgress> segments) {
+}
@@ -0,0 +1,142 @@
+package com.zuzu.sg.review.splitter.progress;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zuzu.sg.review.splitter.utility.ByteRange;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the progress manifests of the running splits in S3, one small json object per source file
+ * under split-file-progress-prefix. A redelivered file resumes from its manifest instead of from byte 0.
+ */
+@Component
+public class SplitProgressStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SplitProgressStore.class);
+
+    @Autowired
+    S3Client s3Client;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Value("${split-file-progress-enabled:true}")
+    private boolean progressEnabled;
+
+    @Value("${aws.s3.progress-bucket-name:${aws.s3.archive-bucket-name}}")
+    private String progressBucketName;
+
+    @Value("${split-file-progress-prefix:split-progress/}")
+    private String progressPrefix;
+
+    @Value("${split-file-progress-interval-millis:5000}")
+    private long saveIntervalMillis;
+
+    private ExecutorService progressWriter;
+
+    @PostConstruct
+    void init() {
+        progressWriter = Executors.newSingleThreadExecutor(); //saves are written in the order they are made
+    }
+
+    @PreDestroy
+    void shutdown() {
+        progressWriter.shutdown();
+    }
+
+    /**
+     * Loads the manifest of an earlier attempt. It is reused only if it was written for the same version of the file,
+     * the same split settings and the same segments, so the resumed chunks get the same keys and content as before.
+     * @param sourceKey
+     * @param eTag
+     * @param settings the settings the chunks depend on
+     * @param segments
+     * @return the tracker of the split
+     */
+    public SplitProgressTracker resume(String sourceKey, String eTag, String settings, List<ByteRange> segments) {
+        if (!progressEnabled) {
+            return SplitProgressTracker.untracked(sourceKey, segments);
+        }
+        SplitProgress previous = load(sourceKey);
+        if (previous != null && !matches(previous, eTag, settings, segments)) {
+            log.info("Discarding the progress of '{}', the file or the split settings changed", sourceKey);
+            previous = null;
+        } else if (previous != null) {
+            log.info("Resuming the split of '{}' from its progress manifest", sourceKey);
+        }
+        return new SplitProgressTracker(this, sourceKey, eTag, settings, segments, previous, saveIntervalMillis);
+    }
+
+    /**
+     * @param progress
+     * @return true once the progress is stored, false when it could not be
+     */
+    CompletableFuture<Boolean> save(SplitProgress progress) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                byte[] manifest = objectMapper.writeValueAsBytes(progress);
+                s3Client.putObject(request -> request.bucket(progressBucketName).key(manifestKey(progress.sourceKey()))
+                        .contentType("application/json"), RequestBody.fromBytes(manifest));
+                return true;
+            } catch (IOException | SdkException e) {
+                log.warn("Failed to save the progress of '{}': {}", progress.sourceKey(), e.getMessage());
+                return false;
+            }
+        }, progressWriter);
+    }
+
+    void delete(String sourceKey) {
+        progressWriter.execute(() -> {
+            try {
+                s3Client.deleteObject(request -> request.bucket(progressBucketName).key(manifestKey(sourceKey)));
+            } catch (SdkException e) {
+                log.warn("Failed to delete the progress of '{}': {}", sourceKey, e.getMessage());
+            }
+        });
+    }
+
+    private SplitProgress load(String sourceKey) {
+        try {
+            byte[] manifest = s3Client.getObjectAsBytes(request -> request.bucket(progressBucketName).key(manifestKey(sourceKey)))
+                    .asByteArray();
+            return objectMapper.readValue(manifest, SplitProgress.class);
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (IOException | SdkException e) {
+            log.warn("Failed to read the progress of '{}', splitting from the start: {}", sourceKey, e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean matches(SplitProgress progress, String eTag, String settings, List<ByteRange> segments) {
+        if (!eTag.equals(progress.eTag()) || !settings.equals(progress.settings()) || progress.segments().size() != segments.size()) {
+            return false;
+        }
+        for (ByteRange segment : segments) {
+            SegmentProgress segmentProgress = progress.segments().get(segment.index());
+            if (segmentProgress.start() != segment.start() || segmentProgress.end() != segment.end()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String manifestKey(String sourceKey) {
+        return progressPrefix + sourceKey + ".json";
+    }
+}
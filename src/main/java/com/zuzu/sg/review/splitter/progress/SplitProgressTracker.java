@@ -0,0 +1,235 @@
+package com.zuzu.sg.review.splitter.progress;
+
+import com.zuzu.sg.review.splitter.manifest.ChunkEntry;
+import com.zuzu.sg.review.splitter.utility.ByteRange;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Tracks the chunks of one split as their uploads complete and persists the progress through the SplitProgressStore.
+ * Uploads complete out of order, so a segment is only committed up to the end of its longest run of uploaded chunks;
+ * the chunks uploaded after a gap are remembered so a retry can skip them.
+ * The entries of all the uploaded chunks, including those of earlier attempts, make up the chunk manifest of the file.
+ */
+public class SplitProgressTracker {
+
+    private final SplitProgressStore store;
+    private final String sourceKey;
+    private final String eTag;
+    private final String settings;
+    private final long saveIntervalMillis;
+    private final List<SegmentState> segments = new ArrayList<>();
+    private long lastSaveMillis;
+    private boolean dirty;
+
+    /**
+     * @param store where the progress is saved, null to track without persisting
+     * @param sourceKey
+     * @param eTag
+     * @param settings
+     * @param segmentRanges the segments of the file in order
+     * @param previous the progress of an earlier attempt on the same file version, or null to start over
+     * @param saveIntervalMillis minimum time between two saves while the split is running
+     */
+    SplitProgressTracker(SplitProgressStore store, String sourceKey, String eTag, String settings, List<ByteRange> segmentRanges,
+                         SplitProgress previous, long saveIntervalMillis) {
+        this.store = store;
+        this.sourceKey = sourceKey;
+        this.eTag = eTag;
+        this.settings = settings;
+        this.saveIntervalMillis = saveIntervalMillis;
+        this.lastSaveMillis = System.currentTimeMillis();
+        for (ByteRange range : segmentRanges) {
+            SegmentProgress previousSegment = previous != null ? previous.segments().get(range.index()) : null;
+            segments.add(new SegmentState(range, previousSegment));
+        }
+    }
+
+    /**
+     * @param sourceKey
+     * @param segmentRanges
+     * @return a tracker for a split that is not resumable
+     */
+    public static SplitProgressTracker untracked(String sourceKey, List<ByteRange> segmentRanges) {
+        return new SplitProgressTracker(null, sourceKey, null, null, segmentRanges, null, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param segment
+     * @return position the segment is read from, the start of the first chunk that is not committed
+     */
+    public long resumeOffset(int segment) {
+        return segments.get(segment).resumeOffset;
+    }
+
+    /**
+     * @param segment
+     * @return number of chunks committed by earlier attempts, the chunks of this attempt are numbered after them
+     */
+    public int resumeChunks(int segment) {
+        return segments.get(segment).resumeChunks;
+    }
+
+    /**
+     * @param segment
+     * @return position up to which the stored progress has the segment committed, a retry resumes from there
+     */
+    public synchronized long savedOffset(int segment) {
+        return segments.get(segment).savedOffset;
+    }
+
+    /**
+     * @return true when the progress is stored, so a retry resumes from it instead of splitting the file from the start
+     */
+    public boolean isResumable() {
+        return store != null;
+    }
+
+    public boolean isSegmentComplete(int segment) {
+        return segments.get(segment).resumeOffset >= segments.get(segment).range.end();
+    }
+
+    /**
+     * A chunk is only reused when it was cut from the same lines: the key alone does not tell a chunk of a changed
+     * split apart, so a chunk cut from another range of the source is uploaded again over the earlier one.
+     * @param segment
+     * @param key
+     * @param sourceStart position of the first line of the chunk in the source file
+     * @param sourceEnd position after the last line of the chunk in the source file
+     * @param recordCount number of lines in the chunk
+     * @return the entry of the chunk if an earlier attempt already uploaded it after its last commit, else null
+     */
+    public synchronized ChunkEntry previouslyUploaded(int segment, String key, long sourceStart, long sourceEnd, int recordCount) {
+        ChunkEntry entry = segments.get(segment).previouslyUploaded.get(key);
+        return entry != null && entry.sourceStart() == sourceStart && entry.sourceEnd() == sourceEnd && entry.recordCount() == recordCount
+                ? entry : null;
+    }
+
+    /**
+     * Records a completed chunk upload, and saves the progress if the last save is older than the save interval
+     * @param entry the uploaded chunk, numbered within its segment counting the chunks of earlier attempts
+     */
+    public void chunkUploaded(ChunkEntry entry) {
+        SplitProgress snapshot = null;
+        synchronized (this) {
+            SegmentState state = segments.get(entry.segment());
+            state.chunks.put(entry.number(), entry);
+            while (state.chunks.containsKey(state.committedChunks + 1)) {
+                state.committedChunks++;
+                state.committedOffset = state.chunks.get(state.committedChunks).sourceEnd();
+            }
+            dirty = true;
+            long now = System.currentTimeMillis();
+            if (store != null && now - lastSaveMillis >= saveIntervalMillis) {
+                lastSaveMillis = now;
+                dirty = false;
+                snapshot = snapshot();
+            }
+        }
+        if (snapshot != null) {
+            save(snapshot);
+        }
+    }
+
+    /**
+     * Saves the latest progress and waits for it to be stored, used when a split stops before the end
+     */
+    public void flush() {
+        SplitProgress snapshot;
+        synchronized (this) {
+            if (store == null || !dirty) {
+                return;
+            }
+            dirty = false;
+            snapshot = snapshot();
+        }
+        save(snapshot).join();
+    }
+
+    private CompletableFuture<Void> save(SplitProgress snapshot) {
+        return store.save(snapshot).thenAccept(saved -> {
+            if (saved) {
+                saved(snapshot);
+            }
+        });
+    }
+
+    private synchronized void saved(SplitProgress snapshot) {
+        for (SegmentProgress segmentProgress : snapshot.segments()) {
+            SegmentState state = segments.get(segmentProgress.index());
+            state.savedOffset = Math.max(state.savedOffset, segmentProgress.committedOffset());
+        }
+    }
+
+    /**
+     * Removes the progress once the file is fully split
+     */
+    public void complete() {
+        if (store != null) {
+            store.delete(sourceKey);
+        }
+    }
+
+    /**
+     * Removes the progress of a split that is given up, so it is not resumed
+     */
+    public void discard() {
+        synchronized (this) {
+            dirty = false;
+        }
+        complete();
+    }
+
+    /**
+     * @return the entries of all the uploaded chunks in source order
+     */
+    public synchronized List<ChunkEntry> chunkEntries() {
+        List<ChunkEntry> entries = new ArrayList<>();
+        for (SegmentState state : segments) {
+            entries.addAll(state.chunks.values());
+        }
+        return entries;
+    }
+
+    synchronized SplitProgress snapshot() {
+        List<SegmentProgress> segmentProgress = new ArrayList<>();
+        for (SegmentState state : segments) {
+            segmentProgress.add(new SegmentProgress(state.range.index(), state.range.start(), state.range.end(),
+                    state.committedOffset, state.committedChunks, new ArrayList<>(state.chunks.values())));
+        }
+        return new SplitProgress(sourceKey, eTag, settings, segmentProgress);
+    }
+
+    private static final class SegmentState {
+        private final ByteRange range;
+        private final long resumeOffset;
+        private final int resumeChunks;
+        private final Map<String, ChunkEntry> previouslyUploaded = new HashMap<>();
+        private final TreeMap<Integer, ChunkEntry> chunks = new TreeMap<>();
+        private long committedOffset;
+        private int committedChunks;
+        private long savedOffset;
+
+        private SegmentState(ByteRange range, SegmentProgress previous) {
+            this.range = range;
+            this.resumeOffset = previous != null ? previous.committedOffset() : range.start();
+            this.resumeChunks = previous != null ? previous.committedChunks() : 0;
+            if (previous != null) {
+                for (ChunkEntry entry : previous.chunks()) {
+                    chunks.put(entry.number(), entry);
+                    if (entry.number() > resumeChunks) {
+                        previouslyUploaded.put(entry.key(), entry);
+                    }
+                }
+            }
+            this.committedOffset = resumeOffset;
+            this.committedChunks = resumeChunks;
+            this.savedOffset = resumeOffset;
+        }
+    }
+}
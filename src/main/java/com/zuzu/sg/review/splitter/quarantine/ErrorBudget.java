@@ -0,0 +1,78 @@
+package com.zuzu.sg.review.splitter.quarantine;
+
+/**
+ * Number of rejected lines a file may have before its split is aborted: an absolute count over the whole file,
+ * a rate over a sliding window of the last checked lines, or both. The window is a ring of one bit per line,
+ * so its memory does not depend on the file size. Once exceeded the budget stays exceeded. Not thread-safe.
+ */
+final class ErrorBudget {
+
+    private final long maxInvalidLines;
+    private final double maxInvalidRate;
+    private final long[] window;
+    private final int windowLines;
+    private int windowPosition;
+    private int windowFill;
+    private int windowInvalid;
+    private long invalidLines;
+    private String exceeded;
+
+    /**
+     * @param maxInvalidLines rejected lines allowed in the file, 0 for no limit
+     * @param maxInvalidRate rejected fraction of the window allowed, 0 for no limit
+     * @param windowLines number of lines the rate is measured over, it is only checked once the window is full
+     */
+    ErrorBudget(long maxInvalidLines, double maxInvalidRate, int windowLines) {
+        this.maxInvalidLines = maxInvalidLines;
+        this.maxInvalidRate = maxInvalidRate;
+        this.windowLines = maxInvalidRate > 0 ? Math.max(1, windowLines) : 0;
+        this.window = new long[(this.windowLines + 63) >>> 6];
+    }
+
+    /**
+     * @param invalid
+     * @return false once the budget is exceeded
+     */
+    boolean record(boolean invalid) {
+        if (invalid) {
+            invalidLines++;
+        }
+        if (windowLines > 0) {
+            int word = windowPosition >>> 6;
+            long bit = 1L << windowPosition;
+            if (windowFill == windowLines && (window[word] & bit) != 0) {
+                windowInvalid--;
+            } else if (windowFill < windowLines) {
+                windowFill++;
+            }
+            if (invalid) {
+                window[word] |= bit;
+                windowInvalid++;
+            } else {
+                window[word] &= ~bit;
+            }
+            windowPosition = windowPosition + 1 == windowLines ? 0 : windowPosition + 1;
+        }
+        if (exceeded == null && maxInvalidLines > 0 && invalidLines > maxInvalidLines) {
+            exceeded = invalidLines + " rejected lines, more than the " + maxInvalidLines + " allowed";
+        } else if (exceeded == null && windowLines > 0 && windowFill == windowLines && windowInvalid > maxInvalidRate * windowLines) {
+            exceeded = windowInvalid + " rejected lines in the last " + windowLines + ", more than the rate of " + maxInvalidRate + " allowed";
+        }
+        return exceeded == null;
+    }
+
+    boolean isExceeded() {
+        return exceeded != null;
+    }
+
+    long getInvalidLines() {
+        return invalidLines;
+    }
+
+    /**
+     * @return the limit that was exceeded, for the abort message
+     */
+    String describe() {
+        return exceeded;
+    }
+}
@@ -0,0 +1,184 @@
+package com.zuzu.sg.review.splitter.quarantine;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.zuzu.sg.review.splitter.exception.ErrorBudgetExceededException;
+import com.zuzu.sg.review.splitter.pipeline.Chunk;
+import com.zuzu.sg.review.splitter.pipeline.LineBatch;
+import com.zuzu.sg.review.splitter.pipeline.LineQuarantine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Quarantines the rejected lines of one split. Every rejected line is written as a compact JSON record with its
+ * position and the reason it was rejected into the buffer of its segment, which is uploaded as a dead-letter object
+ * at the end of every chunk, or once it holds split-file-quarantine-batch-bytes. A dead-letter object never spans the
+ * end of a chunk, where a resumed split starts, and is named after the source offset its chunk starts at and its
+ * number within the chunk, so a retried split overwrites the objects of its earlier attempt instead of adding to them.
+ * Every checked line is counted against the error budget of the file; once it is exceeded the split is aborted.
+ * The segments of a ranged split share the budget.
+ */
+public class QuarantineSession {
+
+    private static final Logger log = LoggerFactory.getLogger(QuarantineSession.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final ReviewQuarantine quarantine;
+    private final String inputFile;
+    private final ErrorBudget errorBudget;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Queue<CompletableFuture<String>> deadLetterUploads = new ConcurrentLinkedQueue<>();
+
+    QuarantineSession(ReviewQuarantine quarantine, String inputFile, ErrorBudget errorBudget) {
+        this.quarantine = quarantine;
+        this.inputFile = inputFile;
+        this.errorBudget = errorBudget;
+    }
+
+    /**
+     * @return the quarantine of the lines of one segment, with a dead-letter buffer of its own
+     */
+    public LineQuarantine segment() {
+        Segment segment = new Segment();
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * @return number of lines rejected so far
+     */
+    public synchronized long getRejectedCount() {
+        return errorBudget.getInvalidLines();
+    }
+
+    /**
+     * Uploads the last dead letters of a completed split and waits for all of them
+     */
+    public void complete() {
+        for (CompletableFuture<String> upload : uploadRemaining()) {
+            upload.join();
+        }
+    }
+
+    /**
+     * Uploads the dead letters of a failed or aborted split and waits for them, a failed upload is only logged
+     */
+    public void flush() {
+        for (CompletableFuture<String> upload : uploadRemaining()) {
+            try {
+                upload.join();
+            } catch (CompletionException e) {
+                log.warn("Failed to upload rejected lines of '{}': {}", inputFile, e.getMessage());
+            }
+        }
+    }
+
+    private List<CompletableFuture<String>> uploadRemaining() {
+        segments.forEach(Segment::uploadDeadLetters);
+        return List.copyOf(deadLetterUploads);
+    }
+
+    /**
+     * @param batch
+     * @return number of lines of the batch up to the one that exceeded the error budget, -1 when the batch is within budget
+     */
+    private synchronized int checkBudget(LineBatch batch) {
+        if (errorBudget.isExceeded()) { // exceeded by another segment of the file
+            return 0;
+        }
+        for (int line = 0; line < batch.lineCount(); line++) {
+            if (!errorBudget.record(!batch.validationResult(line).isValid())) {
+                return line + 1;
+            }
+        }
+        return -1;
+    }
+
+    private ErrorBudgetExceededException budgetExceeded() {
+        return new ErrorBudgetExceededException("Split of " + inputFile + " aborted after " + errorBudget.describe());
+    }
+
+    private final class Segment implements LineQuarantine {
+
+        private ByteArrayOutputStream deadLetters;
+        private long chunkStartOffset = -1;
+        private int chunkDeadLetters;
+
+        @Override
+        public void linesChecked(LineBatch batch) {
+            if (chunkStartOffset < 0) {
+                chunkStartOffset = batch.sourceOffset(); // where the segment or its resumed split starts
+            }
+            int checkedLines = checkBudget(batch);
+            if (checkedLines >= 0) { // the batch is not assembled, its rejected lines up to the abort are set aside here
+                for (int line = 0; line < checkedLines; line++) {
+                    if (!batch.validationResult(line).isValid()) {
+                        lineRejected(batch, line);
+                    }
+                }
+                throw budgetExceeded();
+            }
+        }
+
+        /**
+         * The line number counts from the start of the read, which is the start of the file unless the split was
+         * ranged or resumed; the source offset is exact in every case
+         */
+        @Override
+        public synchronized void lineRejected(LineBatch batch, int line) {
+            if (!quarantine.isDeadLetterEnabled()) {
+                return;
+            }
+            if (deadLetters == null) {
+                deadLetters = new ByteArrayOutputStream(Math.min(quarantine.getBatchBytes(), 64 * 1024));
+            }
+            byte[] content = new byte[batch.lineLength(line)];
+            batch.buffer().get(batch.lineStart(line), content);
+            try (JsonGenerator generator = JSON_FACTORY.createGenerator(deadLetters)) {
+                generator.writeStartObject();
+                generator.writeNumberField("line", batch.firstLineNumber() + line);
+                generator.writeNumberField("offset", batch.sourceOffset() + batch.lineStart(line));
+                generator.writeStringField("error", batch.validationResult(line).error());
+                generator.writeStringField("content", new String(content, StandardCharsets.UTF_8));
+                generator.writeEndObject();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            deadLetters.write('\n');
+            if (deadLetters.size() >= quarantine.getBatchBytes()) {
+                uploadDeadLetters();
+            }
+        }
+
+        @Override
+        public synchronized void chunkSealed(Chunk chunk) {
+            if (chunk.endSourceOffset() <= chunkStartOffset) { // the last chunk of a partition ending before the others
+                return;
+            }
+            uploadDeadLetters();
+            chunkStartOffset = chunk.endSourceOffset();
+            chunkDeadLetters = 0;
+        }
+
+        private synchronized void uploadDeadLetters() {
+            if (deadLetters == null || deadLetters.size() == 0) {
+                return;
+            }
+            byte[] content = deadLetters.toByteArray();
+            deadLetters = null;
+            deadLetterUploads.add(quarantine.upload(inputFile, chunkStartOffset, ++chunkDeadLetters, ByteBuffer.wrap(content)));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.zuzu.sg.review.splitter.quarantine;
+
+import com.zuzu.sg.review.splitter.utility.S3TransferService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sets the reviews rejected by the validator aside instead of dropping them. With split-file-quarantine-enabled the
+ * rejected lines are written in batches to dead-letter objects under split-file-quarantine-prefix, per source file.
+ * With split-file-error-budget-max-invalid-lines or split-file-error-budget-max-invalid-rate a file with too many rejected
+ * lines is aborted early, before the rest of it is downloaded and split.
+ */
+@Component
+public class ReviewQuarantine {
+
+    private static final Logger log = LoggerFactory.getLogger(ReviewQuarantine.class);
+
+    @Autowired
+    S3TransferService s3TransferService;
+
+    @Value("${split-file-quarantine-enabled:true}")
+    private boolean deadLetterEnabled;
+
+    @Value("${aws.s3.quarantine-bucket-name:${aws.s3.archive-bucket-name}}")
+    private String quarantineBucketName;
+
+    @Value("${split-file-quarantine-prefix:split-rejected/}")
+    private String quarantinePrefix;
+
+    @Value("${split-file-quarantine-batch-bytes:1048576}")
+    private int batchBytes;
+
+    @Value("${split-file-error-budget-max-invalid-lines:0}")
+    private long maxInvalidLines;
+
+    @Value("${split-file-error-budget-max-invalid-rate:0}")
+    private double maxInvalidRate;
+
+    @Value("${split-file-error-budget-window-lines:10000}")
+    private int windowLines;
+
+    /**
+     * @param inputFile
+     * @return the quarantine session of a split, null when neither the dead letters nor an error budget are enabled
+     */
+    public QuarantineSession open(String inputFile) {
+        if (!deadLetterEnabled && maxInvalidLines <= 0 && maxInvalidRate <= 0) {
+            return null;
+        }
+        return new QuarantineSession(this, inputFile, new ErrorBudget(maxInvalidLines, maxInvalidRate, windowLines));
+    }
+
+    boolean isDeadLetterEnabled() {
+        return deadLetterEnabled;
+    }
+
+    int getBatchBytes() {
+        return batchBytes;
+    }
+
+    /**
+     * @param inputFile
+     * @param chunkOffset source offset the chunk of the rejected lines starts at
+     * @param number number of the dead-letter object within the chunk, from 1
+     * @param content the records of the rejected lines, one per line
+     * @return completes with the key of the dead-letter object
+     */
+    CompletableFuture<String> upload(String inputFile, long chunkOffset, int number, ByteBuffer content) {
+        String key = String.format("%s%s/rejected-%019d-%d.jsonl", quarantinePrefix, inputFile, chunkOffset, number);
+        log.info("Quarantining {} bytes of rejected lines of '{}' to {}", content.remaining(), inputFile, key);
+        return s3TransferService.upload(quarantineBucketName, key, List.of(content), content.remaining(), "application/jsonl");
+    }
+}
@@ -0,0 +1,10 @@
+package com.zuzu.sg.review.splitter.registry;
+
+/**
+ * A split recorded in the registry
+ * @param sourceKey the source file that was split
+ * @param sourceETag the version of the source file that was split, its manifest is rewritten when a later version is split
+ * @param manifestKey key of its chunk manifest in the destination reducer bucket
+ */
+public record CompletedSplit(String sourceKey, String sourceETag, String manifestKey) {
+}
@@ -0,0 +1,188 @@
+package com.zuzu.sg.review.splitter.registry;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Remembers the completed splits by the content of their source file, so a byte-identical file uploaded again
+ * is not downloaded and split a second time. The splits are kept in the split-registry-jdbc-url PostgreSQL database,
+ * with the most recently used ones cached in memory in front of it.
+ * The content is identified by the SHA checksum of the source when it was uploaded with one, else by its ETag,
+ * together with its size. A multipart or SSE-KMS upload gets a different ETag for the same bytes, so such a file may be
+ * split again but a different file is never taken for a split one.
+ * A split is recorded with the version of its source file, a later version split under the same key replaces its
+ * manifest and chunks, so the split is then no longer reused.
+ * The registry is an optimization only: when the database cannot be reached the file is split as usual.
+ * It is queried once per file, so it opens a connection per query instead of keeping a pool. The connection, the
+ * login and every statement are bounded by split-registry-timeout-seconds, so a slow or unreachable database holds a
+ * split back for at most about that long before it is split without the registry.
+ * A runtime switch rather than a condition, so the bean definitions generated ahead of time fit both modes.
+ */
+@Component
+public class SplitRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(SplitRegistry.class);
+
+    private static final String CREATE_TABLE = """
+            CREATE TABLE IF NOT EXISTS completed_splits (
+                content_key VARCHAR(256) NOT NULL,
+                settings VARCHAR(256) NOT NULL,
+                source_key TEXT NOT NULL,
+                source_etag TEXT NOT NULL,
+                manifest_key TEXT NOT NULL,
+                completed_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+                PRIMARY KEY (content_key, settings)
+            )""";
+    private static final String SELECT_SPLIT = "SELECT source_key, source_etag, manifest_key FROM completed_splits WHERE content_key = ? AND settings = ?";
+    private static final String UPSERT_SPLIT = """
+            INSERT INTO completed_splits (content_key, settings, source_key, source_etag, manifest_key) VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT (content_key, settings)
+            DO UPDATE SET source_key = EXCLUDED.source_key, source_etag = EXCLUDED.source_etag, manifest_key = EXCLUDED.manifest_key,
+                completed_at = now()""";
+
+    @Value("${split-registry-enabled:false}")
+    private boolean registryEnabled;
+
+    @Value("${split-registry-jdbc-url:}")
+    private String jdbcUrl;
+
+    @Value("${split-registry-username:}")
+    private String username;
+
+    @Value("${split-registry-password:}")
+    private String password;
+
+    @Value("${split-registry-cache-size:10000}")
+    private int cacheSize;
+
+    @Value("${split-registry-timeout-seconds:2}")
+    private int timeoutSeconds;
+
+    private Map<String, CompletedSplit> recentSplits;
+
+    @PostConstruct
+    void init() {
+        recentSplits = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletedSplit> eldest) {
+                return size() > cacheSize;
+            }
+        });
+        if (!registryEnabled) {
+            return;
+        }
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout(timeoutSeconds);
+            statement.execute(CREATE_TABLE);
+        } catch (SQLException e) { // the service starts even when the database is down, every file is then split
+            log.warn("Failed to create the split registry table: {}", e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return registryEnabled;
+    }
+
+    /**
+     * @param sourceObject the source file, headed with its checksum
+     * @param settings the split settings the chunks depend on
+     * @return the earlier split of the same content with the same settings, or null when there is none
+     */
+    public CompletedSplit find(HeadObjectResponse sourceObject, String settings) {
+        if (!registryEnabled) {
+            return null;
+        }
+        String contentKey = contentKey(sourceObject);
+        CompletedSplit split = recentSplits.get(cacheKey(contentKey, settings));
+        if (split != null) {
+            return split;
+        }
+        try (Connection connection = connect(); PreparedStatement statement = connection.prepareStatement(SELECT_SPLIT)) {
+            statement.setQueryTimeout(timeoutSeconds);
+            statement.setString(1, contentKey);
+            statement.setString(2, settings);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    split = new CompletedSplit(resultSet.getString(1), resultSet.getString(2), resultSet.getString(3));
+                    recentSplits.put(cacheKey(contentKey, settings), split);
+                }
+            }
+        } catch (SQLException e) {
+            log.warn("Failed to look up the content {} in the split registry, splitting it: {}", contentKey, e.getMessage());
+        }
+        return split;
+    }
+
+    /**
+     * Records a completed split, replacing any earlier split of the same content with the same settings
+     * @param sourceObject the source file, headed with its checksum
+     * @param settings the split settings the chunks depend on
+     * @param split
+     */
+    public void record(HeadObjectResponse sourceObject, String settings, CompletedSplit split) {
+        if (!registryEnabled) {
+            return;
+        }
+        String contentKey = contentKey(sourceObject);
+        try (Connection connection = connect(); PreparedStatement statement = connection.prepareStatement(UPSERT_SPLIT)) {
+            statement.setQueryTimeout(timeoutSeconds);
+            statement.setString(1, contentKey);
+            statement.setString(2, settings);
+            statement.setString(3, split.sourceKey());
+            statement.setString(4, split.sourceETag());
+            statement.setString(5, split.manifestKey());
+            statement.executeUpdate();
+            recentSplits.put(cacheKey(contentKey, settings), split);
+        } catch (SQLException e) {
+            log.warn("Failed to record the split of '{}' in the split registry: {}", split.sourceKey(), e.getMessage());
+        }
+    }
+
+    /**
+     * CRC checksums are too short to tell millions of files apart, they are never used
+     * @return the SHA checksum, else the ETag, of the source object with its size
+     */
+    static String contentKey(HeadObjectResponse sourceObject) {
+        String checksum;
+        if (sourceObject.checksumSHA256() != null) {
+            checksum = "sha256:" + sourceObject.checksumSHA256();
+        } else if (sourceObject.checksumSHA1() != null) {
+            checksum = "sha1:" + sourceObject.checksumSHA1();
+        } else {
+            checksum = "etag:" + sourceObject.eTag();
+        }
+        return checksum + ":" + sourceObject.contentLength();
+    }
+
+    /**
+     * The timeouts of the PostgreSQL driver, in seconds, a timeout set in split-registry-jdbc-url takes precedence
+     */
+    private Connection connect() throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty("user", username);
+        properties.setProperty("password", password);
+        properties.setProperty("connectTimeout", Integer.toString(timeoutSeconds));
+        properties.setProperty("loginTimeout", Integer.toString(timeoutSeconds));
+        properties.setProperty("socketTimeout", Integer.toString(timeoutSeconds));
+        return DriverManager.getConnection(jdbcUrl, properties);
+    }
+
+    private static String cacheKey(String contentKey, String settings) {
+        return contentKey + "|" + settings;
+    }
+}
@@ -0,0 +1,37 @@
+package com.zuzu.sg.review.splitter.utility;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the executors of the blocking S3 calls: ranged downloads, copies, deletes and, in virtual thread mode, uploads.
+ * With split-io-virtual-threads-enabled every task runs on its own virtual thread, so a blocked call costs no platform
+ * thread and the callers bound their concurrency with semaphores. Otherwise the tasks share a pool of platform threads.
+ */
+@Component
+public class BlockingIoExecutors {
+
+    @Value("${split-io-virtual-threads-enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    public boolean isVirtualThreadsEnabled() {
+        return virtualThreadsEnabled;
+    }
+
+    /**
+     * @param name prefix of the thread names
+     * @param platformThreads size of the pool when virtual threads are disabled, 0 for a pool that grows on demand
+     * @return the executor, shut down by its owner
+     */
+    public ExecutorService create(String name, int platformThreads) {
+        if (virtualThreadsEnabled) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        }
+        ThreadFactory threadFactory = Thread.ofPlatform().name(name + "-", 0).factory();
+        return platformThreads > 0 ? Executors.newFixedThreadPool(platformThreads, threadFactory) : Executors.newCachedThreadPool(threadFactory);
+    }
+}
@@ -0,0 +1,81 @@
+package com.zuzu.sg.review.splitter.utility;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Reads a chunk straight from the slices of its source buffers, without copying them into an intermediate array or file.
+ * Mark and reset are supported over the whole content, so the SDK can retry a request by rewinding the stream.
+ */
+public class ByteBuffersInputStream extends InputStream {
+
+    private final ByteBuffer[] buffers;
+    private final int[] startPositions;
+    private int current;
+    private int markBuffer;
+    private int markPosition;
+
+    public ByteBuffersInputStream(List<ByteBuffer> parts) {
+        this.buffers = new ByteBuffer[parts.size()];
+        this.startPositions = new int[parts.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = parts.get(i).duplicate(); // own positions, the parts stay untouched
+            startPositions[i] = buffers[i].position();
+        }
+        this.markPosition = buffers.length > 0 ? startPositions[0] : 0;
+    }
+
+    @Override
+    public int read() {
+        ByteBuffer buffer = currentBuffer();
+        return buffer == null ? -1 : buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        int read = 0;
+        ByteBuffer buffer;
+        while (read < length && (buffer = currentBuffer()) != null) {
+            int count = Math.min(length - read, buffer.remaining());
+            buffer.get(bytes, offset + read, count);
+            read += count;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    @Override
+    public int available() {
+        ByteBuffer buffer = currentBuffer();
+        return buffer == null ? 0 : buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        markBuffer = current;
+        markPosition = current < buffers.length ? buffers[current].position() : 0;
+    }
+
+    @Override
+    public synchronized void reset() {
+        for (int i = markBuffer; i < buffers.length; i++) {
+            buffers[i].position(i == markBuffer ? markPosition : startPositions[i]);
+        }
+        current = markBuffer;
+    }
+
+    private ByteBuffer currentBuffer() {
+        while (current < buffers.length && !buffers[current].hasRemaining()) {
+            current++;
+        }
+        return current < buffers.length ? buffers[current] : null;
+    }
+}
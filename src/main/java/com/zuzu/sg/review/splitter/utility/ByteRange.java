@@ -0,0 +1,19 @@
+package com.zuzu.sg.review.splitter.utility;
+
+/**
+ * A segment of an S3 object, from start (inclusive) to end (exclusive).
+ * The index gives the position of the segment in the object and is used for deterministic chunk numbering.
+ */
+public record ByteRange(int index, long start, long end) {
+
+    public long length() {
+        return end - start;
+    }
+
+    /**
+     * @return the HTTP Range header value for this segment
+     */
+    public String toHttpRange() {
+        return "bytes=" + start + "-" + (end - 1);
+    }
+}
@@ -0,0 +1,93 @@
+package com.zuzu.sg.review.splitter.utility;
+
+import com.zuzu.sg.review.splitter.pipeline.Chunk;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compresses the chunks with split-file-output-codec before they are uploaded.
+ * Compression runs on its own workers so the assembler keeps cutting chunks meanwhile.
+ */
+@Component
+public class ChunkCompressor {
+
+    private static final int COPY_BYTES = 64 * 1024;
+
+    @Value("${split-file-output-codec:NONE}")
+    private CompressionCodec outputCodec = CompressionCodec.NONE;
+
+    @Value("${split-file-output-compression-level:3}")
+    private int compressionLevel;
+
+    @Value("${split-file-output-compression-threads:0}")
+    private int compressionThreads;
+
+    private ExecutorService compressionExecutor;
+
+    @PostConstruct
+    void init() {
+        int threads = compressionThreads > 0 ? compressionThreads : Runtime.getRuntime().availableProcessors();
+        compressionExecutor = Executors.newFixedThreadPool(threads);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        compressionExecutor.shutdownNow();
+    }
+
+    public CompressionCodec getOutputCodec() {
+        return outputCodec;
+    }
+
+    /**
+     * @param chunk
+     * @return the chunk with its content compressed, or the chunk itself when the output is not compressed
+     */
+    public CompletableFuture<Chunk> compress(Chunk chunk) {
+        if (outputCodec == CompressionCodec.NONE) {
+            return CompletableFuture.completedFuture(chunk);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            byte[] compressed = compress(chunk.parts());
+            return new Chunk(chunk.key(), chunk.partition(), chunk.number(), List.of(ByteBuffer.wrap(compressed)), chunk.lineCount(), compressed.length,
+                    chunk.firstSourceOffset(), chunk.endSourceOffset());
+        }, compressionExecutor);
+    }
+
+    private byte[] compress(List<ByteBuffer> parts) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] copyBuffer = null;
+        try (OutputStream out = outputCodec.compress(compressed, compressionLevel)) {
+            for (ByteBuffer part : parts) {
+                ByteBuffer source = part.duplicate();
+                if (source.hasArray()) {
+                    out.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+                    continue;
+                }
+                if (copyBuffer == null) {
+                    copyBuffer = new byte[COPY_BYTES]; // mapped and direct buffers are copied through the heap in blocks
+                }
+                while (source.hasRemaining()) {
+                    int length = Math.min(copyBuffer.length, source.remaining());
+                    source.get(copyBuffer, 0, length);
+                    out.write(copyBuffer, 0, length);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+}
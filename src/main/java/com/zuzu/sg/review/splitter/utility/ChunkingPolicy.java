@@ -0,0 +1,82 @@
+package com.zuzu.sg.review.splitter.utility;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Decides when the chunk being assembled is full and is handed to the uploaders.
+ * The policy is selected with split-file-chunking-policy.
+ */
+@FunctionalInterface
+public interface ChunkingPolicy {
+
+    /**
+     * @param lineCount lines in the chunk so far
+     * @param byteCount UTF-8 bytes in the chunk so far, including the line separators, or the size of its records in a binary output format
+     * @return true when the chunk has to be uploaded
+     */
+    boolean isChunkFull(int lineCount, long byteCount);
+
+    /**
+     * Cuts a chunk every split-file-lines-per-chunk lines
+     */
+    static ChunkingPolicy byLineCount(int linesPerChunk) {
+        return (lineCount, byteCount) -> lineCount >= linesPerChunk;
+    }
+
+    /**
+     * Cuts a chunk as soon as it reaches split-file-target-chunk-bytes
+     */
+    static ChunkingPolicy byByteSize(long targetChunkBytes) {
+        return (lineCount, byteCount) -> byteCount >= targetChunkBytes;
+    }
+
+    /**
+     * Sizes the chunks so that the file is cut into about split-file-target-chunk-count chunks
+     * @param contentLength size of the source object
+     * @param targetChunkCount
+     */
+    static ChunkingPolicy byChunkCount(long contentLength, int targetChunkCount) {
+        long targetChunkBytes = Math.max(1, (contentLength + targetChunkCount - 1) / targetChunkCount);
+        return byByteSize(targetChunkBytes);
+    }
+
+    /**
+     * Shares split-file-target-chunk-count out over the segments of a ranged split in proportion to their size.
+     * The segments are cut independently, so one chunk size for all of them would leave every segment with a partial
+     * chunk of its own; instead each segment is cut into its share of even chunks, and the file still comes out in
+     * about the target number of chunks, at least one per segment
+     * @param segmentLengths size of every segment of the source object, in order
+     * @param targetChunkCount
+     * @return the policy of every segment
+     */
+    static List<ChunkingPolicy> byChunkCount(List<Long> segmentLengths, int targetChunkCount) {
+        long contentLength = segmentLengths.stream().mapToLong(Long::longValue).sum();
+        int[] chunkCounts = new int[segmentLengths.size()];
+        double[] remainders = new double[segmentLengths.size()];
+        int assignedChunks = 0;
+        for (int segment = 0; segment < chunkCounts.length; segment++) {
+            double share = contentLength > 0 ? (double) targetChunkCount * segmentLengths.get(segment) / contentLength : 0;
+            chunkCounts[segment] = Math.max(1, (int) share);
+            remainders[segment] = share - chunkCounts[segment];
+            assignedChunks += chunkCounts[segment];
+        }
+        // the chunks left go to the segments with the largest remainders, in segment order on a tie
+        List<Integer> byRemainder = IntStream.range(0, chunkCounts.length).boxed()
+                .sorted(Comparator.comparingDouble((Integer segment) -> remainders[segment]).reversed())
+                .toList();
+        for (int i = 0; i < byRemainder.size() && assignedChunks < targetChunkCount; i++, assignedChunks++) {
+            chunkCounts[byRemainder.get(i)]++;
+        }
+        return IntStream.range(0, chunkCounts.length)
+                .mapToObj(segment -> byChunkCount(segmentLengths.get(segment), chunkCounts[segment]))
+                .toList();
+    }
+
+    enum Mode {
+        LINES,
+        BYTES,
+        COUNT
+    }
+}
@@ -0,0 +1,99 @@
+package com.zuzu.sg.review.splitter.utility;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression of the source files and of the uploaded chunks, recognised by the key suffix or the Content-Encoding
+ */
+public enum CompressionCodec {
+
+    NONE("", null, "application/jsonl"),
+    GZIP(".gz", "gzip", "application/gzip"),
+    ZSTD(".zst", "zstd", "application/zstd");
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final String extension;
+    private final String contentEncoding;
+    private final String contentType;
+
+    CompressionCodec(String extension, String contentEncoding, String contentType) {
+        this.extension = extension;
+        this.contentEncoding = contentEncoding;
+        this.contentType = contentType;
+    }
+
+    public String extension() {
+        return extension;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    /**
+     * @param key
+     * @param contentEncoding Content-Encoding of the object, may be null
+     * @return the codec of the suffix of the key, else the codec of the Content-Encoding
+     */
+    public static CompressionCodec forSource(String key, String contentEncoding) {
+        CompressionCodec codec = forKey(key);
+        if (codec == NONE && contentEncoding != null) {
+            for (CompressionCodec candidate : values()) {
+                if (contentEncoding.equalsIgnoreCase(candidate.contentEncoding)) {
+                    return candidate;
+                }
+            }
+        }
+        return codec;
+    }
+
+    /**
+     * @param key
+     * @return the codec of the suffix of the key, NONE for plain files
+     */
+    public static CompressionCodec forKey(String key) {
+        for (CompressionCodec codec : values()) {
+            if (codec != NONE && key.endsWith(codec.extension)) {
+                return codec;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @param compressed
+     * @return a stream of the decompressed bytes
+     */
+    public InputStream decompress(InputStream compressed) throws IOException {
+        return switch (this) {
+            case NONE -> compressed;
+            case GZIP -> new GZIPInputStream(compressed, BUFFER_BYTES);
+            case ZSTD -> new ZstdInputStream(compressed);
+        };
+    }
+
+    /**
+     * @param out
+     * @param level compression level of the codec, 1 (fastest) to 9 for gzip and 1 to 22 for zstd
+     * @return a stream compressing into out
+     */
+    public OutputStream compress(OutputStream out, int level) throws IOException {
+        return switch (this) {
+            case NONE -> out;
+            case GZIP -> new GZIPOutputStream(out, BUFFER_BYTES) {
+                {
+                    def.setLevel(Math.max(1, Math.min(level, 9)));
+                }
+            };
+            case ZSTD -> new ZstdOutputStream(out, level);
+        };
+    }
+}
@@ -0,0 +1,37 @@
+package com.zuzu.sg.review.splitter.utility;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounds the total size of the source files being split at the same time.
+ * A file larger than the limit is still admitted when nothing else is in flight, so it cannot block the intake forever.
+ */
+@Component
+public class InFlightBytesLimiter {
+
+    @Value("${split-sqs-max-in-flight-bytes:8589934592}")
+    private long maxInFlightBytes;
+
+    private long inFlightBytes;
+
+    /**
+     * Blocks until the bytes fit under split-sqs-max-in-flight-bytes
+     * @param bytes
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        while (inFlightBytes > 0 && inFlightBytes + bytes > maxInFlightBytes) {
+            wait();
+        }
+        inFlightBytes += bytes;
+    }
+
+    public synchronized void release(long bytes) {
+        inFlightBytes -= bytes;
+        notifyAll();
+    }
+
+    public synchronized long getInFlightBytes() {
+        return inFlightBytes;
+    }
+}
@@ -0,0 +1,110 @@
+package com.zuzu.sg.review.splitter.utility;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Hashes a review line, or the raw JSON value at a key path inside it, to 64 bits straight from the line bytes.
+ * The key is looked up with the streaming parser, skipping the fields before it without building a tree.
+ * The hash is an XXH64 style multiply-rotate over 8 byte words and has no seed, so a key hashes the same in every
+ * process. Lines without the key are hashed whole. Thread-safe.
+ */
+public final class JsonKeyHasher {
+
+    private static final VarHandle LONG_WORDS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_3 = 0x165667B19E3779F9L;
+    private static final long PRIME_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME_5 = 0x27D4EB2F165667C5L;
+
+    private static final ThreadLocal<ByteBuffer> LINE_SCRATCH = ThreadLocal.withInitial(() -> ByteBuffer.allocate(8192));
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final String[] keyPath;
+
+    /**
+     * @param keyPath dot separated field names of the key, such as hotel.id, null or blank to hash the whole line
+     */
+    public JsonKeyHasher(String keyPath) {
+        this.keyPath = keyPath == null || keyPath.isBlank() ? null : keyPath.split("\\.");
+    }
+
+    /**
+     * @param buffer
+     * @param offset absolute index of the line in the buffer
+     * @param length length of the line, without the line separator
+     * @return the non zero hash of the raw JSON value of the key, so "42" and 42 are different keys
+     */
+    public long hash(ByteBuffer buffer, int offset, int length) {
+        if (keyPath == null) {
+            return hash64(buffer, offset, length);
+        }
+        ByteBuffer line = copyToScratch(buffer, offset, length);
+        try (JsonParser parser = jsonFactory.createParser(line.array(), 0, length)) {
+            int depth = 0;
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    boolean onPath = keyPath[depth].equals(parser.currentName());
+                    JsonToken value = parser.nextToken();
+                    if (onPath && depth == keyPath.length - 1) {
+                        int start = (int) parser.currentTokenLocation().getByteOffset();
+                        if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                            parser.skipChildren();
+                        } else {
+                            parser.finishToken();
+                        }
+                        return hash64(line, start, (int) parser.currentLocation().getByteOffset() - start);
+                    }
+                    if (onPath && value == JsonToken.START_OBJECT) {
+                        depth++; //the loop goes on with the fields of the nested object
+                    } else if (onPath) {
+                        break;
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // hashed whole below, the validator has already reported the line if it is malformed
+        }
+        return hash64(buffer, offset, length);
+    }
+
+    private static ByteBuffer copyToScratch(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer scratch = LINE_SCRATCH.get();
+        if (scratch.capacity() < length) {
+            scratch = ByteBuffer.allocate(Math.max(length, scratch.capacity() * 2));
+            LINE_SCRATCH.set(scratch);
+        }
+        scratch.put(0, buffer, offset, length);
+        return scratch;
+    }
+
+    public static long hash64(ByteBuffer buffer, int offset, int length) {
+        long hash = PRIME_5 + length;
+        int index = 0;
+        for (; index + 8 <= length; index += 8) {
+            long word = (long) LONG_WORDS.get(buffer, offset + index);
+            hash ^= Long.rotateLeft(word * PRIME_2, 31) * PRIME_1;
+            hash = Long.rotateLeft(hash, 27) * PRIME_1 + PRIME_4;
+        }
+        for (; index < length; index++) {
+            hash ^= (buffer.get(offset + index) & 0xFFL) * PRIME_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME_1;
+        }
+        hash ^= hash >>> 33;
+        hash *= PRIME_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME_3;
+        hash ^= hash >>> 32;
+        return hash != 0 ? hash : 1; //0 marks an empty slot of the hash sets
+    }
+}
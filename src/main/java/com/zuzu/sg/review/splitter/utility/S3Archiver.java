@@ -0,0 +1,183 @@
+package com.zuzu.sg.review.splitter.utility;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.Tag;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Archives the split source files with a server side copy to the archive bucket.
+ * Files above split-file-archive-multipart-threshold-bytes are copied as a multipart upload of parallel
+ * UploadPartCopy requests, which is faster for large files and required above the 5 GB limit of a single copy.
+ * The copy starts as soon as the split starts; the source is only deleted once the split has succeeded.
+ */
+@Component
+public class S3Archiver {
+
+    private static final Logger log = LoggerFactory.getLogger(S3Archiver.class);
+    private static final int MAX_PARTS = 10_000;
+
+    @Autowired
+    S3Client s3Client;
+
+    @Autowired
+    S3AsyncClient s3AsyncClient;
+
+    @Autowired
+    BlockingIoExecutors blockingIoExecutors;
+
+    @Value("${aws.s3.source-bucket-name}")
+    private String sourceBucketName;
+
+    @Value("${aws.s3.archive-bucket-name}")
+    private String archiveBucketName;
+
+    @Value("${split-file-archive-multipart-threshold-bytes:1073741824}")
+    private long multipartThresholdBytes;
+
+    @Value("${split-file-archive-part-size-bytes:134217728}")
+    private long partSizeBytes;
+
+    @Value("${split-file-archive-parallelism:8}")
+    private int parallelism;
+
+    private ExecutorService archiveExecutor;
+
+    @PostConstruct
+    void init() {
+        archiveExecutor = blockingIoExecutors.create("archive", 0); //one copy per running split
+    }
+
+    @PreDestroy
+    void shutdown() {
+        archiveExecutor.shutdownNow();
+    }
+
+    /**
+     * Starts copying the source file to the archive bucket
+     * @param inputFile
+     * @param sourceObject pins the copy to the version of the file being split
+     * @return completes with the archive key once the copy is done
+     */
+    public CompletableFuture<String> startCopy(String inputFile, HeadObjectResponse sourceObject) {
+        String archiveKey = inputFile + "_" + LocalDateTime.now();
+        return CompletableFuture.supplyAsync(() -> {
+            if (sourceObject.contentLength() > multipartThresholdBytes) {
+                copyInParts(inputFile, sourceObject, archiveKey);
+            } else {
+                s3Client.copyObject(request -> request.sourceBucket(sourceBucketName).sourceKey(inputFile).copySourceIfMatch(sourceObject.eTag())
+                        .destinationBucket(archiveBucketName).destinationKey(archiveKey));
+            }
+            log.info("Copied '{}' to archive bucket as '{}'", inputFile, archiveKey);
+            return archiveKey;
+        }, archiveExecutor);
+    }
+
+    /**
+     * Waits for the archive copy and deletes the source file
+     * @param inputFile
+     * @param archiveCopy
+     */
+    public void completeArchive(String inputFile, CompletableFuture<String> archiveCopy) {
+        archiveCopy.join();
+        s3Client.deleteObject(request -> request.bucket(sourceBucketName).key(inputFile));
+    }
+
+    /**
+     * Moves a source file rejected by its error budget out of the source bucket: its archive copy is tagged
+     * split-status=rejected and the source file is deleted, so it is not split again
+     * @param inputFile
+     * @param archiveCopy
+     */
+    public void reject(String inputFile, CompletableFuture<String> archiveCopy) {
+        String archiveKey = archiveCopy.join();
+        s3Client.putObjectTagging(request -> request.bucket(archiveBucketName).key(archiveKey)
+                .tagging(tagging -> tagging.tagSet(Tag.builder().key("split-status").value("rejected").build())));
+        s3Client.deleteObject(request -> request.bucket(sourceBucketName).key(inputFile));
+        log.info("Moved rejected '{}' to archive bucket as '{}'", inputFile, archiveKey);
+    }
+
+    /**
+     * Removes the archive copy of a split that failed, the source file stays in place for the retry
+     * @param archiveCopy
+     */
+    public void discard(CompletableFuture<String> archiveCopy) {
+        archiveCopy.whenComplete((archiveKey, e) -> {
+            if (archiveKey != null) {
+                try {
+                    s3Client.deleteObject(request -> request.bucket(archiveBucketName).key(archiveKey));
+                } catch (SdkException deleteFailure) {
+                    log.warn("Failed to remove archive copy {}: {}", archiveKey, deleteFailure.getMessage());
+                }
+            }
+        });
+    }
+
+    private void copyInParts(String inputFile, HeadObjectResponse sourceObject, String archiveKey) {
+        long contentLength = sourceObject.contentLength();
+        long partSize = Math.max(partSizeBytes, (contentLength + MAX_PARTS - 1) / MAX_PARTS);
+        String uploadId = s3AsyncClient.createMultipartUpload(request -> request.bucket(archiveBucketName).key(archiveKey)
+                .contentType(sourceObject.contentType()).contentEncoding(sourceObject.contentEncoding()).metadata(sourceObject.metadata()))
+                .join().uploadId();
+        log.info("Copying '{}' ({} bytes) to archive bucket in parts of {} bytes", inputFile, contentLength, partSize);
+
+        try {
+            Semaphore partPermits = new Semaphore(parallelism);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+            int partNumber = 1;
+            for (long start = 0; start < contentLength && failure.get() == null; start += partSize, partNumber++) {
+                partPermits.acquire();
+                int part = partNumber;
+                String range = "bytes=" + start + "-" + (Math.min(start + partSize, contentLength) - 1);
+                parts.add(s3AsyncClient.uploadPartCopy(request -> request.sourceBucket(sourceBucketName).sourceKey(inputFile)
+                                .copySourceIfMatch(sourceObject.eTag()).copySourceRange(range)
+                                .destinationBucket(archiveBucketName).destinationKey(archiveKey).uploadId(uploadId).partNumber(part))
+                        .whenComplete((response, e) -> {
+                            if (e != null) {
+                                failure.compareAndSet(null, e);
+                            }
+                            partPermits.release();
+                        })
+                        .thenApply(response -> CompletedPart.builder().partNumber(part).eTag(response.copyPartResult().eTag()).build()));
+            }
+            List<CompletedPart> completedParts = parts.stream().map(CompletableFuture::join).toList();
+            s3AsyncClient.completeMultipartUpload(request -> request.bucket(archiveBucketName).key(archiveKey).uploadId(uploadId)
+                    .multipartUpload(upload -> upload.parts(completedParts))).join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortUpload(archiveKey, uploadId);
+            throw new CompletionException("Interrupted while archiving " + inputFile, e);
+        } catch (RuntimeException e) {
+            abortUpload(archiveKey, uploadId);
+            throw e;
+        }
+    }
+
+    private void abortUpload(String archiveKey, String uploadId) {
+        s3AsyncClient.abortMultipartUpload(request -> request.bucket(archiveBucketName).key(archiveKey).uploadId(uploadId))
+                .whenComplete((response, e) -> {
+                    if (e != null) {
+                        log.warn("Failed to abort the archive upload of {}: {}", archiveKey, e.getMessage());
+                    }
+                });
+    }
+}
@@ -1,36 +1,59 @@
 package com.zuzu.sg.review.splitter.utility;
 
-import com.amazonaws.services.s3.model.*;
-import com.amazonaws.services.s3.transfer.TransferManager;
-import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
-import com.amazonaws.services.s3.transfer.Upload;
+import com.zuzu.sg.review.splitter.dedup.DedupSession;
+import com.zuzu.sg.review.splitter.dedup.ReviewDeduplicator;
+import com.zuzu.sg.review.splitter.exception.ErrorBudgetExceededException;
 import com.zuzu.sg.review.splitter.exception.S3FileProcessingException;
+import com.zuzu.sg.review.splitter.format.ChunkRecordEncoder;
+import com.zuzu.sg.review.splitter.manifest.ChunkEntry;
+import com.zuzu.sg.review.splitter.manifest.ChunkManifest;
+import com.zuzu.sg.review.splitter.manifest.ChunkManifestWriter;
+import com.zuzu.sg.review.splitter.metrics.SplitterMetrics;
+import com.zuzu.sg.review.splitter.partition.KeyPartitioner;
+import com.zuzu.sg.review.splitter.pipeline.Chunk;
+import com.zuzu.sg.review.splitter.pipeline.ChunkNamer;
+import com.zuzu.sg.review.splitter.pipeline.ChunkUploader;
+import com.zuzu.sg.review.splitter.pipeline.LineDeduplicator;
+import com.zuzu.sg.review.splitter.pipeline.LineEncoder;
+import com.zuzu.sg.review.splitter.pipeline.LinePartitioner;
+import com.zuzu.sg.review.splitter.pipeline.LineQuarantine;
+import com.zuzu.sg.review.splitter.pipeline.SplitPipelineFactory;
+import com.zuzu.sg.review.splitter.progress.SplitProgressStore;
+import com.zuzu.sg.review.splitter.progress.SplitProgressTracker;
+import com.zuzu.sg.review.splitter.quarantine.QuarantineSession;
+import com.zuzu.sg.review.splitter.quarantine.ReviewQuarantine;
+import com.zuzu.sg.review.splitter.registry.CompletedSplit;
+import com.zuzu.sg.review.splitter.registry.SplitRegistry;
 import com.zuzu.sg.review.splitter.validation.ReviewJsonlValidator;
-import org.joda.time.LocalDateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
-import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
 
 /**
- * The splitter utility to split one large jsonl file to multiple based on split-file-lines-per-chunk setting
+ * The splitter utility to split one large jsonl file to multiple based on the split-file-chunking-policy setting
  */
 @Service
 public class S3JSONLSplitter {
@@ -39,113 +62,548 @@ public class S3JSONLSplitter {
 
     @Autowired
     S3Client s3Client;
-    private final TransferManager transferManager;
+
+    @Autowired
+    S3TransferService s3TransferService;
 
     @Autowired
     ReviewJsonlValidator reviewJsonlValidator;
 
+    @Autowired
+    S3RangedReader s3RangedReader;
+
+    @Autowired
+    SplitPipelineFactory splitPipelineFactory;
+
+    @Autowired
+    SplitProgressStore splitProgressStore;
+
+    @Autowired
+    ChunkCompressor chunkCompressor;
+
+    @Autowired
+    ChunkRecordEncoder chunkRecordEncoder;
+
+    @Autowired
+    ChunkManifestWriter chunkManifestWriter;
+
+    @Autowired
+    S3Archiver s3Archiver;
+
+    @Autowired
+    ReviewDeduplicator reviewDeduplicator;
+
+    @Autowired
+    KeyPartitioner keyPartitioner;
+
+    @Autowired
+    ReviewQuarantine reviewQuarantine;
+
+    @Autowired
+    SplitRegistry splitRegistry;
+
+    @Autowired
+    SplitterMetrics splitterMetrics;
+
     @Value("${aws.s3.source-bucket-name}")
     private String sourceBucketName;
 
     @Value("${aws.s3.destination-bucket-name}")
     private String destinationBucketName;
 
-    @Value("${aws.s3.archive-bucket-name}")
-    private String archiveBucketName;
-
     @Value("${split-file-lines-per-chunk}")
     private int linesPerChunk;
 
-    public S3JSONLSplitter() {
-        this.transferManager = TransferManagerBuilder.standard()
-                .withExecutorFactory(() -> Executors.newFixedThreadPool(5))
-                .build(); //executors initialized for parallel processing
-    }
+    @Value("${split-file-chunking-policy:LINES}")
+    private ChunkingPolicy.Mode chunkingMode = ChunkingPolicy.Mode.LINES;
+
+    @Value("${split-file-target-chunk-bytes:134217728}")
+    private long targetChunkBytes;
+
+    @Value("${split-file-target-chunk-count:64}")
+    private int targetChunkCount;
+
+    @Value("${split-file-streaming-enabled:true}")
+    private boolean streamingEnabled;
+
+    @Value("${split-file-range-enabled:true}")
+    private boolean rangedEnabled;
 
     /**
-     * Handles the splitting and moving of file to the destination bucket with archiving the processed file
+     * Handles the splitting and moving of file to the destination bucket with archiving the processed file.
+     * In streaming mode the lines are read straight from the S3 object stream, so chunk uploads start while
+     * the download is still running. Otherwise the file is downloaded into the work directory of the job first,
+     * which is memory-mapped and uploaded chunk by chunk straight from the mapping.
+     * Files larger than one range segment are fetched and split as parallel newline aligned segments.
+     * Gzip and zstd files are decompressed while they are read, they are never split in ranges as the compressed
+     * bytes cannot be cut at line boundaries. Their offsets are positions in the decompressed lines.
+     * The progress is saved as the chunks are uploaded, a retry of the same file resumes after the last committed chunk.
+     * The archive copy runs alongside the split, the source file is deleted once the split and the copy have both succeeded.
+     * The lines rejected by the validator are quarantined to dead-letter objects, and once the file has used up its
+     * error budget the split is aborted: the download stops and no further chunk is uploaded. The file is then rejected
+     * rather than retried, its progress is discarded and it is moved to the archive bucket tagged split-status=rejected.
+     * With split-file-dedup-enabled the reviews already split from this or an earlier file are dropped.
+     * With a binary split-file-output-format the reviews are re-encoded into Smile or CBOR records as they are validated.
+     * With split-file-partition-count the reviews are cut into chunks per key partition. The chunks of the partitions
+     * interleave in the source, so a partitioned split is not resumable and a retry uploads every chunk again.
+     * With split-registry-enabled a file whose content was already split with the same settings is not downloaded:
+     * the manifest of the earlier split is published for it and the file is only archived.
+     * A file no longer in the source bucket was split and archived by an earlier delivery of its event, it is not split again.
+     * Runs on the calling thread, concurrent files are scheduled by SplitJobScheduler.
      * @param inputFile
+     * @param workDirectory directory owned by this job for its temporary files
+     * @return the keys of the uploaded chunks, once the source file is archived; empty for a rejected file
      */
-    public void splitFile(String inputFile) {
-        CompletableFuture.supplyAsync(() -> {
-            List<String> uploadedSplitFiles = new ArrayList<>();
-            Path tempFile = null;
+    public List<String> splitFile(String inputFile, Path workDirectory) {
+        Path tempFile = null;
+        SplitProgressTracker progress = null;
+        QuarantineSession quarantineSession = null;
+        CompletableFuture<String> archiveCopy = null;
+        boolean completed = false;
+        boolean skipped = false;
+        boolean rejected = false;
+        long startNanos = System.nanoTime();
+        long contentLength = -1;
 
-            try {
-                tempFile = downloadFileFromS3(inputFile);
-
-                try (BufferedReader reader = Files.newBufferedReader(tempFile)) {
-                    String line;
-                    List<String> currentChunkLines = new ArrayList<>();
-                    int chunkNumber = 1;
-
-                    List<CompletableFuture<String>> chunkUploadFutures = new ArrayList<>();
-
-                    while ((line = reader.readLine()) != null) {
-                        List<String> validationErrors = reviewJsonlValidator.validateReviewJsonl(line);
-                        if(validationErrors.isEmpty()) { // this means the json is not well formed
-                            currentChunkLines.add(line);
-
-                            if (currentChunkLines.size() >= linesPerChunk) {
-                                String splitFileName = generateSplitFileName(inputFile, chunkNumber);
-                                chunkUploadFutures.add(uploadChunkAsync(currentChunkLines, splitFileName));
-                                uploadedSplitFiles.add(splitFileName);
-                                currentChunkLines.clear();
-                                chunkNumber++;
-                            }
-                        }
-                    }
+        try {
+            HeadObjectResponse sourceObject = headSourceObject(inputFile);
+            if (sourceObject == null) {
+                completed = true;
+                skipped = true;
+                return alreadySplitFiles(inputFile);
+            }
+            contentLength = sourceObject.contentLength();
+            List<String> reusedSplitFiles = reuseEarlierSplit(inputFile, sourceObject);
+            if (reusedSplitFiles != null) {
+                completed = true;
+                skipped = true;
+                return reusedSplitFiles;
+            }
+            CompressionCodec inputCodec = CompressionCodec.forSource(inputFile, sourceObject.contentEncoding());
+            boolean ranged = inputCodec == CompressionCodec.NONE && rangedEnabled && contentLength > s3RangedReader.getSegmentSizeBytes();
+            List<ByteRange> segments = ranged
+                    ? s3RangedReader.planSegments(sourceBucketName, inputFile, sourceObject.eTag(), contentLength)
+                    : List.of(new ByteRange(0, 0, inputCodec == CompressionCodec.NONE ? contentLength : Long.MAX_VALUE)); // decompressed size unknown
+            ChunkingPolicy chunkingPolicy = chunkingPolicyFor(contentLength);
+            LinePartitioner partitioner = keyPartitioner.isEnabled() ? keyPartitioner : null;
+            progress = partitioner != null
+                    ? SplitProgressTracker.untracked(inputFile, segments)
+                    : splitProgressStore.resume(inputFile, sourceObject.eTag(), splitSettings(), segments);
+            archiveCopy = s3Archiver.startCopy(inputFile, sourceObject);
+            DedupSession dedupSession = reviewDeduplicator.open(inputFile, sourceObject.eTag(), segments.size(), progress.isResumable());
+            quarantineSession = reviewQuarantine.open(inputFile);
+
+            List<String> uploadedSplitFiles;
+            if (ranged) {
+                uploadedSplitFiles = splitFromS3Ranges(inputFile, sourceObject, segments, segmentChunkingPolicies(segments, chunkingPolicy),
+                        quarantineSession, dedupSession, partitioner, progress);
+            } else if (streamingEnabled) {
+                uploadedSplitFiles = splitFromS3Stream(inputFile, sourceObject, inputCodec, chunkingPolicy, quarantineSession, dedupSession,
+                        partitioner, progress);
+            } else {
+                tempFile = downloadFileFromS3(inputFile, inputCodec, workDirectory);
+                LineQuarantine fileQuarantine = segmentQuarantine(quarantineSession);
+                LineDeduplicator fileDeduplicator = segmentDeduplicator(dedupSession, progress, 0);
+                try (FileChannel fileChannel = FileChannel.open(tempFile, StandardOpenOption.READ)) {
+                    uploadedSplitFiles = splitSegment(0, progress,
+                            (partition, chunkNumber) -> generateSplitFileName(partitionFileName(inputFile, partitioner, partition), chunkNumber),
+                            (resumeOffset, chunkNamer, uploader) -> splitPipelineFactory.create(fileChannel, resumeOffset,
+                                    reviewJsonlValidator, fileQuarantine, fileDeduplicator, partitioner, recordEncoder(), chunkingPolicy, chunkNamer, uploader).run());
+                }
+            }
 
-                    if (!currentChunkLines.isEmpty()) {
-                        String chunkFileName = generateSplitFileName(inputFile, chunkNumber);
-                        chunkUploadFutures.add(uploadChunkAsync(currentChunkLines, chunkFileName));
-                        uploadedSplitFiles.add(chunkFileName);
-                    }
+            log.info("Finished splitting and uploading files for '{}'. Total chunks uploaded: {}", inputFile, uploadedSplitFiles.size());
+            if (quarantineSession != null) {
+                quarantineSession.complete();
+                log.info("Quarantined {} rejected lines of '{}'", quarantineSession.getRejectedCount(), inputFile);
+            }
+
+            String manifestKey = generateManifestFileName(inputFile);
+            chunkManifestWriter.write(manifestKey, ChunkManifest.of(inputFile, sourceObject.eTag(),
+                    chunkCompressor.getOutputCodec().name(), chunkRecordEncoder.getOutputFormat().name(),
+                    partitioner != null ? partitioner.partitionCount() : 0, progress.chunkEntries()));
+            s3Archiver.completeArchive(inputFile, archiveCopy);
+            completed = true;
+            progress.complete();
+            splitRegistry.record(sourceObject, splitSettings(), new CompletedSplit(inputFile, sourceObject.eTag(), manifestKey));
+            if (dedupSession != null) {
+                dedupSession.complete();
+                log.info("Dropped {} duplicate reviews of '{}'", dedupSession.getDuplicateCount(), inputFile);
+            }
+            return uploadedSplitFiles;
+
+        } catch (IOException e) {
+            log.error("Error splitting or uploading JSONL file: {}", e.getMessage(), e);
+            throw new S3FileProcessingException("Failed to process JSONL file: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            ErrorBudgetExceededException budgetExceeded = errorBudgetExceeded(e);
+            if (budgetExceeded == null || progress == null) {
+                throw e;
+            }
+            log.error("Rejecting '{}': {}", inputFile, budgetExceeded.getMessage());
+            progress.discard();
+            s3Archiver.reject(inputFile, archiveCopy);
+            rejected = true;
+            return List.of();
+        } finally {
+            if (!skipped) { // reused splits are counted apart, so they do not skew the durations of the splits
+                splitterMetrics.jobFinished(contentLength, System.nanoTime() - startNanos, completed);
+            }
+            if (progress != null && !completed && !rejected) {
+                progress.flush();
+            }
+            if (quarantineSession != null && !completed) {
+                quarantineSession.flush();
+            }
+            if (archiveCopy != null && !completed && !rejected) {
+                s3Archiver.discard(archiveCopy);
+            }
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                    log.info("Cleaning up the temporary jl file created: {}", tempFile);
+                } catch (IOException e) {
+                    log.warn("Failed to delete temporary file {}: {}", tempFile, e.getMessage());
+                }
+            }
+        }
+    }
 
-                    CompletableFuture.allOf(chunkUploadFutures.toArray(new CompletableFuture[0])).join();
+    /**
+     * @param failure
+     * @return the error budget abort the failure comes from, a segment of a ranged split wraps it; null for any other failure
+     */
+    private static ErrorBudgetExceededException errorBudgetExceeded(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ErrorBudgetExceededException budgetExceeded) {
+                return budgetExceeded;
+            }
+        }
+        return null;
+    }
 
-                    log.info("Finished splitting and uploading files for '{}'. Total chunks uploaded: {}", inputFile, uploadedSplitFiles.size());
+    /**
+     * The source file is deleted once it is split and archived, so a redelivered event of several files finds the files
+     * an earlier delivery already split missing. They count as split, and the message can be acknowledged.
+     * @param inputFile
+     * @return the keys of the chunks of its published manifest, empty when there is no manifest either
+     */
+    private List<String> alreadySplitFiles(String inputFile) {
+        ChunkManifest manifest = chunkManifestWriter.read(generateManifestFileName(inputFile));
+        if (manifest == null) {
+            log.warn("'{}' is not in the source bucket and has no chunk manifest, there is nothing to split", inputFile);
+            return List.of();
+        }
+        log.info("'{}' was already split and archived, its {} chunks are published", inputFile, manifest.chunkCount());
+        return manifest.chunks().stream().map(ChunkEntry::key).toList();
+    }
 
-                    moveSourceFileToArchiveBucket(inputFile);
-                    return uploadedSplitFiles;
-                }
+    /**
+     * Publishes the chunks of an earlier split of the same content for the file and archives the file.
+     * The chunks are copied under the names of the file on the server side, so a later split of the earlier source,
+     * which overwrites its own chunks, leaves the chunks of the file as they are. The earlier split is only reused while
+     * its manifest is still the one of the recorded version of its source, and while every copy has the CRC32C listed in it.
+     * @param inputFile
+     * @param sourceObject
+     * @return the keys of the copied chunks, or null when the file has to be split
+     */
+    private List<String> reuseEarlierSplit(String inputFile, HeadObjectResponse sourceObject) {
+        CompletedSplit earlierSplit = splitRegistry.find(sourceObject, splitSettings());
+        if (earlierSplit == null) {
+            return null;
+        }
+        ChunkManifest earlierManifest = chunkManifestWriter.read(earlierSplit.manifestKey());
+        if (earlierManifest == null || !earlierSplit.sourceETag().equals(earlierManifest.sourceETag())) {
+            log.info("The chunk manifest {} of '{}' no longer exists or was replaced by a later version, splitting '{}' again",
+                    earlierSplit.manifestKey(), earlierSplit.sourceKey(), inputFile);
+            return null;
+        }
+        List<ChunkEntry> copiedChunks = copyEarlierChunks(inputFile, earlierSplit.sourceKey(), earlierManifest);
+        if (copiedChunks == null) {
+            return null;
+        }
+        chunkManifestWriter.write(generateManifestFileName(inputFile), earlierManifest.forSource(inputFile, sourceObject.eTag(), copiedChunks));
+        s3Archiver.completeArchive(inputFile, s3Archiver.startCopy(inputFile, sourceObject));
+        splitterMetrics.splitReused();
+        log.info("'{}' has the content of '{}', copied its {} chunks instead of splitting it", inputFile, earlierSplit.sourceKey(),
+                earlierManifest.chunkCount());
+        return copiedChunks.stream().map(ChunkEntry::key).toList();
+    }
 
-            } catch (IOException e) {
-                log.error("Error splitting or uploading JSONL file: {}", e.getMessage(), e);
-                throw new CompletionException("Failed to process JSONL file: " + e.getMessage(), e);
-            } finally {
-                if (tempFile != null) {
-                    try {
-                        Files.deleteIfExists(tempFile);
-                        log.info("Cleaning up the temporary jl file created: {}", tempFile);
-                    } catch (IOException e) {
-                        log.warn("Failed to delete temporary file {}: {}", tempFile, e.getMessage());
-                    }
+    /**
+     * @param inputFile
+     * @param earlierSourceKey
+     * @param earlierManifest
+     * @return the manifest entries of the chunks copied under the names of the file, or null when a chunk could not be
+     *         copied unchanged; the chunks already copied are then overwritten by the split of the file
+     */
+    private List<ChunkEntry> copyEarlierChunks(String inputFile, String earlierSourceKey, ChunkManifest earlierManifest) {
+        if (earlierSourceKey.equals(inputFile)) { // the same file uploaded again, its chunks are its own
+            return earlierManifest.chunks();
+        }
+        String earlierPrefix = removeExtension(earlierSourceKey) + "-";
+        String prefix = removeExtension(inputFile) + "-";
+        if (!earlierManifest.chunks().stream().allMatch(chunk -> chunk.key().startsWith(earlierPrefix))) {
+            log.warn("The chunks of '{}' are not named after it, splitting '{}' again", earlierSourceKey, inputFile);
+            return null;
+        }
+        List<CompletableFuture<ChunkEntry>> copies = new ArrayList<>();
+        for (ChunkEntry chunk : earlierManifest.chunks()) {
+            String key = prefix + chunk.key().substring(earlierPrefix.length());
+            copies.add(s3TransferService.copy(destinationBucketName, chunk.key(), key).thenApply(crc32c -> {
+                if (!chunk.crc32c().equals(crc32c)) {
+                    throw new IllegalStateException("Chunk " + chunk.key() + " was overwritten since it was split");
                 }
+                return new ChunkEntry(key, chunk.segment(), chunk.partition(), chunk.number(), chunk.recordCount(), chunk.byteCount(),
+                        chunk.crc32c(), chunk.sourceStart(), chunk.sourceEnd());
+            }));
+        }
+        try {
+            CompletableFuture.allOf(copies.toArray(CompletableFuture[]::new)).join();
+            return copies.stream().map(CompletableFuture::join).toList();
+        } catch (CompletionException e) {
+            log.info("Failed to copy the chunks of '{}', splitting '{}' again: {}", earlierSourceKey, inputFile, e.getCause().getMessage());
+            return null;
+        }
+    }
 
-                if (transferManager != null) {
-                    transferManager.shutdownNow(true);
+    /**
+     * Reads the lines directly from the S3 GetObject stream, starting at the resume offset of the file.
+     * A compressed file is read from its first byte and the decompressed lines before the resume offset are skipped.
+     * The stream is aborted on failure so the remaining bytes of a large object are not drained over the connection.
+     * @param inputFile
+     * @param sourceObject
+     * @param inputCodec compression of the file
+     * @param chunkingPolicy
+     * @param quarantineSession
+     * @param dedupSession
+     * @param partitioner
+     * @param progress
+     * @return the keys of the uploaded chunks
+     */
+    private List<String> splitFromS3Stream(String inputFile, HeadObjectResponse sourceObject, CompressionCodec inputCodec, ChunkingPolicy chunkingPolicy,
+                                           QuarantineSession quarantineSession, DedupSession dedupSession, LinePartitioner partitioner,
+                                           SplitProgressTracker progress) throws IOException {
+        return splitSegment(0, progress, (partition, chunkNumber) -> generateSplitFileName(partitionFileName(inputFile, partitioner, partition), chunkNumber),
+                (resumeOffset, chunkNamer, uploader) -> {
+            boolean compressed = inputCodec != CompressionCodec.NONE;
+            ResponseInputStream<GetObjectResponse> s3Stream = openS3Stream(inputFile, sourceObject.eTag(), compressed ? 0 : resumeOffset);
+            try {
+                InputStream lines = inputCodec.decompress(s3Stream);
+                if (compressed) {
+                    lines.skipNBytes(resumeOffset);
                 }
+                List<String> uploadedSplitFiles = splitStream(lines, resumeOffset, chunkingPolicy, segmentQuarantine(quarantineSession),
+                        segmentDeduplicator(dedupSession, progress, 0), partitioner, chunkNamer, uploader);
+                lines.close();
+                return uploadedSplitFiles;
+            } catch (IOException | RuntimeException e) {
+                s3Stream.abort();
+                throw e;
             }
         });
     }
 
     /**
-     * Once the splitting is complete, the file is moved to archive bucket for auditing
-     * Copy and delete is followed
+     * Splits the newline aligned segments of the file in parallel, each on its own ranged GET from its resume offset.
+     * Chunks are numbered per segment, so the chunk keys do not depend on which segment finishes first.
      * @param inputFile
+     * @param sourceObject
+     * @param segments
+     * @param chunkingPolicies the chunking policy of every segment
+     * @param quarantineSession shared by the segments, a segment exceeding the error budget aborts the others; each segment sets its rejected lines aside on its own
+     * @param dedupSession shared by the segments, a review repeated in two segments is kept in the one that reaches it first
+     * @param partitioner
+     * @param progress
+     * @return the keys of the uploaded chunks in file order
      */
-    private void moveSourceFileToArchiveBucket(String inputFile) {
-        s3Client.copyObject(request -> request.sourceBucket(sourceBucketName).sourceKey(inputFile).destinationBucket(archiveBucketName).destinationKey(inputFile + "_" + LocalDateTime.now()));
-        DeleteObjectRequest deleteObjectRequest = new DeleteObjectRequest(sourceBucketName, inputFile);
-        s3Client.deleteObject(request -> request.bucket(sourceBucketName).key(inputFile));
+    private List<String> splitFromS3Ranges(String inputFile, HeadObjectResponse sourceObject, List<ByteRange> segments, List<ChunkingPolicy> chunkingPolicies,
+                                           QuarantineSession quarantineSession, DedupSession dedupSession, LinePartitioner partitioner,
+                                           SplitProgressTracker progress) {
+        List<ByteRange> remainingSegments = segments.stream()
+                .map(segment -> new ByteRange(segment.index(), progress.resumeOffset(segment.index()), segment.end()))
+                .toList();
+        List<List<String>> segmentSplitFiles = s3RangedReader.processSegments(sourceBucketName, inputFile, sourceObject.eTag(), remainingSegments,
+                (segment, segmentStream) -> splitSegment(segment.index(), progress,
+                        (partition, chunkNumber) -> generateSplitFileName(partitionFileName(inputFile, partitioner, partition), segment.index() + 1, chunkNumber),
+                        (resumeOffset, chunkNamer, uploader) -> splitStream(segmentStream, resumeOffset, chunkingPolicies.get(segment.index()),
+                                segmentQuarantine(quarantineSession), segmentDeduplicator(dedupSession, progress, segment.index()), partitioner,
+                                chunkNamer, uploader)));
+        return segmentSplitFiles.stream().flatMap(List::stream).toList();
     }
 
-    private Path downloadFileFromS3(String inputFile) throws IOException {
-        Path tempFile = Paths.get("uploaded-reviews.jl");
+    /**
+     * Splits one segment from its resume offset. The new chunks are numbered after the chunks committed by earlier
+     * attempts, and the chunks an earlier attempt uploaded after its last commit are not uploaded again.
+     * @param segment index of the segment
+     * @param progress
+     * @param chunkNamer gives the destination key of each chunk of the segment
+     * @param segmentSplit runs the pipeline over the rest of the segment
+     * @return the keys of all the chunks of the segment, including the ones committed by earlier attempts
+     */
+    private List<String> splitSegment(int segment, SplitProgressTracker progress, ChunkNamer chunkNamer,
+                                      SegmentSplit segmentSplit) throws IOException {
+        int resumeChunks = progress.resumeChunks(segment); // always 0 for a partitioned split, which is untracked
+        List<String> uploadedSplitFiles = new ArrayList<>(IntStream.rangeClosed(1, resumeChunks)
+                .mapToObj(chunkNumber -> chunkNamer.key(0, chunkNumber)).toList());
+        if (progress.isSegmentComplete(segment)) {
+            return uploadedSplitFiles;
+        }
+
+        ChunkUploader uploader = chunk -> {
+            ChunkEntry previousUpload = progress.previouslyUploaded(segment, chunk.key(), chunk.firstSourceOffset(), chunk.endSourceOffset(),
+                    chunk.lineCount());
+            CompletableFuture<ChunkEntry> upload = previousUpload != null
+                    ? CompletableFuture.completedFuture(previousUpload)
+                    : uploadChunkAsync(chunk, segment, resumeChunks + chunk.number());
+            return upload.thenApply(entry -> {
+                progress.chunkUploaded(entry);
+                return entry.key();
+            });
+        };
+        uploadedSplitFiles.addAll(segmentSplit.split(progress.resumeOffset(segment),
+                (partition, chunkNumber) -> chunkNamer.key(partition, resumeChunks + chunkNumber), uploader));
+        return uploadedSplitFiles;
+    }
+
+    /**
+     * @return the settings the chunks of a split depend on. An earlier split of the same content is only reused, and the
+     *         progress of an earlier attempt only resumed, with the same ones
+     */
+    private String splitSettings() {
+        String chunking = switch (chunkingMode) {
+            case BYTES -> chunkingMode + ":" + targetChunkBytes;
+            case COUNT -> chunkingMode + ":" + targetChunkCount;
+            case LINES -> chunkingMode + ":" + linesPerChunk;
+        };
+        return chunking + ":" + chunkCompressor.getOutputCodec() + (chunkRecordEncoder.isEnabled() ? ":" + chunkRecordEncoder.getOutputFormat() : "")
+                + (reviewDeduplicator.isEnabled() ? ":DEDUP:" + reviewDeduplicator.getKeyField() : "")
+                + (keyPartitioner.isEnabled() ? ":PARTITION:" + keyPartitioner.partitionCount() + ":" + keyPartitioner.getKeyPath() : "");
+    }
+
+    /**
+     * @param segments the planned segments of a ranged split, whole even when the split resumes
+     * @param chunkingPolicy the policy of the whole object
+     * @return the chunking policy of every segment. COUNT shares the target chunk count out over the segments, the
+     *         other policies are the same for all of them
+     */
+    private List<ChunkingPolicy> segmentChunkingPolicies(List<ByteRange> segments, ChunkingPolicy chunkingPolicy) {
+        return chunkingMode == ChunkingPolicy.Mode.COUNT
+                ? ChunkingPolicy.byChunkCount(segments.stream().map(ByteRange::length).toList(), targetChunkCount)
+                : Collections.nCopies(segments.size(), chunkingPolicy);
+    }
+
+    /**
+     * @param contentLength size of the source object, used by the COUNT policy to size the chunks.
+     *                      For a compressed file this is the compressed size, so the chunks come out larger than targeted
+     * @return the chunking policy selected by split-file-chunking-policy
+     */
+    private ChunkingPolicy chunkingPolicyFor(long contentLength) {
+        return switch (chunkingMode) {
+            case BYTES -> ChunkingPolicy.byByteSize(targetChunkBytes);
+            case COUNT -> ChunkingPolicy.byChunkCount(contentLength, targetChunkCount);
+            case LINES -> ChunkingPolicy.byLineCount(linesPerChunk);
+        };
+    }
+
+    /**
+     * Runs the split pipeline over the stream. Full chunks are handed to the upload executors while the stream
+     * is still being read, so the reading of the input and the upload of the chunks overlap.
+     * @param inputStream
+     * @param sourceOffset position of the first byte of the stream in the source file
+     * @param chunkingPolicy decides when the current chunk is full
+     * @param quarantine sets the rejected lines aside, null to drop them
+     * @param deduplicator drops the reviews already seen, null to keep them
+     * @param partitioner cuts the reviews into chunks per partition, null to keep them in source order
+     * @param chunkNamer gives the destination key of each chunk
+     * @param uploader
+     * @return the keys of the uploaded chunks
+     */
+    private List<String> splitStream(InputStream inputStream, long sourceOffset, ChunkingPolicy chunkingPolicy, LineQuarantine quarantine,
+                                     LineDeduplicator deduplicator, LinePartitioner partitioner, ChunkNamer chunkNamer, ChunkUploader uploader) throws IOException {
+        return splitPipelineFactory.create(inputStream, sourceOffset, reviewJsonlValidator, quarantine, deduplicator, partitioner, recordEncoder(),
+                chunkingPolicy, chunkNamer, uploader).run();
+    }
+
+    /**
+     * @param dedupSession
+     * @param progress
+     * @param segment
+     * @return the deduplicator of the segment, its lines are recorded once the saved progress covers them; null without dedup
+     */
+    private static LineDeduplicator segmentDeduplicator(DedupSession dedupSession, SplitProgressTracker progress, int segment) {
+        return dedupSession != null ? dedupSession.segment(() -> progress.savedOffset(segment)) : null;
+    }
+
+    /**
+     * @param quarantineSession
+     * @return the quarantine of the lines of one segment; null without a quarantine
+     */
+    private static LineQuarantine segmentQuarantine(QuarantineSession quarantineSession) {
+        return quarantineSession != null ? quarantineSession.segment() : null;
+    }
+
+    /**
+     * @return the encoder of the binary split-file-output-format, null when the chunks are written as JSON lines
+     */
+    private LineEncoder recordEncoder() {
+        return chunkRecordEncoder.isEnabled() ? chunkRecordEncoder : null;
+    }
+
+    /**
+     * @return the source object, or null when it is not in the source bucket
+     */
+    private HeadObjectResponse headSourceObject(String inputFile) {
+        try {
+            return s3Client.headObject(request -> request.bucket(sourceBucketName).key(inputFile)
+                    .checksumMode(splitRegistry.isEnabled() ? ChecksumMode.ENABLED : null)); // the registry identifies the content by its checksum
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) { // a HEAD has no error code in its body, NoSuchKey comes as a bare 404
+                return null;
+            }
+            log.error("S3 service exception during head of {}: {}", inputFile, e.getMessage());
+            throw e;
+        }
+    }
+
+    private ResponseInputStream<GetObjectResponse> openS3Stream(String inputFile, String eTag, long offset) {
+        log.info("Streaming file '{}' from S3 bucket '{}' from offset {}", inputFile, sourceBucketName, offset);
+        try {
+            return s3Client.getObject(request -> request.bucket(sourceBucketName).key(inputFile).ifMatch(eTag)
+                    .range(offset > 0 ? "bytes=" + offset + "-" : null));
+        } catch (S3Exception e) {
+            log.error("S3 service exception while opening stream of {}: {}", inputFile, e.getMessage());
+            throw e;
+        } catch (SdkClientException e) {
+            log.error("AWS SDK client exception while opening stream of {}: {}", inputFile, e.getMessage());
+            throw e;
+        } catch (Exception e) {
+            log.error("Unexpected error while opening S3 stream of {}: {}", inputFile, e.getMessage());
+            throw new S3FileProcessingException("Unexpected error while opening S3 stream of " + inputFile, e);
+        }
+    }
+
+    /**
+     * Downloads the file into the work directory, a compressed file is decompressed on the way so it can be memory-mapped
+     * @param inputFile
+     * @param inputCodec
+     * @param workDirectory
+     * @return the downloaded lines
+     */
+    private Path downloadFileFromS3(String inputFile, CompressionCodec inputCodec, Path workDirectory) throws IOException {
+        Path tempFile = workDirectory.resolve("uploaded-reviews.jl");
         log.info("Getting file '{}' from S3 bucket '{}'", inputFile, sourceBucketName);
         try {
-        s3Client.getObject(request -> request.bucket(sourceBucketName).key(inputFile), ResponseTransformer.toFile(tempFile));
+            if (inputCodec == CompressionCodec.NONE) {
+                s3Client.getObject(request -> request.bucket(sourceBucketName).key(inputFile), ResponseTransformer.toFile(tempFile));
+            } else {
+                s3Client.getObject(request -> request.bucket(sourceBucketName).key(inputFile), (response, compressed) -> {
+                    try (InputStream lines = inputCodec.decompress(compressed)) {
+                        Files.copy(lines, tempFile);
+                    }
+                    return response;
+                });
+            }
             log.info("Downloaded the input file : '{}'", inputFile);
             return tempFile;
         } catch (S3Exception e) {
@@ -179,45 +637,37 @@ public class S3JSONLSplitter {
     }
 
     /**
-     * Executor threads pick the files and upload them to the destination reducer bucket
-     * @param chunkLines
-     * @param chunkFileName
-     * @return
+     * Hands the chunk to the shared transfer service, which uploads it to the destination reducer bucket.
+     * An uncompressed chunk is sent straight from its slices, with no intermediate copy or temporary file;
+     * with split-file-output-codec the chunk is compressed into one buffer first.
+     * An uncompressed chunk of binary records is sent with the content type of split-file-output-format.
+     * @param chunk
+     * @param segment index of the source segment of the chunk
+     * @param chunkNumber number of the chunk within the segment, counting the chunks of earlier attempts.
+     *                    The chunks of a partitioned split are numbered across the partitions in the order they were cut
+     * @return completes with the manifest entry of the uploaded chunk
      */
-    private CompletableFuture<String> uploadChunkAsync(List<String> chunkLines, String chunkFileName) {
-        return CompletableFuture.supplyAsync(() -> {
-            log.info("Uploading chunk: {} with {} lines", chunkFileName, chunkLines.size());
-            Path chunkTempFile = null;
-            try {
-                chunkTempFile = Files.createTempFile("jsonl-chunk-", ".jl");
-                Files.write(chunkTempFile, chunkLines, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-
-                ObjectMetadata metadata = new ObjectMetadata();
-                metadata.setContentType("application/jsonl");
-                metadata.setContentLength(Files.size(chunkTempFile));
-
-                PutObjectRequest putObjectRequest = new PutObjectRequest(
-                        destinationBucketName, chunkFileName, chunkTempFile.toFile());
-                putObjectRequest.setMetadata(metadata);
-
-                Upload upload = transferManager.upload(putObjectRequest);
-                upload.waitForCompletion();
-                log.info("Successfully uploaded chunk to destination bucket: {}", chunkFileName);
-                return chunkFileName; // Return the key of the uploaded chunk
-            } catch (IOException | InterruptedException e) {
-                log.error("Error creating or uploading chunk {}: {}", chunkFileName, e.getMessage(), e);
-                Thread.currentThread().interrupt(); // Restore interrupted status
-                throw new CompletionException("Failed to upload chunk: " + chunkFileName, e);
-            } finally {
-                if (chunkTempFile != null) {
-                    try {
-                        Files.deleteIfExists(chunkTempFile);
-                    } catch (IOException e) {
-                        log.warn("Failed to delete chunk temporary file {}: {}", chunkTempFile, e.getMessage());
+    private CompletableFuture<ChunkEntry> uploadChunkAsync(Chunk chunk, int segment, int chunkNumber) {
+        log.debug("Uploading chunk: {} with {} lines", chunk.key(), chunk.lineCount());
+        String contentType = chunkCompressor.getOutputCodec() == CompressionCodec.NONE
+                ? chunkRecordEncoder.getOutputFormat().contentType()
+                : chunkCompressor.getOutputCodec().contentType();
+        long startNanos = splitterMetrics.uploadStarted();
+        return chunkCompressor.compress(chunk)
+                .thenCompose(content -> {
+                    String crc32c = ChunkManifestWriter.crc32c(content.parts());
+                    return s3TransferService.upload(destinationBucketName, content.key(), content.parts(), content.byteCount(), contentType)
+                            .thenApply(key -> new ChunkEntry(key, segment, chunk.partition(), chunkNumber, chunk.lineCount(), content.byteCount(), crc32c,
+                                    chunk.firstSourceOffset(), chunk.endSourceOffset()));
+                })
+                .whenComplete((entry, e) -> {
+                    splitterMetrics.uploadFinished(startNanos, entry != null ? entry.byteCount() : 0, e != null);
+                    if (e != null) {
+                        log.error("Error uploading chunk {}: {}", chunk.key(), e.getMessage(), e);
+                    } else {
+                        log.debug("Successfully uploaded chunk to destination bucket: {}", entry.key());
                     }
-                }
-            }
-        });
+                });
     }
 
     /**
@@ -226,13 +676,66 @@ public class S3JSONLSplitter {
      * @return String
      */
     private String generateSplitFileName(String fileName, int chunkNumber) {
-        String fileNameWithoutExtension = fileName;
-        String fileExtension = "";
-        int dotIndex = fileName.lastIndexOf('.');
-        if (dotIndex > 0) {
-            fileNameWithoutExtension = fileName.substring(0, dotIndex);
-            fileExtension = fileName.substring(dotIndex);
+        return formatSplitFileName(fileName, String.valueOf(chunkNumber));
+    }
+
+    /**
+     * @param fileName Original file name in the uploads bucket
+     * @param segmentNumber the 1 based range segment the chunk was cut from
+     * @param chunkNumber the chunk number within the segment
+     * @return String
+     */
+    private String generateSplitFileName(String fileName, int segmentNumber, int chunkNumber) {
+        return formatSplitFileName(fileName, segmentNumber + "-" + chunkNumber);
+    }
+
+    /**
+     * The chunks of a partitioned split are named &lt;file&gt;-part-&lt;partition&gt;-split-&lt;number&gt;, so a reducer can list its partition by prefix
+     * @param fileName Original file name in the uploads bucket
+     * @param partitioner null unless the split is partitioned
+     * @param partition
+     * @return the file name the chunks of the partition are named after
+     */
+    private String partitionFileName(String fileName, LinePartitioner partitioner, int partition) {
+        if (partitioner == null) {
+            return fileName;
         }
-        return String.format("%s-split-%d%s", fileNameWithoutExtension, chunkNumber, fileExtension);
+        String fileNameWithoutExtension = removeExtension(fileName);
+        return fileNameWithoutExtension + "-part-" + partition + fileName.substring(fileNameWithoutExtension.length());
+    }
+
+    /**
+     * @param fileName Original file name in the uploads bucket
+     * @return key of the chunk manifest, published next to the chunks once they are all uploaded
+     */
+    private String generateManifestFileName(String fileName) {
+        return String.format("%s-split-manifest.json", removeExtension(fileName));
+    }
+
+    /**
+     * The compression suffix of the source file is replaced by the one of split-file-output-codec,
+     * and in a binary split-file-output-format its extension by the one of the format
+     */
+    private String formatSplitFileName(String fileName, String splitNumber) {
+        String fileNameWithoutExtension = removeExtension(fileName);
+        String fileExtension = chunkRecordEncoder.isEnabled()
+                ? chunkRecordEncoder.getOutputFormat().extension()
+                : withoutCompressionSuffix(fileName).substring(fileNameWithoutExtension.length());
+        return String.format("%s-split-%s%s%s", fileNameWithoutExtension, splitNumber, fileExtension, chunkCompressor.getOutputCodec().extension());
+    }
+
+    private String removeExtension(String fileName) {
+        String fileNameWithoutExtension = withoutCompressionSuffix(fileName);
+        int dotIndex = fileNameWithoutExtension.lastIndexOf('.');
+        return dotIndex > 0 ? fileNameWithoutExtension.substring(0, dotIndex) : fileNameWithoutExtension;
+    }
+
+    private String withoutCompressionSuffix(String fileName) {
+        return fileName.substring(0, fileName.length() - CompressionCodec.forKey(fileName).extension().length());
+    }
+
+    @FunctionalInterface
+    private interface SegmentSplit {
+        List<String> split(long resumeOffset, ChunkNamer chunkNamer, ChunkUploader uploader) throws IOException;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,182 @@
+package com.zuzu.sg.review.splitter.utility;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Parallel byte-range reader for large S3 objects.
+ * The object is cut into segments of split-file-range-segment-size-bytes, every segment boundary is moved forward
+ * to the start of the next line, and the segments are then fetched and processed concurrently.
+ */
+@Component
+public class S3RangedReader {
+
+    private static final Logger log = LoggerFactory.getLogger(S3RangedReader.class);
+    private static final int ALIGNMENT_PROBE_BYTES = 64 * 1024;
+
+    @Autowired
+    S3Client s3Client;
+
+    @Autowired
+    BlockingIoExecutors blockingIoExecutors;
+
+    @Value("${split-file-range-segment-size-bytes:268435456}")
+    private long segmentSizeBytes;
+
+    @Value("${split-file-range-parallelism:4}")
+    private int parallelism;
+
+    private ExecutorService segmentExecutor;
+    private Semaphore segmentPermits;
+
+    @PostConstruct
+    void init() {
+        segmentExecutor = blockingIoExecutors.create("segment", parallelism); //one segment per core, uploads are handed off
+        segmentPermits = new Semaphore(parallelism, true);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        segmentExecutor.shutdownNow();
+    }
+
+    public long getSegmentSizeBytes() {
+        return segmentSizeBytes;
+    }
+
+    /**
+     * Cuts the object into newline aligned segments. A boundary is aligned by fetching a small range just before it
+     * and moving it past the first '\n' found, so every segment starts at the beginning of a line.
+     * @param bucket
+     * @param key
+     * @param eTag pins the probes to the object version that was sized
+     * @param contentLength
+     * @return the segments in object order
+     */
+    public List<ByteRange> planSegments(String bucket, String key, String eTag, long contentLength) {
+        List<CompletableFuture<Long>> alignedBoundaries = new ArrayList<>();
+        for (long boundary = segmentSizeBytes; boundary < contentLength; boundary += segmentSizeBytes) {
+            long nominalBoundary = boundary;
+            alignedBoundaries.add(submit(key, () -> alignToNextLine(bucket, key, eTag, nominalBoundary, contentLength)));
+        }
+
+        List<ByteRange> segments = new ArrayList<>();
+        long segmentStart = 0;
+        for (CompletableFuture<Long> alignedBoundary : alignedBoundaries) {
+            long segmentEnd = alignedBoundary.join();
+            if (segmentEnd > segmentStart) { // a single line longer than a segment swallows the boundary
+                segments.add(new ByteRange(segments.size(), segmentStart, segmentEnd));
+                segmentStart = segmentEnd;
+            }
+        }
+        if (segmentStart < contentLength) {
+            segments.add(new ByteRange(segments.size(), segmentStart, contentLength));
+        }
+        log.info("Planned {} segments of '{}' ({} bytes)", segments.size(), key, contentLength);
+        return segments;
+    }
+
+    /**
+     * Fetches every segment with its own ranged GET and processes them in parallel
+     * @param bucket
+     * @param key
+     * @param eTag
+     * @param segments
+     * @param processor
+     * @return the processor results in segment order
+     */
+    public <T> List<T> processSegments(String bucket, String key, String eTag, List<ByteRange> segments, SegmentProcessor<T> processor) {
+        List<CompletableFuture<T>> segmentFutures = new ArrayList<>();
+        for (ByteRange segment : segments) {
+            segmentFutures.add(submit(key, () -> processSegment(bucket, key, eTag, segment, processor)));
+        }
+        return segmentFutures.stream().map(CompletableFuture::join).toList();
+    }
+
+    /**
+     * Runs a task once one of the split-file-range-parallelism permits shared by all the splits is free.
+     * The caller is blocked until then, which also bounds the tasks of the virtual thread executor.
+     */
+    private <T> CompletableFuture<T> submit(String key, Supplier<T> task) {
+        try {
+            segmentPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException("Interrupted while reading " + key, e);
+        }
+        try {
+            return CompletableFuture.supplyAsync(task, segmentExecutor).whenComplete((result, e) -> segmentPermits.release());
+        } catch (RuntimeException e) {
+            segmentPermits.release();
+            throw e;
+        }
+    }
+
+    private <T> T processSegment(String bucket, String key, String eTag, ByteRange segment, SegmentProcessor<T> processor) {
+        if (segment.length() == 0) { // nothing left to fetch, e.g. a segment completed by an earlier attempt
+            try {
+                return processor.process(segment, InputStream.nullInputStream());
+            } catch (IOException e) {
+                throw new CompletionException("Failed to process segment " + segment.index() + " of " + key, e);
+            }
+        }
+        ResponseInputStream<GetObjectResponse> segmentStream = s3Client.getObject(request -> request.bucket(bucket).key(key)
+                .ifMatch(eTag).range(segment.toHttpRange()));
+        try {
+            T result = processor.process(segment, segmentStream);
+            segmentStream.close();
+            return result;
+        } catch (IOException e) {
+            segmentStream.abort();
+            throw new CompletionException("Failed to process segment " + segment.index() + " of " + key, e);
+        } catch (RuntimeException e) {
+            segmentStream.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * A line starting exactly on the boundary is preceded by a '\n' at boundary - 1, so the search starts there
+     */
+    private long alignToNextLine(String bucket, String key, String eTag, long boundary, long contentLength) {
+        long position = boundary - 1;
+        while (position < contentLength) {
+            String range = "bytes=" + position + "-" + (Math.min(position + ALIGNMENT_PROBE_BYTES, contentLength) - 1);
+            byte[] probe = s3Client.getObjectAsBytes(request -> request.bucket(bucket).key(key).ifMatch(eTag).range(range))
+                    .asByteArray();
+            for (int i = 0; i < probe.length; i++) {
+                if (probe[i] == '\n') {
+                    return position + i + 1;
+                }
+            }
+            if (probe.length == 0) {
+                break;
+            }
+            position += probe.length;
+        }
+        return contentLength;
+    }
+
+    @FunctionalInterface
+    public interface SegmentProcessor<T> {
+        T process(ByteRange segment, InputStream segmentStream) throws IOException;
+    }
+}
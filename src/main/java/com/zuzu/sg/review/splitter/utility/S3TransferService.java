@@ -0,0 +1,290 @@
+package com.zuzu.sg.review.splitter.utility;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ChecksumAlgorithm;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.UploadRequest;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Application scoped upload engine shared by all the split jobs of the process.
+ * Uploads run on the non-blocking S3AsyncClient of the transfer manager, the number of concurrent requests
+ * is bounded by split-file-transfer-max-in-flight so many files can be split back to back without
+ * opening more requests than the connection pool serves. Every part of a multipart upload counts as a request of its own.
+ * A request over the limit waits in a queue and is sent when an earlier one completes, the caller is never blocked:
+ * the pipelines bound the chunks they hand over with their upload permits and the memory governor.
+ * In virtual thread mode every request is a blocking call of the S3Client on its own virtual thread instead,
+ * bounded by the same limit, parts included, so hundreds of PUTs can be in flight without as many platform threads.
+ */
+public class S3TransferService {
+
+    private static final Logger log = LoggerFactory.getLogger(S3TransferService.class);
+    private static final int MAX_PARTS = 10_000;
+
+    private final S3TransferManager s3TransferManager;
+    private final S3AsyncClient s3AsyncClient;
+    private final S3Client s3Client;
+    private final ExecutorService blockingUploadExecutor;
+    private final Semaphore inFlightRequests;
+    private final Queue<Runnable> waitingRequests = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger sendingRequests = new AtomicInteger();
+    private final long partSizeBytes;
+
+    /**
+     * @param s3TransferManager
+     * @param s3AsyncClient client of the transfer manager, its multipart threshold must not be below partSizeBytes
+     * @param s3Client client of the blocking uploads in virtual thread mode
+     * @param blockingIoExecutors
+     * @param maxInFlightRequests
+     * @param partSizeBytes content above this size is uploaded in parts of this size
+     */
+    public S3TransferService(S3TransferManager s3TransferManager, S3AsyncClient s3AsyncClient, S3Client s3Client,
+                             BlockingIoExecutors blockingIoExecutors, int maxInFlightRequests, long partSizeBytes) {
+        this.s3TransferManager = s3TransferManager;
+        this.s3AsyncClient = s3AsyncClient;
+        this.s3Client = s3Client;
+        this.blockingUploadExecutor = blockingIoExecutors.isVirtualThreadsEnabled() ? blockingIoExecutors.create("upload", 0) : null;
+        this.inFlightRequests = new Semaphore(maxInFlightRequests);
+        this.partSizeBytes = partSizeBytes;
+    }
+
+    public void shutdown() {
+        if (blockingUploadExecutor != null) {
+            blockingUploadExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Uploads the buffers as one object, without blocking the caller.
+     * The buffers are sent without copying, they must not be modified until the returned future completes.
+     * @param bucket
+     * @param key
+     * @param content the object content in order
+     * @param contentLength total remaining bytes of the buffers
+     * @param contentType
+     * @return completes with the key once the object is stored, a failure to send a request included
+     */
+    public CompletableFuture<String> upload(String bucket, String key, List<ByteBuffer> content, long contentLength, String contentType) {
+        if (contentLength > partSizeBytes) {
+            return uploadInParts(bucket, key, content, contentLength, contentType);
+        }
+        return withRequestPermit(key, () -> putObject(bucket, key, content, contentLength, contentType));
+    }
+
+    /**
+     * Copies an object within a bucket on the server side, no content goes through the process. The copy request counts
+     * against the same limit as the uploads. Objects above 5 GB cannot be copied in a single request and fail.
+     * @param bucket
+     * @param sourceKey
+     * @param destinationKey
+     * @return completes with the base64 CRC32C of the copy, computed by S3
+     */
+    public CompletableFuture<String> copy(String bucket, String sourceKey, String destinationKey) {
+        return withRequestPermit(destinationKey, () -> s3AsyncClient.copyObject(request -> request.sourceBucket(bucket).sourceKey(sourceKey)
+                        .destinationBucket(bucket).destinationKey(destinationKey).checksumAlgorithm(ChecksumAlgorithm.CRC32C)))
+                .thenApply(response -> response.copyObjectResult().checksumCRC32C());
+    }
+
+    /**
+     * Multipart upload with every part sent from slices of the buffers. Left to the multipart client, a body made of
+     * several buffers is split by the SDK itself, which intermittently ends a part early and fails the upload.
+     * The parts are queued once the upload is created, each takes a request permit of its own when it is sent, so a
+     * large chunk puts no more requests in flight than split-file-transfer-max-in-flight. Once a part has failed the
+     * parts still queued are not sent, and the upload is aborted when the parts in flight have completed.
+     * @return the upload, a failure to create it or to send a part included
+     */
+    private CompletableFuture<String> uploadInParts(String bucket, String key, List<ByteBuffer> content, long contentLength, String contentType) {
+        long partSize = Math.max(partSizeBytes, (contentLength + MAX_PARTS - 1) / MAX_PARTS);
+        return withRequestPermit(key, () -> createMultipartUpload(bucket, key, contentType)).thenCompose(uploadId -> {
+            AtomicReference<Throwable> partFailure = new AtomicReference<>();
+            List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+            List<List<ByteBuffer>> partContents = slice(content, partSize);
+            for (int i = 0; i < partContents.size(); i++) {
+                int partNumber = i + 1;
+                List<ByteBuffer> partContent = partContents.get(i);
+                parts.add(withRequestPermit(key, () -> partFailure.get() == null
+                        ? uploadPart(bucket, key, uploadId, partNumber, partContent)
+                        : CompletableFuture.<CompletedPart>failedFuture(partFailure.get()))
+                        .whenComplete((completedPart, e) -> {
+                            if (e != null) {
+                                partFailure.compareAndSet(null, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                            }
+                        }));
+            }
+            return CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new))
+                    .thenCompose(done -> completeMultipartUpload(bucket, key, uploadId, parts.stream().map(CompletableFuture::join).toList()))
+                    .exceptionallyCompose(e -> {
+                        abortUpload(bucket, key, uploadId);
+                        return CompletableFuture.failedFuture(partFailure.get() != null ? partFailure.get() : e);
+                    });
+        });
+    }
+
+    /**
+     * Queues a request, it is sent once a request permit is free and the permit is released when it completes
+     * @param key object the request is for
+     * @param request sends the request
+     * @return completes with the response of the request
+     */
+    private <T> CompletableFuture<T> withRequestPermit(String key, Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> response = new CompletableFuture<>();
+        waitingRequests.add(() -> send(key, request, response));
+        sendWaitingRequests();
+        return response;
+    }
+
+    private <T> void send(String key, Supplier<CompletableFuture<T>> request, CompletableFuture<T> response) {
+        CompletableFuture<T> sentRequest;
+        try {
+            sentRequest = request.get();
+        } catch (RuntimeException e) {
+            log.error("Failed to send a request for {}: {}", key, e.getMessage());
+            sentRequest = CompletableFuture.failedFuture(e);
+        }
+        sentRequest.whenComplete((result, e) -> {
+            inFlightRequests.release();
+            sendWaitingRequests();
+            if (e != null) {
+                response.completeExceptionally(e);
+            } else {
+                response.complete(result);
+            }
+        });
+    }
+
+    /**
+     * Sends the waiting requests while permits are free. A single thread sends at a time, a call made while another
+     * thread sends, or from a request completing while it is sent, is left to that thread, so a chain of requests
+     * completing at once does not recurse.
+     */
+    private void sendWaitingRequests() {
+        if (sendingRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (!waitingRequests.isEmpty() && inFlightRequests.tryAcquire()) {
+                waitingRequests.poll().run(); // only the sending thread takes from the queue
+            }
+            missed = sendingRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * In virtual thread mode the blocking client carries every request on a virtual thread of its own, the transfer
+     * manager the single uploads otherwise
+     */
+    private CompletableFuture<String> putObject(String bucket, String key, List<ByteBuffer> content, long contentLength, String contentType) {
+        if (blockingUploadExecutor != null) {
+            return CompletableFuture.supplyAsync(() -> {
+                s3Client.putObject(request -> request.bucket(bucket).key(key).contentType(contentType), requestBody(content, contentLength));
+                return key;
+            }, blockingUploadExecutor);
+        }
+        UploadRequest uploadRequest = UploadRequest.builder()
+                .putObjectRequest(request -> request.bucket(bucket).key(key).contentType(contentType))
+                .requestBody(AsyncRequestBody.fromRemainingByteBuffersUnsafe(content.toArray(ByteBuffer[]::new)))
+                .build();
+        return s3TransferManager.upload(uploadRequest).completionFuture().thenApply(completedUpload -> key);
+    }
+
+    private CompletableFuture<String> createMultipartUpload(String bucket, String key, String contentType) {
+        if (blockingUploadExecutor != null) {
+            return CompletableFuture.supplyAsync(() -> s3Client.createMultipartUpload(
+                    request -> request.bucket(bucket).key(key).contentType(contentType)).uploadId(), blockingUploadExecutor);
+        }
+        return s3AsyncClient.createMultipartUpload(request -> request.bucket(bucket).key(key).contentType(contentType))
+                .thenApply(CreateMultipartUploadResponse::uploadId);
+    }
+
+    private CompletableFuture<CompletedPart> uploadPart(String bucket, String key, String uploadId, int partNumber, List<ByteBuffer> partContent) {
+        if (blockingUploadExecutor != null) {
+            return CompletableFuture.supplyAsync(() -> s3Client.uploadPart(
+                            request -> request.bucket(bucket).key(key).uploadId(uploadId).partNumber(partNumber),
+                            requestBody(partContent, partContent.stream().mapToLong(ByteBuffer::remaining).sum())).eTag(), blockingUploadExecutor)
+                    .thenApply(eTag -> CompletedPart.builder().partNumber(partNumber).eTag(eTag).build());
+        }
+        AsyncRequestBody partBody = AsyncRequestBody.fromRemainingByteBuffersUnsafe(partContent.toArray(ByteBuffer[]::new));
+        return s3AsyncClient.uploadPart(request -> request.bucket(bucket).key(key).uploadId(uploadId).partNumber(partNumber), partBody)
+                .thenApply(response -> CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build());
+    }
+
+    private CompletableFuture<String> completeMultipartUpload(String bucket, String key, String uploadId, List<CompletedPart> parts) {
+        if (blockingUploadExecutor != null) {
+            return CompletableFuture.supplyAsync(() -> {
+                s3Client.completeMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId).multipartUpload(upload -> upload.parts(parts)));
+                return key;
+            }, blockingUploadExecutor);
+        }
+        return s3AsyncClient.completeMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId)
+                        .multipartUpload(upload -> upload.parts(parts)))
+                .thenApply(response -> key);
+    }
+
+    /**
+     * @return a body streaming the buffers without copying them, restartable for the retries of the SDK
+     */
+    private static RequestBody requestBody(List<ByteBuffer> content, long contentLength) {
+        return RequestBody.fromContentProvider(() -> new ByteBuffersInputStream(content), contentLength, "application/octet-stream");
+    }
+
+    /**
+     * @param content
+     * @param partSize
+     * @return the content cut into parts of partSize bytes, the last one shorter, as views of the buffers
+     */
+    static List<List<ByteBuffer>> slice(List<ByteBuffer> content, long partSize) {
+        List<List<ByteBuffer>> parts = new ArrayList<>();
+        List<ByteBuffer> part = new ArrayList<>();
+        long partBytes = 0;
+        for (ByteBuffer buffer : content) {
+            ByteBuffer remaining = buffer.duplicate();
+            while (remaining.hasRemaining()) {
+                int length = (int) Math.min(remaining.remaining(), partSize - partBytes);
+                part.add(remaining.slice(remaining.position(), length));
+                remaining.position(remaining.position() + length);
+                partBytes += length;
+                if (partBytes == partSize) {
+                    parts.add(part);
+                    part = new ArrayList<>();
+                    partBytes = 0;
+                }
+            }
+        }
+        if (!part.isEmpty()) {
+            parts.add(part);
+        }
+        return parts;
+    }
+
+    private void abortUpload(String bucket, String key, String uploadId) {
+        CompletableFuture<?> abort = blockingUploadExecutor != null
+                ? CompletableFuture.runAsync(() -> s3Client.abortMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId)),
+                        blockingUploadExecutor)
+                : s3AsyncClient.abortMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId));
+        abort.whenComplete((response, e) -> {
+            if (e != null) {
+                log.warn("Failed to abort the upload of {}: {}", key, e.getMessage());
+            }
+        });
+    }
+}
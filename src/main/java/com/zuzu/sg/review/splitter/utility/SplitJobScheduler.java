@@ -0,0 +1,140 @@
+package com.zuzu.sg.review.splitter.utility;
+
+import com.zuzu.sg.review.splitter.metrics.SplitterMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Runs up to split-job-max-concurrent split jobs at the same time, every job in its own work directory.
+ * Waiting jobs are ordered by a virtual deadline of submission time plus a delay proportional to the file size,
+ * so small files overtake large ones but a large file is never starved: once it has waited out its delay,
+ * it goes ahead of everything submitted later.
+ */
+@Component
+public class SplitJobScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(SplitJobScheduler.class);
+
+    @Autowired
+    S3JSONLSplitter s3JSONLSplitter;
+
+    @Autowired
+    SplitterMetrics splitterMetrics;
+
+    @Value("${split-job-max-concurrent:4}")
+    private int maxConcurrentJobs;
+
+    @Value("${split-job-work-dir:${java.io.tmpdir}/review-splitter}")
+    private String workRoot;
+
+    @Value("${split-job-size-aging-bytes-per-second:67108864}")
+    private long sizeAgingBytesPerSecond;
+
+    private final AtomicLong jobSequence = new AtomicLong();
+    private ThreadPoolExecutor jobExecutor;
+
+    @PostConstruct
+    void init() throws IOException {
+        Files.createDirectories(Paths.get(workRoot));
+        jobExecutor = new ThreadPoolExecutor(maxConcurrentJobs, maxConcurrentJobs, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>());
+        jobExecutor.prestartAllCoreThreads(); // every job goes through the priority queue
+        splitterMetrics.monitorQueue("splitter.jobs.waiting", "Split jobs queued for a free job slot", jobExecutor.getQueue());
+        splitterMetrics.monitorValue("splitter.jobs.running", "Split jobs running", jobExecutor::getActiveCount);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        jobExecutor.shutdownNow();
+    }
+
+    /**
+     * Queues the split of one uploaded file.
+     * @param inputFile key of the file in the source bucket
+     * @param sizeBytes size of the file from the upload event, 0 if unknown
+     * @return completes with the keys of the uploaded chunks once the job has run
+     */
+    public CompletableFuture<List<String>> submit(String inputFile, long sizeBytes) {
+        long delayMillis = Math.max(sizeBytes, 0) * 1000 / Math.max(sizeAgingBytesPerSecond, 1);
+        SplitJob job = new SplitJob(jobSequence.incrementAndGet(), inputFile, System.currentTimeMillis() + delayMillis);
+        log.info("Queued split job {} for '{}' ({} bytes), {} jobs waiting", job.id, inputFile, sizeBytes, jobExecutor.getQueue().size());
+        jobExecutor.execute(job);
+        return job.result;
+    }
+
+    /**
+     * Splits one file on the calling thread, outside the job queue, as the Lambda handler does with the files of its event
+     * @param inputFile key of the file in the source bucket
+     * @return the keys of the uploaded chunks
+     */
+    public List<String> run(String inputFile) throws IOException {
+        return runJob(jobSequence.incrementAndGet(), inputFile);
+    }
+
+    private List<String> runJob(long jobId, String inputFile) throws IOException {
+        Path workDirectory = Files.createTempDirectory(Paths.get(workRoot), "job-" + jobId + "-");
+        try {
+            log.info("Starting split job {} for '{}'", jobId, inputFile);
+            return s3JSONLSplitter.splitFile(inputFile, workDirectory);
+        } finally {
+            deleteWorkDirectory(workDirectory);
+        }
+    }
+
+    private void deleteWorkDirectory(Path workDirectory) {
+        try (Stream<Path> paths = Files.walk(workDirectory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to delete work directory {}: {}", workDirectory, e.getMessage());
+        }
+    }
+
+    private final class SplitJob implements Runnable, Comparable<SplitJob> {
+        private final long id;
+        private final String inputFile;
+        private final long deadlineMillis;
+        private final CompletableFuture<List<String>> result = new CompletableFuture<>();
+
+        private SplitJob(long id, String inputFile, long deadlineMillis) {
+            this.id = id;
+            this.inputFile = inputFile;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result.complete(runJob(id, inputFile));
+            } catch (Throwable e) {
+                log.error("Split job {} for '{}' failed: {}", id, inputFile, e.getMessage());
+                result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public int compareTo(SplitJob other) {
+            int byDeadline = Long.compare(deadlineMillis, other.deadlineMillis);
+            return byDeadline != 0 ? byDeadline : Long.compare(id, other.id);
+        }
+    }
+}
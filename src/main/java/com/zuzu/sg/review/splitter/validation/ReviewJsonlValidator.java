@@ -1,34 +1,138 @@
 package com.zuzu.sg.review.splitter.validation;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+/**
+ * Checks that every review line is exactly one well formed JSON value.
+ * The line is only tokenized with the streaming parser, no tree is built. The validator keeps no state
+ * between calls and can be shared by any number of threads.
+ * Rejected lines are only logged at DEBUG and without their content, the splitter quarantines them with their reason.
+ * The same walk can also copy the tokens to a generator of another format, which re-encodes the line without parsing it twice.
+ */
 @Service
 public class ReviewJsonlValidator {
-    private final ObjectMapper objectMapper = new ObjectMapper();
     private static final Logger log = LoggerFactory.getLogger(ReviewJsonlValidator.class);
+    private static final ValidationResult EMPTY_LINE = ValidationResult.invalid("Empty line");
+    private static final ValidationResult TRAILING_CONTENT = ValidationResult.invalid("Malformed JSON. Error: content after the end of the JSON value");
 
-    List<String> lineValidationErrors = new ArrayList<>();
+    private static final ThreadLocal<byte[]> LINE_SCRATCH = ThreadLocal.withInitial(() -> new byte[8192]);
 
-    public List<String> validateReviewJsonl(String extractedLine)    {
-        try {
-            JsonNode jsonNode = objectMapper.readTree(extractedLine);
+    private final JsonFactory jsonFactory = new JsonFactory(); // thread-safe, the parsers recycle its buffers
+
+    public ValidationResult validate(String extractedLine) {
+        try (JsonParser parser = jsonFactory.createParser(extractedLine)) {
+            return validate(parser, null);
         } catch (JsonProcessingException e) {
-            lineValidationErrors.add(String.format("Malformed JSON. Error: %s", e.getMessage()));
-            log.error("Malformed JSON {}: {}", extractedLine, e.getMessage());
+            log.debug("Malformed JSON: {}", e.getOriginalMessage());
+            return ValidationResult.invalid(String.format("Malformed JSON. Error: %s", e.getOriginalMessage()));
         } catch (Exception e) {
-            lineValidationErrors.add(String.format("Error while processing the review jsonl: %s", e.getMessage()));
-            log.error("Unexpected error on line {}: {}", extractedLine, e.getMessage(), e); // for other unknown errors
+            log.debug("Unexpected error on line: {}", e.getMessage(), e); // for other unknown errors
+            return ValidationResult.invalid(String.format("Error while processing the review jsonl: %s", e.getMessage()));
         }
-        return lineValidationErrors;
     }
 
+    /**
+     * Validates a line straight from its UTF-8 bytes, without decoding it to a String
+     * @param buffer
+     * @param offset start of the line in the buffer
+     * @param length length of the line, without the line separator
+     * @return ValidationResult.VALID or the reason the line was rejected
+     */
+    public ValidationResult validate(byte[] buffer, int offset, int length) {
+        return transcode(buffer, offset, length, null, null);
+    }
+
+    /**
+     * Validates a line and copies its tokens, while they are read, to a generator of the target format
+     * @param buffer
+     * @param offset start of the line in the buffer
+     * @param length length of the line, without the line separator
+     * @param targetFactory factory of the format the line is re-encoded to, null to only validate the line
+     * @param out receives the re-encoded line. Part of it may have been written when the line is rejected
+     * @return ValidationResult.VALID or the reason the line was rejected
+     */
+    public ValidationResult transcode(byte[] buffer, int offset, int length, JsonFactory targetFactory, OutputStream out) {
+        try (JsonParser parser = jsonFactory.createParser(buffer, offset, length)) {
+            if (targetFactory == null) {
+                return validate(parser, null);
+            }
+            try (JsonGenerator generator = targetFactory.createGenerator(out)) {
+                return validate(parser, generator);
+            }
+        } catch (JsonProcessingException e) {
+            log.debug("Malformed JSON: {}", e.getOriginalMessage());
+            return ValidationResult.invalid(String.format("Malformed JSON. Error: %s", e.getOriginalMessage()));
+        } catch (Exception e) {
+            log.debug("Unexpected error on line: {}", e.getMessage(), e);
+            return ValidationResult.invalid(String.format("Error while processing the review jsonl: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Validates a line held in a buffer. Lines of a heap buffer are parsed in place, lines of a direct or
+     * memory-mapped buffer are copied into a per-thread scratch array first.
+     * @param buffer
+     * @param offset absolute index of the line in the buffer
+     * @param length length of the line, without the line separator
+     * @return ValidationResult.VALID or the reason the line was rejected
+     */
+    public ValidationResult validate(ByteBuffer buffer, int offset, int length) {
+        return transcode(buffer, offset, length, null, null);
+    }
 
+    /**
+     * Validates and re-encodes a line held in a buffer, see transcode(byte[], int, int, JsonFactory, OutputStream)
+     */
+    public ValidationResult transcode(ByteBuffer buffer, int offset, int length, JsonFactory targetFactory, OutputStream out) {
+        if (buffer.hasArray()) {
+            return transcode(buffer.array(), buffer.arrayOffset() + offset, length, targetFactory, out);
+        }
+        byte[] scratch = LINE_SCRATCH.get();
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+            LINE_SCRATCH.set(scratch);
+        }
+        buffer.get(offset, scratch, 0, length);
+        return transcode(scratch, 0, length, targetFactory, out);
+    }
+
+    /**
+     * Walks over the tokens of the root value, then checks that nothing but whitespace follows it
+     * @param generator receives a copy of the root value, null to skip over it. The decimal numbers are copied with
+     *                  all their digits, as copyCurrentStructure would round them to a double
+     */
+    private ValidationResult validate(JsonParser parser, JsonGenerator generator) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null) {
+            return EMPTY_LINE;
+        }
+        if (generator != null) {
+            int depth = 0;
+            do {
+                generator.copyCurrentEventExact(parser);
+                if (token.isStructStart()) {
+                    depth++;
+                } else if (token.isStructEnd()) {
+                    depth--;
+                }
+            } while (depth > 0 && (token = parser.nextToken()) != null);
+        } else {
+            parser.skipChildren();
+        }
+        if (parser.nextToken() != null) {
+            return TRAILING_CONTENT;
+        }
+        return ValidationResult.VALID;
+    }
 }
@@ -0,0 +1,19 @@
+package com.zuzu.sg.review.splitter.validation;
+
+/**
+ * Outcome of the validation of one review line.
+ * Valid lines always share the VALID instance, so nothing is allocated for them.
+ * @param error the reason the line was rejected, null for a valid line
+ */
+public record ValidationResult(String error) {
+
+    public static final ValidationResult VALID = new ValidationResult(null);
+
+    public static ValidationResult invalid(String error) {
+        return new ValidationResult(error);
+    }
+
+    public boolean isValid() {
+        return error == null;
+    }
+}
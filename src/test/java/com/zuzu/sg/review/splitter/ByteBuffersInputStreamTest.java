@@ -0,0 +1,67 @@
+package com.zuzu.sg.review.splitter;
+
+import com.zuzu.sg.review.splitter.utility.ByteBuffersInputStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteBuffersInputStreamTest {
+
+    @Test
+    @DisplayName("Reads the remaining bytes of every buffer in order, leaving the positions of the buffers untouched")
+    void read_acrossBuffers() throws IOException {
+        ByteBuffer first = buffer("xx{\"a\":");
+        first.position(2);
+        ByteBuffer second = buffer("1}\n");
+        ByteBuffer empty = ByteBuffer.allocate(0);
+
+        try (ByteBuffersInputStream stream = new ByteBuffersInputStream(List.of(first, empty, second))) {
+            assertEquals("{\"a\":1}\n", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+            assertEquals(-1, stream.read());
+            assertEquals(0, stream.available());
+        }
+        assertEquals(2, first.position());
+        assertEquals(0, second.position());
+    }
+
+    @Test
+    @DisplayName("Fills a read across a buffer boundary and reads single bytes")
+    void read_singleBytesAndBoundaries() throws IOException {
+        try (ByteBuffersInputStream stream = new ByteBuffersInputStream(List.of(buffer("ab"), buffer("cd")))) {
+            assertEquals((int) 'a', stream.read());
+            byte[] bytes = new byte[8];
+            assertEquals(3, stream.read(bytes, 1, 7));
+            assertEquals("bcd", new String(bytes, 1, 3, StandardCharsets.UTF_8));
+            assertEquals(0, stream.read(bytes, 0, 0));
+            assertEquals(-1, stream.read(bytes, 0, 8));
+        }
+    }
+
+    @Test
+    @DisplayName("Resets to the mark or to the start, so a retried request sends the same content")
+    void reset_rewinds() throws IOException {
+        try (ByteBuffersInputStream stream = new ByteBuffersInputStream(List.of(buffer("abc"), buffer("def")))) {
+            assertTrue(stream.markSupported());
+            assertEquals("abcdef", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+            stream.reset(); // no mark, back to the start
+            assertEquals("abcdef", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+
+            stream.reset();
+            assertEquals(4, stream.read(new byte[4], 0, 4));
+            stream.mark(Integer.MAX_VALUE);
+            assertEquals("ef", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+            stream.reset();
+            assertEquals("ef", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static ByteBuffer buffer(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
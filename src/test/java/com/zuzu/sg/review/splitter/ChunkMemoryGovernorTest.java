@@ -0,0 +1,93 @@
+package com.zuzu.sg.review.splitter;
+
+import com.zuzu.sg.review.splitter.pipeline.Chunk;
+import com.zuzu.sg.review.splitter.pipeline.ChunkMemoryGovernor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkMemoryGovernorTest {
+
+    private static final int BLOCK_BYTES = 1024 * 1024;
+
+    @TempDir
+    Path spillDirectory;
+
+    private final ChunkMemoryGovernor chunkMemoryGovernor = new ChunkMemoryGovernor();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(chunkMemoryGovernor, "maxBufferedBytes", 3L * BLOCK_BYTES / 2);
+        ReflectionTestUtils.setField(chunkMemoryGovernor, "spillDirectory", spillDirectory);
+    }
+
+    @Test
+    @DisplayName("Counts a read block with its full length once, however many of the chunks in flight slice it")
+    void admit_sharedBlockCountedOnce() throws InterruptedException {
+        byte[] block = new byte[BLOCK_BYTES];
+        ChunkMemoryGovernor.Admission first = chunkMemoryGovernor.admit(chunk(ByteBuffer.wrap(block, 0, 100).slice()));
+        ChunkMemoryGovernor.Admission second = chunkMemoryGovernor.admit(chunk(ByteBuffer.wrap(block, 100, 100).slice(),
+                ByteBuffer.wrap(block, 300, 10).slice()));
+        assertEquals(BLOCK_BYTES, chunkMemoryGovernor.getBufferedBytes());
+
+        chunkMemoryGovernor.release(first);
+        assertEquals(BLOCK_BYTES, chunkMemoryGovernor.getBufferedBytes()); // still held by the second chunk
+        chunkMemoryGovernor.release(second);
+        assertEquals(0, chunkMemoryGovernor.getBufferedBytes());
+    }
+
+    @Test
+    @DisplayName("BLOCK holds back a chunk of another block until the chunk holding the first one is released")
+    void admit_blocksUntilBlockReleased() throws Exception {
+        ChunkMemoryGovernor.Admission first = chunkMemoryGovernor.admit(chunk(ByteBuffer.wrap(new byte[BLOCK_BYTES], 0, 10)));
+        CompletableFuture<ChunkMemoryGovernor.Admission> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return chunkMemoryGovernor.admit(chunk(ByteBuffer.wrap(new byte[BLOCK_BYTES], 0, 10)));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(second.isDone());
+
+        chunkMemoryGovernor.release(first);
+        chunkMemoryGovernor.release(second.get(1, TimeUnit.SECONDS));
+        assertEquals(0, chunkMemoryGovernor.getBufferedBytes());
+    }
+
+    @Test
+    @DisplayName("BLOCK admits a chunk larger than the limit when nothing else is buffered, SPILL spills it")
+    void admit_chunkLargerThanLimit() throws InterruptedException {
+        ByteBuffer part = ByteBuffer.wrap("{\"id\":1}\n".repeat(1000).getBytes(StandardCharsets.UTF_8));
+        ReflectionTestUtils.setField(chunkMemoryGovernor, "maxBufferedBytes", 1024L);
+        ChunkMemoryGovernor.Admission admitted = chunkMemoryGovernor.admit(chunk(part));
+        assertSame(part, admitted.chunk().parts().get(0));
+        assertEquals(part.capacity(), chunkMemoryGovernor.getBufferedBytes());
+        chunkMemoryGovernor.release(admitted);
+
+        ReflectionTestUtils.setField(chunkMemoryGovernor, "policy", ChunkMemoryGovernor.Policy.SPILL);
+        ChunkMemoryGovernor.Admission spilled = chunkMemoryGovernor.admit(chunk(part));
+        assertTrue(spilled.chunk().parts().stream().allMatch(ByteBuffer::isDirect));
+        assertEquals(part, spilled.chunk().parts().get(0));
+        assertEquals(0, chunkMemoryGovernor.getBufferedBytes());
+        assertEquals(part.capacity(), chunkMemoryGovernor.getSpilledBytes());
+        chunkMemoryGovernor.release(spilled);
+        assertEquals(0, chunkMemoryGovernor.getSpilledBytes());
+    }
+
+    private static Chunk chunk(ByteBuffer... parts) {
+        long byteCount = List.of(parts).stream().mapToLong(ByteBuffer::remaining).sum();
+        return new Chunk("chunk.jsonl", 0, 1, List.of(parts), 1, byteCount, 0, byteCount);
+    }
+}
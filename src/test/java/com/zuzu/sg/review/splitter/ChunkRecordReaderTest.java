@@ -0,0 +1,121 @@
+package com.zuzu.sg.review.splitter;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.zuzu.sg.review.splitter.format.ChunkRecordReader;
+import com.zuzu.sg.review.splitter.format.RecordFormat;
+import com.zuzu.sg.review.splitter.validation.ReviewJsonlValidator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkRecordReaderTest {
+
+    private final ReviewJsonlValidator reviewJsonlValidator = new ReviewJsonlValidator();
+
+    @Test
+    @DisplayName("Reads no record from an empty chunk, in every format")
+    void nextRecord_emptyChunk() throws IOException {
+        for (RecordFormat format : RecordFormat.values()) {
+            try (ChunkRecordReader reader = new ChunkRecordReader(new ByteArrayInputStream(new byte[0]), format)) {
+                assertNull(reader.nextRecord(), format.name());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Reads back the records written by the encoder, with a record larger than the read buffer between two small ones")
+    void nextRecord_roundTrip() throws IOException {
+        String largeText = "très bien ".repeat(2000); // 22 KB of UTF-8
+        for (RecordFormat format : RecordFormat.values()) {
+            byte[] chunk = chunk(format, "{\"id\":1}", "{\"id\":2,\"text\":\"" + largeText + "\"}", "{\"id\":3,\"tags\":[\"a\",\"b\"]}");
+            try (ChunkRecordReader reader = new ChunkRecordReader(new ByteArrayInputStream(chunk), format)) {
+                assertEquals(1, fieldValue(reader.nextRecord(), "id").getIntValue(), format.name());
+                JsonParser large = reader.nextRecord();
+                assertEquals(2, fieldValue(large, "id").getIntValue(), format.name());
+                assertEquals(largeText, fieldValue(large, "text").getText(), format.name());
+                assertEquals(3, fieldValue(reader.nextRecord(), "id").getIntValue(), format.name()); // the rest of the record is skipped
+                assertNull(reader.nextRecord(), format.name());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Keeps every digit of the decimal numbers through the binary formats")
+    void nextRecord_exactDecimals() throws IOException {
+        for (RecordFormat format : RecordFormat.values()) {
+            byte[] chunk = chunk(format, "{\"rating\":7.2,\"score\":0.30000000000000004,\"pi\":3.14159265358979323846264338327950288}");
+            try (ChunkRecordReader reader = new ChunkRecordReader(new ByteArrayInputStream(chunk), format)) {
+                JsonParser record = reader.nextRecord();
+                assertEquals(new BigDecimal("7.2"), fieldValue(record, "rating").getDecimalValue(), format.name());
+                assertEquals(new BigDecimal("0.30000000000000004"), fieldValue(record, "score").getDecimalValue(), format.name());
+                assertEquals(new BigDecimal("3.14159265358979323846264338327950288"), fieldValue(record, "pi").getDecimalValue(), format.name());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Fails on a binary chunk cut in the middle of a record length or of a record")
+    void nextRecord_truncatedChunk() throws IOException {
+        for (RecordFormat format : List.of(RecordFormat.SMILE, RecordFormat.CBOR)) {
+            byte[] chunk = chunk(format, "{\"id\":1}", "{\"id\":2}");
+            int secondRecord = 4 + readLength(chunk, 0);
+            for (int cut : new int[]{secondRecord + 2, chunk.length - 1}) {
+                try (ChunkRecordReader reader = new ChunkRecordReader(new ByteArrayInputStream(Arrays.copyOf(chunk, cut)), format)) {
+                    assertNotNull(reader.nextRecord());
+                    assertThrows(EOFException.class, reader::nextRecord, format.name() + " cut at " + cut);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the lines the way the splitter writes the chunks of the format
+     */
+    private byte[] chunk(RecordFormat format, String... lines) throws IOException {
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        for (String line : lines) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            if (!format.isBinary()) {
+                chunk.write(bytes);
+                chunk.write('\n');
+                continue;
+            }
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            assertTrue(reviewJsonlValidator.transcode(bytes, 0, bytes.length, format.newFactory(), record).isValid());
+            int length = record.size();
+            chunk.write(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+            record.writeTo(chunk);
+        }
+        return chunk.toByteArray();
+    }
+
+    /**
+     * @return the parser positioned on the value of the next field of that name in the record
+     */
+    private static JsonParser fieldValue(JsonParser record, String field) throws IOException {
+        JsonToken token;
+        while ((token = record.nextToken()) != null && token != JsonToken.END_OBJECT) {
+            record.nextToken();
+            if (token == JsonToken.FIELD_NAME && record.currentName().equals(field)) {
+                return record;
+            }
+            record.skipChildren();
+        }
+        return fail("No field " + field);
+    }
+
+    private static int readLength(byte[] chunk, int offset) {
+        return (chunk[offset] & 0xFF) << 24 | (chunk[offset + 1] & 0xFF) << 16 | (chunk[offset + 2] & 0xFF) << 8 | (chunk[offset + 3] & 0xFF);
+    }
+}
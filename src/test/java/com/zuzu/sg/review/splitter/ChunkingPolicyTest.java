@@ -0,0 +1,115 @@
+package com.zuzu.sg.review.splitter;
+
+import com.zuzu.sg.review.splitter.utility.ChunkingPolicy;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkingPolicyTest {
+
+    @Test
+    @DisplayName("LINES cuts a chunk every configured number of lines, the last chunk keeps the rest")
+    void byLineCount_boundaries() {
+        ChunkingPolicy policy = ChunkingPolicy.byLineCount(3);
+
+        assertFalse(policy.isChunkFull(2, Long.MAX_VALUE));
+        assertTrue(policy.isChunkFull(3, 1));
+        assertEquals(List.of(3, 3, 1), chunkLineCounts(policy, 10, 10, 10, 10, 10, 10, 10));
+        assertEquals(List.of(1, 1, 1), chunkLineCounts(ChunkingPolicy.byLineCount(1), 10, 10, 10));
+    }
+
+    @Test
+    @DisplayName("BYTES cuts a chunk as soon as it reaches the target, counting the line separators")
+    void byByteSize_boundaries() {
+        ChunkingPolicy policy = ChunkingPolicy.byByteSize(30);
+
+        assertFalse(policy.isChunkFull(100, 29));
+        assertTrue(policy.isChunkFull(1, 30));
+        assertEquals(List.of(3, 3), chunkLineCounts(policy, 10, 10, 10, 10, 10, 10)); // exactly on the target
+        assertEquals(List.of(2, 2, 1), chunkLineCounts(policy, 20, 20, 20, 20, 5)); // over the target by the last line
+    }
+
+    @Test
+    @DisplayName("BYTES seals the chunk with a line larger than the target, the line is never cut")
+    void byByteSize_lineLargerThanTarget() {
+        assertEquals(List.of(3, 1), chunkLineCounts(ChunkingPolicy.byByteSize(30), 10, 10, 500, 10));
+        assertEquals(List.of(1, 1), chunkLineCounts(ChunkingPolicy.byByteSize(30), 500, 500));
+    }
+
+    @Test
+    @DisplayName("COUNT sizes the chunks so the file is cut into about the target number of chunks")
+    void byChunkCount_boundaries() {
+        ChunkingPolicy policy = ChunkingPolicy.byChunkCount(100, 4); // 25 bytes per chunk
+
+        assertFalse(policy.isChunkFull(1, 24));
+        assertTrue(policy.isChunkFull(1, 25));
+        assertEquals(List.of(3, 3, 3, 1), chunkLineCounts(policy, 10, 10, 10, 10, 10, 10, 10, 10, 10, 10));
+        assertEquals(List.of(3, 3, 3, 2), chunkLineCounts(ChunkingPolicy.byChunkCount(110, 4), 10, 10, 10, 10, 10, 10, 10, 10, 10, 10, 10));
+    }
+
+    @Test
+    @DisplayName("COUNT on a file smaller than the target count cuts a chunk per line, never an empty one")
+    void byChunkCount_smallFile() {
+        ChunkingPolicy policy = ChunkingPolicy.byChunkCount(3, 64); // rounded up to a single byte per chunk
+
+        assertFalse(policy.isChunkFull(0, 0));
+        assertTrue(policy.isChunkFull(1, 1));
+        assertEquals(List.of(1, 1), chunkLineCounts(policy, 2, 1));
+        assertFalse(ChunkingPolicy.byChunkCount(0, 64).isChunkFull(0, 0)); // empty source
+    }
+
+    @Test
+    @DisplayName("COUNT on a ranged split shares the target count out over the segments, without a partial chunk per segment")
+    void byChunkCount_segments() {
+        List<ChunkingPolicy> policies = ChunkingPolicy.byChunkCount(List.of(100L, 100L, 50L), 4); // shares of 1.6, 1.6 and 0.8 chunks
+
+        assertEquals(List.of(5, 5), chunkLineCounts(policies.get(0), 10, 10, 10, 10, 10, 10, 10, 10, 10, 10));
+        assertEquals(List.of(10), chunkLineCounts(policies.get(1), 10, 10, 10, 10, 10, 10, 10, 10, 10, 10));
+        assertEquals(List.of(5), chunkLineCounts(policies.get(2), 10, 10, 10, 10, 10));
+        // one size from the whole object, 63 bytes, would cut 5 chunks with a partial one in the first two segments
+        ChunkingPolicy wholeObject = ChunkingPolicy.byChunkCount(250, 4);
+        assertEquals(List.of(7, 3), chunkLineCounts(wholeObject, 10, 10, 10, 10, 10, 10, 10, 10, 10, 10));
+    }
+
+    @Test
+    @DisplayName("COUNT on a ranged split gives every segment at least one chunk, and a count evenly divided keeps the even share")
+    void byChunkCount_segmentsBeyondTarget() {
+        List<ChunkingPolicy> policies = ChunkingPolicy.byChunkCount(List.of(30L, 30L, 30L), 2);
+
+        assertEquals(3, policies.size());
+        for (ChunkingPolicy policy : policies) {
+            assertEquals(List.of(3), chunkLineCounts(policy, 10, 10, 10));
+        }
+        List<ChunkingPolicy> evenPolicies = ChunkingPolicy.byChunkCount(List.of(60L, 60L), 4);
+        assertEquals(List.of(3, 3), chunkLineCounts(evenPolicies.get(0), 10, 10, 10, 10, 10, 10));
+        assertEquals(List.of(3, 3), chunkLineCounts(evenPolicies.get(1), 10, 10, 10, 10, 10, 10));
+    }
+
+    /**
+     * Adds the lines to chunks the way the chunk assembler does, checking the policy after every line
+     * @param lineBytes size of each line including its separator
+     * @return the line count of each chunk
+     */
+    private static List<Integer> chunkLineCounts(ChunkingPolicy policy, int... lineBytes) {
+        List<Integer> chunkLineCounts = new ArrayList<>();
+        int lineCount = 0;
+        long byteCount = 0;
+        for (int bytes : lineBytes) {
+            lineCount++;
+            byteCount += bytes;
+            if (policy.isChunkFull(lineCount, byteCount)) {
+                chunkLineCounts.add(lineCount);
+                lineCount = 0;
+                byteCount = 0;
+            }
+        }
+        if (lineCount > 0) {
+            chunkLineCounts.add(lineCount);
+        }
+        return chunkLineCounts;
+    }
+}
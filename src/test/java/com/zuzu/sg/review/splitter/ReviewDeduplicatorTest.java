@@ -0,0 +1,239 @@
+package com.zuzu.sg.review.splitter;
+
+import com.zuzu.sg.review.splitter.dedup.DedupSession;
+import com.zuzu.sg.review.splitter.dedup.ReviewDeduplicator;
+import com.zuzu.sg.review.splitter.pipeline.LineDeduplicator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class ReviewDeduplicatorTest {
+
+    @Mock
+    private S3Client s3Client;
+
+    private final Map<String, byte[]> storedState = new ConcurrentHashMap<>();
+
+    private final List<ReviewDeduplicator> deduplicators = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        when(s3Client.putObject(any(Consumer.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            PutObjectRequest.Builder builder = PutObjectRequest.builder();
+            ((Consumer<PutObjectRequest.Builder>) invocation.getArgument(0)).accept(builder);
+            storedState.put(builder.build().key(), ((RequestBody) invocation.getArgument(1)).contentStreamProvider().newStream().readAllBytes());
+            return null;
+        });
+        when(s3Client.getObjectAsBytes(any(Consumer.class))).thenAnswer(invocation -> {
+            GetObjectRequest.Builder builder = GetObjectRequest.builder();
+            ((Consumer<GetObjectRequest.Builder>) invocation.getArgument(0)).accept(builder);
+            byte[] state = storedState.get(builder.build().key());
+            if (state == null) {
+                throw NoSuchKeyException.builder().message("No state").build();
+            }
+            return ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), state);
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        deduplicators.forEach(deduplicator -> ReflectionTestUtils.invokeMethod(deduplicator, "shutdown"));
+    }
+
+    @Test
+    @DisplayName("Drops repeated reviews within a split and across completed splits only")
+    void session_dropsRepeatsOfCompletedSplits() {
+        ReviewDeduplicator deduplicator = deduplicator("");
+
+        LineDeduplicator failedSplit = segment(deduplicator.open("first.jsonl", "\"v1\"", 1, true));
+        assertArrayEquals(new boolean[]{false, true}, duplicates(failedSplit, 0, "{\"id\":1}", "{\"id\":1}"));
+
+        DedupSession firstSplit = deduplicator.open("first.jsonl", "\"v1\"", 1, true); // the failed split saved no progress, its reviews are kept
+        assertArrayEquals(new boolean[]{false, false}, duplicates(segment(firstSplit), 0, "{\"id\":1}", "{\"id\":2}"));
+        firstSplit.complete();
+
+        DedupSession secondSplit = deduplicator.open("second.jsonl", "\"v1\"", 1, true);
+        assertArrayEquals(new boolean[]{true, false, true}, duplicates(segment(secondSplit), 0, "{\"id\":2}", "{\"id\":3}", "{\"id\":1}"));
+        assertEquals(2, secondSplit.getDuplicateCount());
+    }
+
+    @Test
+    @DisplayName("Deduplicates on the key field and hashes the whole line when it is missing")
+    void session_dedupsOnKeyField() {
+        LineDeduplicator session = segment(deduplicator("review_id").open("reviews.jsonl", "\"v1\"", 1, true));
+
+        assertArrayEquals(new boolean[]{false, true, false, false, true, false},
+                duplicates(session, 0, "{\"review_id\":\"r-1\",\"rating\":4}", "{\"rating\":5,\"nested\":{\"review_id\":0},\"review_id\":\"r-1\"}",
+                        "{\"review_id\":\"r-2\"}", "{\"rating\":4}", "{\"rating\":4}", "{\"review_id\":{\"site\":1,\"id\":7}}"));
+    }
+
+    @Test
+    @DisplayName("Records the reviews once the saved progress covers them, a resumed split drops the repeats of the committed ones only")
+    void session_recordsReviewsOfSavedProgress() {
+        ReviewDeduplicator deduplicator = deduplicator("");
+        AtomicLong savedOffset = new AtomicLong();
+        DedupSession failedSplit = deduplicator.open("large.jsonl", "\"v1\"", 1, true);
+        LineDeduplicator failedSegment = failedSplit.segment(savedOffset::get);
+        assertArrayEquals(new boolean[]{false, false}, duplicates(failedSegment, 0, "{\"id\":1}", "{\"id\":2}"));
+        savedOffset.set(1); // the chunk of the first review is committed and saved
+        assertArrayEquals(new boolean[]{false, true}, duplicates(failedSegment, 2, "{\"id\":3}", "{\"id\":2}"));
+        assertEquals(2, (int) ReflectionTestUtils.invokeMethod(ReflectionTestUtils.getField(failedSplit, "pendingHashes"), "size")); // the first review left the set
+
+        LineDeduplicator resumedSegment = deduplicator.open("large.jsonl", "\"v1\"", 1, true).segment(() -> 1);
+        assertArrayEquals(new boolean[]{false, true, false}, duplicates(resumedSegment, 1, "{\"id\":2}", "{\"id\":1}", "{\"id\":3}"));
+    }
+
+    @Test
+    @DisplayName("Drops a review repeated in two segments of a ranged split, whether the first copy is still pending or already recorded")
+    void session_segmentsShareTheirReviews() {
+        ReviewDeduplicator deduplicator = deduplicator("");
+        AtomicLong firstSavedOffset = new AtomicLong();
+        DedupSession rangedSplit = deduplicator.open("ranged.jsonl", "\"v1\"", 2, true);
+        LineDeduplicator firstSegment = rangedSplit.segment(firstSavedOffset::get);
+        LineDeduplicator secondSegment = rangedSplit.segment(() -> 100); // nothing of the second segment is saved
+        assertArrayEquals(new boolean[]{false, false}, duplicates(firstSegment, 0, "{\"id\":1}", "{\"id\":2}"));
+        assertArrayEquals(new boolean[]{true}, duplicates(firstSegment, 2, "{\"id\":1}"));
+        assertArrayEquals(new boolean[]{true, true, false}, duplicates(secondSegment, 100, "{\"id\":2}", "{\"id\":2}", "{\"id\":3}"));
+        firstSavedOffset.set(2); // the first two reviews are committed
+        assertArrayEquals(new boolean[]{true, false}, duplicates(firstSegment, 3, "{\"id\":3}", "{\"id\":4}"));
+        assertArrayEquals(new boolean[]{true}, duplicates(secondSegment, 103, "{\"id\":1}"));
+        assertEquals(5, rangedSplit.getDuplicateCount());
+        rangedSplit.complete();
+
+        LineDeduplicator resumedSecondSegment = deduplicator.open("ranged.jsonl", "\"v1\"", 2, true).segment(() -> 103);
+        assertArrayEquals(new boolean[]{true, true, false}, duplicates(resumedSecondSegment, 103, "{\"id\":3}", "{\"id\":1}", "{\"id\":5}"));
+        assertArrayEquals(new boolean[]{true, true, true, true, false}, duplicates(segment(deduplicator.open("other.jsonl", "\"v1\"", 1, true)), 0,
+                "{\"id\":1}", "{\"id\":2}", "{\"id\":3}", "{\"id\":4}", "{\"id\":5}"));
+    }
+
+    @Test
+    @DisplayName("Keeps a review dropped for a pending copy in another segment when that segment fails, its resumed split reads the copy again")
+    void session_failedSegmentKeepsItsCopyOnResume() {
+        ReviewDeduplicator deduplicator = deduplicator("");
+        DedupSession failedSplit = deduplicator.open("ranged.jsonl", "\"v1\"", 2, true);
+        LineDeduplicator failingSegment = failedSplit.segment(() -> 0);
+        LineDeduplicator savedSegment = failedSplit.segment(() -> Long.MAX_VALUE);
+        assertArrayEquals(new boolean[]{false}, duplicates(failingSegment, 0, "{\"id\":1}"));
+        assertArrayEquals(new boolean[]{true, false}, duplicates(savedSegment, 100, "{\"id\":1}", "{\"id\":2}"));
+        assertArrayEquals(new boolean[]{false}, duplicates(savedSegment, 102, "{\"id\":3}")); // the segment commits its lines, not the other's
+
+        LineDeduplicator resumedSegment = deduplicator.open("ranged.jsonl", "\"v1\"", 2, true).segment(() -> 0);
+        assertArrayEquals(new boolean[]{false, true}, duplicates(resumedSegment, 0, "{\"id\":1}", "{\"id\":2}"));
+    }
+
+    @Test
+    @DisplayName("Keeps the reviews of a failed split that cannot resume when it is retried from the start")
+    void session_retryOfUnresumableSplitKeepsItsReviews() {
+        ReviewDeduplicator deduplicator = deduplicator("");
+        assertArrayEquals(new boolean[]{false, false, true}, duplicates(segment(deduplicator.open("partitioned.jsonl", "\"v1\"", 1, false)), 0,
+                "{\"id\":1}", "{\"id\":2}", "{\"id\":1}"));
+
+        LineDeduplicator retry = segment(deduplicator.open("partitioned.jsonl", "\"v1\"", 1, false));
+        assertArrayEquals(new boolean[]{false, false}, duplicates(retry, 0, "{\"id\":1}", "{\"id\":2}"));
+        assertArrayEquals(new boolean[]{true}, duplicates(retry, 2, "{\"id\":1}"));
+        assertArrayEquals(new boolean[]{true, false}, duplicates(segment(deduplicator.open("other.jsonl", "\"v1\"", 1, false)), 0,
+                "{\"id\":2}", "{\"id\":3}"));
+    }
+
+    @Test
+    @DisplayName("Saves the state to S3 and loads it into a new instance")
+    void state_persistsAcrossInstances() {
+        ReviewDeduplicator deduplicator = deduplicator("");
+        DedupSession split = deduplicator.open("first.jsonl", "\"v1\"", 1, true);
+        duplicates(segment(split), 0, "{\"id\":1}", "{\"id\":2}");
+        split.complete();
+        ReflectionTestUtils.invokeMethod(deduplicator, "saveState");
+
+        assertTrue(storedState.containsKey("split-dedup/recent.bin"));
+        assertTrue(storedState.keySet().stream().anyMatch(key -> key.startsWith("split-dedup/bloom-")));
+
+        ReviewDeduplicator restarted = deduplicator("", 1); // only the last review fits the recent window, the Bloom filter holds both
+        assertArrayEquals(new boolean[]{true, true, false}, duplicates(segment(restarted.open("second.jsonl", "\"v1\"", 1, true)), 0,
+                "{\"id\":1}", "{\"id\":2}", "{\"id\":3}"));
+    }
+
+    @Test
+    @DisplayName("Refuses to start without a bucket of its own for the dedup state")
+    void init_requiresDedupBucket() {
+        ReviewDeduplicator deduplicator = new ReviewDeduplicator();
+        ReflectionTestUtils.setField(deduplicator, "dedupEnabled", true);
+        ReflectionTestUtils.setField(deduplicator, "dedupBucketName", "");
+
+        assertThrows(IllegalStateException.class, () -> ReflectionTestUtils.invokeMethod(deduplicator, "init"));
+        verifyNoInteractions(s3Client);
+    }
+
+    private ReviewDeduplicator deduplicator(String keyField) {
+        return deduplicator(keyField, 16);
+    }
+
+    private ReviewDeduplicator deduplicator(String keyField, int recentWindowSize) {
+        ReviewDeduplicator deduplicator = new ReviewDeduplicator();
+        ReflectionTestUtils.setField(deduplicator, "s3Client", s3Client);
+        ReflectionTestUtils.setField(deduplicator, "dedupEnabled", true);
+        ReflectionTestUtils.setField(deduplicator, "keyField", keyField);
+        ReflectionTestUtils.setField(deduplicator, "windowHours", 168L);
+        ReflectionTestUtils.setField(deduplicator, "bloomBytes", 1L << 16);
+        ReflectionTestUtils.setField(deduplicator, "expectedReviews", 1000L);
+        ReflectionTestUtils.setField(deduplicator, "recentWindowSize", recentWindowSize);
+        ReflectionTestUtils.setField(deduplicator, "saveIntervalSeconds", 3600L);
+        ReflectionTestUtils.setField(deduplicator, "dedupBucketName", "test-dedup-bucket");
+        ReflectionTestUtils.setField(deduplicator, "dedupPrefix", "split-dedup/");
+        ReflectionTestUtils.invokeMethod(deduplicator, "init");
+        deduplicators.add(deduplicator);
+        return deduplicator;
+    }
+
+    /**
+     * @return the deduplicator of a segment whose progress is never saved, its reviews are recorded when the split completes
+     */
+    private LineDeduplicator segment(DedupSession session) {
+        return session.segment(() -> 0);
+    }
+
+    /**
+     * Runs the lines through the segment as one batch, the way the split pipeline does
+     * @param firstOffset source offset of the first line, the next lines follow one byte apart
+     */
+    private boolean[] duplicates(LineDeduplicator segment, long firstOffset, String... lines) {
+        long[] hashes = new long[lines.length];
+        long[] lineOffsets = new long[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            byte[] line = ("  " + lines[i]).getBytes(StandardCharsets.UTF_8);
+            hashes[i] = segment.hash(ByteBuffer.allocateDirect(line.length).put(line).flip(), 2, line.length - 2);
+            lineOffsets[i] = firstOffset + i;
+        }
+        boolean[] duplicates = new boolean[lines.length];
+        segment.findDuplicates(hashes, lineOffsets, lines.length, duplicates);
+        return duplicates;
+    }
+}
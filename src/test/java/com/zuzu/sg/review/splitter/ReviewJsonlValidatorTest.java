@@ -0,0 +1,83 @@
+package com.zuzu.sg.review.splitter;
+
+import com.zuzu.sg.review.splitter.validation.ReviewJsonlValidator;
+import com.zuzu.sg.review.splitter.validation.ValidationResult;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReviewJsonlValidatorTest {
+
+    private final ReviewJsonlValidator reviewJsonlValidator = new ReviewJsonlValidator();
+
+    @Test
+    @DisplayName("Accepts a well formed review line without allocating a result")
+    void validate_validLine() {
+        assertSame(ValidationResult.VALID, reviewJsonlValidator.validate("{\"hotelId\":10984,\"rating\":{\"overall\":7.2},\"comment\":\"Très bien\"}"));
+    }
+
+    @Test
+    @DisplayName("Rejects malformed, empty and trailing content lines")
+    void validate_invalidLines() {
+        assertFalse(reviewJsonlValidator.validate("INVALID_JSON").isValid());
+        assertFalse(reviewJsonlValidator.validate("{\"id\":1").isValid());
+        assertFalse(reviewJsonlValidator.validate("").isValid());
+        assertFalse(reviewJsonlValidator.validate("{\"id\":1} {\"id\":2}").isValid());
+        assertTrue(reviewJsonlValidator.validate("INVALID_JSON").error().startsWith("Malformed JSON"));
+    }
+
+    @Test
+    @DisplayName("Rejects a blank line, which the baseline tree parser accepted as a missing value")
+    void validate_blankLineRejected() {
+        assertEquals("Empty line", reviewJsonlValidator.validate("").error());
+        assertEquals("Empty line", reviewJsonlValidator.validate("  \t ").error());
+        byte[] buffer = "{\"id\":1}\n   \n".getBytes(StandardCharsets.UTF_8);
+        assertEquals("Empty line", reviewJsonlValidator.validate(buffer, 9, 3).error());
+    }
+
+    @Test
+    @DisplayName("Rejects a token after the end of the value, which the baseline tree parser ignored, and accepts trailing whitespace")
+    void validate_trailingTokenRejected() {
+        assertEquals("Malformed JSON. Error: content after the end of the JSON value", reviewJsonlValidator.validate("{\"id\":1} 2").error());
+        assertEquals("Malformed JSON. Error: content after the end of the JSON value", reviewJsonlValidator.validate("{\"id\":1}{}").error());
+        assertTrue(reviewJsonlValidator.validate("{\"id\":1}]").error().startsWith("Malformed JSON"));
+        byte[] buffer = "{\"id\":1} true".getBytes(StandardCharsets.UTF_8);
+        assertFalse(reviewJsonlValidator.validate(buffer, 0, buffer.length).isValid());
+        assertSame(ValidationResult.VALID, reviewJsonlValidator.validate("{\"id\":1}  \t"));
+    }
+
+    @Test
+    @DisplayName("Validates a line from a slice of a byte buffer")
+    void validate_byteSlice() {
+        byte[] buffer = "{\"id\":1}\n{\"id\":\n".getBytes(StandardCharsets.UTF_8);
+
+        assertSame(ValidationResult.VALID, reviewJsonlValidator.validate(buffer, 0, 8));
+        assertFalse(reviewJsonlValidator.validate(buffer, 9, 6).isValid());
+    }
+
+    @Test
+    @DisplayName("An invalid line does not affect the validation of later lines")
+    void validate_invalidLineDoesNotLeak() {
+        assertFalse(reviewJsonlValidator.validate("INVALID_JSON").isValid());
+        assertTrue(reviewJsonlValidator.validate("{\"id\":2}").isValid());
+    }
+
+    @Test
+    @DisplayName("Can be shared by many threads")
+    void validate_concurrentCalls() {
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        IntStream.range(0, 1000).forEach(i -> results.add(CompletableFuture.supplyAsync(() ->
+                reviewJsonlValidator.validate(i % 2 == 0 ? "{\"id\":" + i + "}" : "{\"id\":").isValid())));
+
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i % 2 == 0, results.get(i).join());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.zuzu.sg.review.splitter;
+
+import com.zuzu.sg.review.splitter.utility.BlockingIoExecutors;
+import com.zuzu.sg.review.splitter.utility.S3Archiver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyPartResult;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyResponse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class S3ArchiverTest {
+
+    @Mock
+    private S3Client s3Client;
+
+    @Mock
+    private S3AsyncClient s3AsyncClient;
+
+    private S3Archiver s3Archiver;
+
+    private final Map<Integer, String> copiedRanges = new ConcurrentHashMap<>();
+
+    private final HeadObjectResponse largeSource = HeadObjectResponse.builder()
+            .contentLength(250L).eTag("\"large-etag\"").contentType("application/jsonl").build();
+
+    @BeforeEach
+    void setUp() {
+        s3Archiver = new S3Archiver();
+        ReflectionTestUtils.setField(s3Archiver, "s3Client", s3Client);
+        ReflectionTestUtils.setField(s3Archiver, "blockingIoExecutors", new BlockingIoExecutors());
+        ReflectionTestUtils.setField(s3Archiver, "s3AsyncClient", s3AsyncClient);
+        ReflectionTestUtils.setField(s3Archiver, "sourceBucketName", "test-source-bucket");
+        ReflectionTestUtils.setField(s3Archiver, "archiveBucketName", "test-archive-bucket");
+        ReflectionTestUtils.setField(s3Archiver, "multipartThresholdBytes", 100L);
+        ReflectionTestUtils.setField(s3Archiver, "partSizeBytes", 100L);
+        ReflectionTestUtils.setField(s3Archiver, "parallelism", 2);
+        ReflectionTestUtils.invokeMethod(s3Archiver, "init");
+
+        when(s3AsyncClient.createMultipartUpload(any(Consumer.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("upload-1").build()));
+        when(s3AsyncClient.uploadPartCopy(any(Consumer.class))).thenAnswer(invocation -> {
+            UploadPartCopyRequest.Builder builder = UploadPartCopyRequest.builder();
+            ((Consumer<UploadPartCopyRequest.Builder>) invocation.getArgument(0)).accept(builder);
+            UploadPartCopyRequest request = builder.build();
+            assertEquals("\"large-etag\"", request.copySourceIfMatch());
+            assertEquals("upload-1", request.uploadId());
+            copiedRanges.put(request.partNumber(), request.copySourceRange());
+            return CompletableFuture.completedFuture(UploadPartCopyResponse.builder()
+                    .copyPartResult(CopyPartResult.builder().eTag("part-" + request.partNumber()).build()).build());
+        });
+        when(s3AsyncClient.completeMultipartUpload(any(Consumer.class)))
+                .thenReturn(CompletableFuture.completedFuture(CompleteMultipartUploadResponse.builder().build()));
+        when(s3AsyncClient.abortMultipartUpload(any(Consumer.class))).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(s3Archiver, "shutdown");
+    }
+
+    @Test
+    @DisplayName("Copies a file above the threshold as parallel part copies and deletes the source once complete")
+    void archive_multipartCopy() {
+        CompletableFuture<String> archiveCopy = s3Archiver.startCopy("large.jsonl", largeSource);
+        s3Archiver.completeArchive("large.jsonl", archiveCopy);
+
+        assertTrue(archiveCopy.join().startsWith("large.jsonl_"));
+        assertEquals(Map.of(1, "bytes=0-99", 2, "bytes=100-199", 3, "bytes=200-249"), copiedRanges);
+        verify(s3Client, never()).copyObject(any(Consumer.class));
+
+        ArgumentCaptor<Consumer<CompleteMultipartUploadRequest.Builder>> completeCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(s3AsyncClient).completeMultipartUpload(completeCaptor.capture());
+        CompleteMultipartUploadRequest.Builder completeBuilder = CompleteMultipartUploadRequest.builder();
+        completeCaptor.getValue().accept(completeBuilder);
+        assertEquals(List.of("part-1", "part-2", "part-3"),
+                completeBuilder.build().multipartUpload().parts().stream().map(CompletedPart::eTag).toList());
+
+        ArgumentCaptor<Consumer<DeleteObjectRequest.Builder>> deleteCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(s3Client).deleteObject(deleteCaptor.capture());
+        DeleteObjectRequest.Builder deleteBuilder = DeleteObjectRequest.builder();
+        deleteCaptor.getValue().accept(deleteBuilder);
+        assertEquals("test-source-bucket", deleteBuilder.build().bucket());
+        assertEquals("large.jsonl", deleteBuilder.build().key());
+    }
+
+    @Test
+    @DisplayName("Aborts the multipart copy and keeps the source when a part copy fails")
+    void archive_failedPartAborts() {
+        when(s3AsyncClient.uploadPartCopy(any(Consumer.class)))
+                .thenReturn(CompletableFuture.failedFuture(S3Exception.builder().message("Simulated copy error").build()));
+
+        CompletableFuture<String> archiveCopy = s3Archiver.startCopy("large.jsonl", largeSource);
+
+        assertThrows(CompletionException.class, () -> s3Archiver.completeArchive("large.jsonl", archiveCopy));
+        verify(s3AsyncClient).abortMultipartUpload(any(Consumer.class));
+        verify(s3AsyncClient, never()).completeMultipartUpload(any(Consumer.class));
+        verify(s3Client, never()).deleteObject(any(Consumer.class));
+    }
+}
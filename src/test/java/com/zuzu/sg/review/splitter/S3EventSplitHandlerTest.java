@@ -0,0 +1,75 @@
+package com.zuzu.sg.review.splitter;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.S3Event;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import com.zuzu.sg.review.splitter.exception.S3FileProcessingException;
+import com.zuzu.sg.review.splitter.lambda.S3EventSplitHandler;
+import com.zuzu.sg.review.splitter.utility.SplitJobScheduler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class S3EventSplitHandlerTest {
+
+    @Mock
+    private SplitJobScheduler splitJobScheduler;
+
+    @Mock
+    private Context context;
+
+    private S3EventSplitHandler handler;
+
+    @BeforeEach
+    void setUp() {
+        handler = new S3EventSplitHandler(splitJobScheduler);
+        when(context.getAwsRequestId()).thenReturn("request-1");
+    }
+
+    @Test
+    @DisplayName("Splits every file of the event in order with its decoded key")
+    void handleRequest_splitsEveryFile() throws IOException {
+        when(splitJobScheduler.run("reviews 2024/01.jsonl")).thenReturn(List.of("reviews 2024/01.jsonl-split-1"));
+        when(splitJobScheduler.run("second.jsonl")).thenReturn(List.of("second.jsonl-split-1", "second.jsonl-split-2"));
+
+        List<String> splitFiles = handler.handleRequest(event("reviews+2024%2F01.jsonl", "second.jsonl"), context);
+
+        assertEquals(List.of("reviews 2024/01.jsonl-split-1", "second.jsonl-split-1", "second.jsonl-split-2"), splitFiles);
+        InOrder inOrder = inOrder(splitJobScheduler);
+        inOrder.verify(splitJobScheduler).run("reviews 2024/01.jsonl");
+        inOrder.verify(splitJobScheduler).run("second.jsonl");
+    }
+
+    @Test
+    @DisplayName("Fails the invocation when a split fails, so Lambda retries the event")
+    void handleRequest_failedSplitFailsInvocation() throws IOException {
+        when(splitJobScheduler.run("first.jsonl"))
+                .thenThrow(new S3FileProcessingException("Error during file processing", new RuntimeException("Simulated S3 error")));
+
+        assertThrows(S3FileProcessingException.class, () -> handler.handleRequest(event("first.jsonl", "second.jsonl"), context));
+        verify(splitJobScheduler, never()).run("second.jsonl");
+    }
+
+    private static S3Event event(String... keys) {
+        return new S3Event(Arrays.stream(keys)
+                .map(key -> new S3EventNotification.S3EventNotificationRecord("eu-north-1", "ObjectCreated:Put", "aws:s3", null, "2.1",
+                        null, null, new S3EventNotification.S3Entity(null, new S3EventNotification.S3BucketEntity("sg-reviews-uploads-bucket", null, null),
+                        new S3EventNotification.S3ObjectEntity(key, 100L, null, null, null), "1.0"), null))
+                .toList());
+    }
+}
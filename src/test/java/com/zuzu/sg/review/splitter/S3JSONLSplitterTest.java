@@ -1,229 +1,525 @@
 package com.zuzu.sg.review.splitter;
 
-import com.amazonaws.services.s3.model.PutObjectRequest;
-import com.amazonaws.services.s3.transfer.TransferManager;
-import com.amazonaws.services.s3.transfer.Upload;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.github.luben.zstd.ZstdInputStream;
+import com.zuzu.sg.review.splitter.format.ChunkRecordReader;
+import com.zuzu.sg.review.splitter.format.RecordFormat;
+import com.zuzu.sg.review.splitter.manifest.ChunkEntry;
+import com.zuzu.sg.review.splitter.manifest.ChunkManifest;
+import com.zuzu.sg.review.splitter.utility.CompressionCodec;
 import com.zuzu.sg.review.splitter.utility.S3JSONLSplitter;
+import com.zuzu.sg.review.splitter.utility.S3TransferService;
 import com.zuzu.sg.review.splitter.validation.ReviewJsonlValidator;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.mockito.junit.jupiter.MockitoSettings;
-import org.mockito.quality.Strictness;
 import org.springframework.test.util.ReflectionTestUtils;
 import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
-import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
+import java.util.zip.GZIPOutputStream;
 
+import static com.zuzu.sg.review.splitter.SplitterTestFixture.DESTINATION_BUCKET;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
-@MockitoSettings(strictness = Strictness.LENIENT)
 class S3JSONLSplitterTest {
 
     @Mock
     private S3Client s3Client;
 
     @Mock
-    private ReviewJsonlValidator reviewJsonlValidator;
-
-    @Mock
-    private TransferManager transferManager;
-
-    @Mock
-    private Upload upload;
-
-    @InjectMocks
-    private S3JSONLSplitter s3JsonlSplitter;
+    private S3TransferService s3TransferService;
 
     @TempDir
     Path tempDir;
 
-    private final String SOURCE_BUCKET = "test-source-bucket";
-    private final String DESTINATION_BUCKET = "test-destination-bucket";
-    private final String ARCHIVE_BUCKET = "test-archive-bucket";
-    private final int LINES_PER_CHUNK = 2;
+    private SplitterTestFixture fixture; // resume, reuse, dedup, dead letters and the memory limit are covered by the Split*Test classes
 
-    private Path mockDownloadedFilePath;
+    private S3JSONLSplitter s3JsonlSplitter;
 
     @BeforeEach
-    void setUp() throws IOException, InterruptedException {
-        // Initialize S3JSONLSplitter and inject mocks/values
-        s3JsonlSplitter = new S3JSONLSplitter();
-        ReflectionTestUtils.setField(s3JsonlSplitter, "s3Client", s3Client);
-        ReflectionTestUtils.setField(s3JsonlSplitter, "reviewJsonlValidator", reviewJsonlValidator);
-        ReflectionTestUtils.setField(s3JsonlSplitter, "transferManager", transferManager);
-        ReflectionTestUtils.setField(s3JsonlSplitter, "sourceBucketName", SOURCE_BUCKET);
-        ReflectionTestUtils.setField(s3JsonlSplitter, "destinationBucketName", DESTINATION_BUCKET);
-        ReflectionTestUtils.setField(s3JsonlSplitter, "archiveBucketName", ARCHIVE_BUCKET);
-        ReflectionTestUtils.setField(s3JsonlSplitter, "linesPerChunk", LINES_PER_CHUNK);
-
-        // Common stubbings for successful scenarios
-        when(transferManager.upload(any(PutObjectRequest.class))).thenReturn(upload);
-        // Default for void method waitForCompletion() is doNothing(), no explicit stubbing needed
-        // doNothing().when(upload).waitForCompletion(); // Can be removed
-
-        // Create a mock file path for download to simplify individual test setups
-        mockDownloadedFilePath = tempDir.resolve("temp-file.jl");
-        Files.createFile(mockDownloadedFilePath); // Ensure it exists for `toFile` transformer
-
-        // Common stubbing for S3Client.getObject to simulate download
-        doAnswer(invocation -> {
-            Consumer<ResponseTransformer<software.amazon.awssdk.services.s3.model.GetObjectResponse, ?>> transformer = invocation.getArgument(1);
-            transformer.accept(ResponseTransformer.toFile(mockDownloadedFilePath));
-            return null;
-        }).when(s3Client).getObject(any(Consumer.class), any(ResponseTransformer.class));
+    void setUp() {
+        fixture = new SplitterTestFixture(s3Client, s3TransferService, tempDir);
+        s3JsonlSplitter = fixture.splitter;
+    }
 
-        // Common stubbing for validator (assumes valid JSONL by default)
-        when(reviewJsonlValidator.validateReviewJsonl(anyString())).thenReturn(Collections.emptyList());
+    @AfterEach
+    void tearDown() {
+        fixture.shutdown();
     }
 
     @Test
     @DisplayName("Splits and uploads file with multiple chunks")
     void splitFile_multipleChunksSuccess() throws IOException, InterruptedException {
         String inputFile = "input.jsonl";
-        Files.write(mockDownloadedFilePath, "{\"id\":1}\n{\"id\":2}\n{\"id\":3}\n{\"id\":4}\n{\"id\":5}".getBytes());
+        fixture.sourceFile("{\"id\":1}\n{\"id\":2}\n{\"id\":3}\n{\"id\":4}\n{\"id\":5}".getBytes());
+        fixture.captureChunks();
 
-        s3JsonlSplitter.splitFile(inputFile);
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile(inputFile, tempDir);
 
         verify(s3Client).getObject(any(Consumer.class), any(ResponseTransformer.class));
-        verify(transferManager, times(3)).upload(any(PutObjectRequest.class));
-        verify(upload, times(3)).waitForCompletion();
-
-        // Verify content and names of captured PutObjectRequests
-        ArgumentCaptor<PutObjectRequest> putRequestCaptor = ArgumentCaptor.forClass(PutObjectRequest.class);
-        verify(transferManager, times(3)).upload(putRequestCaptor.capture());
-        java.util.List<PutObjectRequest> capturedRequests = putRequestCaptor.getAllValues();
-        assertEquals(Arrays.asList("{\"id\":1}", "{\"id\":2}"), Files.readAllLines(capturedRequests.get(0).getFile().toPath()));
-        assertEquals(Arrays.asList("{\"id\":3}", "{\"id\":4}"), Files.readAllLines(capturedRequests.get(1).getFile().toPath()));
-        assertEquals(Collections.singletonList("{\"id\":5}"), Files.readAllLines(capturedRequests.get(2).getFile().toPath()));
-        assertTrue(capturedRequests.get(0).getKey().startsWith("input-split-1.jsonl"));
-        assertTrue(capturedRequests.get(1).getKey().startsWith("input-split-2.jsonl"));
-        assertTrue(capturedRequests.get(2).getKey().startsWith("input-split-3.jsonl"));
-
-        verifyFileArchivedAndDeleted(inputFile);
-        assertFalse(Files.exists(mockDownloadedFilePath));
+        verify(s3TransferService, times(3)).upload(anyString(), anyString(), anyList(), anyLong(), anyString());
+
+        // Verify content and names of the uploaded chunks, the uploads run in parallel so they are matched by key
+        assertEquals(Arrays.asList("input-split-1.jsonl", "input-split-2.jsonl", "input-split-3.jsonl"), uploadedSplitFiles);
+        assertEquals(Arrays.asList("{\"id\":1}", "{\"id\":2}"), fixture.uploadedLines.get("input-split-1.jsonl"));
+        assertEquals(Arrays.asList("{\"id\":3}", "{\"id\":4}"), fixture.uploadedLines.get("input-split-2.jsonl"));
+        assertEquals(Collections.singletonList("{\"id\":5}"), fixture.uploadedLines.get("input-split-3.jsonl"));
+
+        fixture.verifyFileArchivedAndDeleted(inputFile);
+        assertFalse(Files.exists(tempDir.resolve("uploaded-reviews.jl")));
+    }
+
+    @Test
+    @DisplayName("Publishes the chunk manifest before the source file is archived")
+    void splitFile_publishesChunkManifest() throws IOException {
+        String inputFile = "manifest.jsonl";
+        fixture.sourceFile("{\"id\":1}\n{\"id\":2}\n{\"id\":3}\n".getBytes());
+        fixture.captureChunks();
+        List<byte[]> publishedManifests = new CopyOnWriteArrayList<>();
+        when(s3Client.putObject(any(Consumer.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            Consumer<PutObjectRequest.Builder> request = invocation.getArgument(0);
+            PutObjectRequest.Builder builder = PutObjectRequest.builder();
+            request.accept(builder);
+            assertEquals(DESTINATION_BUCKET, builder.build().bucket());
+            assertEquals("manifest-split-manifest.json", builder.build().key());
+            publishedManifests.add(((RequestBody) invocation.getArgument(1)).contentStreamProvider().newStream().readAllBytes());
+            return null;
+        });
+
+        s3JsonlSplitter.splitFile(inputFile, tempDir);
+
+        assertEquals(1, publishedManifests.size());
+        ChunkManifest manifest = new ObjectMapper().readValue(publishedManifests.get(0), ChunkManifest.class);
+        assertEquals("manifest.jsonl", manifest.sourceKey());
+        assertEquals("JSONL", manifest.format());
+        assertEquals(2, manifest.chunkCount());
+        assertEquals(3, manifest.recordCount());
+        assertEquals(27, manifest.byteCount());
+        assertEquals("manifest-split-1.jsonl", manifest.chunks().get(0).key());
+        assertEquals(0, manifest.chunks().get(0).sourceStart());
+        assertEquals(18, manifest.chunks().get(0).sourceEnd());
+        assertEquals(18, manifest.chunks().get(1).sourceStart());
+        assertEquals(27, manifest.chunks().get(1).sourceEnd());
+        CRC32C expectedChecksum = new CRC32C();
+        expectedChecksum.update("{\"id\":3}\n".getBytes());
+        assertEquals(expectedChecksum.getValue(),
+                Integer.toUnsignedLong(ByteBuffer.wrap(Base64.getDecoder().decode(manifest.chunks().get(1).crc32c())).getInt()));
+        fixture.verifyFileArchivedAndDeleted(inputFile);
+    }
+
+    @Test
+    @DisplayName("Counts a file no longer in the source bucket as split, as on the redelivery of an event")
+    void splitFile_sourceAlreadySplitAndArchived() throws IOException {
+        ChunkManifest publishedManifest = ChunkManifest.of("done.jsonl", "\"source-etag\"", "NONE", "JSONL", 0, List.of(
+                new ChunkEntry("done-split-1.jsonl", 0, 0, 1, 2, 18, "AAAAAA==", 0, 18)));
+        when(s3Client.headObject(any(Consumer.class))).thenThrow(S3Exception.builder().statusCode(404).message("Not Found").build());
+        doAnswer(invocation -> {
+            GetObjectRequest.Builder builder = GetObjectRequest.builder();
+            ((Consumer<GetObjectRequest.Builder>) invocation.getArgument(0)).accept(builder);
+            if (!"done-split-manifest.json".equals(builder.build().key())) {
+                throw NoSuchKeyException.builder().message("No manifest").build();
+            }
+            return ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), new ObjectMapper().writeValueAsBytes(publishedManifest));
+        }).when(s3Client).getObjectAsBytes(any(Consumer.class));
+
+        assertEquals(List.of("done-split-1.jsonl"), s3JsonlSplitter.splitFile("done.jsonl", tempDir));
+        assertEquals(List.of(), s3JsonlSplitter.splitFile("deleted.jsonl", tempDir));
+
+        verify(s3Client, never()).getObject(any(Consumer.class), any(ResponseTransformer.class));
+        verify(s3Client, never()).copyObject(any(Consumer.class));
+        verify(s3Client, never()).deleteObject(any(Consumer.class));
+        verify(s3TransferService, never()).upload(anyString(), anyString(), anyList(), anyLong(), anyString());
     }
 
     @Test
     @DisplayName("Handles empty input file")
     void splitFile_emptyInput() throws IOException, InterruptedException {
         String inputFile = "empty.jsonl";
-        Files.write(mockDownloadedFilePath, new byte[0]); // Ensure file is empty
+        fixture.sourceFile(new byte[0]);
 
-        s3JsonlSplitter.splitFile(inputFile);
+        s3JsonlSplitter.splitFile(inputFile, tempDir);
 
-        verify(transferManager, never()).upload(any(PutObjectRequest.class));
-        verify(upload, never()).waitForCompletion();
-        verifyFileArchivedAndDeleted(inputFile);
-        assertFalse(Files.exists(mockDownloadedFilePath));
+        verify(s3TransferService, never()).upload(anyString(), anyString(), anyList(), anyLong(), anyString());
+        fixture.verifyFileArchivedAndDeleted(inputFile);
+        assertFalse(Files.exists(tempDir.resolve("uploaded-reviews.jl")));
     }
 
     @Test
     @DisplayName("Processes file with fewer lines than chunk size")
     void splitFile_singleChunk() throws IOException, InterruptedException {
         String inputFile = "small.jsonl";
-        Files.write(mockDownloadedFilePath, "{\"id\":1}\n{\"id\":2}".getBytes());
+        fixture.sourceFile("{\"id\":1}\n{\"id\":2}".getBytes());
+        fixture.captureChunks();
 
-        s3JsonlSplitter.splitFile(inputFile);
+        s3JsonlSplitter.splitFile(inputFile, tempDir);
 
-        verify(transferManager, times(1)).upload(any(PutObjectRequest.class));
-        verify(upload, times(1)).waitForCompletion();
-        verifyFileArchivedAndDeleted(inputFile);
-        assertFalse(Files.exists(mockDownloadedFilePath));
+        verify(s3TransferService, times(1)).upload(anyString(), anyString(), anyList(), anyLong(), anyString());
+        fixture.verifyFileArchivedAndDeleted(inputFile);
+        assertFalse(Files.exists(tempDir.resolve("uploaded-reviews.jl")));
     }
 
     @Test
-    @DisplayName("Handles lines with validation errors (adds them to chunk)")
-    void splitFile_validationFailsAddsToChunk() throws IOException, InterruptedException {
+    @DisplayName("Handles lines with validation errors (drops them from the chunks)")
+    void splitFile_validationFailsDropsLine() throws IOException, InterruptedException {
         String inputFile = "invalid.jsonl";
-        Files.write(mockDownloadedFilePath, "{\"id\":1}\nINVALID_JSON\n{\"id\":3}".getBytes());
+        fixture.sourceFile("{\"id\":1}\nINVALID_JSON\n{\"id\":3}".getBytes());
+        fixture.captureChunks();
+
+        s3JsonlSplitter.splitFile(inputFile, tempDir);
+
+        verify(s3TransferService, times(1)).upload(anyString(), anyString(), anyList(), anyLong(), anyString());
+        assertEquals(Arrays.asList("{\"id\":1}", "{\"id\":3}"), fixture.uploadedLines.get(inputFile.replace(".jsonl", "-split-1.jsonl")));
+    }
+
+    @Test
+    @DisplayName("Rejects the lines that are not valid UTF-8 while framing them, downloaded or streamed")
+    void splitFile_invalidUtf8DropsLine() throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write("{\"text\":\"caf\u00e9 \ud83d\ude00 long enough to span batches\"}\r\n".getBytes(StandardCharsets.UTF_8));
+        content.write(new byte[]{'{', '"', 't', '"', ':', '"', (byte) 0xC3, '(', '"', '}', '\n'}); // truncated sequence
+        content.write(new byte[]{'{', '"', 't', '"', ':', '"', (byte) 0xED, (byte) 0xA0, (byte) 0x80, '"', '}', '\n'}); // encoded surrogate
+        content.write("{\"id\":4}".getBytes(StandardCharsets.UTF_8));
+        ReviewJsonlValidator reviewJsonlValidator = spy(new ReviewJsonlValidator());
+        ReflectionTestUtils.setField(s3JsonlSplitter, "reviewJsonlValidator", reviewJsonlValidator);
+        fixture.captureChunks();
+
+        fixture.sourceFile(content.toByteArray());
+        s3JsonlSplitter.splitFile("downloaded.jsonl", tempDir);
+        fixture.streamedSourceFile(content.toByteArray());
+        s3JsonlSplitter.splitFile("streamed.jsonl", tempDir);
+
+        List<String> expectedLines = Arrays.asList("{\"text\":\"caf\u00e9 \ud83d\ude00 long enough to span batches\"}", "{\"id\":4}");
+        assertEquals(expectedLines, fixture.uploadedLines.get("downloaded-split-1.jsonl"));
+        assertEquals(expectedLines, fixture.uploadedLines.get("streamed-split-1.jsonl"));
+        verify(reviewJsonlValidator, times(4)).validate(any(ByteBuffer.class), anyInt(), anyInt()); // the framer rejected the others
+    }
+
+    @Test
+    @DisplayName("Splits a downloaded file with a line longer than the mapped window")
+    void splitFile_lineLongerThanMappedWindow() throws IOException, InterruptedException {
+        String inputFile = "long.jsonl";
+        String longLine = "{\"comment\":\"" + "a".repeat(100) + "\"}";
+        fixture.sourceFile(("{\"id\":1}\n" + longLine + "\n{\"id\":3}\n").getBytes(StandardCharsets.UTF_8));
+        fixture.captureChunks();
+
+        s3JsonlSplitter.splitFile(inputFile, tempDir);
+
+        assertEquals(Arrays.asList("{\"id\":1}", longLine), fixture.uploadedLines.get("long-split-1.jsonl"));
+        assertEquals(Collections.singletonList("{\"id\":3}"), fixture.uploadedLines.get("long-split-2.jsonl"));
+    }
 
-        when(reviewJsonlValidator.validateReviewJsonl("{\"id\":1}")).thenReturn(Collections.emptyList());
-        when(reviewJsonlValidator.validateReviewJsonl("INVALID_JSON")).thenReturn(Collections.singletonList("Invalid JSON"));
-        when(reviewJsonlValidator.validateReviewJsonl("{\"id\":3}")).thenReturn(Collections.emptyList());
+    @Test
+    @DisplayName("Records the ingest, upload and job metrics of a split")
+    void splitFile_recordsMetrics() throws IOException {
+        fixture.sourceFile("{\"id\":1}\nINVALID_JSON\n{\"id\":3}\n".getBytes());
+        fixture.captureChunks();
+
+        s3JsonlSplitter.splitFile("metered.jsonl", tempDir);
+
+        assertEquals(3, fixture.meterRegistry.get("splitter.lines.read").counter().count());
+        assertEquals(31, fixture.meterRegistry.get("splitter.bytes.read").counter().count());
+        assertEquals(1, fixture.meterRegistry.get("splitter.lines.invalid").counter().count());
+        assertEquals(1, fixture.meterRegistry.get("splitter.chunk.upload").tag("outcome", "success").timer().count());
+        assertEquals(18, fixture.meterRegistry.get("splitter.chunk.size").summary().totalAmount());
+        assertEquals(0, fixture.meterRegistry.get("splitter.uploads.in.flight").gauge().value());
+        assertEquals(0, fixture.meterRegistry.get("splitter.pipeline.queue.depth").gauge().value());
+        assertEquals(1, fixture.meterRegistry.get("splitter.job.duration").tags("size", "0-100MB", "outcome", "success").timer().count());
+    }
 
-        s3JsonlSplitter.splitFile(inputFile);
+    @Test
+    @DisplayName("Streams the file from S3 and normalises CRLF line endings")
+    void splitFile_streamingMode() throws IOException, InterruptedException {
+        String inputFile = "streamed.jsonl";
+        fixture.streamedSourceFile("{\"id\":1}\r\n{\"id\":2}\r\n{\"id\":3}\n".getBytes(StandardCharsets.UTF_8));
+        fixture.captureChunks();
+
+        s3JsonlSplitter.splitFile(inputFile, tempDir);
+
+        verify(s3Client, never()).getObject(any(Consumer.class), any(ResponseTransformer.class));
+        verify(s3TransferService, times(2)).upload(anyString(), anyString(), anyList(), anyLong(), anyString());
+        assertEquals(Arrays.asList("{\"id\":1}", "{\"id\":2}"), fixture.uploadedLines.get("streamed-split-1.jsonl"));
+        assertEquals(Collections.singletonList("{\"id\":3}"), fixture.uploadedLines.get("streamed-split-2.jsonl"));
+        fixture.verifyFileArchivedAndDeleted(inputFile);
+    }
 
-        verify(transferManager, times(2)).upload(any(PutObjectRequest.class));
-        verify(upload, times(2)).waitForCompletion();
+    @Test
+    @DisplayName("Splits the newline aligned segments of a large file on their own ranged GETs and numbers the chunks per segment")
+    void splitFile_rangedSegments() throws IOException {
+        String inputFile = "ranged.jsonl";
+        byte[] content = "{\"id\":1}\n{\"id\":2}\n{\"id\":3}\n{\"id\":4}\n{\"id\":5}\n".getBytes(StandardCharsets.UTF_8);
+        fixture.rangedReads(20L); // the boundary at 20 moves to the line starting at 27
+        fixture.rangedSourceFile(content);
+        fixture.captureChunks();
+
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile(inputFile, tempDir);
+
+        assertEquals(Arrays.asList("ranged-split-1-1.jsonl", "ranged-split-1-2.jsonl", "ranged-split-2-1.jsonl"), uploadedSplitFiles);
+        assertEquals(Arrays.asList("{\"id\":1}", "{\"id\":2}"), fixture.uploadedLines.get("ranged-split-1-1.jsonl"));
+        assertEquals(Collections.singletonList("{\"id\":3}"), fixture.uploadedLines.get("ranged-split-1-2.jsonl"));
+        assertEquals(Arrays.asList("{\"id\":4}", "{\"id\":5}"), fixture.uploadedLines.get("ranged-split-2-1.jsonl"));
+        ArgumentCaptor<Consumer<GetObjectRequest.Builder>> segmentRequestCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(s3Client, times(2)).getObject(segmentRequestCaptor.capture());
+        assertEquals(Set.of("bytes=0-26", "bytes=27-44"), segmentRequestCaptor.getAllValues().stream()
+                .map(request -> SplitterTestFixture.getObjectRequest(request).range()).collect(Collectors.toSet()));
+        verify(s3Client, never()).getObject(any(Consumer.class), any(ResponseTransformer.class));
+        fixture.verifyFileArchivedAndDeleted(inputFile);
+    }
 
-        ArgumentCaptor<PutObjectRequest> putRequestCaptor = ArgumentCaptor.forClass(PutObjectRequest.class);
-        verify(transferManager, times(2)).upload(putRequestCaptor.capture());
-        java.util.List<PutObjectRequest> capturedRequests = putRequestCaptor.getAllValues();
-        assertEquals(Arrays.asList("{\"id\":1}", "INVALID_JSON"), Files.readAllLines(capturedRequests.get(0).getFile().toPath()));
-        assertEquals(Collections.singletonList("{\"id\":3}"), Files.readAllLines(capturedRequests.get(1).getFile().toPath()));
+    @Test
+    @DisplayName("Aborts the S3 stream instead of draining it when the split fails")
+    void splitFile_streamingAbortsOnFailure() throws IOException {
+        String inputFile = "streamed.jsonl";
+        ReflectionTestUtils.setField(s3JsonlSplitter, "streamingEnabled", true);
+        StringBuilder lines = new StringBuilder();
+        for (int id = 1; id <= 500; id++) {
+            lines.append("{\"id\":").append(id).append("}\n");
+        }
+        byte[] content = lines.toString().getBytes(StandardCharsets.UTF_8);
+        fixture.headSourceObject(content.length);
+        AtomicInteger bytesRead = new AtomicInteger();
+        AtomicBoolean closed = new AtomicBoolean();
+        AtomicBoolean abortedOpen = new AtomicBoolean();
+        InputStream objectStream = new FilterInputStream(new ByteArrayInputStream(content)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                bytesRead.addAndGet(Math.max(read, 0));
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                closed.set(true); // a close of the SDK stream drains the rest of the object to reuse the connection
+                super.close();
+            }
+        };
+        when(s3Client.getObject(any(Consumer.class))).thenReturn(new ResponseInputStream<>(GetObjectResponse.builder().build(),
+                AbortableInputStream.create(objectStream, () -> abortedOpen.set(!closed.get()))));
+        when(s3TransferService.upload(anyString(), anyString(), anyList(), anyLong(), anyString()))
+                .thenThrow(new RuntimeException("Simulated chunk write error"));
+
+        assertThrows(RuntimeException.class, () -> s3JsonlSplitter.splitFile(inputFile, tempDir));
+
+        assertTrue(abortedOpen.get()); // aborted before anything closed the stream
+        assertTrue(bytesRead.get() < content.length);
+        fixture.verifySourceKeptAndArchiveCopyRemoved(inputFile);
     }
 
     @Test
     @DisplayName("Throws exception on S3 download error (S3Exception)")
-    void splitFile_downloadS3Exception() {
+    void splitFile_downloadS3Exception() throws IOException {
         String inputFile = "error.jsonl";
+        fixture.headSourceObject(8);
         when(s3Client.getObject(any(Consumer.class), any(ResponseTransformer.class)))
                 .thenThrow(S3Exception.builder().message("Test S3 Error").build());
 
-        assertThrows(CompletionException.class, () -> s3JsonlSplitter.splitFile(inputFile));
-        verify(s3Client, never()).copyObject(any(Consumer.class)); // No archive on error
+        assertThrows(S3Exception.class, () -> s3JsonlSplitter.splitFile(inputFile, tempDir));
+        fixture.verifySourceKeptAndArchiveCopyRemoved(inputFile); // No archive on error
     }
 
     @Test
     @DisplayName("Throws exception on S3 download error (SdkClientException)")
-    void splitFile_downloadSdkClientException() {
+    void splitFile_downloadSdkClientException() throws IOException {
         String inputFile = "error.jsonl";
+        fixture.headSourceObject(8);
         when(s3Client.getObject(any(Consumer.class), any(ResponseTransformer.class)))
                 .thenThrow(SdkClientException.create("Test SDK Client Error"));
 
-        assertThrows(CompletionException.class, () -> s3JsonlSplitter.splitFile(inputFile));
-        verify(s3Client, never()).copyObject(any(Consumer.class));
+        assertThrows(SdkClientException.class, () -> s3JsonlSplitter.splitFile(inputFile, tempDir));
+        fixture.verifySourceKeptAndArchiveCopyRemoved(inputFile);
     }
 
     @Test
-    @DisplayName("Throws exception on chunk upload error (IOException)")
-    void splitFile_chunkUploadIOException() throws IOException, InterruptedException {
+    @DisplayName("Throws exception when a chunk upload cannot be started")
+    void splitFile_chunkUploadRejected() throws IOException {
         String inputFile = "input.jsonl";
-        Files.write(mockDownloadedFilePath, "{\"id\":1}\n{\"id\":2}".getBytes());
+        fixture.sourceFile("{\"id\":1}\n{\"id\":2}".getBytes());
 
-        when(transferManager.upload(any(PutObjectRequest.class)))
+        when(s3TransferService.upload(anyString(), anyString(), anyList(), anyLong(), anyString()))
                 .thenThrow(new RuntimeException(new IOException("Simulated chunk write error")));
 
-        assertThrows(CompletionException.class, () -> s3JsonlSplitter.splitFile(inputFile));
-        verify(upload, never()).waitForCompletion(); // waitForCompletion was never successfully called
-        verify(s3Client, never()).copyObject(any(Consumer.class));
-        assertFalse(Files.exists(mockDownloadedFilePath)); // Temp file still cleaned up
+        assertThrows(RuntimeException.class, () -> s3JsonlSplitter.splitFile(inputFile, tempDir));
+        fixture.verifySourceKeptAndArchiveCopyRemoved(inputFile);
+        assertFalse(Files.exists(tempDir.resolve("uploaded-reviews.jl"))); // Temp file still cleaned up
     }
 
     @Test
-    @DisplayName("Throws exception on chunk upload interrupted")
-    void splitFile_chunkUploadInterruptedException() throws IOException, InterruptedException {
+    @DisplayName("Throws exception when a chunk upload fails asynchronously")
+    void splitFile_chunkUploadFails() throws IOException {
         String inputFile = "input.jsonl";
-        Files.write(mockDownloadedFilePath, "{\"id\":1}\n{\"id\":2}".getBytes());
+        fixture.sourceFile("{\"id\":1}\n{\"id\":2}\n{\"id\":3}".getBytes());
 
-        doThrow(new InterruptedException("Simulated interrupted during upload")).when(upload).waitForCompletion();
+        when(s3TransferService.upload(anyString(), anyString(), anyList(), anyLong(), anyString()))
+                .thenReturn(CompletableFuture.failedFuture(S3Exception.builder().message("Simulated upload error").build()));
 
-        assertThrows(CompletionException.class, () -> s3JsonlSplitter.splitFile(inputFile));
-        verify(upload, atLeastOnce()).waitForCompletion(); // Called but threw
-        verify(s3Client, never()).copyObject(any(Consumer.class));
-        assertFalse(Files.exists(mockDownloadedFilePath));
+        assertThrows(CompletionException.class, () -> s3JsonlSplitter.splitFile(inputFile, tempDir));
+        fixture.verifySourceKeptAndArchiveCopyRemoved(inputFile);
+        assertFalse(Files.exists(tempDir.resolve("uploaded-reviews.jl")));
+    }
+
+    @Test
+    @DisplayName("Cuts the reviews of each key partition into chunks of their own")
+    void splitFile_partitionsReviewsByKey() throws IOException {
+        ReflectionTestUtils.setField(fixture.keyPartitioner, "partitionCount", 2);
+        ReflectionTestUtils.setField(fixture.keyPartitioner, "keyPath", "hotel.id");
+        ReflectionTestUtils.invokeMethod(fixture.keyPartitioner, "init");
+        StringBuilder content = new StringBuilder();
+        for (int review = 0; review < 12; review++) {
+            content.append("{\"rating\":").append(review).append(",\"hotel\":{\"name\":\"h\",\"id\":").append(review % 4).append("}}\n");
+        }
+        fixture.sourceFile(content.toString().getBytes());
+        fixture.captureChunks();
+
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile("partitioned.jsonl", tempDir);
+
+        Map<String, String> partitionOfHotel = new HashMap<>();
+        int lineCount = 0;
+        for (String key : uploadedSplitFiles) {
+            assertTrue(key.matches("partitioned-part-[01]-split-\\d+\\.jsonl"), key);
+            String partition = key.substring(0, "partitioned-part-0".length());
+            for (String line : fixture.uploadedLines.get(key)) {
+                String hotel = line.substring(line.lastIndexOf(':') + 1);
+                assertEquals(partitionOfHotel.computeIfAbsent(hotel, h -> partition), partition, line);
+                lineCount++;
+            }
+        }
+        assertEquals(12, lineCount);
+        assertEquals(4, partitionOfHotel.size());
+        fixture.verifyFileArchivedAndDeleted("partitioned.jsonl");
+    }
+
+    @Test
+    @DisplayName("Decompresses a gzip file while it is downloaded")
+    void splitFile_gzipInputDownloaded() throws IOException {
+        String inputFile = "compressed.jsonl.gz";
+        fixture.sourceFile(gzip("{\"id\":1}\n{\"id\":2}\n{\"id\":3}\n"));
+        fixture.captureChunks();
+
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile(inputFile, tempDir);
+
+        assertEquals(Arrays.asList("compressed-split-1.jsonl", "compressed-split-2.jsonl"), uploadedSplitFiles);
+        assertEquals(Arrays.asList("{\"id\":1}", "{\"id\":2}"), fixture.uploadedLines.get("compressed-split-1.jsonl"));
+        assertEquals(Collections.singletonList("{\"id\":3}"), fixture.uploadedLines.get("compressed-split-2.jsonl"));
+        fixture.verifyFileArchivedAndDeleted(inputFile);
+    }
+
+    @Test
+    @DisplayName("Streams a gzip file and uploads zstd compressed chunks")
+    void splitFile_gzipInputStreamedZstdOutput() throws IOException {
+        String inputFile = "reviews.jl.gz";
+        ReflectionTestUtils.setField(fixture.chunkCompressor, "outputCodec", CompressionCodec.ZSTD);
+        fixture.streamedSourceFile(gzip("{\"id\":1}\n{\"id\":2}\n{\"id\":3}\n"));
+        Map<String, byte[]> uploadedContent = new ConcurrentHashMap<>();
+        when(s3TransferService.upload(eq(DESTINATION_BUCKET), anyString(), anyList(), anyLong(), eq("application/zstd"))).thenAnswer(invocation -> {
+            ByteBuffer compressed = ((List<ByteBuffer>) invocation.getArgument(2)).get(0).duplicate();
+            byte[] bytes = new byte[compressed.remaining()];
+            compressed.get(bytes);
+            assertEquals((long) invocation.getArgument(3), bytes.length);
+            uploadedContent.put(invocation.getArgument(1), bytes);
+            return CompletableFuture.completedFuture(invocation.getArgument(1));
+        });
+
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile(inputFile, tempDir);
+
+        assertEquals(Arrays.asList("reviews-split-1.jl.zst", "reviews-split-2.jl.zst"), uploadedSplitFiles);
+        try (ZstdInputStream chunk = new ZstdInputStream(new ByteArrayInputStream(uploadedContent.get("reviews-split-1.jl.zst")))) {
+            assertEquals("{\"id\":1}\n{\"id\":2}\n", new String(chunk.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        try (ZstdInputStream chunk = new ZstdInputStream(new ByteArrayInputStream(uploadedContent.get("reviews-split-2.jl.zst")))) {
+            assertEquals("{\"id\":3}\n", new String(chunk.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    @DisplayName("Writes Smile records re-encoded from the validated lines")
+    void splitFile_writesSmileRecords() throws IOException {
+        enableRecordFormat(RecordFormat.SMILE);
+        Map<String, byte[]> uploadedContent = captureRecordChunks("application/x-jackson-smile");
+        fixture.sourceFile("{\"id\":1}\nINVALID_JSON\n{\"id\":2,\"text\":\"très bien\"}\r\n{\"id\":3}".getBytes(StandardCharsets.UTF_8));
+
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile("binary.jsonl", tempDir);
+
+        assertEquals(Arrays.asList("binary-split-1.smile", "binary-split-2.smile"), uploadedSplitFiles);
+        assertEquals(Arrays.asList("{\"id\":1}", "{\"id\":2,\"text\":\"très bien\"}"), readRecords(uploadedContent.get("binary-split-1.smile"), RecordFormat.SMILE));
+        assertEquals(Collections.singletonList("{\"id\":3}"), readRecords(uploadedContent.get("binary-split-2.smile"), RecordFormat.SMILE));
+        fixture.verifyFileArchivedAndDeleted("binary.jsonl");
+    }
+
+    @Test
+    @DisplayName("Writes CBOR records into the chunks of each key partition")
+    void splitFile_writesCborRecordsPerPartition() throws IOException {
+        enableRecordFormat(RecordFormat.CBOR);
+        Map<String, byte[]> uploadedContent = captureRecordChunks("application/cbor");
+        ReflectionTestUtils.setField(fixture.keyPartitioner, "partitionCount", 2);
+        ReflectionTestUtils.setField(fixture.keyPartitioner, "keyPath", "hotel");
+        ReflectionTestUtils.invokeMethod(fixture.keyPartitioner, "init");
+        StringBuilder content = new StringBuilder();
+        for (int review = 0; review < 10; review++) {
+            content.append("{\"rating\":").append(review).append(",\"hotel\":").append(review % 3).append("}\n");
+        }
+        fixture.streamedSourceFile(content.toString().getBytes());
+
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile("binary.jsonl", tempDir);
+
+        List<String> records = new ArrayList<>();
+        for (String key : uploadedSplitFiles) {
+            assertTrue(key.matches("binary-part-[01]-split-\\d+\\.cbor"), key);
+            records.addAll(readRecords(uploadedContent.get(key), RecordFormat.CBOR));
+        }
+        assertEquals(content.toString().lines().sorted().toList(), records.stream().sorted().toList());
     }
 
     @Test
@@ -241,36 +537,68 @@ class S3JSONLSplitterTest {
     }
 
     @Test
-    @DisplayName("Moves source file to archive bucket and deletes it")
-    void moveSourceFileToArchiveBucket_verifiesCalls() {
-        String inputFile = "processed-file.jsonl";
-        // No explicit stubbing needed for void methods.
-        ReflectionTestUtils.invokeMethod(s3JsonlSplitter, "moveSourceFileToArchiveBucket", inputFile);
-        verifyFileArchivedAndDeleted(inputFile);
+    @DisplayName("Generates split file name with the extension of the record format")
+    void generateSplitFileName_recordFormat() {
+        enableRecordFormat(RecordFormat.CBOR);
+        ReflectionTestUtils.setField(fixture.chunkCompressor, "outputCodec", CompressionCodec.ZSTD);
+        assertEquals("myreviews-split-3.cbor.zst",
+                ReflectionTestUtils.invokeMethod(s3JsonlSplitter, "generateSplitFileName", "myreviews.jsonl.gz", 3));
+    }
+
+    @Test
+    @DisplayName("Generates split file name with the extension of the output codec")
+    void generateSplitFileName_compressed() {
+        ReflectionTestUtils.setField(fixture.chunkCompressor, "outputCodec", CompressionCodec.GZIP);
+        assertEquals("myreviews-split-2.jl.gz",
+                ReflectionTestUtils.invokeMethod(s3JsonlSplitter, "generateSplitFileName", "myreviews.jl.zst", 2));
+    }
+
+    private void enableRecordFormat(RecordFormat format) {
+        ReflectionTestUtils.setField(fixture.chunkRecordEncoder, "outputFormat", format);
+        ReflectionTestUtils.invokeMethod(fixture.chunkRecordEncoder, "init");
     }
 
     /**
-     * Helper method to verify archive and delete operations
+     * @return the content of the chunks uploaded with the content type, by key
      */
-    private void verifyFileArchivedAndDeleted(String inputFile) {
-        ArgumentCaptor<Consumer<CopyObjectRequest.Builder>> copyRequestCaptor = ArgumentCaptor.forClass(Consumer.class);
-        verify(s3Client).copyObject(copyRequestCaptor.capture());
-        CopyObjectRequest.Builder copyBuilder = CopyObjectRequest.builder();
-        copyRequestCaptor.getValue().accept(copyBuilder); // Correct usage: pass builder to consumer
-        CopyObjectRequest copyRequest = copyBuilder.build();
-
-        assertEquals(SOURCE_BUCKET, copyRequest.sourceBucket());
-        assertEquals(inputFile, copyRequest.sourceKey());
-        assertEquals(ARCHIVE_BUCKET, copyRequest.destinationBucket());
-        assertTrue(copyRequest.destinationKey().startsWith(inputFile + "_"));
-
-        ArgumentCaptor<Consumer<DeleteObjectRequest.Builder>> deleteRequestCaptor = ArgumentCaptor.forClass(Consumer.class);
-        verify(s3Client).deleteObject(deleteRequestCaptor.capture());
-        DeleteObjectRequest.Builder deleteBuilder = DeleteObjectRequest.builder();
-        deleteRequestCaptor.getValue().accept(deleteBuilder); // Correct usage: pass builder to consumer
-        DeleteObjectRequest deleteRequest = deleteBuilder.build();
-
-        assertEquals(SOURCE_BUCKET, deleteRequest.bucket());
-        assertEquals(inputFile, deleteRequest.key());
+    private Map<String, byte[]> captureRecordChunks(String contentType) {
+        Map<String, byte[]> uploadedContent = new ConcurrentHashMap<>();
+        when(s3TransferService.upload(eq(DESTINATION_BUCKET), anyString(), anyList(), anyLong(), eq(contentType))).thenAnswer(invocation -> {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            for (ByteBuffer part : (List<ByteBuffer>) invocation.getArgument(2)) {
+                ByteBuffer source = part.duplicate();
+                byte[] bytes = new byte[source.remaining()];
+                source.get(bytes);
+                content.write(bytes);
+            }
+            assertEquals((long) invocation.getArgument(3), content.size());
+            uploadedContent.put(invocation.getArgument(1), content.toByteArray());
+            return CompletableFuture.completedFuture(invocation.getArgument(1));
+        });
+        return uploadedContent;
+    }
+
+    /**
+     * @return the records of the chunk, written back as JSON text
+     */
+    private List<String> readRecords(byte[] chunk, RecordFormat format) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectReader nodeReader = objectMapper.readerFor(JsonNode.class);
+        List<String> records = new ArrayList<>();
+        try (ChunkRecordReader reader = new ChunkRecordReader(new ByteArrayInputStream(chunk), format)) {
+            JsonNode record;
+            while ((record = reader.nextValue(nodeReader)) != null) {
+                records.add(objectMapper.writeValueAsString(record));
+            }
+        }
+        return records;
+    }
+
+    private byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return compressed.toByteArray();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+package com.zuzu.sg.review.splitter;
+
+import com.zuzu.sg.review.splitter.utility.BlockingIoExecutors;
+import com.zuzu.sg.review.splitter.utility.ByteRange;
+import com.zuzu.sg.review.splitter.utility.S3RangedReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class S3RangedReaderTest {
+
+    private static final String BUCKET = "test-source-bucket";
+    private static final String KEY = "input.jsonl";
+    private static final String E_TAG = "\"etag\"";
+
+    @Mock
+    private S3Client s3Client;
+
+    private S3RangedReader s3RangedReader;
+
+    private final BlockingIoExecutors blockingIoExecutors = new BlockingIoExecutors();
+
+    private byte[] objectBytes;
+
+    @BeforeEach
+    void setUp() {
+        s3RangedReader = new S3RangedReader();
+        ReflectionTestUtils.setField(s3RangedReader, "s3Client", s3Client);
+        ReflectionTestUtils.setField(s3RangedReader, "blockingIoExecutors", blockingIoExecutors);
+        ReflectionTestUtils.setField(s3RangedReader, "segmentSizeBytes", 10L);
+        ReflectionTestUtils.setField(s3RangedReader, "parallelism", 2);
+        ReflectionTestUtils.invokeMethod(s3RangedReader, "init");
+
+        // Serve ranged GETs from objectBytes
+        doAnswer(invocation -> {
+            byte[] range = rangeOf(invocation.getArgument(0));
+            return ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), range);
+        }).when(s3Client).getObjectAsBytes(any(Consumer.class));
+        doAnswer(invocation -> {
+            byte[] range = rangeOf(invocation.getArgument(0));
+            return new ResponseInputStream<>(GetObjectResponse.builder().build(),
+                    AbortableInputStream.create(new ByteArrayInputStream(range)));
+        }).when(s3Client).getObject(any(Consumer.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(s3RangedReader, "shutdown");
+    }
+
+    @Test
+    @DisplayName("Moves segment boundaries to the start of the next line")
+    void planSegments_alignsToNewlines() {
+        objectBytes = "{\"id\":1}\n{\"id\":22}\n{\"id\":333}\n".getBytes(StandardCharsets.UTF_8);
+
+        List<ByteRange> segments = s3RangedReader.planSegments(BUCKET, KEY, E_TAG, objectBytes.length);
+
+        assertEquals(List.of(new ByteRange(0, 0, 19), new ByteRange(1, 19, 30)), segments);
+    }
+
+    @Test
+    @DisplayName("Keeps a line starting exactly on a boundary in the following segment")
+    void planSegments_lineStartingOnBoundary() {
+        objectBytes = "{\"id\":11}\n{\"id\":22}\n".getBytes(StandardCharsets.UTF_8);
+
+        List<ByteRange> segments = s3RangedReader.planSegments(BUCKET, KEY, E_TAG, objectBytes.length);
+
+        assertEquals(List.of(new ByteRange(0, 0, 10), new ByteRange(1, 10, 20)), segments);
+    }
+
+    @Test
+    @DisplayName("Merges boundaries swallowed by a line longer than a segment")
+    void planSegments_longLine() {
+        objectBytes = "{\"review\":\"a very long line\"}\n{}\n".getBytes(StandardCharsets.UTF_8);
+
+        List<ByteRange> segments = s3RangedReader.planSegments(BUCKET, KEY, E_TAG, objectBytes.length);
+
+        assertEquals(List.of(new ByteRange(0, 0, 30), new ByteRange(1, 30, 33)), segments);
+    }
+
+    @Test
+    @DisplayName("Processes every segment and returns the results in segment order")
+    void processSegments_returnsResultsInOrder() {
+        objectBytes = "{\"id\":1}\n{\"id\":22}\n{\"id\":333}\n".getBytes(StandardCharsets.UTF_8);
+        List<ByteRange> segments = s3RangedReader.planSegments(BUCKET, KEY, E_TAG, objectBytes.length);
+
+        List<String> contents = s3RangedReader.processSegments(BUCKET, KEY, E_TAG, segments,
+                (segment, segmentStream) -> new String(segmentStream.readAllBytes(), StandardCharsets.UTF_8));
+
+        assertEquals(List.of("{\"id\":1}\n{\"id\":22}\n", "{\"id\":333}\n"), contents);
+    }
+
+    @Test
+    @DisplayName("Processes the segments on virtual threads, at most split-file-range-parallelism at a time")
+    void processSegments_virtualThreads() {
+        ReflectionTestUtils.invokeMethod(s3RangedReader, "shutdown");
+        ReflectionTestUtils.setField(blockingIoExecutors, "virtualThreadsEnabled", true);
+        ReflectionTestUtils.invokeMethod(s3RangedReader, "init");
+        objectBytes = "{\"id\":1}\n{\"id\":22}\n{\"id\":333}\n{\"id\":4444}\n{\"id\":55555}\n".getBytes(StandardCharsets.UTF_8);
+        List<ByteRange> segments = s3RangedReader.planSegments(BUCKET, KEY, E_TAG, objectBytes.length);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Boolean> onVirtualThread = s3RangedReader.processSegments(BUCKET, KEY, E_TAG, segments, (segment, segmentStream) -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+            running.decrementAndGet();
+            return Thread.currentThread().isVirtual();
+        });
+
+        assertEquals(4, segments.size());
+        assertEquals(Collections.nCopies(4, true), onVirtualThread);
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    private byte[] rangeOf(Consumer<GetObjectRequest.Builder> requestConsumer) {
+        GetObjectRequest.Builder builder = GetObjectRequest.builder();
+        requestConsumer.accept(builder);
+        String[] range = builder.build().range().substring("bytes=".length()).split("-");
+        int start = Integer.parseInt(range[0]);
+        int end = Math.min(Integer.parseInt(range[1]) + 1, objectBytes.length);
+        return Arrays.copyOfRange(objectBytes, start, end);
+    }
+}
@@ -0,0 +1,201 @@
+package com.zuzu.sg.review.splitter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zuzu.sg.review.splitter.listener.S3ReviewUploadSQSListener;
+import com.zuzu.sg.review.splitter.metrics.SplitterMetrics;
+import com.zuzu.sg.review.splitter.utility.InFlightBytesLimiter;
+import com.zuzu.sg.review.splitter.utility.SplitJobScheduler;
+import io.awspring.cloud.sqs.listener.SqsHeaders;
+import io.awspring.cloud.sqs.listener.Visibility;
+import io.awspring.cloud.sqs.listener.acknowledgement.AcknowledgementCallback;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class S3ReviewUploadSQSListenerTest {
+
+    @Mock
+    private SplitJobScheduler splitJobScheduler;
+
+    @Mock
+    private AcknowledgementCallback<String> acknowledgementCallback;
+
+    @Mock
+    private Visibility visibility;
+
+    private S3ReviewUploadSQSListener listener;
+
+    private InFlightBytesLimiter inFlightBytesLimiter;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() {
+        inFlightBytesLimiter = new InFlightBytesLimiter();
+        ReflectionTestUtils.setField(inFlightBytesLimiter, "maxInFlightBytes", 1000L);
+
+        listener = new S3ReviewUploadSQSListener();
+        ReflectionTestUtils.setField(listener, "splitJobScheduler", splitJobScheduler);
+        ReflectionTestUtils.setField(listener, "inFlightBytesLimiter", inFlightBytesLimiter);
+        ReflectionTestUtils.setField(listener, "objectMapper", new ObjectMapper());
+        SplitterMetrics splitterMetrics = new SplitterMetrics();
+        ReflectionTestUtils.setField(splitterMetrics, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.invokeMethod(splitterMetrics, "init");
+        ReflectionTestUtils.setField(listener, "splitterMetrics", splitterMetrics);
+        ReflectionTestUtils.setField(listener, "visibilityTimeoutSeconds", 300);
+        ReflectionTestUtils.setField(listener, "visibilityExtendIntervalSeconds", 1);
+        ReflectionTestUtils.invokeMethod(listener, "init");
+
+        when(acknowledgementCallback.onAcknowledge(any(Message.class))).thenReturn(CompletableFuture.completedFuture(null));
+        when(visibility.changeToAsync(anyInt())).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(listener, "shutdown");
+    }
+
+    @Test
+    @DisplayName("Splits every record of the event and acknowledges only after the splits complete")
+    void receiveMessages_acknowledgesAfterAllRecordsSplit() {
+        CompletableFuture<List<String>> firstSplit = new CompletableFuture<>();
+        CompletableFuture<List<String>> secondSplit = new CompletableFuture<>();
+        when(splitJobScheduler.submit("reviews one.jsonl", 100)).thenReturn(firstSplit);
+        when(splitJobScheduler.submit("reviews-2.jsonl", 200)).thenReturn(secondSplit);
+        Message<String> message = message(event(record("reviews+one.jsonl", 100), record("reviews-2.jsonl", 200)));
+
+        listener.receiveMessages(Collections.singletonList(message));
+
+        assertEquals(300, inFlightBytesLimiter.getInFlightBytes());
+        assertEquals(300, meterRegistry.get("splitter.sqs.in.flight.bytes").gauge().value());
+        assertEquals(1, meterRegistry.get("splitter.sqs.message.age").timer().count());
+        assertTrue(meterRegistry.get("splitter.sqs.message.age").timer().totalTime(TimeUnit.SECONDS) >= 60);
+        firstSplit.complete(Collections.singletonList("reviews one-split-1.jsonl"));
+        verify(acknowledgementCallback, never()).onAcknowledge(any(Message.class));
+
+        secondSplit.complete(Collections.singletonList("reviews-2-split-1.jsonl"));
+        verify(acknowledgementCallback).onAcknowledge(message);
+        assertEquals(0, inFlightBytesLimiter.getInFlightBytes());
+    }
+
+    @Test
+    @DisplayName("Leaves the message unacknowledged when a split fails")
+    void receiveMessages_failedSplitNotAcknowledged() {
+        when(splitJobScheduler.submit("broken.jsonl", 10)).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("Simulated failure")));
+
+        listener.receiveMessages(Collections.singletonList(message(event(record("broken.jsonl", 10)))));
+
+        verify(acknowledgementCallback, never()).onAcknowledge(any(Message.class));
+        assertEquals(0, inFlightBytesLimiter.getInFlightBytes());
+    }
+
+    @Test
+    @DisplayName("Acknowledges a message that is not a valid S3 event instead of leaving it for redelivery, and reads the next one")
+    void receiveMessages_malformedEventAcknowledged() {
+        when(splitJobScheduler.submit("next.jsonl", 10)).thenReturn(CompletableFuture.completedFuture(Collections.emptyList()));
+        Message<String> malformed = message("{\"Records\":[{\"s3\":");
+        Message<String> badlyEncoded = message(event(record("reviews%zz.jsonl", 10)));
+        Message<String> next = message(event(record("next.jsonl", 10)));
+
+        listener.receiveMessages(List.of(malformed, badlyEncoded, next));
+
+        verify(acknowledgementCallback).onAcknowledge(malformed);
+        verify(acknowledgementCallback).onAcknowledge(badlyEncoded);
+        verify(acknowledgementCallback).onAcknowledge(next);
+        verify(splitJobScheduler).submit("next.jsonl", 10);
+        verifyNoMoreInteractions(splitJobScheduler);
+    }
+
+    @Test
+    @DisplayName("Extends the visibility of messages whose splits are still running")
+    void receiveMessages_extendsVisibilityWhileSplitting() {
+        CompletableFuture<List<String>> split = new CompletableFuture<>();
+        when(splitJobScheduler.submit("slow.jsonl", 10)).thenReturn(split);
+
+        listener.receiveMessages(Collections.singletonList(message(event(record("slow.jsonl", 10)))));
+
+        verify(visibility, timeout(3000).atLeastOnce()).changeToAsync(300);
+        split.complete(Collections.emptyList());
+    }
+
+    @Test
+    @DisplayName("Holds the intake back while the bytes in flight exceed the limit")
+    void receiveMessages_throttlesOnInFlightBytes() throws InterruptedException {
+        CompletableFuture<List<String>> largeSplit = new CompletableFuture<>();
+        when(splitJobScheduler.submit("large.jsonl", 900)).thenReturn(largeSplit);
+        when(splitJobScheduler.submit("next.jsonl", 200)).thenReturn(CompletableFuture.completedFuture(Collections.emptyList()));
+
+        Thread intake = new Thread(() -> listener.receiveMessages(List.of(
+                message(event(record("large.jsonl", 900))), message(event(record("next.jsonl", 200))))));
+        intake.start();
+
+        verify(splitJobScheduler, timeout(3000)).submit("large.jsonl", 900);
+        intake.join(200);
+        assertTrue(intake.isAlive());
+        verify(splitJobScheduler, never()).submit("next.jsonl", 200);
+
+        largeSplit.complete(Collections.emptyList());
+        intake.join(3000);
+        assertFalse(intake.isAlive());
+        verify(splitJobScheduler).submit("next.jsonl", 200);
+    }
+
+    @Test
+    @DisplayName("Keeps the message invisible until the splits already submitted end when interrupted mid-event")
+    void receiveMessages_interruptedWaitsForSubmittedSplits() throws InterruptedException {
+        CompletableFuture<List<String>> largeSplit = new CompletableFuture<>();
+        when(splitJobScheduler.submit("large.jsonl", 900)).thenReturn(largeSplit);
+
+        Thread intake = new Thread(() -> listener.receiveMessages(List.of(message(event(record("large.jsonl", 900), record("next.jsonl", 200))))));
+        intake.start();
+        verify(splitJobScheduler, timeout(3000)).submit("large.jsonl", 900);
+        intake.interrupt(); // while waiting for the bytes of next.jsonl
+        intake.join(3000);
+        assertFalse(intake.isAlive());
+        clearInvocations(visibility);
+
+        verify(visibility, timeout(3000).atLeastOnce()).changeToAsync(300); // still extended after the listener returned
+        largeSplit.complete(Collections.emptyList());
+        verify(splitJobScheduler, never()).submit("next.jsonl", 200);
+        verify(acknowledgementCallback, never()).onAcknowledge(any(Message.class));
+        assertEquals(0, inFlightBytesLimiter.getInFlightBytes());
+    }
+
+    private Message<String> message(String payload) {
+        return MessageBuilder.withPayload(payload)
+                .setHeader("AcknowledgementCallback", acknowledgementCallback)
+                .setHeader(SqsHeaders.SQS_VISIBILITY_TIMEOUT_HEADER, visibility)
+                .setHeader(SqsHeaders.MessageSystemAttributes.SQS_SENT_TIMESTAMP, String.valueOf(System.currentTimeMillis() - 60_000))
+                .build();
+    }
+
+    private String event(String... records) {
+        return "{\"Records\":[" + String.join(",", records) + "]}";
+    }
+
+    private String record(String key, long size) {
+        return "{\"s3\":{\"bucket\":{\"name\":\"sg-reviews-uploads-bucket\"},\"object\":{\"key\":\"" + key + "\",\"size\":" + size + "}}}";
+    }
+}
@@ -0,0 +1,305 @@
+package com.zuzu.sg.review.splitter;
+
+import com.zuzu.sg.review.splitter.utility.BlockingIoExecutors;
+import com.zuzu.sg.review.splitter.utility.S3TransferService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ChecksumAlgorithm;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.CompletedUpload;
+import software.amazon.awssdk.transfer.s3.model.Upload;
+import software.amazon.awssdk.transfer.s3.model.UploadRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class S3TransferServiceTest {
+
+    @Mock
+    private S3TransferManager s3TransferManager;
+
+    @Mock
+    private S3AsyncClient s3AsyncClient;
+
+    @Mock
+    private S3Client s3Client;
+
+    private S3TransferService s3TransferService;
+
+    private final Map<Integer, String> uploadedParts = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        s3TransferService = new S3TransferService(s3TransferManager, s3AsyncClient, s3Client, new BlockingIoExecutors(), 4, 10);
+
+        when(s3AsyncClient.createMultipartUpload(any(Consumer.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("upload-1").build()));
+        when(s3AsyncClient.uploadPart(any(Consumer.class), any(AsyncRequestBody.class))).thenAnswer(invocation -> {
+            UploadPartRequest.Builder builder = UploadPartRequest.builder();
+            ((Consumer<UploadPartRequest.Builder>) invocation.getArgument(0)).accept(builder);
+            UploadPartRequest request = builder.build();
+            assertEquals("upload-1", request.uploadId());
+            uploadedParts.put(request.partNumber(), read(invocation.getArgument(1)));
+            return CompletableFuture.completedFuture(UploadPartResponse.builder().eTag("part-" + request.partNumber()).build());
+        });
+        when(s3AsyncClient.completeMultipartUpload(any(Consumer.class)))
+                .thenReturn(CompletableFuture.completedFuture(CompleteMultipartUploadResponse.builder().build()));
+        when(s3AsyncClient.abortMultipartUpload(any(Consumer.class))).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @Test
+    @DisplayName("Uploads content above the part size as parts cut across the buffer boundaries")
+    void upload_inParts() {
+        List<ByteBuffer> content = List.of(buffer("{\"a\":1}\n"), buffer("{\"b\":22}\n"), buffer("{\"c\":333}\n"));
+
+        assertEquals("chunk.jsonl", s3TransferService.upload("bucket", "chunk.jsonl", content, 27, "application/jsonl").join());
+
+        assertEquals(Map.of(1, "{\"a\":1}\n{\"", 2, "b\":22}\n{\"c", 3, "\":333}\n"), uploadedParts);
+        ArgumentCaptor<Consumer<CompleteMultipartUploadRequest.Builder>> completeCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(s3AsyncClient).completeMultipartUpload(completeCaptor.capture());
+        CompleteMultipartUploadRequest.Builder completeBuilder = CompleteMultipartUploadRequest.builder();
+        completeCaptor.getValue().accept(completeBuilder);
+        assertEquals(List.of("part-1", "part-2", "part-3"),
+                completeBuilder.build().multipartUpload().parts().stream().map(CompletedPart::eTag).toList());
+        assertEquals(0, content.get(0).position());
+        verifyNoInteractions(s3TransferManager);
+    }
+
+    @Test
+    @DisplayName("Uploads content up to the part size with a single PutObject of the transfer manager, without a content length to copy into parts")
+    void upload_singleObject() {
+        Upload transferUpload = mock(Upload.class);
+        when(transferUpload.completionFuture()).thenReturn(CompletableFuture.completedFuture(
+                CompletedUpload.builder().response(PutObjectResponse.builder().build()).build()));
+        when(s3TransferManager.upload(any(UploadRequest.class))).thenReturn(transferUpload);
+
+        assertEquals("chunk.jsonl", s3TransferService.upload("bucket", "chunk.jsonl", List.of(buffer("{\"a\":"), buffer("1}\n")), 8, "application/jsonl").join());
+
+        ArgumentCaptor<UploadRequest> uploadCaptor = ArgumentCaptor.forClass(UploadRequest.class);
+        verify(s3TransferManager).upload(uploadCaptor.capture());
+        PutObjectRequest request = uploadCaptor.getValue().putObjectRequest();
+        assertEquals("chunk.jsonl", request.key());
+        assertEquals("application/jsonl", request.contentType());
+        assertNull(request.contentLength()); // the multipart client would copy it into every part
+        verifyNoInteractions(s3AsyncClient);
+    }
+
+    @Test
+    @DisplayName("Aborts the multipart upload when a part fails")
+    void upload_failedPartAborts() {
+        when(s3AsyncClient.uploadPart(any(Consumer.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.failedFuture(S3Exception.builder().message("Simulated upload error").build()));
+
+        CompletableFuture<String> upload = s3TransferService.upload("bucket", "chunk.jsonl", List.of(buffer("0123456789abcdef")), 16, "application/jsonl");
+
+        assertThrows(CompletionException.class, upload::join);
+        verify(s3AsyncClient).uploadPart(any(Consumer.class), any(AsyncRequestBody.class)); // the second part is not sent
+        verify(s3AsyncClient).abortMultipartUpload(any(Consumer.class));
+        verify(s3AsyncClient, never()).completeMultipartUpload(any(Consumer.class));
+    }
+
+    @Test
+    @DisplayName("Copies an object within the bucket with a CRC32C computed by S3, releasing its request permit")
+    void copy_returnsChecksumOfCopy() {
+        when(s3AsyncClient.copyObject(any(Consumer.class))).thenReturn(CompletableFuture.completedFuture(CopyObjectResponse.builder()
+                .copyObjectResult(result -> result.checksumCRC32C("AAAAAA==")).build()));
+
+        for (int copy = 0; copy < 5; copy++) { // more copies than the 4 requests allowed in flight
+            assertEquals("AAAAAA==", s3TransferService.copy("bucket", "first-split-1.jsonl", "again-split-1.jsonl").join());
+        }
+
+        ArgumentCaptor<Consumer<CopyObjectRequest.Builder>> copyCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(s3AsyncClient, times(5)).copyObject(copyCaptor.capture());
+        CopyObjectRequest.Builder copyBuilder = CopyObjectRequest.builder();
+        copyCaptor.getValue().accept(copyBuilder);
+        CopyObjectRequest request = copyBuilder.build();
+        assertEquals("bucket", request.sourceBucket());
+        assertEquals("first-split-1.jsonl", request.sourceKey());
+        assertEquals("bucket", request.destinationBucket());
+        assertEquals("again-split-1.jsonl", request.destinationKey());
+        assertEquals(ChecksumAlgorithm.CRC32C, request.checksumAlgorithm());
+    }
+
+    @Test
+    @DisplayName("Sends no more parts at once than the requests allowed in flight")
+    void upload_partsBoundedByInFlightLimit() {
+        List<CompletableFuture<UploadPartResponse>> pendingParts = new CopyOnWriteArrayList<>();
+        when(s3AsyncClient.uploadPart(any(Consumer.class), any(AsyncRequestBody.class))).thenAnswer(invocation -> {
+            CompletableFuture<UploadPartResponse> part = new CompletableFuture<>();
+            pendingParts.add(part);
+            return part;
+        });
+
+        CompletableFuture<String> upload = s3TransferService.upload("bucket", "chunk.jsonl", List.of(buffer("0123456789".repeat(6))), 60,
+                "application/jsonl"); // returns at once, the parts over the limit are queued
+
+        verify(s3AsyncClient, times(4)).uploadPart(any(Consumer.class), any(AsyncRequestBody.class)); // 6 parts, 4 permits
+        for (int part = 0; part < 6; part++) {
+            verify(s3AsyncClient, times(Math.min(part + 4, 6))).uploadPart(any(Consumer.class), any(AsyncRequestBody.class));
+            pendingParts.get(part).complete(UploadPartResponse.builder().eTag("part-" + (part + 1)).build());
+        }
+
+        assertEquals("chunk.jsonl", upload.join());
+        assertEquals(4, ((Semaphore) ReflectionTestUtils.getField(s3TransferService, "inFlightRequests")).availablePermits());
+    }
+
+    @Test
+    @DisplayName("Never blocks the caller: uploads over the requests allowed in flight are queued and sent as earlier ones complete")
+    void upload_queuedWithoutBlocking() {
+        List<CompletableFuture<CreateMultipartUploadResponse>> pendingCreates = new CopyOnWriteArrayList<>();
+        when(s3AsyncClient.createMultipartUpload(any(Consumer.class))).thenAnswer(invocation -> {
+            CompletableFuture<CreateMultipartUploadResponse> create = new CompletableFuture<>();
+            pendingCreates.add(create);
+            return create;
+        });
+
+        List<CompletableFuture<String>> uploads = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> IntStream.range(0, 6)
+                .mapToObj(chunk -> s3TransferService.upload("bucket", "chunk-" + chunk, List.of(buffer("0123456789".repeat(2))), 20, "application/jsonl"))
+                .toList());
+
+        assertEquals(4, pendingCreates.size());
+        assertTrue(uploads.stream().noneMatch(CompletableFuture::isDone));
+        pendingCreates.get(0).complete(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+        assertEquals(5, pendingCreates.size()); // the permit of the create went to the next queued request
+        for (int create = 1; create < 6; create++) {
+            pendingCreates.get(create).complete(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+        }
+
+        uploads.forEach(CompletableFuture::join);
+        verify(s3AsyncClient, times(12)).uploadPart(any(Consumer.class), any(AsyncRequestBody.class));
+        assertEquals(4, ((Semaphore) ReflectionTestUtils.getField(s3TransferService, "inFlightRequests")).availablePermits());
+    }
+
+    @Test
+    @DisplayName("Uploads with the blocking client on a virtual thread in virtual thread mode")
+    void upload_virtualThreads() {
+        BlockingIoExecutors blockingIoExecutors = new BlockingIoExecutors();
+        ReflectionTestUtils.setField(blockingIoExecutors, "virtualThreadsEnabled", true);
+        s3TransferService = new S3TransferService(s3TransferManager, s3AsyncClient, s3Client, blockingIoExecutors, 4, 10);
+        Map<String, Boolean> uploads = new ConcurrentHashMap<>();
+        when(s3Client.putObject(any(Consumer.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            PutObjectRequest.Builder builder = PutObjectRequest.builder();
+            ((Consumer<PutObjectRequest.Builder>) invocation.getArgument(0)).accept(builder);
+            try (InputStream body = ((RequestBody) invocation.getArgument(1)).contentStreamProvider().newStream()) {
+                uploads.put(builder.build().key() + ":" + new String(body.readAllBytes(), StandardCharsets.UTF_8), Thread.currentThread().isVirtual());
+            }
+            return PutObjectResponse.builder().build();
+        });
+
+        try {
+            assertEquals("chunk.jsonl", s3TransferService.upload("bucket", "chunk.jsonl", List.of(buffer("{\"a\":"), buffer("1}\n")), 8, "application/jsonl").join());
+        } finally {
+            s3TransferService.shutdown();
+        }
+
+        assertEquals(Map.of("chunk.jsonl:{\"a\":1}\n", true), uploads);
+        verifyNoInteractions(s3TransferManager, s3AsyncClient);
+    }
+
+    @Test
+    @DisplayName("Sends no more parts at once than the requests allowed in flight in virtual thread mode")
+    void upload_virtualThreadPartsBoundedByInFlightLimit() {
+        BlockingIoExecutors blockingIoExecutors = new BlockingIoExecutors();
+        ReflectionTestUtils.setField(blockingIoExecutors, "virtualThreadsEnabled", true);
+        s3TransferService = new S3TransferService(s3TransferManager, s3AsyncClient, s3Client, blockingIoExecutors, 4, 10);
+        AtomicInteger partsInFlight = new AtomicInteger();
+        AtomicInteger maxPartsInFlight = new AtomicInteger();
+        when(s3Client.createMultipartUpload(any(Consumer.class))).thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+        when(s3Client.uploadPart(any(Consumer.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            maxPartsInFlight.accumulateAndGet(partsInFlight.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            partsInFlight.decrementAndGet();
+            return UploadPartResponse.builder().eTag("part").build();
+        });
+        when(s3Client.completeMultipartUpload(any(Consumer.class))).thenReturn(CompleteMultipartUploadResponse.builder().build());
+
+        try {
+            List<CompletableFuture<String>> uploads = IntStream.range(0, 3)
+                    .mapToObj(chunk -> s3TransferService.upload("bucket", "chunk-" + chunk, List.of(buffer("0123456789".repeat(6))), 60, "application/jsonl"))
+                    .toList();
+            uploads.forEach(CompletableFuture::join);
+        } finally {
+            s3TransferService.shutdown();
+        }
+
+        verify(s3Client, times(18)).uploadPart(any(Consumer.class), any(RequestBody.class));
+        verify(s3Client, times(3)).completeMultipartUpload(any(Consumer.class));
+        assertTrue(maxPartsInFlight.get() <= 4);
+        assertEquals(4, ((Semaphore) ReflectionTestUtils.getField(s3TransferService, "inFlightRequests")).availablePermits());
+    }
+
+    private static ByteBuffer buffer(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(AsyncRequestBody body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        body.subscribe(new Subscriber<>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer buffer) {
+                byte[] part = new byte[buffer.remaining()];
+                buffer.get(part);
+                bytes.writeBytes(part);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                fail(t);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,82 @@
+package com.zuzu.sg.review.splitter;
+
+import com.zuzu.sg.review.splitter.dedup.ReviewDeduplicator;
+import com.zuzu.sg.review.splitter.utility.S3JSONLSplitter;
+import com.zuzu.sg.review.splitter.utility.S3TransferService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SplitDedupTest {
+
+    @Mock
+    private S3Client s3Client;
+
+    @Mock
+    private S3TransferService s3TransferService;
+
+    @TempDir
+    Path tempDir;
+
+    private SplitterTestFixture fixture;
+
+    private S3JSONLSplitter s3JsonlSplitter;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new SplitterTestFixture(s3Client, s3TransferService, tempDir);
+        s3JsonlSplitter = fixture.splitter;
+        when(s3Client.getObjectAsBytes(any(Consumer.class))).thenThrow(NoSuchKeyException.builder().message("No dedup state").build());
+        ReviewDeduplicator reviewDeduplicator = fixture.reviewDeduplicator;
+        ReflectionTestUtils.setField(reviewDeduplicator, "s3Client", s3Client);
+        ReflectionTestUtils.setField(reviewDeduplicator, "dedupEnabled", true);
+        ReflectionTestUtils.setField(reviewDeduplicator, "keyField", "id");
+        ReflectionTestUtils.setField(reviewDeduplicator, "windowHours", 168L);
+        ReflectionTestUtils.setField(reviewDeduplicator, "bloomBytes", 1L << 16);
+        ReflectionTestUtils.setField(reviewDeduplicator, "expectedReviews", 1000L);
+        ReflectionTestUtils.setField(reviewDeduplicator, "recentWindowSize", 16);
+        ReflectionTestUtils.setField(reviewDeduplicator, "saveIntervalSeconds", 3600L);
+        ReflectionTestUtils.setField(reviewDeduplicator, "dedupBucketName", "test-dedup-bucket");
+        ReflectionTestUtils.invokeMethod(reviewDeduplicator, "init");
+        fixture.captureChunks();
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.shutdown();
+    }
+
+    @Test
+    @DisplayName("Drops the reviews already split from the same or an earlier file")
+    void splitFile_dropsDuplicateReviews() {
+        fixture.sourceFile("{\"id\":1}\n{\"id\":2}\n{\"id\":1,\"text\":\"again\"}\n{\"id\":3}\n".getBytes());
+        s3JsonlSplitter.splitFile("first-export.jsonl", tempDir);
+
+        fixture.sourceFile("{\"id\":3}\n{\"id\":4}\n{\"id\":2}\n".getBytes());
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile("second-export.jsonl", tempDir);
+
+        assertEquals(Arrays.asList("{\"id\":1}", "{\"id\":2}"), fixture.uploadedLines.get("first-export-split-1.jsonl"));
+        assertEquals(Collections.singletonList("{\"id\":3}"), fixture.uploadedLines.get("first-export-split-2.jsonl"));
+        assertEquals(Collections.singletonList("second-export-split-1.jsonl"), uploadedSplitFiles);
+        assertEquals(Collections.singletonList("{\"id\":4}"), fixture.uploadedLines.get("second-export-split-1.jsonl"));
+    }
+}
@@ -0,0 +1,114 @@
+package com.zuzu.sg.review.splitter;
+
+import com.zuzu.sg.review.splitter.metrics.SplitterMetrics;
+import com.zuzu.sg.review.splitter.utility.S3JSONLSplitter;
+import com.zuzu.sg.review.splitter.utility.SplitJobScheduler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SplitJobSchedulerTest {
+
+    @Mock
+    private S3JSONLSplitter s3JSONLSplitter;
+
+    @TempDir
+    Path tempDir;
+
+    private SplitJobScheduler splitJobScheduler;
+
+    private final List<String> startedFiles = new CopyOnWriteArrayList<>();
+    private final List<Path> workDirectories = new CopyOnWriteArrayList<>();
+    private final CountDownLatch firstJobRunning = new CountDownLatch(1);
+    private final CountDownLatch releaseFirstJob = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        splitJobScheduler = new SplitJobScheduler();
+        ReflectionTestUtils.setField(splitJobScheduler, "s3JSONLSplitter", s3JSONLSplitter);
+        ReflectionTestUtils.setField(splitJobScheduler, "maxConcurrentJobs", 1);
+        ReflectionTestUtils.setField(splitJobScheduler, "workRoot", tempDir.toString());
+        ReflectionTestUtils.setField(splitJobScheduler, "sizeAgingBytesPerSecond", 1000L);
+        SplitterMetrics splitterMetrics = new SplitterMetrics();
+        ReflectionTestUtils.setField(splitterMetrics, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.invokeMethod(splitterMetrics, "init");
+        ReflectionTestUtils.setField(splitJobScheduler, "splitterMetrics", splitterMetrics);
+        ReflectionTestUtils.invokeMethod(splitJobScheduler, "init");
+
+        when(s3JSONLSplitter.splitFile(anyString(), any(Path.class))).thenAnswer(invocation -> {
+            String inputFile = invocation.getArgument(0);
+            Path workDirectory = invocation.getArgument(1);
+            Files.writeString(workDirectory.resolve("uploaded-reviews.jl"), inputFile);
+            startedFiles.add(inputFile);
+            workDirectories.add(workDirectory);
+            if ("first.jsonl".equals(inputFile)) {
+                firstJobRunning.countDown();
+                releaseFirstJob.await();
+            }
+            if ("broken.jsonl".equals(inputFile)) {
+                throw new IllegalStateException("Simulated split failure");
+            }
+            return Collections.singletonList(inputFile.replace(".jsonl", "-split-1.jsonl"));
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(splitJobScheduler, "shutdown");
+    }
+
+    @Test
+    @DisplayName("Runs small files before large ones, large files are not overtaken once they have aged")
+    void submit_ordersWaitingJobsBySizeAndAge() throws InterruptedException {
+        CompletableFuture<List<String>> first = splitJobScheduler.submit("first.jsonl", 0);
+        firstJobRunning.await();
+
+        CompletableFuture<List<String>> large = splitJobScheduler.submit("large.jsonl", 60_000_000L); // delayed for hours
+        CompletableFuture<List<String>> small = splitJobScheduler.submit("small.jsonl", 10);
+        CompletableFuture<List<String>> aged = splitJobScheduler.submit("aged.jsonl", 1_000_000L); // delayed for minutes, still ahead of the large one
+        releaseFirstJob.countDown();
+        CompletableFuture.allOf(first, large, small, aged).join();
+
+        assertEquals(Arrays.asList("first.jsonl", "small.jsonl", "aged.jsonl", "large.jsonl"), startedFiles);
+        assertEquals(Collections.singletonList("small-split-1.jsonl"), small.join());
+    }
+
+    @Test
+    @DisplayName("Gives every job its own work directory and removes it afterwards")
+    void submit_isolatesAndCleansWorkDirectories() {
+        releaseFirstJob.countDown();
+        CompletableFuture<List<String>> first = splitJobScheduler.submit("first.jsonl", 0);
+        CompletableFuture<List<String>> broken = splitJobScheduler.submit("broken.jsonl", 0);
+
+        first.join();
+        CompletionException failure = assertThrows(CompletionException.class, broken::join);
+        assertInstanceOf(IllegalStateException.class, failure.getCause());
+
+        assertEquals(2, workDirectories.size());
+        assertNotEquals(workDirectories.get(0), workDirectories.get(1));
+        workDirectories.forEach(workDirectory -> assertFalse(Files.exists(workDirectory)));
+    }
+}
@@ -0,0 +1,122 @@
+package com.zuzu.sg.review.splitter;
+
+import com.zuzu.sg.review.splitter.pipeline.ChunkMemoryGovernor;
+import com.zuzu.sg.review.splitter.utility.S3JSONLSplitter;
+import com.zuzu.sg.review.splitter.utility.S3TransferService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static com.zuzu.sg.review.splitter.SplitterTestFixture.DESTINATION_BUCKET;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SplitMemoryLimitTest {
+
+    private static final byte[] CONTENT = "{\"id\":1}\n{\"id\":2}\n{\"id\":3}\n{\"id\":4}\n{\"id\":5}\n{\"id\":6}\n".getBytes();
+
+    @Mock
+    private S3Client s3Client;
+
+    @Mock
+    private S3TransferService s3TransferService;
+
+    @TempDir
+    Path tempDir;
+
+    private SplitterTestFixture fixture;
+
+    private S3JSONLSplitter s3JsonlSplitter;
+
+    private ChunkMemoryGovernor chunkMemoryGovernor;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new SplitterTestFixture(s3Client, s3TransferService, tempDir);
+        s3JsonlSplitter = fixture.splitter;
+        chunkMemoryGovernor = fixture.chunkMemoryGovernor;
+        ReflectionTestUtils.setField(chunkMemoryGovernor, "maxBufferedBytes", 1L); // a single chunk at a time
+        fixture.streamedSourceFile(CONTENT); // heap buffers, mapped slices are not counted
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.shutdown();
+    }
+
+    @Test
+    @DisplayName("Holds the assembler back while the chunks waiting for their upload exceed the memory limit")
+    void splitFile_blocksOverMemoryLimit() {
+        AtomicInteger uploadsInFlight = new AtomicInteger();
+        AtomicInteger maxUploadsInFlight = new AtomicInteger();
+        slowUploads(parts -> maxUploadsInFlight.accumulateAndGet(uploadsInFlight.get() + 1, Math::max), uploadsInFlight);
+
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile("bounded.jsonl", tempDir);
+
+        assertEquals(3, uploadedSplitFiles.size());
+        assertEquals(1, maxUploadsInFlight.get());
+        assertEquals(Arrays.asList("{\"id\":5}", "{\"id\":6}"), fixture.uploadedLines.get("bounded-split-3.jsonl"));
+        assertEquals(0, chunkMemoryGovernor.getBufferedBytes());
+    }
+
+    @Test
+    @DisplayName("Spills the chunks that do not fit under the memory limit and uploads them from disk")
+    void splitFile_spillsOverMemoryLimit() throws IOException {
+        ReflectionTestUtils.setField(chunkMemoryGovernor, "policy", ChunkMemoryGovernor.Policy.SPILL);
+        AtomicBoolean spilledChunkUploaded = new AtomicBoolean();
+        slowUploads(parts -> spilledChunkUploaded.compareAndSet(false, parts.stream().allMatch(ByteBuffer::isDirect)), new AtomicInteger());
+
+        s3JsonlSplitter.splitFile("spilled.jsonl", tempDir);
+
+        assertTrue(spilledChunkUploaded.get());
+        assertEquals(Arrays.asList("{\"id\":1}", "{\"id\":2}"), fixture.uploadedLines.get("spilled-split-1.jsonl"));
+        assertEquals(Arrays.asList("{\"id\":3}", "{\"id\":4}"), fixture.uploadedLines.get("spilled-split-2.jsonl"));
+        assertEquals(Arrays.asList("{\"id\":5}", "{\"id\":6}"), fixture.uploadedLines.get("spilled-split-3.jsonl"));
+        assertEquals(0, chunkMemoryGovernor.getBufferedBytes());
+        assertEquals(0, chunkMemoryGovernor.getSpilledBytes());
+        try (Stream<Path> spillFiles = Files.list(tempDir.resolve("spill"))) {
+            assertEquals(0, spillFiles.count());
+        }
+    }
+
+    /**
+     * Holds every chunk upload for a while, so the chunks pile up while they are uploaded
+     * @param onUpload called with the parts of every chunk when its upload starts
+     * @param uploadsInFlight counts the uploads not yet completed
+     */
+    private void slowUploads(Consumer<List<ByteBuffer>> onUpload, AtomicInteger uploadsInFlight) {
+        when(s3TransferService.upload(eq(DESTINATION_BUCKET), anyString(), anyList(), anyLong(), eq("application/jsonl"))).thenAnswer(invocation -> {
+            onUpload.accept(invocation.getArgument(2));
+            uploadsInFlight.incrementAndGet();
+            return CompletableFuture.supplyAsync(() -> {
+                uploadsInFlight.decrementAndGet();
+                return fixture.captureChunk(invocation.getArgument(1), invocation.getArgument(2), invocation.getArgument(3));
+            }, CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+        });
+    }
+}
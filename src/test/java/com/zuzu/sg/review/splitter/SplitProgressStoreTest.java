@@ -0,0 +1,87 @@
+package com.zuzu.sg.review.splitter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zuzu.sg.review.splitter.manifest.ChunkEntry;
+import com.zuzu.sg.review.splitter.progress.SplitProgressStore;
+import com.zuzu.sg.review.splitter.progress.SplitProgressTracker;
+import com.zuzu.sg.review.splitter.utility.ByteRange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SplitProgressStoreTest {
+
+    // chunk 1 is committed up to offset 18, chunk 3 was uploaded before chunk 2
+    private static final String MANIFEST = "{\"sourceKey\":\"resume.jsonl\",\"eTag\":\"\\\"source-etag\\\"\",\"settings\":\"LINES:2:NONE\","
+            + "\"segments\":[{\"index\":0,\"start\":0,\"end\":45,\"committedOffset\":18,\"committedChunks\":1,\"chunks\":["
+            + "{\"key\":\"resume-split-1.jsonl\",\"segment\":0,\"number\":1,\"recordCount\":2,\"byteCount\":18,\"crc32c\":\"AAAAAA==\",\"sourceStart\":0,\"sourceEnd\":18},"
+            + "{\"key\":\"resume-split-3.jsonl\",\"segment\":0,\"number\":3,\"recordCount\":1,\"byteCount\":9,\"crc32c\":\"AAAAAA==\",\"sourceStart\":36,\"sourceEnd\":45}]}]}";
+
+    private static final List<ByteRange> SEGMENTS = List.of(new ByteRange(0, 0, 45));
+
+    @Mock
+    private S3Client s3Client;
+
+    private final SplitProgressStore splitProgressStore = new SplitProgressStore();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(splitProgressStore, "s3Client", s3Client);
+        ReflectionTestUtils.setField(splitProgressStore, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(splitProgressStore, "progressEnabled", true);
+        ReflectionTestUtils.setField(splitProgressStore, "progressBucketName", "test-progress-bucket");
+        ReflectionTestUtils.setField(splitProgressStore, "progressPrefix", "split-progress/");
+        ReflectionTestUtils.setField(splitProgressStore, "saveIntervalMillis", Long.MAX_VALUE);
+        ReflectionTestUtils.invokeMethod(splitProgressStore, "init");
+        when(s3Client.getObjectAsBytes(any(Consumer.class)))
+                .thenReturn(ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), MANIFEST.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(splitProgressStore, "shutdown");
+    }
+
+    @Test
+    @DisplayName("Resumes after the committed chunks and reuses a chunk uploaded after the gap only when it was cut from the same lines")
+    void resume_reusesChunkOfSameLines() {
+        SplitProgressTracker progress = splitProgressStore.resume("resume.jsonl", "\"source-etag\"", "LINES:2:NONE", SEGMENTS);
+
+        assertEquals(18, progress.resumeOffset(0));
+        assertEquals(1, progress.resumeChunks(0));
+        ChunkEntry previousUpload = progress.previouslyUploaded(0, "resume-split-3.jsonl", 36, 45, 1);
+        assertNotNull(previousUpload);
+        assertEquals("resume-split-3.jsonl", previousUpload.key());
+        assertNull(progress.previouslyUploaded(0, "resume-split-3.jsonl", 27, 45, 2)); // same key, other lines
+        assertNull(progress.previouslyUploaded(0, "resume-split-3.jsonl", 36, 45, 2));
+        assertNull(progress.previouslyUploaded(0, "resume-split-2.jsonl", 18, 36, 2));
+    }
+
+    @Test
+    @DisplayName("Splits from the start when the settings changed since the earlier attempt, even if the chunk keys are the same")
+    void resume_discardsProgressOfOtherSettings() {
+        SplitProgressTracker progress = splitProgressStore.resume("resume.jsonl", "\"source-etag\"", "LINES:2:NONE:DEDUP:id", SEGMENTS);
+
+        assertEquals(0, progress.resumeOffset(0));
+        assertEquals(0, progress.resumeChunks(0));
+        assertNull(progress.previouslyUploaded(0, "resume-split-3.jsonl", 36, 45, 1));
+        assertTrue(progress.chunkEntries().isEmpty());
+    }
+}
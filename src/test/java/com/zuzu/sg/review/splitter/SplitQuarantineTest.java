@@ -0,0 +1,210 @@
+package com.zuzu.sg.review.splitter;
+
+import com.zuzu.sg.review.splitter.quarantine.ReviewQuarantine;
+import com.zuzu.sg.review.splitter.utility.S3JSONLSplitter;
+import com.zuzu.sg.review.splitter.utility.S3TransferService;
+import com.zuzu.sg.review.splitter.validation.ReviewJsonlValidator;
+import com.zuzu.sg.review.splitter.validation.ValidationResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectTaggingRequest;
+import software.amazon.awssdk.services.s3.model.Tag;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static com.zuzu.sg.review.splitter.SplitterTestFixture.ARCHIVE_BUCKET;
+import static com.zuzu.sg.review.splitter.SplitterTestFixture.DESTINATION_BUCKET;
+import static com.zuzu.sg.review.splitter.SplitterTestFixture.SOURCE_BUCKET;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SplitQuarantineTest {
+
+    @Mock
+    private S3Client s3Client;
+
+    @Mock
+    private S3TransferService s3TransferService;
+
+    @Mock
+    private ReviewJsonlValidator reviewJsonlValidator;
+
+    @TempDir
+    Path tempDir;
+
+    private SplitterTestFixture fixture;
+
+    private S3JSONLSplitter s3JsonlSplitter;
+
+    private ReviewQuarantine reviewQuarantine;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new SplitterTestFixture(s3Client, s3TransferService, tempDir);
+        s3JsonlSplitter = fixture.splitter;
+        reviewQuarantine = fixture.reviewQuarantine;
+        // the INVALID_JSON lines are rejected with an error of their own, the dead letters are compared whole
+        ReflectionTestUtils.setField(s3JsonlSplitter, "reviewJsonlValidator", reviewJsonlValidator);
+        when(reviewJsonlValidator.validate(any(ByteBuffer.class), anyInt(), anyInt())).thenAnswer(invocation -> {
+            byte[] line = new byte[(int) invocation.getArgument(2)];
+            ((ByteBuffer) invocation.getArgument(0)).get((int) invocation.getArgument(1), line);
+            return "INVALID_JSON".equals(new String(line, StandardCharsets.UTF_8)) ? ValidationResult.invalid("Invalid JSON") : ValidationResult.VALID;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.shutdown();
+    }
+
+    @Test
+    @DisplayName("Quarantines the rejected lines with their position and error")
+    void splitFile_quarantinesRejectedLines() {
+        Map<String, List<String>> deadLetters = captureDeadLetters();
+        fixture.captureChunks();
+        ReflectionTestUtils.setField(reviewQuarantine, "deadLetterEnabled", true);
+        fixture.sourceFile("{\"id\":1}\nINVALID_JSON\n{\"id\":3}\nINVALID_JSON\r\n".getBytes());
+
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile("invalid.jsonl", tempDir);
+
+        assertEquals(Collections.singletonList("invalid-split-1.jsonl"), uploadedSplitFiles);
+        assertEquals(Arrays.asList(
+                "{\"line\":2,\"offset\":9,\"error\":\"Invalid JSON\",\"content\":\"INVALID_JSON\"}",
+                "{\"line\":4,\"offset\":31,\"error\":\"Invalid JSON\",\"content\":\"INVALID_JSON\"}"),
+                deadLetters.get("split-rejected/invalid.jsonl/rejected-0000000000000000000-1.jsonl")); // the last chunk keeps the rejected lines after it
+        assertEquals(1, deadLetters.size());
+        fixture.verifyFileArchivedAndDeleted("invalid.jsonl");
+    }
+
+    @Test
+    @DisplayName("Cuts the dead letters at the end of every chunk and names them after the chunk, so a resumed split rewrites the same objects")
+    void splitFile_quarantinesRejectedLinesPerChunk() {
+        Map<String, List<String>> deadLetters = captureDeadLetters();
+        fixture.captureChunks();
+        ReflectionTestUtils.setField(reviewQuarantine, "deadLetterEnabled", true);
+        ReflectionTestUtils.setField(reviewQuarantine, "batchBytes", 100); // a dead-letter object holds two records at most
+        ReflectionTestUtils.setField(s3JsonlSplitter, "linesPerChunk", 1);
+        fixture.sourceFile("{\"id\":1}\nINVALID_JSON\n{\"id\":3}\nINVALID_JSON\nINVALID_JSON\nINVALID_JSON\n{\"id\":7}\n".getBytes());
+
+        s3JsonlSplitter.splitFile("chunked.jsonl", tempDir);
+
+        assertEquals(Set.of("split-rejected/chunked.jsonl/rejected-0000000000000000009-1.jsonl", // cut at the end of the second chunk
+                "split-rejected/chunked.jsonl/rejected-0000000000000000031-1.jsonl", // cut by size
+                "split-rejected/chunked.jsonl/rejected-0000000000000000031-2.jsonl"), deadLetters.keySet());
+        assertEquals(List.of(31L, 44L), deadLetterOffsets(deadLetters.get("split-rejected/chunked.jsonl/rejected-0000000000000000031-1.jsonl")));
+        assertEquals(List.of(57L), deadLetterOffsets(deadLetters.get("split-rejected/chunked.jsonl/rejected-0000000000000000031-2.jsonl")));
+    }
+
+    @Test
+    @DisplayName("Aborts the split once the file has more rejected lines than its error budget, and rejects the file instead of retrying it")
+    void splitFile_abortsWhenErrorBudgetExceeded() {
+        Map<String, List<String>> deadLetters = captureDeadLetters();
+        lenient().doAnswer(invocation -> CompletableFuture.completedFuture(fixture.captureChunk(invocation.getArgument(1),
+                        invocation.getArgument(2), invocation.getArgument(3))))
+                .when(s3TransferService).upload(eq(DESTINATION_BUCKET), anyString(), anyList(), anyLong(), eq("application/jsonl")); // the abort may come first
+        ReflectionTestUtils.setField(reviewQuarantine, "deadLetterEnabled", true);
+        ReflectionTestUtils.setField(reviewQuarantine, "maxInvalidLines", 2L);
+        ReflectionTestUtils.setField(fixture.splitProgressStore, "progressEnabled", true);
+        when(s3Client.getObjectAsBytes(any(Consumer.class))).thenThrow(NoSuchKeyException.builder().message("No manifest").build());
+        StringBuilder content = new StringBuilder("{\"id\":1}\n{\"id\":2}\n");
+        content.append("INVALID_JSON\n".repeat(10)).append("{\"id\":13}\n{\"id\":14}\n");
+        fixture.sourceFile(content.toString().getBytes());
+
+        assertEquals(List.of(), s3JsonlSplitter.splitFile("corrupt.jsonl", tempDir));
+
+        assertFalse(fixture.uploadedLines.values().stream().flatMap(List::stream).anyMatch(line -> line.contains("13")));
+        assertEquals(3, deadLetters.values().stream().mapToInt(List::size).sum()); // the rejected lines up to the abort
+        verifyFileRejected("corrupt.jsonl");
+        ReflectionTestUtils.invokeMethod(fixture.splitProgressStore, "shutdown"); // waits for the manifest delete
+        verify(s3Client, never()).putObject(any(Consumer.class), any(RequestBody.class)); // no progress is saved for a retry
+        verify(s3Client, timeout(1000).times(2)).deleteObject(any(Consumer.class)); // source file and progress manifest
+    }
+
+    @Test
+    @DisplayName("Aborts the split once the rejected rate over the window exceeds the error budget")
+    void splitFile_abortsWhenErrorRateExceeded() {
+        fixture.captureChunks();
+        ReflectionTestUtils.setField(reviewQuarantine, "maxInvalidRate", 0.5);
+        fixture.sourceFile("{\"id\":1}\nINVALID_JSON\n{\"id\":3}\nINVALID_JSON\n{\"id\":5}\n{\"id\":6}\n".getBytes());
+        s3JsonlSplitter.splitFile("sparse.jsonl", tempDir); // 2 of every 4 lines at most
+
+        fixture.sourceFile("{\"id\":1}\nINVALID_JSON\nINVALID_JSON\n{\"id\":4}\nINVALID_JSON\n{\"id\":6}\n".getBytes());
+        assertEquals(List.of(), s3JsonlSplitter.splitFile("dense.jsonl", tempDir));
+        verifyFileRejected("dense.jsonl");
+    }
+
+    /**
+     * @return the source offset of each record of a dead-letter object
+     */
+    private static List<Long> deadLetterOffsets(List<String> records) {
+        return records.stream().map(record -> Long.parseLong(record.replaceAll(".*\"offset\":(\\d+),.*", "$1"))).toList();
+    }
+
+    /**
+     * @return the lines of the dead-letter objects uploaded to the archive bucket, by key
+     */
+    private Map<String, List<String>> captureDeadLetters() {
+        Map<String, List<String>> deadLetters = new ConcurrentHashMap<>();
+        when(s3TransferService.upload(eq(ARCHIVE_BUCKET), anyString(), anyList(), anyLong(), eq("application/jsonl"))).thenAnswer(invocation -> {
+            String key = invocation.getArgument(1);
+            ByteBuffer content = ((List<ByteBuffer>) invocation.getArgument(2)).get(0);
+            deadLetters.put(key, StandardCharsets.UTF_8.decode(content.duplicate()).toString().lines().toList());
+            return CompletableFuture.completedFuture(key);
+        });
+        return deadLetters;
+    }
+
+    /**
+     * The file is moved to the archive bucket tagged as rejected, rather than left in place for a retry
+     */
+    private void verifyFileRejected(String inputFile) {
+        ArgumentCaptor<Consumer<PutObjectTaggingRequest.Builder>> taggingRequestCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(s3Client).putObjectTagging(taggingRequestCaptor.capture());
+        PutObjectTaggingRequest.Builder taggingBuilder = PutObjectTaggingRequest.builder();
+        taggingRequestCaptor.getValue().accept(taggingBuilder);
+        PutObjectTaggingRequest taggingRequest = taggingBuilder.build();
+
+        assertEquals(ARCHIVE_BUCKET, taggingRequest.bucket());
+        assertTrue(taggingRequest.key().startsWith(inputFile + "_"));
+        assertEquals(List.of(Tag.builder().key("split-status").value("rejected").build()), taggingRequest.tagging().tagSet());
+
+        ArgumentCaptor<Consumer<DeleteObjectRequest.Builder>> deleteRequestCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(s3Client, atLeastOnce()).deleteObject(deleteRequestCaptor.capture());
+        List<DeleteObjectRequest> deleteRequests = deleteRequestCaptor.getAllValues().stream().map(request -> {
+            DeleteObjectRequest.Builder deleteBuilder = DeleteObjectRequest.builder();
+            request.accept(deleteBuilder);
+            return deleteBuilder.build();
+        }).toList();
+        assertTrue(deleteRequests.stream().anyMatch(request -> SOURCE_BUCKET.equals(request.bucket()) && inputFile.equals(request.key())));
+        assertTrue(deleteRequests.stream().noneMatch(request -> request.key().startsWith(inputFile + "_"))); // the archive copy is kept
+    }
+}
@@ -0,0 +1,39 @@
+package com.zuzu.sg.review.splitter;
+
+import com.zuzu.sg.review.splitter.registry.CompletedSplit;
+import com.zuzu.sg.review.splitter.registry.SplitRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SplitRegistryTest {
+
+    @Test
+    @DisplayName("Gives up on a database that accepts the connection but never answers, and the file is split without the registry")
+    void find_unresponsiveDatabaseTimesOut() throws IOException {
+        try (ServerSocket silentDatabase = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) { // connections queue, nothing is read
+            SplitRegistry splitRegistry = new SplitRegistry();
+            ReflectionTestUtils.setField(splitRegistry, "registryEnabled", true);
+            ReflectionTestUtils.setField(splitRegistry, "jdbcUrl", "jdbc:postgresql://127.0.0.1:" + silentDatabase.getLocalPort() + "/splitter");
+            ReflectionTestUtils.setField(splitRegistry, "username", "splitter");
+            ReflectionTestUtils.setField(splitRegistry, "password", "");
+            ReflectionTestUtils.setField(splitRegistry, "cacheSize", 16);
+            ReflectionTestUtils.setField(splitRegistry, "timeoutSeconds", 1);
+            HeadObjectResponse sourceObject = HeadObjectResponse.builder().eTag("\"source-etag\"").contentLength(27L).build();
+
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                ReflectionTestUtils.invokeMethod(splitRegistry, "init"); // the table cannot be created, the service still starts
+                assertNull(splitRegistry.find(sourceObject, "LINES:2:NONE"));
+                splitRegistry.record(sourceObject, "LINES:2:NONE", new CompletedSplit("first.jsonl", "\"source-etag\"", "first-split-manifest.json"));
+            });
+        }
+    }
+}
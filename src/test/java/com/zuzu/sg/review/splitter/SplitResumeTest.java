@@ -0,0 +1,122 @@
+package com.zuzu.sg.review.splitter;
+
+import com.zuzu.sg.review.splitter.utility.S3JSONLSplitter;
+import com.zuzu.sg.review.splitter.utility.S3TransferService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static com.zuzu.sg.review.splitter.SplitterTestFixture.DESTINATION_BUCKET;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SplitResumeTest {
+
+    @Mock
+    private S3Client s3Client;
+
+    @Mock
+    private S3TransferService s3TransferService;
+
+    @TempDir
+    Path tempDir;
+
+    private SplitterTestFixture fixture;
+
+    private S3JSONLSplitter s3JsonlSplitter;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new SplitterTestFixture(s3Client, s3TransferService, tempDir);
+        s3JsonlSplitter = fixture.splitter;
+        ReflectionTestUtils.setField(fixture.splitProgressStore, "progressEnabled", true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.shutdown();
+    }
+
+    @Test
+    @DisplayName("Resumes a split from its progress manifest and skips the chunks already uploaded")
+    void splitFile_resumesFromProgressManifest() {
+        String inputFile = "resume.jsonl";
+        fixture.streamedSourceFile("{\"id\":1}\n{\"id\":2}\n{\"id\":3}\n{\"id\":4}\n{\"id\":5}\n".getBytes(StandardCharsets.UTF_8));
+        fixture.captureChunks();
+        // chunk 1 is committed up to offset 18, chunk 3 was uploaded before chunk 2
+        String manifest = "{\"sourceKey\":\"resume.jsonl\",\"eTag\":\"\\\"source-etag\\\"\",\"settings\":\"LINES:2:NONE\",\"segments\":[{\"index\":0,"
+                + "\"start\":0,\"end\":45,\"committedOffset\":18,\"committedChunks\":1,\"chunks\":["
+                + "{\"key\":\"resume-split-1.jsonl\",\"segment\":0,\"number\":1,\"recordCount\":2,\"byteCount\":18,\"crc32c\":\"AAAAAA==\",\"sourceStart\":0,\"sourceEnd\":18},"
+                + "{\"key\":\"resume-split-3.jsonl\",\"segment\":0,\"number\":3,\"recordCount\":1,\"byteCount\":9,\"crc32c\":\"AAAAAA==\",\"sourceStart\":36,\"sourceEnd\":45}]}]}";
+        when(s3Client.getObjectAsBytes(any(Consumer.class)))
+                .thenReturn(ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), manifest.getBytes(StandardCharsets.UTF_8)));
+
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile(inputFile, tempDir);
+
+        assertEquals(Arrays.asList("resume-split-1.jsonl", "resume-split-2.jsonl", "resume-split-3.jsonl"), uploadedSplitFiles);
+        verify(s3TransferService, times(1)).upload(anyString(), anyString(), anyList(), anyLong(), anyString());
+        assertEquals(Arrays.asList("{\"id\":3}", "{\"id\":4}"), fixture.uploadedLines.get("resume-split-2.jsonl"));
+        ArgumentCaptor<Consumer<GetObjectRequest.Builder>> streamRequestCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(s3Client).getObject(streamRequestCaptor.capture());
+        assertEquals("bytes=18-", SplitterTestFixture.getObjectRequest(streamRequestCaptor.getValue()).range());
+        ReflectionTestUtils.invokeMethod(fixture.splitProgressStore, "shutdown"); // waits for the manifest delete
+        verify(s3Client, timeout(1000).times(2)).deleteObject(any(Consumer.class)); // source file and manifest
+    }
+
+    @Test
+    @DisplayName("Saves the committed progress when a split fails")
+    void splitFile_savesProgressOnFailure() {
+        String inputFile = "failing.jsonl";
+        fixture.sourceFile("{\"id\":1}\n{\"id\":2}\n{\"id\":3}\n{\"id\":4}\n".getBytes());
+        when(s3Client.getObjectAsBytes(any(Consumer.class))).thenThrow(NoSuchKeyException.builder().message("No manifest").build());
+        fixture.captureChunks();
+        doReturn(CompletableFuture.failedFuture(S3Exception.builder().message("Simulated upload error").build()))
+                .when(s3TransferService).upload(eq(DESTINATION_BUCKET), eq("failing-split-2.jsonl"), anyList(), anyLong(), eq("application/jsonl"));
+        List<String> savedManifests = new CopyOnWriteArrayList<>();
+        when(s3Client.putObject(any(Consumer.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            Consumer<PutObjectRequest.Builder> request = invocation.getArgument(0);
+            PutObjectRequest.Builder builder = PutObjectRequest.builder();
+            request.accept(builder);
+            assertEquals("split-progress/failing.jsonl.json", builder.build().key());
+            savedManifests.add(new String(((RequestBody) invocation.getArgument(1)).contentStreamProvider().newStream().readAllBytes(),
+                    StandardCharsets.UTF_8));
+            return null;
+        });
+
+        assertThrows(CompletionException.class, () -> s3JsonlSplitter.splitFile(inputFile, tempDir));
+
+        assertEquals(1, savedManifests.size());
+        assertTrue(savedManifests.get(0).contains("\"committedOffset\":18,\"committedChunks\":1"));
+        fixture.verifySourceKeptAndArchiveCopyRemoved(inputFile);
+    }
+}
@@ -0,0 +1,189 @@
+package com.zuzu.sg.review.splitter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zuzu.sg.review.splitter.manifest.ChunkEntry;
+import com.zuzu.sg.review.splitter.manifest.ChunkManifest;
+import com.zuzu.sg.review.splitter.registry.CompletedSplit;
+import com.zuzu.sg.review.splitter.registry.SplitRegistry;
+import com.zuzu.sg.review.splitter.utility.S3JSONLSplitter;
+import com.zuzu.sg.review.splitter.utility.S3TransferService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static com.zuzu.sg.review.splitter.SplitterTestFixture.DESTINATION_BUCKET;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SplitReuseTest {
+
+    private static final byte[] CONTENT = "{\"id\":1}\n{\"id\":2}\n{\"id\":3}\n".getBytes();
+
+    @Mock
+    private S3Client s3Client;
+
+    @Mock
+    private S3TransferService s3TransferService;
+
+    @Mock
+    private SplitRegistry splitRegistry;
+
+    @TempDir
+    Path tempDir;
+
+    private SplitterTestFixture fixture;
+
+    private S3JSONLSplitter s3JsonlSplitter;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new SplitterTestFixture(s3Client, s3TransferService, tempDir);
+        s3JsonlSplitter = fixture.splitter;
+        ReflectionTestUtils.setField(s3JsonlSplitter, "splitRegistry", splitRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.shutdown();
+    }
+
+    @Test
+    @DisplayName("Copies the chunks of an earlier split of the same content under the names of the file instead of splitting it")
+    void splitFile_reusesEarlierSplitOfSameContent() throws IOException {
+        String inputFile = "again.jsonl";
+        fixture.headSourceObject(CONTENT.length);
+        ChunkManifest earlierManifest = stubEarlierSplit("\"first-etag\"");
+        when(s3TransferService.copy(eq(DESTINATION_BUCKET), anyString(), anyString())).thenReturn(CompletableFuture.completedFuture("AAAAAA=="));
+        Map<String, byte[]> publishedManifests = new ConcurrentHashMap<>();
+        when(s3Client.putObject(any(Consumer.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            Consumer<PutObjectRequest.Builder> request = invocation.getArgument(0);
+            PutObjectRequest.Builder builder = PutObjectRequest.builder();
+            request.accept(builder);
+            publishedManifests.put(builder.build().key(), ((RequestBody) invocation.getArgument(1)).contentStreamProvider().newStream().readAllBytes());
+            return null;
+        });
+
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile(inputFile, tempDir);
+
+        assertEquals(Arrays.asList("again-split-1.jsonl", "again-split-2.jsonl"), uploadedSplitFiles);
+        verify(s3TransferService).copy(DESTINATION_BUCKET, "first-split-1.jsonl", "again-split-1.jsonl");
+        verify(s3TransferService).copy(DESTINATION_BUCKET, "first-split-2.jsonl", "again-split-2.jsonl");
+        verify(s3Client, never()).getObject(any(Consumer.class), any(ResponseTransformer.class));
+        verify(s3TransferService, never()).upload(anyString(), anyString(), anyList(), anyLong(), anyString());
+        verify(splitRegistry, never()).record(any(), anyString(), any());
+        ChunkManifest manifest = new ObjectMapper().readValue(publishedManifests.get("again-split-manifest.json"), ChunkManifest.class);
+        assertEquals("again.jsonl", manifest.sourceKey());
+        assertEquals("\"source-etag\"", manifest.sourceETag());
+        assertEquals(List.of(
+                new ChunkEntry("again-split-1.jsonl", 0, 0, 1, 2, 18, "AAAAAA==", 0, 18),
+                new ChunkEntry("again-split-2.jsonl", 0, 0, 2, 1, 9, "AAAAAA==", 18, 27)), manifest.chunks());
+        assertEquals(earlierManifest.recordCount(), manifest.recordCount());
+        fixture.verifyFileArchivedAndDeleted(inputFile);
+    }
+
+    @Test
+    @DisplayName("Splits the file again when the earlier source was split again since, its manifest lists other chunks")
+    void splitFile_splitsAgainWhenEarlierSourceWasReplaced() {
+        String inputFile = "again.jsonl";
+        fixture.sourceFile(CONTENT);
+        fixture.captureChunks();
+        stubEarlierSplit("\"later-etag\"");
+
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile(inputFile, tempDir);
+
+        assertEquals(Arrays.asList("again-split-1.jsonl", "again-split-2.jsonl"), uploadedSplitFiles);
+        verify(s3TransferService, never()).copy(anyString(), anyString(), anyString());
+        verify(s3TransferService, times(2)).upload(anyString(), anyString(), anyList(), anyLong(), anyString());
+        verify(splitRegistry).record(any(HeadObjectResponse.class), eq("LINES:2:NONE"),
+                eq(new CompletedSplit("again.jsonl", "\"source-etag\"", "again-split-manifest.json")));
+    }
+
+    @Test
+    @DisplayName("Splits the file again when a copied chunk does not have the checksum of the earlier split")
+    void splitFile_splitsAgainWhenEarlierChunkWasOverwritten() {
+        String inputFile = "again.jsonl";
+        fixture.sourceFile(CONTENT);
+        fixture.captureChunks();
+        stubEarlierSplit("\"first-etag\"");
+        when(s3TransferService.copy(eq(DESTINATION_BUCKET), anyString(), anyString())).thenReturn(CompletableFuture.completedFuture("AAAAAA=="));
+        when(s3TransferService.copy(DESTINATION_BUCKET, "first-split-2.jsonl", "again-split-2.jsonl"))
+                .thenReturn(CompletableFuture.completedFuture("BBBBBB=="));
+
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile(inputFile, tempDir);
+
+        assertEquals(Arrays.asList("again-split-1.jsonl", "again-split-2.jsonl"), uploadedSplitFiles);
+        verify(s3TransferService, times(2)).upload(anyString(), anyString(), anyList(), anyLong(), anyString());
+        verify(splitRegistry).record(any(HeadObjectResponse.class), eq("LINES:2:NONE"),
+                eq(new CompletedSplit("again.jsonl", "\"source-etag\"", "again-split-manifest.json")));
+        fixture.verifyFileArchivedAndDeleted(inputFile);
+    }
+
+    @Test
+    @DisplayName("Splits the file again when the manifest of the earlier split is gone, and records the new split")
+    void splitFile_recordsSplitWhenEarlierManifestIsGone() {
+        String inputFile = "again.jsonl";
+        fixture.sourceFile(CONTENT);
+        fixture.captureChunks();
+        when(splitRegistry.find(any(HeadObjectResponse.class), anyString()))
+                .thenReturn(new CompletedSplit("first.jsonl", "\"first-etag\"", "first-split-manifest.json"));
+        when(s3Client.getObjectAsBytes(any(Consumer.class))).thenThrow(NoSuchKeyException.builder().message("No manifest").build());
+
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile(inputFile, tempDir);
+
+        assertEquals(Arrays.asList("again-split-1.jsonl", "again-split-2.jsonl"), uploadedSplitFiles);
+        verify(splitRegistry).record(any(HeadObjectResponse.class), eq("LINES:2:NONE"),
+                eq(new CompletedSplit("again.jsonl", "\"source-etag\"", "again-split-manifest.json")));
+        fixture.verifyFileArchivedAndDeleted(inputFile);
+    }
+
+    /**
+     * Registers the split of first.jsonl, recorded at version "first-etag", with the manifest of its chunks in the
+     * destination bucket
+     * @param manifestETag version of first.jsonl the manifest was written for
+     * @return the manifest
+     */
+    private ChunkManifest stubEarlierSplit(String manifestETag) {
+        ChunkManifest earlierManifest = ChunkManifest.of("first.jsonl", manifestETag, "NONE", "JSONL", 0, List.of(
+                new ChunkEntry("first-split-1.jsonl", 0, 0, 1, 2, 18, "AAAAAA==", 0, 18),
+                new ChunkEntry("first-split-2.jsonl", 0, 0, 2, 1, 9, "AAAAAA==", 18, 27)));
+        when(splitRegistry.find(any(HeadObjectResponse.class), eq("LINES:2:NONE")))
+                .thenReturn(new CompletedSplit("first.jsonl", "\"first-etag\"", "first-split-manifest.json"));
+        doAnswer(invocation -> {
+            GetObjectRequest request = SplitterTestFixture.getObjectRequest(invocation.getArgument(0));
+            assertEquals(DESTINATION_BUCKET, request.bucket());
+            assertEquals("first-split-manifest.json", request.key());
+            return ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), new ObjectMapper().writeValueAsBytes(earlierManifest));
+        }).when(s3Client).getObjectAsBytes(any(Consumer.class));
+        return earlierManifest;
+    }
+}
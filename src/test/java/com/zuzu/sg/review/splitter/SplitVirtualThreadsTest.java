@@ -0,0 +1,93 @@
+package com.zuzu.sg.review.splitter;
+
+import com.zuzu.sg.review.splitter.utility.S3JSONLSplitter;
+import com.zuzu.sg.review.splitter.utility.S3TransferService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SplitVirtualThreadsTest {
+
+    @Mock
+    private S3Client s3Client;
+
+    @Mock
+    private S3TransferService s3TransferService;
+
+    @TempDir
+    Path tempDir;
+
+    private SplitterTestFixture fixture;
+
+    private S3JSONLSplitter s3JsonlSplitter;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new SplitterTestFixture(s3Client, s3TransferService, tempDir);
+        s3JsonlSplitter = fixture.splitter;
+        ReflectionTestUtils.setField(fixture.blockingIoExecutors, "virtualThreadsEnabled", true);
+        ReflectionTestUtils.invokeMethod(fixture.s3Archiver, "shutdown");
+        ReflectionTestUtils.invokeMethod(fixture.s3Archiver, "init"); // the archive executor is created on virtual threads
+        fixture.rangedReads(20L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.shutdown();
+    }
+
+    @Test
+    @DisplayName("Runs the boundary probes, the segment GETs and the archive copy of a ranged split on virtual threads")
+    void splitFile_blockingCallsOnVirtualThreads() {
+        byte[] content = "{\"id\":1}\n{\"id\":2}\n{\"id\":3}\n{\"id\":4}\n{\"id\":5}\n".getBytes(StandardCharsets.UTF_8);
+        fixture.headSourceObject(content.length);
+        fixture.captureChunks();
+        Map<String, Boolean> onVirtualThread = new ConcurrentHashMap<>();
+        doAnswer(invocation -> {
+            onVirtualThread.merge("probe", Thread.currentThread().isVirtual(), Boolean::logicalAnd);
+            return ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), SplitterTestFixture.rangeOf(content, invocation.getArgument(0)));
+        }).when(s3Client).getObjectAsBytes(any(Consumer.class));
+        doAnswer(invocation -> {
+            onVirtualThread.merge("segment", Thread.currentThread().isVirtual(), Boolean::logicalAnd);
+            return new ResponseInputStream<>(GetObjectResponse.builder().build(),
+                    AbortableInputStream.create(new ByteArrayInputStream(SplitterTestFixture.rangeOf(content, invocation.getArgument(0)))));
+        }).when(s3Client).getObject(any(Consumer.class));
+        doAnswer(invocation -> {
+            onVirtualThread.merge("copy", Thread.currentThread().isVirtual(), Boolean::logicalAnd);
+            return CopyObjectResponse.builder().build();
+        }).when(s3Client).copyObject(any(Consumer.class));
+
+        List<String> uploadedSplitFiles = s3JsonlSplitter.splitFile("virtual.jsonl", tempDir);
+
+        assertEquals(Map.of("probe", true, "segment", true, "copy", true), onVirtualThread);
+        assertEquals(Arrays.asList("virtual-split-1-1.jsonl", "virtual-split-1-2.jsonl", "virtual-split-2-1.jsonl"), uploadedSplitFiles);
+        assertEquals(Arrays.asList("{\"id\":4}", "{\"id\":5}"), fixture.uploadedLines.get("virtual-split-2-1.jsonl"));
+        fixture.verifyFileArchivedAndDeleted("virtual.jsonl");
+    }
+}
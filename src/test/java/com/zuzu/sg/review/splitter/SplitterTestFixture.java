@@ -0,0 +1,335 @@
+package com.zuzu.sg.review.splitter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zuzu.sg.review.splitter.dedup.ReviewDeduplicator;
+import com.zuzu.sg.review.splitter.format.ChunkRecordEncoder;
+import com.zuzu.sg.review.splitter.manifest.ChunkManifestWriter;
+import com.zuzu.sg.review.splitter.metrics.SplitterMetrics;
+import com.zuzu.sg.review.splitter.partition.KeyPartitioner;
+import com.zuzu.sg.review.splitter.pipeline.ChunkMemoryGovernor;
+import com.zuzu.sg.review.splitter.pipeline.SplitPipelineFactory;
+import com.zuzu.sg.review.splitter.progress.SplitProgressStore;
+import com.zuzu.sg.review.splitter.quarantine.ReviewQuarantine;
+import com.zuzu.sg.review.splitter.registry.SplitRegistry;
+import com.zuzu.sg.review.splitter.utility.BlockingIoExecutors;
+import com.zuzu.sg.review.splitter.utility.ChunkCompressor;
+import com.zuzu.sg.review.splitter.utility.S3Archiver;
+import com.zuzu.sg.review.splitter.utility.S3JSONLSplitter;
+import com.zuzu.sg.review.splitter.utility.S3RangedReader;
+import com.zuzu.sg.review.splitter.utility.S3TransferService;
+import com.zuzu.sg.review.splitter.validation.ReviewJsonlValidator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * An S3JSONLSplitter wired to the collaborators of the service in their default configuration: downloaded files cut
+ * into chunks of two lines, without progress, registry, dedup, partitions, dead letters or error budget.
+ * A test turns its feature on through the collaborator of the feature and stubs only the S3 calls it expects.
+ * The stubs are made with doAnswer, so a test stubbing the same call again for other arguments does not invoke them.
+ */
+class SplitterTestFixture {
+
+    static final String SOURCE_BUCKET = "test-source-bucket";
+    static final String DESTINATION_BUCKET = "test-destination-bucket";
+    static final String ARCHIVE_BUCKET = "test-archive-bucket";
+    static final String SOURCE_ETAG = "\"source-etag\"";
+    static final int LINES_PER_CHUNK = 2;
+
+    final S3JSONLSplitter splitter = new S3JSONLSplitter();
+
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    final BlockingIoExecutors blockingIoExecutors = new BlockingIoExecutors(); // platform threads
+
+    final ChunkMemoryGovernor chunkMemoryGovernor = new ChunkMemoryGovernor(); // half of the heap
+
+    final SplitPipelineFactory splitPipelineFactory = new SplitPipelineFactory();
+
+    final SplitProgressStore splitProgressStore = new SplitProgressStore();
+
+    final ChunkCompressor chunkCompressor = new ChunkCompressor();
+
+    final ChunkRecordEncoder chunkRecordEncoder = new ChunkRecordEncoder(); // JSONL
+
+    final S3Archiver s3Archiver = new S3Archiver();
+
+    final ReviewDeduplicator reviewDeduplicator = new ReviewDeduplicator();
+
+    final KeyPartitioner keyPartitioner = new KeyPartitioner();
+
+    final ReviewQuarantine reviewQuarantine = new ReviewQuarantine();
+
+    /**
+     * The lines of the JSONL chunks uploaded by captureChunks, by key
+     */
+    final Map<String, List<String>> uploadedLines = new ConcurrentHashMap<>();
+
+    private final S3Client s3Client;
+
+    private final S3TransferService s3TransferService;
+
+    private S3RangedReader s3RangedReader;
+
+    /**
+     * @param s3Client mock of the S3 calls of the split
+     * @param s3TransferService mock of the chunk and dead-letter uploads
+     * @param workDirectory temporary directory of the test, also holds the spilled chunks
+     */
+    SplitterTestFixture(S3Client s3Client, S3TransferService s3TransferService, Path workDirectory) {
+        this.s3Client = s3Client;
+        this.s3TransferService = s3TransferService;
+        ReflectionTestUtils.setField(splitter, "s3Client", s3Client);
+        ReflectionTestUtils.setField(splitter, "s3TransferService", s3TransferService);
+        ReflectionTestUtils.setField(splitter, "reviewJsonlValidator", new ReviewJsonlValidator());
+        ReflectionTestUtils.setField(splitter, "splitRegistry", new SplitRegistry());
+        ReflectionTestUtils.setField(splitter, "sourceBucketName", SOURCE_BUCKET);
+        ReflectionTestUtils.setField(splitter, "destinationBucketName", DESTINATION_BUCKET);
+        ReflectionTestUtils.setField(splitter, "linesPerChunk", LINES_PER_CHUNK);
+
+        SplitterMetrics splitterMetrics = new SplitterMetrics();
+        ReflectionTestUtils.setField(splitterMetrics, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.invokeMethod(splitterMetrics, "init");
+        ReflectionTestUtils.setField(splitter, "splitterMetrics", splitterMetrics);
+
+        ReflectionTestUtils.setField(chunkMemoryGovernor, "splitterMetrics", splitterMetrics);
+        ReflectionTestUtils.setField(chunkMemoryGovernor, "spillDir", workDirectory.resolve("spill").toString());
+        ReflectionTestUtils.invokeMethod(chunkMemoryGovernor, "init");
+
+        ReflectionTestUtils.setField(splitPipelineFactory, "splitterMetrics", splitterMetrics);
+        ReflectionTestUtils.setField(splitPipelineFactory, "chunkMemoryGovernor", chunkMemoryGovernor);
+        ReflectionTestUtils.setField(splitPipelineFactory, "batchBytes", 16); // several batches even for small inputs
+        ReflectionTestUtils.setField(splitPipelineFactory, "mappingBytes", 32); // several mapped windows of the downloaded file
+        ReflectionTestUtils.setField(splitPipelineFactory, "queueCapacity", 2);
+        ReflectionTestUtils.setField(splitPipelineFactory, "maxInFlightUploads", 2);
+        ReflectionTestUtils.invokeMethod(splitPipelineFactory, "init");
+        ReflectionTestUtils.setField(splitter, "splitPipelineFactory", splitPipelineFactory);
+
+        ReflectionTestUtils.setField(splitProgressStore, "s3Client", s3Client);
+        ReflectionTestUtils.setField(splitProgressStore, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(splitProgressStore, "progressBucketName", ARCHIVE_BUCKET);
+        ReflectionTestUtils.setField(splitProgressStore, "progressPrefix", "split-progress/");
+        ReflectionTestUtils.setField(splitProgressStore, "saveIntervalMillis", Long.MAX_VALUE); // saved on failure only
+        ReflectionTestUtils.invokeMethod(splitProgressStore, "init");
+        ReflectionTestUtils.setField(splitter, "splitProgressStore", splitProgressStore);
+
+        ReflectionTestUtils.setField(chunkCompressor, "compressionLevel", 3);
+        ReflectionTestUtils.setField(chunkCompressor, "compressionThreads", 2);
+        ReflectionTestUtils.invokeMethod(chunkCompressor, "init");
+        ReflectionTestUtils.setField(splitter, "chunkCompressor", chunkCompressor);
+
+        ReflectionTestUtils.setField(chunkRecordEncoder, "reviewJsonlValidator", new ReviewJsonlValidator());
+        ReflectionTestUtils.invokeMethod(chunkRecordEncoder, "init");
+        ReflectionTestUtils.setField(splitter, "chunkRecordEncoder", chunkRecordEncoder);
+
+        ChunkManifestWriter chunkManifestWriter = new ChunkManifestWriter();
+        ReflectionTestUtils.setField(chunkManifestWriter, "s3Client", s3Client);
+        ReflectionTestUtils.setField(chunkManifestWriter, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(chunkManifestWriter, "destinationBucketName", DESTINATION_BUCKET);
+        ReflectionTestUtils.setField(splitter, "chunkManifestWriter", chunkManifestWriter);
+
+        ReflectionTestUtils.setField(s3Archiver, "s3Client", s3Client);
+        ReflectionTestUtils.setField(s3Archiver, "blockingIoExecutors", blockingIoExecutors);
+        ReflectionTestUtils.setField(s3Archiver, "sourceBucketName", SOURCE_BUCKET);
+        ReflectionTestUtils.setField(s3Archiver, "archiveBucketName", ARCHIVE_BUCKET);
+        ReflectionTestUtils.setField(s3Archiver, "multipartThresholdBytes", Long.MAX_VALUE); // single copy, multipart is covered by S3ArchiverTest
+        ReflectionTestUtils.invokeMethod(s3Archiver, "init");
+        ReflectionTestUtils.setField(splitter, "s3Archiver", s3Archiver);
+
+        ReflectionTestUtils.setField(splitter, "reviewDeduplicator", reviewDeduplicator);
+
+        ReflectionTestUtils.invokeMethod(keyPartitioner, "init");
+        ReflectionTestUtils.setField(splitter, "keyPartitioner", keyPartitioner);
+
+        ReflectionTestUtils.setField(reviewQuarantine, "s3TransferService", s3TransferService);
+        ReflectionTestUtils.setField(reviewQuarantine, "quarantineBucketName", ARCHIVE_BUCKET);
+        ReflectionTestUtils.setField(reviewQuarantine, "quarantinePrefix", "split-rejected/");
+        ReflectionTestUtils.setField(reviewQuarantine, "batchBytes", 1024);
+        ReflectionTestUtils.setField(reviewQuarantine, "windowLines", 4);
+        ReflectionTestUtils.setField(splitter, "reviewQuarantine", reviewQuarantine);
+    }
+
+    /**
+     * Stops the executors of the collaborators, the progress store waits for its pending saves and deletes
+     */
+    void shutdown() {
+        ReflectionTestUtils.invokeMethod(splitPipelineFactory, "shutdown");
+        ReflectionTestUtils.invokeMethod(splitProgressStore, "shutdown");
+        ReflectionTestUtils.invokeMethod(chunkCompressor, "shutdown");
+        ReflectionTestUtils.invokeMethod(s3Archiver, "shutdown");
+        ReflectionTestUtils.invokeMethod(reviewDeduplicator, "shutdown");
+        if (s3RangedReader != null) {
+            ReflectionTestUtils.invokeMethod(s3RangedReader, "shutdown");
+        }
+    }
+
+    /**
+     * Turns ranged reads on, the files larger than a segment are then split in newline aligned segments
+     * @param segmentSizeBytes
+     */
+    void rangedReads(long segmentSizeBytes) {
+        s3RangedReader = new S3RangedReader();
+        ReflectionTestUtils.setField(s3RangedReader, "s3Client", s3Client);
+        ReflectionTestUtils.setField(s3RangedReader, "blockingIoExecutors", blockingIoExecutors);
+        ReflectionTestUtils.setField(s3RangedReader, "segmentSizeBytes", segmentSizeBytes);
+        ReflectionTestUtils.setField(s3RangedReader, "parallelism", 2);
+        ReflectionTestUtils.invokeMethod(s3RangedReader, "init");
+        ReflectionTestUtils.setField(splitter, "s3RangedReader", s3RangedReader);
+        ReflectionTestUtils.setField(splitter, "rangedEnabled", true);
+    }
+
+    /**
+     * Stubs the HEAD of the source file, a later call for another file replaces it
+     * @param contentLength
+     */
+    void headSourceObject(long contentLength) {
+        doReturn(HeadObjectResponse.builder().contentLength(contentLength).eTag(SOURCE_ETAG).build())
+                .when(s3Client).headObject(any(Consumer.class));
+    }
+
+    /**
+     * Stubs the HEAD and the download of the source file
+     * @param content
+     */
+    void sourceFile(byte[] content) {
+        headSourceObject(content.length);
+        doAnswer(invocation -> {
+            ResponseTransformer<GetObjectResponse, ?> transformer = invocation.getArgument(1);
+            return transformer.transform(GetObjectResponse.builder().build(), AbortableInputStream.create(new ByteArrayInputStream(content)));
+        }).when(s3Client).getObject(any(Consumer.class), any(ResponseTransformer.class));
+    }
+
+    /**
+     * Turns streaming on and stubs the HEAD of the source file and its GET, from the offset of a resumed split
+     * @param content
+     */
+    void streamedSourceFile(byte[] content) {
+        ReflectionTestUtils.setField(splitter, "streamingEnabled", true);
+        headSourceObject(content.length);
+        doAnswer(invocation -> new ResponseInputStream<>(GetObjectResponse.builder().build(),
+                AbortableInputStream.create(new ByteArrayInputStream(rangeOf(content, invocation.getArgument(0))))))
+                .when(s3Client).getObject(any(Consumer.class));
+    }
+
+    /**
+     * Stubs the HEAD of the source file, the boundary probes and the segment GETs of a ranged split
+     * @param content
+     */
+    void rangedSourceFile(byte[] content) {
+        headSourceObject(content.length);
+        doAnswer(invocation -> ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), rangeOf(content, invocation.getArgument(0))))
+                .when(s3Client).getObjectAsBytes(any(Consumer.class));
+        doAnswer(invocation -> new ResponseInputStream<>(GetObjectResponse.builder().build(),
+                AbortableInputStream.create(new ByteArrayInputStream(rangeOf(content, invocation.getArgument(0))))))
+                .when(s3Client).getObject(any(Consumer.class));
+    }
+
+    /**
+     * Stubs the JSONL chunk uploads, which capture the lines of every chunk into uploadedLines
+     */
+    void captureChunks() {
+        doAnswer(invocation -> CompletableFuture.completedFuture(captureChunk(invocation.getArgument(1), invocation.getArgument(2),
+                invocation.getArgument(3))))
+                .when(s3TransferService).upload(eq(DESTINATION_BUCKET), anyString(), anyList(), anyLong(), eq("application/jsonl"));
+    }
+
+    /**
+     * @return the key of the chunk, once its lines are in uploadedLines
+     */
+    String captureChunk(String key, List<ByteBuffer> parts, long expectedLength) {
+        StringBuilder content = new StringBuilder();
+        long contentLength = 0;
+        for (ByteBuffer part : parts) {
+            contentLength += part.remaining();
+            content.append(StandardCharsets.UTF_8.decode(part.duplicate()));
+        }
+        assertEquals(expectedLength, contentLength);
+        uploadedLines.put(key, content.toString().lines().toList());
+        return key;
+    }
+
+    static GetObjectRequest getObjectRequest(Consumer<GetObjectRequest.Builder> request) {
+        GetObjectRequest.Builder builder = GetObjectRequest.builder();
+        request.accept(builder);
+        return builder.build();
+    }
+
+    /**
+     * @return the bytes of the content in the range of the GET, all of them without a range
+     */
+    static byte[] rangeOf(byte[] content, Consumer<GetObjectRequest.Builder> request) {
+        String range = getObjectRequest(request).range();
+        if (range == null) {
+            return content;
+        }
+        String[] bounds = range.substring("bytes=".length()).split("-", -1);
+        int end = bounds[1].isEmpty() ? content.length : Math.min(Integer.parseInt(bounds[1]) + 1, content.length);
+        return Arrays.copyOfRange(content, Integer.parseInt(bounds[0]), end);
+    }
+
+    void verifyFileArchivedAndDeleted(String inputFile) {
+        ArgumentCaptor<Consumer<CopyObjectRequest.Builder>> copyRequestCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(s3Client).copyObject(copyRequestCaptor.capture());
+        CopyObjectRequest.Builder copyBuilder = CopyObjectRequest.builder();
+        copyRequestCaptor.getValue().accept(copyBuilder);
+        CopyObjectRequest copyRequest = copyBuilder.build();
+
+        assertEquals(SOURCE_BUCKET, copyRequest.sourceBucket());
+        assertEquals(inputFile, copyRequest.sourceKey());
+        assertEquals(SOURCE_ETAG, copyRequest.copySourceIfMatch());
+        assertEquals(ARCHIVE_BUCKET, copyRequest.destinationBucket());
+        assertTrue(copyRequest.destinationKey().startsWith(inputFile + "_"));
+
+        ArgumentCaptor<Consumer<DeleteObjectRequest.Builder>> deleteRequestCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(s3Client).deleteObject(deleteRequestCaptor.capture());
+        DeleteObjectRequest.Builder deleteBuilder = DeleteObjectRequest.builder();
+        deleteRequestCaptor.getValue().accept(deleteBuilder);
+        DeleteObjectRequest deleteRequest = deleteBuilder.build();
+
+        assertEquals(SOURCE_BUCKET, deleteRequest.bucket());
+        assertEquals(inputFile, deleteRequest.key());
+    }
+
+    /**
+     * The archive copy runs alongside the split, a failed split leaves the source in place and removes the copy
+     */
+    void verifySourceKeptAndArchiveCopyRemoved(String inputFile) {
+        ArgumentCaptor<Consumer<DeleteObjectRequest.Builder>> deleteRequestCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(s3Client, timeout(1000)).deleteObject(deleteRequestCaptor.capture());
+        DeleteObjectRequest.Builder deleteBuilder = DeleteObjectRequest.builder();
+        deleteRequestCaptor.getValue().accept(deleteBuilder);
+        DeleteObjectRequest deleteRequest = deleteBuilder.build();
+
+        assertEquals(ARCHIVE_BUCKET, deleteRequest.bucket());
+        assertTrue(deleteRequest.key().startsWith(inputFile + "_"));
+    }
+}
@@ -0,0 +1,112 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the SWAR scanner and the Vector API scanner, the tests run with the incubating module, against a byte by byte
+ * scan. The buffers are longer than the widest vector, so a newline lands on every lane of a register and every byte
+ * of a word, and the scans start and stop off the word boundaries.
+ */
+class NewlineScannerTest {
+
+    private static final int LENGTH = 200;
+
+    private final List<NewlineScanner> scanners = List.of(SwarNewlineScanner.INSTANCE, NewlineScanner.best());
+
+    @Test
+    @DisplayName("Loads the Vector API scanner when the JVM runs with the incubating module")
+    void best_vectorScanner() {
+        assertEquals("VectorNewlineScanner", NewlineScanner.best().getClass().getSimpleName());
+    }
+
+    @Test
+    @DisplayName("Finds a newline at every offset of a word and every lane of a vector, from any start")
+    void scan_newlineAtEveryOffset() {
+        for (IntFunction<ByteBuffer> allocator : allocators()) {
+            for (int newline = 0; newline < LENGTH; newline++) {
+                ByteBuffer buffer = fill(allocator.apply(LENGTH), 'a');
+                buffer.put(newline, (byte) '\n');
+                for (int from = 0; from <= Math.min(newline, 9); from++) {
+                    assertScan(buffer, from, LENGTH, newline, false);
+                    assertScan(buffer, from, newline, newline, false); // stops before it
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Notes the bytes that are not ASCII before the newline only, and does not take 0x8A for a newline")
+    void scan_highBytesNextToNewline() {
+        for (IntFunction<ByteBuffer> allocator : allocators()) {
+            for (int newline = 1; newline < LENGTH - 1; newline++) {
+                ByteBuffer buffer = fill(allocator.apply(LENGTH), 'a');
+                buffer.put(newline, (byte) '\n');
+                buffer.put(newline + 1, (byte) 0xC3); // after the newline
+                assertScan(buffer, 0, LENGTH, newline, false);
+                buffer.put(newline - 1, (byte) 0x8A); // '\n' with the high bit set, right before it
+                assertScan(buffer, 0, LENGTH, newline, true);
+                buffer.put(newline, (byte) 0x8A);
+                assertScan(buffer, 0, LENGTH, LENGTH, true);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Agrees with a byte by byte scan on random bytes")
+    void scan_randomBytes() {
+        Random random = new Random(42);
+        for (IntFunction<ByteBuffer> allocator : allocators()) {
+            for (int round = 0; round < 500; round++) {
+                ByteBuffer buffer = allocator.apply(LENGTH);
+                for (int i = 0; i < LENGTH; i++) {
+                    int choice = random.nextInt(100);
+                    buffer.put(i, (byte) (choice < 2 ? '\n' : choice < 10 ? 0x80 | random.nextInt(128) : random.nextInt(128)));
+                }
+                int from = random.nextInt(LENGTH);
+                int to = from + random.nextInt(LENGTH - from + 1);
+                int newline = from;
+                boolean nonAscii = false;
+                while (newline < to && buffer.get(newline) != '\n') {
+                    nonAscii |= buffer.get(newline) < 0;
+                    newline++;
+                }
+                assertScan(buffer, from, to, newline, nonAscii);
+            }
+        }
+    }
+
+    private void assertScan(ByteBuffer buffer, int from, int to, int newline, boolean nonAscii) {
+        for (NewlineScanner scanner : scanners) {
+            long result = scanner.scan(buffer, from, to);
+            String description = scanner.getClass().getSimpleName() + " on " + buffer + " from " + from + " to " + to;
+            assertEquals(newline, (int) result, description);
+            assertEquals(nonAscii, (result & NewlineScanner.NON_ASCII) != 0, description);
+        }
+    }
+
+    /**
+     * @return heap, direct and little endian buffers, a slice of a larger array so the array offset is not 0
+     */
+    private static List<IntFunction<ByteBuffer>> allocators() {
+        return List.of(ByteBuffer::allocate,
+                length -> ByteBuffer.allocate(length + 3).position(3).slice(),
+                ByteBuffer::allocateDirect,
+                length -> ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    private static ByteBuffer fill(ByteBuffer buffer, char c) {
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) c);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,89 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Utf8ValidatorTest {
+
+    @Test
+    @DisplayName("Accepts the first and last code point of every sequence length")
+    void isValid_sequenceLengths() {
+        for (int codePoint : new int[]{0x00, 0x7F, 0x80, 0x7FF, 0x800, 0xD7FF, 0xE000, 0xFFFF, 0x10000, 0x10FFFF}) {
+            byte[] bytes = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+            assertTrue(isValid(bytes), Integer.toHexString(codePoint));
+        }
+        assertTrue(isValid("Très bien, 很好 😀".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    @DisplayName("Rejects overlong encodings, surrogates and code points above U+10FFFF")
+    void isValid_overlongAndSurrogates() {
+        for (String sequence : new String[]{
+                "c080", "c1bf", // overlong 2 byte
+                "e08080", "e09fbf", // overlong 3 byte
+                "f0808080", "f08fbfbf", // overlong 4 byte
+                "eda080", "edbfbf", "eda080edb080", // surrogates, alone and as a CESU-8 pair
+                "f4908080", "f5808080", "ff"}) { // above U+10FFFF
+            assertFalse(isValid(HexFormat.of().parseHex(sequence)), sequence);
+        }
+    }
+
+    @Test
+    @DisplayName("Rejects stray and missing continuation bytes")
+    void isValid_continuations() {
+        for (String sequence : new String[]{"80", "bf", "41c3", "e282", "f09f98", "c341", "e2ac41", "f09f9841", "c3a9bf"}) {
+            assertFalse(isValid(HexFormat.of().parseHex(sequence)), sequence);
+        }
+    }
+
+    @Test
+    @DisplayName("Rejects a sequence cut by the end of the range and accepts it whole, wherever the range starts")
+    void isValid_sequenceCrossingRangeEnd() {
+        byte[] line = "ab é € 😀 cd".getBytes(StandardCharsets.UTF_8);
+        for (int offset = 0; offset < 9; offset++) {
+            ByteBuffer buffer = ByteBuffer.allocate(offset + line.length).put(offset, line);
+            for (int to = offset; to <= buffer.capacity(); to++) {
+                assertEquals(decodes(line, 0, to - offset), Utf8Validator.isValid(buffer, offset, to), "ends at " + (to - offset));
+            }
+            assertTrue(Utf8Validator.isValid(buffer, offset, buffer.capacity()));
+            assertFalse(Utf8Validator.isValid(buffer, offset + 4, buffer.capacity())); // starts on the continuation byte of é
+        }
+    }
+
+    @Test
+    @DisplayName("Agrees with the strict JDK decoder on random sequences of lead and continuation bytes")
+    void isValid_randomSequences() {
+        Random random = new Random(42);
+        byte[] bytes = new byte[6];
+        for (int round = 0; round < 200_000; round++) {
+            for (int i = 0; i < bytes.length; i++) {
+                int choice = random.nextInt(4);
+                bytes[i] = (byte) (choice == 0 ? random.nextInt(128) : choice == 1 ? 0x80 | random.nextInt(64) : 0xC0 | random.nextInt(64));
+            }
+            assertEquals(decodes(bytes, 0, bytes.length), isValid(bytes), HexFormat.of().formatHex(bytes));
+        }
+    }
+
+    private static boolean isValid(byte[] bytes) {
+        return Utf8Validator.isValid(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    private static boolean decodes(byte[] bytes, int from, int to) {
+        try {
+            StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes, from, to - from));
+            return true;
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+}
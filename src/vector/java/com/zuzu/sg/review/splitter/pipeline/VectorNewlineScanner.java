@@ -0,0 +1,46 @@
+package com.zuzu.sg.review.splitter.pipeline;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Scans a whole vector register of bytes per step with the incubating Vector API, the widest the CPU supports.
+ * Only the heap buffers of streamed sources are loaded into vectors: on Java 21 a direct or memory-mapped buffer can
+ * only be loaded through the preview MemorySegment API, so those buffers are left to the SWAR scanner.
+ * Loaded by name from NewlineScanner.best(), so the class is never linked when the module is missing. Compiled from
+ * src/vector with the module, apart from the main sources.
+ */
+final class VectorNewlineScanner implements NewlineScanner {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    @Override
+    public long scan(ByteBuffer buffer, int from, int to) {
+        if (!buffer.hasArray()) {
+            return SwarNewlineScanner.INSTANCE.scan(buffer, from, to);
+        }
+        byte[] array = buffer.array();
+        int offset = buffer.arrayOffset();
+        ByteVector seen = ByteVector.zero(SPECIES); // or of the bytes before the newline, negative lanes are not ASCII
+        int i = from;
+        for (; i + SPECIES.length() <= to; i += SPECIES.length()) {
+            ByteVector bytes = ByteVector.fromArray(SPECIES, array, offset + i);
+            VectorMask<Byte> newlines = bytes.eq((byte) '\n');
+            if (newlines.anyTrue()) {
+                int index = newlines.firstTrue();
+                seen = seen.lanewise(VectorOperators.OR, bytes, SPECIES.indexInRange(0, index));
+                return (i + index) | nonAscii(seen);
+            }
+            seen = seen.or(bytes);
+        }
+        return SwarNewlineScanner.INSTANCE.scan(buffer, i, to) | nonAscii(seen);
+    }
+
+    private static long nonAscii(ByteVector seen) {
+        return seen.compare(VectorOperators.LT, (byte) 0).anyTrue() ? NON_ASCII : 0;
+    }
+}